@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.net.URI;
+
+/**
+ * Creates the {@link WildflyHttpContext} used by a benchmark, so that each benchmark selects the client configuration
+ * it measures instead of depending on a {@code wildfly-config.xml} file.
+ */
+public final class BenchmarkHttpContext {
+
+    private BenchmarkHttpContext() {
+    }
+
+    /**
+     * Creates a context with a single configured target.
+     *
+     * @param uri the target URI
+     * @param http2 if HTTP/2 should be used for the target
+     * @return the context
+     */
+    public static WildflyHttpContext create(URI uri, boolean http2) {
+        WildflyHttpContext.Builder builder = new WildflyHttpContext.Builder();
+        builder.setEnableHttp2(http2);
+        builder.addConfig(uri).setEnableHttp2(http2);
+        return builder.build();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.ejb;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import org.jboss.ejb.client.SessionID;
+import org.jboss.ejb.server.Association;
+import org.jboss.ejb.server.CancelHandle;
+import org.jboss.ejb.server.ClusterTopologyListener;
+import org.jboss.ejb.server.InvocationRequest;
+import org.jboss.ejb.server.ListenerHandle;
+import org.jboss.ejb.server.ModuleAvailabilityListener;
+import org.jboss.ejb.server.SessionOpenRequest;
+import org.wildfly.common.annotation.NotNull;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.NetworkUtils;
+
+/**
+ * In-process server for the EJB invocation benchmarks. It is set up like the {@code EJBTestServer} used by the tests,
+ * without the security layer, and every invocation returns its first parameter.
+ */
+public final class EJBBenchmarkServer implements Closeable {
+
+    public static final String APP = "wildfly-app";
+    public static final String MODULE = "wildfly-ejb-remote-server-side";
+    public static final String BEAN = "EchoBean";
+    public static final String WILDFLY_SERVICES = "/wildfly-services";
+
+    private static final String SESSION_AFFINITY = "benchmark-session-affinity";
+    private static final CancelHandle NO_CANCEL = aggressiveCancelRequested -> { };
+
+    private final Undertow undertow;
+    private final URI uri;
+
+    private EJBBenchmarkServer(Undertow undertow, URI uri) {
+        this.undertow = undertow;
+        this.uri = uri;
+    }
+
+    /**
+     * Starts a server on the address given by the {@code benchmark.server.address} and {@code benchmark.server.port}
+     * system properties, {@code localhost:7790} by default.
+     *
+     * @return the started server
+     */
+    public static EJBBenchmarkServer start() {
+        final String host = System.getProperty("benchmark.server.address", "localhost");
+        final int port = Integer.getInteger("benchmark.server.port", 7790);
+        final PathHandler servicesHandler = new PathHandler();
+        servicesHandler.addPrefixPath("/common/v1/affinity", exchange -> exchange.getResponseHeaders().put(Headers.SET_COOKIE, "JSESSIONID=" + SESSION_AFFINITY));
+        servicesHandler.addPrefixPath("/ejb", new EjbHttpService(new EchoAssociation(), null, null, null).createHttpHandler());
+        final Undertow undertow = Undertow.builder()
+                .addHttpListener(port, host)
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setHandler(new BlockingHandler(new PathHandler().addPrefixPath(WILDFLY_SERVICES, servicesHandler)))
+                .build();
+        undertow.start();
+        return new EJBBenchmarkServer(undertow, URI.create("http://" + NetworkUtils.formatPossibleIpv6Address(host) + ":" + port + WILDFLY_SERVICES));
+    }
+
+    /**
+     * @return the URI the EJB client uses to invoke this server
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public void close() {
+        undertow.stop();
+    }
+
+    private static class EchoAssociation implements Association {
+
+        @Override
+        public <T> CancelHandle receiveInvocationRequest(@NotNull InvocationRequest invocationRequest) {
+            try {
+                final InvocationRequest.Resolved request = invocationRequest.getRequestContent(BenchmarkRemote.class.getClassLoader());
+                request.writeInvocationResult(request.getParameters()[0]);
+            } catch (Exception e) {
+                invocationRequest.writeException(e);
+            }
+            return NO_CANCEL;
+        }
+
+        @Override
+        public CancelHandle receiveSessionOpenRequest(@NotNull SessionOpenRequest sessionOpenRequest) {
+            sessionOpenRequest.convertToStateful(SessionID.createSessionID("SFSB_ID".getBytes(StandardCharsets.UTF_8)));
+            return NO_CANCEL;
+        }
+
+        @Override
+        public ListenerHandle registerClusterTopologyListener(@NotNull ClusterTopologyListener clusterTopologyListener) {
+            return null;
+        }
+
+        @Override
+        public ListenerHandle registerModuleAvailabilityListener(@NotNull ModuleAvailabilityListener moduleAvailabilityListener) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.ejb;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb.client.EJBClient;
+import org.jboss.ejb.client.StatelessEJBLocator;
+import org.jboss.ejb.client.URIAffinity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.httpclient.common.BenchmarkHttpContext;
+import org.wildfly.httpclient.common.WildflyHttpContext;
+
+/**
+ * Measures the round trip of EJB invocations through {@link HttpEJBReceiver} against an in-process server, for
+ * stateless, stateful and asynchronous invocations, with and without gzip compression and HTTP/2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EJBInvocationBenchmark {
+
+    @Param({"false", "true"})
+    private boolean http2;
+
+    @Param({"false", "true"})
+    private boolean compression;
+
+    @Param({"64", "16384"})
+    private int payloadSize;
+
+    private EJBBenchmarkServer server;
+    private WildflyHttpContext context;
+    private Callable<String> statelessInvocation;
+    private Callable<String> statefulInvocation;
+    private Callable<String> asyncInvocation;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = EJBBenchmarkServer.start();
+        final URI uri = server.getUri();
+        context = BenchmarkHttpContext.create(uri, http2);
+        final StatelessEJBLocator<BenchmarkRemote> locator = new StatelessEJBLocator<>(BenchmarkRemote.class, EJBBenchmarkServer.APP,
+                EJBBenchmarkServer.MODULE, EJBBenchmarkServer.BEAN, "", URIAffinity.forUri(uri));
+        final BenchmarkRemote stateless = EJBClient.createProxy(locator);
+        final BenchmarkRemote stateful = context.runCallable(() -> EJBClient.createSessionProxy(locator));
+        final String message = createMessage(payloadSize);
+        if (compression) {
+            statelessInvocation = () -> stateless.compressedEcho(message);
+            statefulInvocation = () -> stateful.compressedEcho(message);
+            asyncInvocation = () -> stateless.compressedAsyncEcho(message).get();
+        } else {
+            statelessInvocation = () -> stateless.echo(message);
+            statefulInvocation = () -> stateful.echo(message);
+            asyncInvocation = () -> stateless.asyncEcho(message).get();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        try {
+            if (context != null) {
+                context.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public String stateless() throws Exception {
+        return context.runCallable(statelessInvocation);
+    }
+
+    @Benchmark
+    public String stateful() throws Exception {
+        return context.runCallable(statefulInvocation);
+    }
+
+    @Benchmark
+    public String async() throws Exception {
+        return context.runCallable(asyncInvocation);
+    }
+
+    private static String createMessage(int size) {
+        final StringBuilder sb = new StringBuilder(size);
+        while (sb.length() < size) {
+            sb.append("Hello World ");
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+}
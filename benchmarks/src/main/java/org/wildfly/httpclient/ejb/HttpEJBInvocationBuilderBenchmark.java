@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.ejb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.undertow.client.ClientRequest;
+
+/**
+ * Measures the creation of the request of an EJB invocation, which builds and encodes the invocation path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpEJBInvocationBuilderBenchmark {
+
+    private static final String MOUNT_POINT = "/wildfly-services";
+
+    @Param({"stateless", "stateful"})
+    private String beanType;
+
+    @Param({"false", "true"})
+    private boolean cachedPaths;
+
+    private HttpEJBInvocationBuilder builder;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        builder = new HttpEJBInvocationBuilder()
+                .setInvocationType(HttpEJBInvocationBuilder.InvocationType.METHOD_INVOCATION)
+                .setMethod(BenchmarkRemote.class.getMethod("echo", String.class))
+                .setAppName(EJBBenchmarkServer.APP)
+                .setModuleName(EJBBenchmarkServer.MODULE)
+                .setDistinctName("")
+                .setView(BenchmarkRemote.class.getName())
+                .setBeanName(EJBBenchmarkServer.BEAN);
+        if (cachedPaths) {
+            builder.setPathCache(new HttpEJBInvocationBuilder.PathCache());
+        }
+        if (beanType.equals("stateful")) {
+            builder.setBeanId("U0ZTQl9JRA==");
+        }
+    }
+
+    @Benchmark
+    public ClientRequest createRequest() {
+        return builder.createRequest(MOUNT_POINT);
+    }
+}
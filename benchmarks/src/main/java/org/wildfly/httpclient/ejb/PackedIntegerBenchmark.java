@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.ejb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing and reading {@link PackedInteger} values, as used for the attachment and context data counts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackedIntegerBenchmark {
+
+    @Param({"1", "300", "70000", "2147483647"})
+    private int value;
+
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream output;
+    private byte[] packed;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = new ByteArrayOutputStream(8);
+        output = new DataOutputStream(bytes);
+        PackedInteger.writePackedInteger(output, value);
+        packed = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        bytes.reset();
+        PackedInteger.writePackedInteger(output, value);
+        return bytes.size();
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        return PackedInteger.readPackedInteger(new DataInputStream(new ByteArrayInputStream(packed)));
+    }
+}
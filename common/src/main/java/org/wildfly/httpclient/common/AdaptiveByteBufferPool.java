@@ -0,0 +1,327 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import org.xnio.XnioIoThread;
+
+/**
+ * A {@link ByteBufferPool} that adapts the number of free buffers it retains to the demand it observes, so that it does
+ * not need to be configured.
+ * <p>
+ * All the buffers of a pool have the same size, as the connections require, and this size does not change: by default
+ * it is picked from the size of the heap when the pool is created. The number of buffers the pool retains follows the
+ * peak number of buffers in use: it grows as soon as the pool runs out of free buffers, up to a maximum, and shrinks
+ * back when the peak of a sampling period is lower. Buffers freed by an IO thread are first kept in a small cache of
+ * that thread, which allocates them again without contention. Other threads, which may be short-lived or virtual, only
+ * use the shared queue, so that no buffers are left behind in threads that are gone.
+ * <p>
+ * The counters of the pool are exposed by the {@link TargetMetricsMXBean} of the targets using it.
+ */
+public final class AdaptiveByteBufferPool implements ByteBufferPool {
+
+    private static final int DEFAULT_MAX_RETAINED = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.buffer-pool.max-retained", 1024));
+    private static final int DEFAULT_THREAD_LOCAL_CACHE_SIZE = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.buffer-pool.thread-local-cache-size", 4));
+    private static final int MIN_RETAINED = 16;
+    private static final int SAMPLING_PERIOD = 1024;
+
+    private final boolean direct;
+    private final int bufferSize;
+    private final int maxRetained;
+    private final int threadLocalCacheSize;
+    private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger periodPeak = new AtomicInteger();
+    private final AtomicInteger periodAllocations = new AtomicInteger();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final ThreadLocal<ThreadCache> threadLocalCache = new ThreadLocal<>();
+    // the caches of all IO threads, so that they are drained when the pool is closed
+    private final ConcurrentLinkedQueue<ThreadCache> threadCaches = new ConcurrentLinkedQueue<>();
+    private volatile int retained = MIN_RETAINED;
+    private volatile boolean closed;
+    private volatile AdaptiveByteBufferPool arrayBackedPool;
+
+    /**
+     * Creates a pool with buffers sized from the heap.
+     */
+    public AdaptiveByteBufferPool() {
+        this(defaultDirect(), defaultBufferSize(), DEFAULT_MAX_RETAINED, DEFAULT_THREAD_LOCAL_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param direct               if the buffers are direct
+     * @param bufferSize           the size of the buffers
+     * @param maxRetained          the maximum number of free buffers retained, whatever the demand
+     * @param threadLocalCacheSize the number of free buffers cached by each IO thread
+     */
+    public AdaptiveByteBufferPool(boolean direct, int bufferSize, int maxRetained, int threadLocalCacheSize) {
+        this.direct = direct;
+        this.bufferSize = bufferSize;
+        this.maxRetained = Math.max(maxRetained, MIN_RETAINED);
+        this.threadLocalCacheSize = threadLocalCacheSize;
+    }
+
+    static boolean defaultDirect() {
+        return Runtime.getRuntime().maxMemory() >= 64 * 1024 * 1024;
+    }
+
+    static int defaultBufferSize() {
+        final long maxMemory = Runtime.getRuntime().maxMemory();
+        if (maxMemory < 64 * 1024 * 1024) {
+            return 512;
+        } else if (maxMemory < 128 * 1024 * 1024) {
+            return 1024;
+        }
+        return 16 * 1024;
+    }
+
+    @Override
+    public PooledByteBuffer allocate() {
+        if (closed) {
+            throw HttpClientMessages.MESSAGES.bufferPoolClosed();
+        }
+        allocations.increment();
+        final ThreadCache cache = getThreadCache();
+        ByteBuffer buffer = cache != null ? cache.poll() : null;
+        if (buffer == null) {
+            buffer = queue.poll();
+            if (buffer != null) {
+                queueSize.decrementAndGet();
+            } else {
+                misses.increment();
+                buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+            }
+        }
+        final int used = inUse.incrementAndGet();
+        periodPeak.accumulateAndGet(used, Math::max);
+        if (used > retained) {
+            // the pool ran out of free buffers, keep enough of them for this level of demand
+            retained = Math.min(used, maxRetained);
+        }
+        if (periodAllocations.incrementAndGet() >= SAMPLING_PERIOD) {
+            endSamplingPeriod(used);
+        }
+        return new Pooled(buffer);
+    }
+
+    private void endSamplingPeriod(int used) {
+        periodAllocations.set(0);
+        final int peak = periodPeak.getAndSet(used);
+        if (peak < retained) {
+            retained = Math.max(peak, MIN_RETAINED);
+            while (queueSize.get() > retained && queue.poll() != null) {
+                queueSize.decrementAndGet();
+            }
+        }
+    }
+
+    private void free(ByteBuffer buffer) {
+        inUse.decrementAndGet();
+        if (closed) {
+            return;
+        }
+        buffer.clear();
+        final ThreadCache cache = getThreadCache();
+        if (cache != null && cache.offer(buffer)) {
+            return;
+        }
+        if (queueSize.incrementAndGet() <= retained) {
+            queue.add(buffer);
+        } else {
+            // dropped, it is reclaimed by the garbage collector
+            queueSize.decrementAndGet();
+        }
+    }
+
+    private ThreadCache getThreadCache() {
+        if (threadLocalCacheSize <= 0 || !(Thread.currentThread() instanceof XnioIoThread)) {
+            return null;
+        }
+        ThreadCache cache = threadLocalCache.get();
+        if (cache == null) {
+            cache = new ThreadCache(threadLocalCacheSize);
+            threadLocalCache.set(cache);
+            threadCaches.add(cache);
+            if (closed) {
+                cache.clear();
+            }
+        }
+        return cache;
+    }
+
+    @Override
+    public ByteBufferPool getArrayBackedPool() {
+        if (!direct) {
+            return this;
+        }
+        AdaptiveByteBufferPool pool = arrayBackedPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = arrayBackedPool;
+                if (pool == null) {
+                    arrayBackedPool = pool = new AdaptiveByteBufferPool(false, bufferSize, maxRetained, threadLocalCacheSize);
+                }
+            }
+        }
+        return pool;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        queue.clear();
+        queueSize.set(0);
+        ThreadCache cache;
+        while ((cache = threadCaches.poll()) != null) {
+            cache.clear();
+        }
+        final AdaptiveByteBufferPool pool = arrayBackedPool;
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns the number of buffers allocated from this pool.
+     *
+     * @return the number of allocations
+     */
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    /**
+     * Returns the number of allocations that found no free buffer, and had to create a new one.
+     *
+     * @return the number of allocation misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of buffers currently allocated and not yet freed.
+     *
+     * @return the number of buffers in use
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Returns the number of free buffers the pool currently retains at most, not counting the thread caches.
+     *
+     * @return the current retention limit
+     */
+    public int getRetained() {
+        return retained;
+    }
+
+    /**
+     * The free buffers cached by an IO thread. It is only used by its thread until the pool is closed, so its lock is
+     * not contended.
+     */
+    private static final class ThreadCache {
+        private final ByteBuffer[] buffers;
+        private int size;
+        private boolean cleared;
+
+        ThreadCache(int capacity) {
+            this.buffers = new ByteBuffer[capacity];
+        }
+
+        synchronized ByteBuffer poll() {
+            if (size == 0) {
+                return null;
+            }
+            final ByteBuffer buffer = buffers[--size];
+            buffers[size] = null;
+            return buffer;
+        }
+
+        synchronized boolean offer(ByteBuffer buffer) {
+            if (cleared || size == buffers.length) {
+                return false;
+            }
+            buffers[size++] = buffer;
+            return true;
+        }
+
+        synchronized void clear() {
+            cleared = true;
+            while (size > 0) {
+                buffers[--size] = null;
+            }
+        }
+    }
+
+    private final class Pooled implements PooledByteBuffer {
+        private static final AtomicIntegerFieldUpdater<Pooled> FREED = AtomicIntegerFieldUpdater.newUpdater(Pooled.class, "freed");
+
+        private final ByteBuffer buffer;
+        private volatile int freed;
+
+        Pooled(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            if (freed != 0) {
+                throw HttpClientMessages.MESSAGES.bufferAlreadyFreed();
+            }
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            if (FREED.compareAndSet(this, 0, 1)) {
+                free(buffer);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return freed == 0;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+/**
+ * Receives the events of the connection pool, the requests and the invocations of a target, in order to measure them.
+ * <p>
+ * The methods are invoked on the request path, often from IO threads, so they must be cheap and must not block. All of
+ * them do nothing by default.
+ *
+ * @see ClientMetricsProvider
+ */
+public interface ClientMetrics {
+
+    /**
+     * Metrics that ignore all the events.
+     */
+    ClientMetrics NONE = new ClientMetrics() {
+    };
+
+    /**
+     * A connection was opened.
+     *
+     * @param connectNanos the time it took to open the connection
+     */
+    default void connectionOpened(long connectNanos) {
+    }
+
+    /**
+     * A connection could not be opened.
+     */
+    default void connectionFailed() {
+    }
+
+    /**
+     * A connection was closed.
+     */
+    default void connectionClosed() {
+    }
+
+    /**
+     * A request was given a connection.
+     *
+     * @param waitNanos the time the request waited for the connection
+     */
+    default void connectionAcquired(long waitNanos) {
+    }
+
+    /**
+     * The response of a request arrived, or the request failed.
+     *
+     * @param latencyNanos the time from sending the request to receiving the response headers
+     * @param failed       {@code true} if the request failed without a response
+     */
+    default void requestCompleted(long latencyNanos, boolean failed) {
+    }
+
+    /**
+     * A request body was sent.
+     *
+     * @param bytes the size of the body, as sent to the server
+     */
+    default void bytesSent(long bytes) {
+    }
+
+    /**
+     * A response body was received.
+     *
+     * @param bytes the size of the body, as sent by the server
+     */
+    default void bytesReceived(long bytes) {
+    }
+
+    /**
+     * A request was sent again with credentials, after the server asked for authentication.
+     */
+    default void authenticationRetried() {
+    }
+
+    /**
+     * An invocation completed, including the time it waited for a connection.
+     *
+     * @param latencyNanos the time from the invocation until its result was received
+     * @param failed       {@code true} if the invocation failed
+     */
+    default void invocationCompleted(long latencyNanos, boolean failed) {
+    }
+
+    /**
+     * The target is no longer in use, this is the last event received.
+     */
+    default void close() {
+    }
+}
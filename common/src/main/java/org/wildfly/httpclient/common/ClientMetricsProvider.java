@@ -0,0 +1,39 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.net.URI;
+
+/**
+ * Creates the {@link ClientMetrics} of each target. The first provider registered as
+ * {@code META-INF/services/org.wildfly.httpclient.common.ClientMetricsProvider} is used. Without any provider, the
+ * targets are measured by {@link TargetMetrics}, exposed through JMX, if the
+ * {@code org.wildfly.httpclient.metrics} system property is {@code true}, and not measured otherwise.
+ */
+public interface ClientMetricsProvider {
+
+    /**
+     * Creates the metrics of a target.
+     *
+     * @param uri  the URI of the target
+     * @param pool the connection pool of the target, which can be queried for gauges
+     * @return the metrics of the target
+     */
+    ClientMetrics createMetrics(URI uri, HttpConnectionPool pool);
+}
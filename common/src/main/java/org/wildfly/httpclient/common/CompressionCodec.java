@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A content coding that compresses the body of requests and responses, identified by its name in the
+ * {@code Content-Encoding} and {@code Accept-Encoding} headers.
+ * <p>
+ * The {@code gzip}, {@code deflate} and {@code x-wf-lz} codings are built in. Further codecs are discovered with
+ * {@link java.util.ServiceLoader}, see {@link CompressionCodecs}.
+ */
+public interface CompressionCodec {
+
+    /**
+     * The compression level used when none is requested.
+     */
+    int DEFAULT_LEVEL = -1;
+
+    /**
+     * Returns the name of the content coding.
+     *
+     * @return the lower case name of the content coding
+     */
+    String getName();
+
+    /**
+     * Wraps a stream to compress the data written to it. Closing the returned stream finishes the compressed data and
+     * closes {@code output}.
+     *
+     * @param output the stream the compressed data is written to
+     * @param level  the compression level, from 0 to 9, or {@link #DEFAULT_LEVEL}; codecs with a different range of
+     *               levels map it to their own
+     * @return the compressing stream
+     * @throws IOException if the stream cannot be created
+     */
+    OutputStream compress(OutputStream output, int level) throws IOException;
+
+    /**
+     * Wraps a stream to decompress the data read from it.
+     *
+     * @param input the stream of compressed data
+     * @return the decompressing stream
+     * @throws IOException if the stream cannot be created
+     */
+    InputStream decompress(InputStream input) throws IOException;
+}
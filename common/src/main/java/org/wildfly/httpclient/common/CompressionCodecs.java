@@ -0,0 +1,240 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The registry of the {@link CompressionCodec compression codecs}.
+ * <p>
+ * The built in {@code gzip}, {@code deflate} and {@code x-wf-lz} codecs can be complemented, or replaced, by codecs
+ * registered as {@code META-INF/services/org.wildfly.httpclient.common.CompressionCodec}. The client compresses
+ * requests with the codec named by the {@code org.wildfly.httpclient.compression-codec} system property, {@code gzip}
+ * by default, which must be supported by the server, and accepts responses compressed with that codec or with
+ * {@code gzip}. The {@code x-wf-lz} codec compresses less, but much faster, than the other ones.
+ */
+public final class CompressionCodecs {
+
+    private static final String GZIP = "gzip";
+    private static final String IDENTITY = "identity";
+    private static final Map<String, CompressionCodec> CODECS = new ConcurrentHashMap<>();
+    private static final CompressionCodec PREFERRED;
+    private static final String ACCEPT_ENCODING;
+
+    static {
+        register(new GzipCodec());
+        register(new DeflateCodec());
+        register(new LzCompressionCodec());
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            final Iterator<CompressionCodec> iterator = ServiceLoader.load(CompressionCodec.class, CompressionCodecs.class.getClassLoader()).iterator();
+            while (true) {
+                try {
+                    if (!iterator.hasNext()) {
+                        break;
+                    }
+                    register(iterator.next());
+                } catch (ServiceConfigurationError e) {
+                    HttpClientMessages.MESSAGES.debugf(e, "Failed to load compression codec");
+                }
+            }
+            return null;
+        });
+        final String preferred = AccessController.doPrivileged((PrivilegedAction<String>) () -> System.getProperty("org.wildfly.httpclient.compression-codec", GZIP));
+        final CompressionCodec codec = getCodec(preferred);
+        PREFERRED = codec != null ? codec : CODECS.get(GZIP);
+        ACCEPT_ENCODING = PREFERRED.getName().equals(GZIP) ? GZIP : PREFERRED.getName() + ", " + GZIP;
+    }
+
+    private CompressionCodecs() {
+    }
+
+    private static void register(CompressionCodec codec) {
+        CODECS.put(codec.getName().toLowerCase(Locale.ENGLISH), codec);
+    }
+
+    /**
+     * Returns the codec of a content coding.
+     *
+     * @param name the name of the content coding, in any case
+     * @return the codec, or {@code null} if the coding is not supported
+     */
+    public static CompressionCodec getCodec(String name) {
+        return name == null ? null : CODECS.get(name.trim().toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the codec the client compresses requests with.
+     *
+     * @return the preferred codec
+     */
+    public static CompressionCodec getPreferredCodec() {
+        return PREFERRED;
+    }
+
+    /**
+     * Returns the value of the {@code Accept-Encoding} header of requests that accept a compressed response.
+     *
+     * @return the accepted content codings
+     */
+    public static String getAcceptEncoding() {
+        return ACCEPT_ENCODING;
+    }
+
+    /**
+     * Indicates if the body of a request with a {@code Content-Encoding} can be decoded.
+     *
+     * @param contentEncoding the value of the {@code Content-Encoding} header, or {@code null}
+     * @return {@code true} if the body is not encoded, or if its coding is supported
+     */
+    public static boolean isSupported(String contentEncoding) {
+        return contentEncoding == null || IDENTITY.equalsIgnoreCase(contentEncoding.trim()) || getCodec(contentEncoding) != null;
+    }
+
+    /**
+     * Wraps a stream to decode it according to its {@code Content-Encoding}.
+     *
+     * @param input           the encoded stream
+     * @param contentEncoding the value of the {@code Content-Encoding} header, or {@code null}
+     * @return the decoded stream
+     * @throws IOException if the coding is not supported
+     */
+    public static InputStream decode(InputStream input, String contentEncoding) throws IOException {
+        if (contentEncoding == null || IDENTITY.equalsIgnoreCase(contentEncoding.trim())) {
+            return input;
+        }
+        final CompressionCodec codec = getCodec(contentEncoding);
+        if (codec == null) {
+            throw HttpClientMessages.MESSAGES.invalidContentEncoding(contentEncoding);
+        }
+        return codec.decompress(input);
+    }
+
+    /**
+     * Selects the codec of a response, the supported coding with the highest quality in the {@code Accept-Encoding}
+     * header of the request, the first one listed if several have the same quality.
+     *
+     * @param acceptEncoding the value of the {@code Accept-Encoding} header, or {@code null}
+     * @return the codec, or {@code null} if the response must not be compressed
+     */
+    public static CompressionCodec negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        CompressionCodec selected = null;
+        float selectedQuality = 0;
+        for (String coding : acceptEncoding.split(",")) {
+            final int separator = coding.indexOf(';');
+            final CompressionCodec codec = getCodec(separator < 0 ? coding : coding.substring(0, separator));
+            if (codec == null) {
+                continue;
+            }
+            final float quality = separator < 0 ? 1 : parseQuality(coding.substring(separator + 1));
+            if (quality > selectedQuality) {
+                selected = codec;
+                selectedQuality = quality;
+            }
+        }
+        return selected;
+    }
+
+    private static float parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            final String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(trimmed.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static int deflaterLevel(int level) {
+        return level < 0 || level > 9 ? Deflater.DEFAULT_COMPRESSION : level;
+    }
+
+    private static final class GzipCodec implements CompressionCodec {
+
+        @Override
+        public String getName() {
+            return GZIP;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream output, int level) throws IOException {
+            return new GZIPOutputStream(output) {
+                {
+                    def.setLevel(deflaterLevel(level));
+                }
+            };
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) throws IOException {
+            return new GZIPInputStream(input);
+        }
+    }
+
+    private static final class DeflateCodec implements CompressionCodec {
+
+        @Override
+        public String getName() {
+            return "deflate";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream output, int level) {
+            final Deflater deflater = new Deflater(deflaterLevel(level));
+            return new DeflaterOutputStream(output, deflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            // the default inflater is released when the stream is closed
+            return new InflaterInputStream(input);
+        }
+    }
+}
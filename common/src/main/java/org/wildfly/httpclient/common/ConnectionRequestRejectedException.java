@@ -0,0 +1,47 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a {@link HttpConnectionPool} does not hand a connection to a request, either because too many
+ * requests are already waiting for a connection or because the request waited longer than allowed.
+ * <p>
+ * The request was never sent, so callers can safely retry it later or shed load.
+ */
+public class ConnectionRequestRejectedException extends IOException {
+
+    private static final long serialVersionUID = -3519528318839421823L;
+
+    public ConnectionRequestRejectedException() {
+    }
+
+    public ConnectionRequestRejectedException(String message) {
+        super(message);
+    }
+
+    public ConnectionRequestRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ConnectionRequestRejectedException(Throwable cause) {
+        super(cause);
+    }
+}
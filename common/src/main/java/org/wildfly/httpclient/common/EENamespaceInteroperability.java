@@ -149,6 +149,27 @@ final class EENamespaceInteroperability {
             return protocolVersion == -1? 1 : protocolVersion;
         }
 
+        @Override
+        void prepareRequest(ClientRequest request) {
+            switch (protocolVersion) {
+                case -1:
+                    // new connection pool: send the protocol version header once with LATEST_VERSION value to see what will be the response
+                    request.getRequestHeaders().put(PROTOCOL_VERSION, LATEST_VERSION);
+                    request.putAttachment(HTTP_MARSHALLER_FACTORY_KEY, INTEROPERABLE_MARSHALLER_FACTORY);
+                    break;
+                case Protocol.JAVAEE_PROTOCOL_VERSION:
+                    // connection is Javax EE, so we need to transform class names Javax<->Jakarta
+                    request.putAttachment(HTTP_MARSHALLER_FACTORY_KEY, INTEROPERABLE_MARSHALLER_FACTORY);
+                    break;
+                case org.wildfly.httpclient.common.Protocol.JAKARTAEE_PROTOCOL_VERSION:
+                default:
+                    // connection already set as Jakarta namespace, default factory can be used for marshalling
+                    // (no transformation needed)
+                    request.getRequestHeaders().put(PROTOCOL_VERSION, LATEST_VERSION);
+                    request.putAttachment(HTTP_MARSHALLER_FACTORY_KEY, DEFAULT_FACTORY);
+            }
+        }
+
         @Override
         protected org.wildfly.httpclient.common.HttpConnectionPool.ClientConnectionHolder createClientConnectionHolder(ClientConnection connection, URI uri, SSLContext sslContext) {
             return new ClientConnectionHolder(connection, uri, sslContext);
@@ -162,22 +183,9 @@ final class EENamespaceInteroperability {
 
             @Override
             public void sendRequest(ClientRequest request, ClientCallback<ClientExchange> callback) {
-                switch (protocolVersion) {
-                    case -1:
-                        // new connection pool: send the protocol version header once with LATEST_VERSION value to see what will be the response
-                        request.getRequestHeaders().put(PROTOCOL_VERSION, LATEST_VERSION);
-                        request.putAttachment(HTTP_MARSHALLER_FACTORY_KEY, INTEROPERABLE_MARSHALLER_FACTORY);
-                        break;
-                    case Protocol.JAVAEE_PROTOCOL_VERSION:
-                        // connection is Javax EE, so we need to transform class names Javax<->Jakarta
-                        request.putAttachment(HTTP_MARSHALLER_FACTORY_KEY, INTEROPERABLE_MARSHALLER_FACTORY);
-                        break;
-                    case org.wildfly.httpclient.common.Protocol.JAKARTAEE_PROTOCOL_VERSION:
-                    default:
-                        // connection already set as Jakarta namespace, default factory can be used for marshalling
-                        // (no transformation needed)
-                        request.getRequestHeaders().put(PROTOCOL_VERSION, LATEST_VERSION);
-                        request.putAttachment(HTTP_MARSHALLER_FACTORY_KEY, DEFAULT_FACTORY);
+                if (request.getAttachment(HTTP_MARSHALLER_FACTORY_KEY) == null) {
+                    // the request may have been marshalled already with the factory it was prepared with
+                    prepareRequest(request);
                 }
                 super.sendRequest(request, new ClientCallback<ClientExchange>() {
                     @Override
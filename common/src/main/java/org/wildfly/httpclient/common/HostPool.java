@@ -22,9 +22,18 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.xnio.XnioExecutor;
+import org.xnio.XnioWorker;
 
 /**
  * A host pool is defined as one or more hosts that are are serving
@@ -44,6 +53,17 @@ import java.util.concurrent.atomic.AtomicLong;
  * This host pool will attempt to simply use a single address, if it is notified of failure on that address it will
  * instead select a different URI. If there are multiple addresses per URI then the next time the URI is selected
  * it will attempt to use a new address.
+ * <p>
+ * If the host pool is load balanced, each address is selected instead by picking two addresses at random and
+ * using the one with the lowest load, where the load of an address is its number of outstanding requests weighted
+ * by its average response time.
+ * <p>
+ * The host name is resolved the first time an address is needed, unless {@link #startPeriodicResolution periodic
+ * resolution} is enabled, in which case it is resolved in the background and refreshed at a fixed interval.
+ * <p>
+ * If the {@link #configureCircuitBreaker circuit breaker} is enabled, an address that fails too often is ejected
+ * from the rotation for some time. Once that time elapses the address is probed, and it only goes back into the
+ * rotation if the probe succeeds.
  *
  *
  * @author Stuart Douglas
@@ -51,44 +71,317 @@ import java.util.concurrent.atomic.AtomicLong;
 public class HostPool {
 
     private final URI uri;
-    private volatile InetAddress[] addresses;
+    private final boolean loadBalanced;
+    private volatile HostAddress[] addresses;
     private volatile int currentAddress;
     private final AtomicLong failureCount = new AtomicLong();
+    private volatile XnioWorker resolutionWorker;
+    private volatile long resolutionInterval;
+    private volatile XnioExecutor.Key resolutionKey;
+    private volatile Consumer<Set<InetAddress>> removedAddressesListener;
+    // circuit breaker configuration, the circuit breaker is disabled if both thresholds are zero
+    private volatile int failureThreshold;
+    private volatile int errorRateThreshold;
+    private volatile long ejectionTime;
+    private volatile Consumer<HostAddress> ejectionListener;
 
     public HostPool(URI uri) {
+        this(uri, false);
+    }
+
+    public HostPool(URI uri, boolean loadBalanced) {
         this.uri = uri;
+        this.loadBalanced = loadBalanced;
     }
 
     public AddressResult getAddress() {
         return new AddressResult(failureCount.get());
     }
 
-    private InetAddress getAddressImpl() throws UnknownHostException {
+    /**
+     * Indicates if requests are load balanced across all the addresses of this host pool.
+     *
+     * @return {@code true} if this host pool is load balanced, {@code false} if it sticks to a single
+     * address until it fails
+     */
+    public boolean isLoadBalanced() {
+        return loadBalanced;
+    }
+
+    private HostAddress getAddressImpl() throws UnknownHostException {
         while (true) {
-            InetAddress[] addresses = this.addresses;
+            HostAddress[] addresses = this.addresses;
             int currentAddress = this.currentAddress;
             if (addresses == null) {
                 synchronized (this) {
                     if ((addresses = this.addresses) == null) {
-                        addresses = InetAddress.getAllByName(uri.getHost());
-                        InetAddress primary = InetAddress.getByName(uri.getHost());
-                        List<InetAddress> filtered = new ArrayList<>();
-                        //TODO: how to we handle addresses of different classes?
-                        //at the moment we only take addresses of the same type that is returned from getByName
-                        for(InetAddress a : addresses) {
-                            if(primary.getClass().isAssignableFrom(a.getClass())) {
-                                filtered.add(a);
-                            }
-                        }
-                        addresses = this.addresses = filtered.toArray(new InetAddress[filtered.size()]);
+                        addresses = this.addresses = toHostAddresses(resolveHostName(), null);
+                        this.currentAddress = selectInitialAddress(addresses);
                     }
-                    this.currentAddress = currentAddress = new Random().nextInt(this.addresses.length);
+                    currentAddress = this.currentAddress;
                 }
             }
+            if (loadBalanced) {
+                return selectLeastLoaded(addresses);
+            }
             if (currentAddress >= addresses.length) {
                 continue; //minor chance of a race, as the address list and current address are not invoked atomically just re-invoke
             }
-            return addresses[currentAddress];
+            final HostAddress address = addresses[currentAddress];
+            if (address.isAvailable()) {
+                return address;
+            }
+            // the current address is ejected, stick to the next one that is not
+            final int next = selectAvailable(addresses, currentAddress + 1);
+            this.currentAddress = next;
+            return addresses[next];
+        }
+    }
+
+    /**
+     * Returns the index of the first address that is not ejected, starting at {@code start} and wrapping around. If
+     * all of them are ejected, returns the one that was ejected first, as it is the most likely to be back.
+     */
+    private static int selectAvailable(HostAddress[] addresses, int start) {
+        int oldest = -1;
+        for (int i = 0; i < addresses.length; i++) {
+            final int index = (start + i) % addresses.length;
+            final HostAddress address = addresses[index];
+            if (address.isAvailable()) {
+                return index;
+            }
+            if (oldest == -1 || address.getEjectedUntil() < addresses[oldest].getEjectedUntil()) {
+                oldest = index;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Creates the host addresses of the resolved addresses, sorted so that the ones of the address family preferred
+     * by the JVM (the family of the first address returned by the name service) come first.
+     *
+     * @param current the addresses currently in use, which are kept, with their statistics and circuit breaker
+     *                state, if they are resolved again
+     */
+    private static HostAddress[] toHostAddresses(InetAddress[] resolved, HostAddress[] current) {
+        final Class<?> preferredFamily = resolved[0].getClass();
+        final List<HostAddress> result = new ArrayList<>(resolved.length);
+        for (InetAddress address : resolved) {
+            if (address.getClass() == preferredFamily) {
+                result.add(getOrCreateHostAddress(current, address));
+            }
+        }
+        for (InetAddress address : resolved) {
+            if (address.getClass() != preferredFamily) {
+                result.add(getOrCreateHostAddress(current, address));
+            }
+        }
+        return result.toArray(new HostAddress[result.size()]);
+    }
+
+    InetAddress[] resolveHostName() throws UnknownHostException {
+        return InetAddress.getAllByName(uri.getHost());
+    }
+
+    private static HostAddress getOrCreateHostAddress(HostAddress[] current, InetAddress address) {
+        if (current != null) {
+            for (HostAddress hostAddress : current) {
+                if (hostAddress.getAddress().equals(address)) {
+                    return hostAddress;
+                }
+            }
+        }
+        return new HostAddress(address);
+    }
+
+    /**
+     * Picks a random address of the preferred family, the other ones are only used once those fail.
+     */
+    private static int selectInitialAddress(HostAddress[] addresses) {
+        final Class<?> preferredFamily = addresses[0].getAddress().getClass();
+        int preferred = 1;
+        while (preferred < addresses.length && addresses[preferred].getAddress().getClass() == preferredFamily) {
+            preferred++;
+        }
+        return new Random().nextInt(preferred);
+    }
+
+    /**
+     * Starts resolving the host name in the background, and keeps resolving it again at the specified interval.
+     * Whenever an address is no longer resolved, {@code removedAddressesListener} is notified so that the
+     * connections to it can be closed.
+     *
+     * @param worker                   the worker that runs the name resolution
+     * @param interval                 the resolution interval in milliseconds
+     * @param removedAddressesListener the listener notified of the addresses that are no longer resolved
+     */
+    void startPeriodicResolution(XnioWorker worker, long interval, Consumer<Set<InetAddress>> removedAddressesListener) {
+        this.resolutionWorker = worker;
+        this.resolutionInterval = interval;
+        this.removedAddressesListener = removedAddressesListener;
+        worker.execute(this::refreshAddresses);
+    }
+
+    /**
+     * Stops the periodic resolution, if it was started.
+     */
+    void stopPeriodicResolution() {
+        resolutionWorker = null;
+        final XnioExecutor.Key key = resolutionKey;
+        if (key != null) {
+            key.remove();
+        }
+    }
+
+    private void refreshAddresses() {
+        final XnioWorker worker = resolutionWorker;
+        if (worker == null) {
+            return;
+        }
+        try {
+            final Set<InetAddress> removed = updateAddresses();
+            final Consumer<Set<InetAddress>> listener = removedAddressesListener;
+            if (!removed.isEmpty() && listener != null) {
+                HttpClientMessages.MESSAGES.debugf("Addresses %s of %s are no longer resolved", removed, uri);
+                listener.accept(removed);
+            }
+        } catch (UnknownHostException e) {
+            // keep the addresses we have, the name service may be temporarily unavailable
+            HttpClientMessages.MESSAGES.debugf(e, "Failed to resolve %s", uri.getHost());
+        } finally {
+            if (resolutionWorker != null) {
+                resolutionKey = worker.getIoThread().executeAfter(() -> worker.execute(this::refreshAddresses), resolutionInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Resolves the host name again and replaces the addresses of this host pool with the resolved ones. The addresses
+     * that are still resolved keep their statistics and circuit breaker state.
+     *
+     * @return the addresses that are no longer resolved
+     */
+    Set<InetAddress> updateAddresses() throws UnknownHostException {
+        final InetAddress[] resolved = resolveHostName();
+        final Set<InetAddress> removed = new HashSet<>();
+        // merged under the lock, so that a concurrent update is not lost
+        synchronized (this) {
+            final HostAddress[] addresses = this.addresses;
+            final HostAddress[] newAddresses = toHostAddresses(resolved, addresses);
+            if (addresses != null) {
+                for (HostAddress oldAddress : addresses) {
+                    removed.add(oldAddress.getAddress());
+                }
+                for (HostAddress newAddress : newAddresses) {
+                    removed.remove(newAddress.getAddress());
+                }
+            }
+            // keep using the same address if it is still there
+            int current = -1;
+            if (addresses != null && currentAddress < addresses.length) {
+                for (int i = 0; i < newAddresses.length; i++) {
+                    if (newAddresses[i] == addresses[currentAddress]) {
+                        current = i;
+                        break;
+                    }
+                }
+            }
+            this.currentAddress = current == -1 ? selectInitialAddress(newAddresses) : current;
+            this.addresses = newAddresses;
+        }
+        return removed;
+    }
+
+    /**
+     * Power of two choices: picks two distinct addresses at random and returns the least loaded of them.
+     */
+    private static HostAddress selectLeastLoaded(HostAddress[] addresses) {
+        if (addresses.length == 1) {
+            return addresses[0];
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(addresses.length);
+        int second = random.nextInt(addresses.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        final HostAddress a = addresses[first];
+        final HostAddress b = addresses[second];
+        if (!a.isAvailable()) {
+            return b.isAvailable() ? b : addresses[selectAvailable(addresses, second)];
+        } else if (!b.isAvailable()) {
+            return a;
+        }
+        return a.getLoad() <= b.getLoad() ? a : b;
+    }
+
+    /**
+     * Enables the circuit breaker of the addresses of this host pool. An address is ejected once it fails
+     * {@code failureThreshold} times in a row, or once {@code errorRateThreshold} percent of the requests of a
+     * window of {@value HostAddress#ERROR_RATE_WINDOW} requests fail. After {@code ejectionTime} milliseconds the
+     * {@code ejectionListener} is expected to probe the address, and to report the result with
+     * {@link #probeSucceeded} or {@link #probeFailed}.
+     *
+     * @param failureThreshold   the number of consecutive failures that eject an address, zero to disable
+     * @param errorRateThreshold the percentage of failed requests that ejects an address, zero to disable
+     * @param ejectionTime       the time in milliseconds an address is ejected before it is probed
+     * @param ejectionListener   the listener notified whenever an address is ejected
+     */
+    void configureCircuitBreaker(int failureThreshold, int errorRateThreshold, long ejectionTime, Consumer<HostAddress> ejectionListener) {
+        this.failureThreshold = failureThreshold;
+        this.errorRateThreshold = errorRateThreshold;
+        this.ejectionTime = ejectionTime;
+        this.ejectionListener = ejectionListener;
+    }
+
+    private boolean isCircuitBreakerEnabled() {
+        return failureThreshold > 0 || errorRateThreshold > 0;
+    }
+
+    /**
+     * Records a successful connection or request to the specified address.
+     */
+    void recordSuccess(HostAddress address) {
+        if (isCircuitBreakerEnabled() && address.recordSuccess(errorRateThreshold)) {
+            eject(address);
+        }
+    }
+
+    /**
+     * Records a failed connection or request to the specified address, ejecting it if it fails too often.
+     */
+    void recordFailure(HostAddress address) {
+        if (isCircuitBreakerEnabled() && address.recordFailure(failureThreshold, errorRateThreshold)) {
+            eject(address);
+        }
+    }
+
+    /**
+     * Puts an ejected address back into the rotation.
+     */
+    void probeSucceeded(HostAddress address) {
+        if (address.closeBreaker()) {
+            HttpClientMessages.MESSAGES.debugf("Address %s of %s is back after a successful probe", address.getAddress(), uri);
+        }
+    }
+
+    /**
+     * Keeps an address ejected for another period after a failed probe.
+     */
+    void probeFailed(HostAddress address) {
+        if (address.reopenBreaker()) {
+            eject(address);
+        }
+    }
+
+    private void eject(HostAddress address) {
+        final long ejectionTime = this.ejectionTime;
+        address.setEjectedUntil(System.currentTimeMillis() + ejectionTime);
+        HttpClientMessages.MESSAGES.debugf("Ejecting address %s of %s for %d ms", address.getAddress(), uri, ejectionTime);
+        final Consumer<HostAddress> listener = ejectionListener;
+        if (listener != null) {
+            listener.accept(address);
         }
     }
 
@@ -100,7 +393,7 @@ public class HostPool {
         synchronized (this) {
             int current = currentAddress;
             current++;
-            if (current == addresses.length) {
+            if (current >= addresses.length) {
                 current = 0;
             }
             this.currentAddress = current;
@@ -109,13 +402,21 @@ public class HostPool {
     public class AddressResult {
 
         private final long failCount;
+        private HostAddress hostAddress;
 
         public AddressResult(long failCount) {
             this.failCount = failCount;
         }
 
         public InetAddress getAddress() throws UnknownHostException {
-            return getAddressImpl();
+            return getHostAddress().getAddress();
+        }
+
+        HostAddress getHostAddress() throws UnknownHostException {
+            if (hostAddress == null) {
+                hostAddress = getAddressImpl();
+            }
+            return hostAddress;
         }
 
         public URI getURI() {
@@ -124,7 +425,152 @@ public class HostPool {
 
         public void failed() {
             markError();
+            if (hostAddress != null) {
+                recordFailure(hostAddress);
+            }
+        }
+
+    }
+
+    /**
+     * One of the resolved addresses of the host pool, with the statistics used to balance the load across them and
+     * the state of its circuit breaker.
+     */
+    static final class HostAddress {
+        // weight of each new sample in the response time moving average, as a shift (1/8)
+        private static final int EWMA_SHIFT = 3;
+        // number of requests over which the error rate is computed
+        static final int ERROR_RATE_WINDOW = 20;
+
+        // circuit breaker states: requests flow, the address is ejected, or the address is being probed
+        private static final int CLOSED = 0;
+        private static final int OPEN = 1;
+        private static final int HALF_OPEN = 2;
+
+        private final InetAddress address;
+        private final AtomicInteger outstandingRequests = new AtomicInteger();
+        // exponentially weighted moving average of the response time, in nanoseconds
+        private volatile long averageResponseTime;
+        private final AtomicInteger state = new AtomicInteger(CLOSED);
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        // the lower 16 bits count the requests of the current window, the upper 16 bits the failed ones
+        private final AtomicInteger window = new AtomicInteger();
+        private volatile long ejectedUntil;
+
+        HostAddress(InetAddress address) {
+            this.address = address;
+        }
+
+        InetAddress getAddress() {
+            return address;
+        }
+
+        int getOutstandingRequests() {
+            return outstandingRequests.get();
+        }
+
+        long getAverageResponseTime() {
+            return averageResponseTime;
+        }
+
+        void requestStarted() {
+            outstandingRequests.incrementAndGet();
+        }
+
+        void requestCompleted(long responseTime) {
+            outstandingRequests.decrementAndGet();
+            // racy update, losing a sample now and then is fine for an average
+            final long average = averageResponseTime;
+            averageResponseTime = average == 0 ? responseTime : average + ((responseTime - average) >> EWMA_SHIFT);
+        }
+
+        long getLoad() {
+            // an address with no samples yet has no weight, so that it gets its share of requests right away
+            return (outstandingRequests.get() + 1L) * (averageResponseTime + 1L);
+        }
+
+        boolean isAvailable() {
+            return state.get() == CLOSED;
+        }
+
+        long getEjectedUntil() {
+            return ejectedUntil;
+        }
+
+        void setEjectedUntil(long ejectedUntil) {
+            this.ejectedUntil = ejectedUntil;
+        }
+
+        /**
+         * Moves an ejected address to the half open state, so that it can be probed.
+         *
+         * @return {@code true} if the address was ejected
+         */
+        boolean halfOpenBreaker() {
+            return state.compareAndSet(OPEN, HALF_OPEN);
+        }
+
+        /**
+         * @return {@code true} if the request completes a window with too many failures, which trips the
+         * circuit breaker
+         */
+        boolean recordSuccess(int errorRateThreshold) {
+            consecutiveFailures.set(0);
+            return isErrorRateExceeded(recordOutcome(0), errorRateThreshold) && trip();
         }
 
+        /**
+         * @return {@code true} if the failure trips the circuit breaker
+         */
+        boolean recordFailure(int failureThreshold, int errorRateThreshold) {
+            final int failures = consecutiveFailures.incrementAndGet();
+            final int windowState = recordOutcome(1 << 16);
+            if (failureThreshold > 0 && failures >= failureThreshold) {
+                return trip();
+            }
+            return isErrorRateExceeded(windowState, errorRateThreshold) && trip();
+        }
+
+        private static boolean isErrorRateExceeded(int windowState, int errorRateThreshold) {
+            return errorRateThreshold > 0 && windowState != -1 && (windowState >>> 16) * 100 >= errorRateThreshold * ERROR_RATE_WINDOW;
+        }
+
+        /**
+         * Counts a request in the current window.
+         *
+         * @return the state of the window once it is complete, or {@code -1} if it is not complete yet
+         */
+        private int recordOutcome(int failure) {
+            for (;;) {
+                final int oldState = window.get();
+                final int newState = oldState + 1 + failure;
+                final boolean complete = (newState & 0xFFFF) >= ERROR_RATE_WINDOW;
+                if (window.compareAndSet(oldState, complete ? 0 : newState)) {
+                    return complete ? newState : -1;
+                }
+            }
+        }
+
+        private boolean trip() {
+            if (state.compareAndSet(CLOSED, OPEN)) {
+                consecutiveFailures.set(0);
+                window.set(0);
+                return true;
+            }
+            return false;
+        }
+
+        boolean closeBreaker() {
+            if (state.compareAndSet(HALF_OPEN, CLOSED)) {
+                consecutiveFailures.set(0);
+                window.set(0);
+                return true;
+            }
+            return false;
+        }
+
+        boolean reopenBreaker() {
+            return state.compareAndSet(HALF_OPEN, OPEN);
+        }
     }
 }
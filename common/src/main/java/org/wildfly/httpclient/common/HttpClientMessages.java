@@ -19,6 +19,7 @@
 package org.wildfly.httpclient.common;
 
 import java.io.IOException;
+import java.net.URI;
 import javax.naming.AuthenticationException;
 
 import org.jboss.logging.BasicLogger;
@@ -78,4 +79,33 @@ interface HttpClientMessages extends BasicLogger {
     @Message(id = 14, value = "JavaEE to JakartaEE backward compatibility layer have been installed")
     void javaeeToJakartaeeBackwardCompatibilityLayerInstalled();
 
+    @Message(id = 15, value = "Connection request to %s rejected, %d requests are already waiting for a connection")
+    ConnectionRequestRejectedException tooManyPendingRequests(URI uri, int pendingRequests);
+
+    @Message(id = 16, value = "Connection request to %s timed out after waiting %d ms for a connection")
+    ConnectionRequestRejectedException pendingRequestTimedOut(URI uri, long timeout);
+
+    @Message(id = 17, value = "Connection pool for %s is closed")
+    IOException connectionPoolClosed(URI uri);
+
+    @Message(id = 18, value = "Response ended before its content length of %d bytes was read")
+    IOException prematureEndOfResponse(long contentLength);
+
+    @Message(id = 19, value = "Buffer pool is closed")
+    IllegalStateException bufferPoolClosed();
+
+    @Message(id = 20, value = "Buffer has already been freed")
+    IllegalStateException bufferAlreadyFreed();
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 21, value = "Slow request %s took %d us (queue %d us, unmarshal %d us, execute %d us, marshal %d us)")
+    void slowRequest(String operation, long total, long queue, long unmarshal, long execute, long marshal);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 22, value = "Virtual threads are not supported by this JVM, the http services run on platform threads")
+    void virtualThreadsNotSupported();
+
+    @Message(id = 23, value = "Invalid compressed data")
+    IOException invalidCompressedData();
+
 }
@@ -291,6 +291,10 @@ final class HttpClientXmlParser {
                             builder.setIdleTimeout(parseLongElement(reader));
                             break;
                         }
+                        case "target-idle-timeout": {
+                            builder.setTargetIdleTimeout(parseLongElement(reader));
+                            break;
+                        }
                         case "max-connections": {
                             builder.setMaxConnections(parseIntElement(reader));
                             break;
@@ -299,10 +303,46 @@ final class HttpClientXmlParser {
                             builder.setMaxStreamsPerConnection(parseIntElement(reader));
                             break;
                         }
+                        case "max-pending-requests": {
+                            builder.setMaxPendingRequests(parseIntElement(reader));
+                            break;
+                        }
+                        case "pending-request-timeout": {
+                            builder.setPendingRequestTimeout(parseLongElement(reader));
+                            break;
+                        }
+                        case "min-idle-connections": {
+                            builder.setMinIdleConnections(parseIntElement(reader));
+                            break;
+                        }
+                        case "dns-refresh-interval": {
+                            builder.setDnsRefreshInterval(parseLongElement(reader));
+                            break;
+                        }
+                        case "circuit-breaker-failure-threshold": {
+                            builder.setCircuitBreakerFailureThreshold(parseIntElement(reader));
+                            break;
+                        }
+                        case "circuit-breaker-error-rate": {
+                            builder.setCircuitBreakerErrorRate(parseIntElement(reader));
+                            break;
+                        }
+                        case "circuit-breaker-ejection-time": {
+                            builder.setCircuitBreakerEjectionTime(parseLongElement(reader));
+                            break;
+                        }
+                        case "circuit-breaker-probe-timeout": {
+                            builder.setCircuitBreakerProbeTimeout(parseLongElement(reader));
+                            break;
+                        }
                         case "eagerly-acquire-session": {
                             builder.setEagerlyAcquireSession(parseBooleanElement(reader));
                             break;
                         }
+                        case "load-balance": {
+                            builder.setLoadBalance(parseBooleanElement(reader));
+                            break;
+                        }
                         case "enable-http2": {
                             builder.setEnableHttp2(parseBooleanElement(reader));
                             break;
@@ -417,10 +457,46 @@ final class HttpClientXmlParser {
                             targetBuilder.setMaxStreamsPerConnection(parseIntElement(reader));
                             break;
                         }
+                        case "max-pending-requests": {
+                            targetBuilder.setMaxPendingRequests(parseIntElement(reader));
+                            break;
+                        }
+                        case "pending-request-timeout": {
+                            targetBuilder.setPendingRequestTimeout(parseLongElement(reader));
+                            break;
+                        }
+                        case "min-idle-connections": {
+                            targetBuilder.setMinIdleConnections(parseIntElement(reader));
+                            break;
+                        }
+                        case "dns-refresh-interval": {
+                            targetBuilder.setDnsRefreshInterval(parseLongElement(reader));
+                            break;
+                        }
+                        case "circuit-breaker-failure-threshold": {
+                            targetBuilder.setCircuitBreakerFailureThreshold(parseIntElement(reader));
+                            break;
+                        }
+                        case "circuit-breaker-error-rate": {
+                            targetBuilder.setCircuitBreakerErrorRate(parseIntElement(reader));
+                            break;
+                        }
+                        case "circuit-breaker-ejection-time": {
+                            targetBuilder.setCircuitBreakerEjectionTime(parseLongElement(reader));
+                            break;
+                        }
+                        case "circuit-breaker-probe-timeout": {
+                            targetBuilder.setCircuitBreakerProbeTimeout(parseLongElement(reader));
+                            break;
+                        }
                         case "eagerly-acquire-session": {
                             targetBuilder.setEagerlyAcquireSession(parseBooleanElement(reader));
                             break;
                         }
+                        case "load-balance": {
+                            targetBuilder.setLoadBalance(parseBooleanElement(reader));
+                            break;
+                        }
                         case "enable-http2": {
                             targetBuilder.setEnableHttp2(parseBooleanElement(reader));
                             break;
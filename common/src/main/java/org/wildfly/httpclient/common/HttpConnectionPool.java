@@ -25,6 +25,9 @@ import io.undertow.client.ClientRequest;
 import io.undertow.client.UndertowClient;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
 import org.xnio.ChannelListener;
 import org.xnio.IoUtils;
 import org.xnio.OptionMap;
@@ -39,10 +42,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A pool of HTTP connections for a given host pool.
@@ -59,11 +65,33 @@ public class HttpConnectionPool implements Closeable {
     private final OptionMap options;
     private final HostPool hostPool;
     private final long connectionIdleTimeout;
+    private final int maxPendingRequests;
+    private final long pendingRequestTimeout;
+    private final int minIdleConnections;
+    private final long ejectionTime;
+    private final long probeTimeout;
 
     private final Map<Object, ConcurrentLinkedDeque<ClientConnectionHolder>> connections = new ConcurrentHashMap<>();
+    // all open connections, including the ones that are in use
+    private final Set<ClientConnectionHolder> openConnections = ConcurrentHashMap.newKeySet();
     private final ConcurrentLinkedDeque<RequestHolder> pendingConnectionRequests = new ConcurrentLinkedDeque<>();
-    private final AtomicInteger activeInvocationCount = new AtomicInteger();
+    // number of non priority requests in pendingConnectionRequests, the deque size is not a constant time operation
+    private final AtomicInteger pendingRequestCount = new AtomicInteger();
+    // number of requests waiting for a connection, priority ones included, until they are served or time out
+    private final AtomicInteger waitingRequestCount = new AtomicInteger();
+    // number of connections that are either open or being opened, never higher than maxConnections
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    // guards runPending so that a single thread at a time matches pending requests with connections
+    private final AtomicInteger runPendingCount = new AtomicInteger();
     private final Map<SSLContext, UndertowXnioSsl> sslInstances = new ConcurrentHashMap<>();
+    // the probes of the addresses ejected by the circuit breaker that are waiting for their ejection time to elapse
+    private final Map<HostPool.HostAddress, XnioExecutor.Key> scheduledProbes = new ConcurrentHashMap<>();
+
+    // the SSL context used to open the connections that are not requested, i.e., idle connections and probes
+    private volatile SSLContext idleConnectionsSslContext;
+    private volatile boolean warmedUp;
+    private volatile boolean closed;
+    private volatile ClientMetrics metrics = ClientMetrics.NONE;
 
     private final Object NULL_SSL_CONTEXT = new Object();
     private final PoolAuthenticationContext poolAuthenticationContext = new PoolAuthenticationContext();
@@ -76,21 +104,287 @@ public class HttpConnectionPool implements Closeable {
         this.options = options;
         this.hostPool = hostPool;
         this.connectionIdleTimeout = connectionIdleTimeout;
+        this.maxPendingRequests = options.get(HttpConnectionPoolOptions.MAX_PENDING_REQUESTS, 0);
+        this.pendingRequestTimeout = options.get(HttpConnectionPoolOptions.PENDING_REQUEST_TIMEOUT, 0L);
+        this.minIdleConnections = Math.min(options.get(HttpConnectionPoolOptions.MIN_IDLE_CONNECTIONS, 0), maxConnections);
+        final long dnsRefreshInterval = options.get(HttpConnectionPoolOptions.DNS_REFRESH_INTERVAL, 0L);
+        if (dnsRefreshInterval > 0) {
+            hostPool.startPeriodicResolution(worker, dnsRefreshInterval, this::addressesRemoved);
+        }
+        this.ejectionTime = options.get(HttpConnectionPoolOptions.CIRCUIT_BREAKER_EJECTION_TIME, 30000L);
+        this.probeTimeout = options.get(HttpConnectionPoolOptions.CIRCUIT_BREAKER_PROBE_TIMEOUT, 10000L);
+        final int failureThreshold = options.get(HttpConnectionPoolOptions.CIRCUIT_BREAKER_FAILURE_THRESHOLD, 0);
+        final int errorRateThreshold = options.get(HttpConnectionPoolOptions.CIRCUIT_BREAKER_ERROR_RATE, 0);
+        if (failureThreshold > 0 || errorRateThreshold > 0) {
+            hostPool.configureCircuitBreaker(failureThreshold, errorRateThreshold, ejectionTime, this::addressEjected);
+        }
+    }
+
+    void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the number of connections of this pool that are open, or being opened.
+     *
+     * @return the number of open connections
+     */
+    public int getOpenConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Returns the number of open connections of this pool that are in use by at least one request.
+     *
+     * @return the number of busy connections
+     */
+    public int getBusyConnectionCount() {
+        int busy = 0;
+        for (ClientConnectionHolder connection : openConnections) {
+            if (!connection.isIdle()) {
+                ++busy;
+            }
+        }
+        return busy;
+    }
+
+    /**
+     * Returns the number of requests waiting for a connection.
+     *
+     * @return the number of pending requests
+     */
+    public int getPendingRequestCount() {
+        return waitingRequestCount.get();
+    }
+
+    /**
+     * Called when the circuit breaker of an address trips. The connections to that address are closed as soon as the
+     * requests using them are done, and the address is probed once its ejection time elapses.
+     */
+    private void addressEjected(HostPool.HostAddress address) {
+        for (ClientConnectionHolder connection : openConnections) {
+            if (connection.hostAddress == address) {
+                connection.closeWhenDone();
+            }
+        }
+        scheduledProbes.put(address, worker.getIoThread().executeAfter(() -> {
+            scheduledProbes.remove(address);
+            probe(address);
+        }, ejectionTime, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Sends a request to the affinity endpoint of an ejected address on a dedicated connection. Any response that is
+     * not a server error puts the address back into the rotation. A probe that takes longer than the
+     * {@link HttpConnectionPoolOptions#CIRCUIT_BREAKER_PROBE_TIMEOUT probe timeout} fails.
+     */
+    private void probe(HostPool.HostAddress address) {
+        if (closed || !address.halfOpenBreaker()) {
+            return;
+        }
+        final SSLContext sslContext = getSslContext(idleConnectionsSslContext);
+        final UndertowXnioSsl ssl = sslContext == null ? null : sslInstances.computeIfAbsent(sslContext, c -> new UndertowXnioSsl(worker.getXnio(), OptionMap.EMPTY, c));
+        final URI uri = hostPool.getUri();
+        final Probe probe = new Probe(address);
+        probe.timeoutKey = worker.getIoThread().executeAfter(() -> probe.complete(false), probeTimeout, TimeUnit.MILLISECONDS);
+        try {
+            UndertowClient.getInstance().connect(new ClientCallback<ClientConnection>() {
+                @Override
+                public void completed(ClientConnection connection) {
+                    if (!probe.setConnection(connection)) {
+                        // the probe timed out while connecting
+                        return;
+                    }
+                    final ClientRequest request = new ClientRequest();
+                    request.setMethod(Methods.GET);
+                    request.setPath(uri.getPath() + "/common/v1/affinity");
+                    request.getRequestHeaders().put(Headers.HOST, uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+                    connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+                        @Override
+                        public void completed(ClientExchange exchange) {
+                            exchange.setResponseListener(new ClientCallback<ClientExchange>() {
+                                @Override
+                                public void completed(ClientExchange result) {
+                                    probe.complete(result.getResponse().getResponseCode() < StatusCodes.INTERNAL_SERVER_ERROR);
+                                }
+
+                                @Override
+                                public void failed(IOException e) {
+                                    probe.complete(false);
+                                }
+                            });
+                        }
+
+                        @Override
+                        public void failed(IOException e) {
+                            probe.complete(false);
+                        }
+                    });
+                }
+
+                @Override
+                public void failed(IOException e) {
+                    probe.complete(false);
+                }
+            }, new URI(uri.getScheme(), uri.getUserInfo(), address.getAddress().getHostAddress(), uri.getPort(), "/", null, null), worker, ssl, byteBufferPool, options);
+        } catch (URISyntaxException e) {
+            probe.complete(false);
+        }
+    }
+
+    /**
+     * The state of a probe, which completes once, either with its response or with its timeout.
+     */
+    private final class Probe {
+        private final HostPool.HostAddress address;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private volatile ClientConnection connection;
+        volatile XnioExecutor.Key timeoutKey;
+
+        Probe(HostPool.HostAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * @return {@code false} if the probe already completed, in which case the connection is closed
+         */
+        boolean setConnection(ClientConnection connection) {
+            this.connection = connection;
+            if (completed.get()) {
+                IoUtils.safeClose(connection);
+                return false;
+            }
+            return true;
+        }
+
+        void complete(boolean succeeded) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            final XnioExecutor.Key key = timeoutKey;
+            if (key != null) {
+                key.remove();
+            }
+            IoUtils.safeClose(connection);
+            if (succeeded) {
+                hostPool.probeSucceeded(address);
+            } else {
+                hostPool.probeFailed(address);
+            }
+        }
+    }
+
+    /**
+     * Called when the host pool no longer resolves some addresses. The connections to those addresses are
+     * closed as soon as the requests using them are done, new requests go to the addresses that remain.
+     */
+    private void addressesRemoved(Set<InetAddress> removed) {
+        for (ClientConnectionHolder connection : openConnections) {
+            final HostPool.HostAddress hostAddress = connection.hostAddress;
+            if (hostAddress != null && removed.contains(hostAddress.getAddress())) {
+                connection.closeWhenDone();
+            }
+        }
+    }
+
+    /**
+     * Opens connections until this pool has the configured {@link HttpConnectionPoolOptions#MIN_IDLE_CONNECTIONS
+     * minimum number of idle connections}, so the first requests do not have to pay for the connection and TLS
+     * handshake. From then on, the pool keeps at least that number of connections open, opening new ones whenever
+     * a connection is closed.
+     *
+     * @param sslContext the SSL context used to open the connections, and to probe the addresses ejected by the
+     *                   circuit breaker, ignored if the pool target is not https
+     */
+    public void warmUp(SSLContext sslContext) {
+        this.idleConnectionsSslContext = sslContext;
+        if (minIdleConnections <= 0 || closed) {
+            return;
+        }
+        this.warmedUp = true;
+        replenishIdleConnections();
+    }
+
+    private void replenishIdleConnections() {
+        int count;
+        for (;;) {
+            do {
+                count = connectionCount.get();
+                if (count >= minIdleConnections) {
+                    return;
+                }
+            } while (!connectionCount.compareAndSet(count, count + 1));
+            openConnection(null, getSslContext(idleConnectionsSslContext), null);
+        }
     }
 
-    public void getConnection(ConnectionListener connectionListener, ErrorListener errorListener, boolean ignoreConnectionLimits, SSLContext sslContext) {
-        pendingConnectionRequests.add(new RequestHolder(connectionListener, errorListener, ignoreConnectionLimits, sslContext));
+    /**
+     * Requests a connection from this pool. If no connection is available the request waits until one is.
+     * <p>
+     * Priority requests, such as session affinity, cancellation or transaction completion requests, are
+     * placed ahead of the other requests that are waiting for a connection and are never rejected because
+     * of the {@link HttpConnectionPoolOptions#MAX_PENDING_REQUESTS pending request limit} or the
+     * {@link HttpConnectionPoolOptions#PENDING_REQUEST_TIMEOUT pending request timeout}. They are still
+     * subject to the maximum number of connections.
+     *
+     * @param connectionListener the listener notified when a connection is available
+     * @param errorListener      the listener notified if a connection cannot be provided, with a
+     *                           {@link ConnectionRequestRejectedException} if the request was rejected by the pool
+     * @param priority           {@code true} if this request should jump ahead of other pending requests
+     * @param sslContext         the SSL context of the connection
+     */
+    public void getConnection(ConnectionListener connectionListener, ErrorListener errorListener, boolean priority, SSLContext sslContext) {
+        if (closed) {
+            errorListener.error(HttpClientMessages.MESSAGES.connectionPoolClosed(hostPool.getUri()));
+            return;
+        }
+        final RequestHolder requestHolder = new RequestHolder(connectionListener, errorListener, priority, sslContext);
+        waitingRequestCount.incrementAndGet();
+        if (priority) {
+            pendingConnectionRequests.addFirst(requestHolder);
+        } else {
+            if (maxPendingRequests > 0 && pendingRequestCount.incrementAndGet() > maxPendingRequests) {
+                pendingRequestCount.decrementAndGet();
+                waitingRequestCount.decrementAndGet();
+                errorListener.error(HttpClientMessages.MESSAGES.tooManyPendingRequests(hostPool.getUri(), maxPendingRequests));
+                return;
+            }
+            if (pendingRequestTimeout > 0) {
+                requestHolder.timeoutKey = worker.getIoThread().executeAfter(requestHolder::timeout, pendingRequestTimeout, TimeUnit.MILLISECONDS);
+            }
+            pendingConnectionRequests.add(requestHolder);
+        }
         runPending();
     }
 
     public void returnConnection(ClientConnectionHolder connection) {
-        activeInvocationCount.decrementAndGet();
-        if (connection.getConnection().isOpen()) {
-            connections.get(connection.sslContext == null ? NULL_SSL_CONTEXT : connection.sslContext).add(connection);
+        if (connection.getConnection().isOpen() && !connection.hasFlags(ClientConnectionHolder.CLOSED)) {
+            enqueue(connection);
         }
         runPending();
     }
 
+    /**
+     * Adds a connection to its queue, unless it is already in it.
+     */
+    private void enqueue(ClientConnectionHolder connection) {
+        if (connection.queued.compareAndSet(false, true)) {
+            getConnectionQueue(connection.connectionKey).add(connection);
+        }
+    }
+
+    /**
+     * Removes a connection whose streams are all in use from its queue. A stream released meanwhile may have found the
+     * connection still queued and not returned it, so the connection is queued again if it has spare streams by then.
+     */
+    private void dequeue(ConcurrentLinkedDeque<ClientConnectionHolder> queue, ClientConnectionHolder connection) {
+        connection.queued.set(false);
+        queue.remove(connection);
+        if (connection.hasAvailableStreams()) {
+            enqueue(connection);
+        }
+    }
+
     protected ClientConnectionHolder createClientConnectionHolder(ClientConnection connection, URI uri, SSLContext sslContext) {
         return new ClientConnectionHolder(connection, uri, sslContext);
     }
@@ -99,89 +393,286 @@ public class HttpConnectionPool implements Closeable {
         return Protocol.LATEST;
     }
 
-    private void runPending() {
+    /**
+     * Prepares a request to be sent through this pool, before a connection is acquired, so that the request can be
+     * marshalled right away with the marshaller factory of the protocol used by this pool.
+     */
+    void prepareRequest(ClientRequest request) {
+    }
 
-        int count;
+    ByteBufferPool getBufferPool() {
+        return byteBufferPool;
+    }
+
+    /**
+     * Returns the key of the connection queue for the specified SSL context and address. If the host pool is not
+     * load balanced connections are shared by all the addresses, and {@code address} must be {@code null}.
+     */
+    private Object getConnectionKey(SSLContext sslContext, InetAddress address) {
+        final Object sslKey = sslContext == null ? NULL_SSL_CONTEXT : sslContext;
+        return address == null ? sslKey : new ConnectionKey(sslKey, address);
+    }
+
+    private ConcurrentLinkedDeque<ClientConnectionHolder> getConnectionQueue(Object connectionKey) {
+        return connections.computeIfAbsent(connectionKey, k -> new ConcurrentLinkedDeque<>());
+    }
+
+    private void runPending() {
+        // only one thread at a time hands out connections, any thread that arrives while this is
+        // happening just bumps the counter so that the current thread does another pass
+        if (runPendingCount.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
         do {
-            count = activeInvocationCount.get();
-            if (count == maxConnections) {
+            runPendingRequests();
+            missed = runPendingCount.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void runPendingRequests() {
+        for (; ; ) {
+            if (closed) {
                 return;
             }
-        } while (!activeInvocationCount.compareAndSet(count, count + 1));
-        RequestHolder next = pendingConnectionRequests.poll();
-        if (next == null) {
-            activeInvocationCount.decrementAndGet();
-            return;
-        }
-        SSLContext sslContext = null;
-        UndertowXnioSsl ssl = null;
-        if (hostPool.getUri().getScheme().equals("https")) {
-            sslContext = next.context;
-            if (sslContext != null) {
-                ssl = sslInstances.get(sslContext);
-                if (ssl == null) {
-                    sslInstances.put(sslContext, ssl = new UndertowXnioSsl(worker.getXnio(), OptionMap.EMPTY, sslContext));
+            RequestHolder next = pendingConnectionRequests.poll();
+            if (next == null) {
+                return;
+            }
+            if (next.isTimedOut()) {
+                // the timeout task already notified the error listener
+                continue;
+            }
+            final SSLContext sslContext = getSslContext(next.context);
+            HostPool.AddressResult hostPoolAddress = null;
+            final Object connectionKey;
+            if (hostPool.isLoadBalanced()) {
+                // pick the least loaded address first, and then look for a connection to it
+                hostPoolAddress = hostPool.getAddress();
+                try {
+                    connectionKey = getConnectionKey(sslContext, hostPoolAddress.getAddress());
+                } catch (UnknownHostException e) {
+                    if (next.claim()) {
+                        next.errorListener.error(e);
+                    }
+                    continue;
                 }
+            } else {
+                connectionKey = getConnectionKey(sslContext, null);
+            }
+            ClientConnectionHolder existingConnection = acquireExistingConnection(getConnectionQueue(connectionKey));
+            if (existingConnection != null) {
+                serve(next, existingConnection);
+                continue;
+            }
+            int count;
+            do {
+                count = connectionCount.get();
+                if (count >= maxConnections) {
+                    if (hostPool.isLoadBalanced() && (existingConnection = acquireAnyConnection(sslContext)) != null) {
+                        // no room for a connection to the selected address, use a spare connection to another one
+                        break;
+                    }
+                    // no spare connection and no room for a new one, wait until a stream is released
+                    pendingConnectionRequests.addFirst(next);
+                    return;
+                }
+            } while (!connectionCount.compareAndSet(count, count + 1));
+            if (existingConnection != null) {
+                serve(next, existingConnection);
+                continue;
             }
+            if (!next.claim()) {
+                connectionCount.decrementAndGet();
+                continue;
+            }
+            openConnection(next, sslContext, hostPoolAddress);
         }
-        Object key = sslContext == null ? NULL_SSL_CONTEXT : sslContext;
-        ConcurrentLinkedDeque<ClientConnectionHolder> queue = connections.get(key);
-        if (queue == null) {
-            connections.putIfAbsent(key, new ConcurrentLinkedDeque<>());
-            queue = connections.get(key);
+    }
+
+    private void serve(RequestHolder next, ClientConnectionHolder connection) {
+        if (next.claim()) {
+            next.connectionListener.done(connection.newStream());
+        } else {
+            connection.done(false);
         }
-        for (; ; ) {
-            ClientConnectionHolder existingConnection = queue.poll();
-            if (existingConnection == null) {
-                break;
+    }
+
+    /**
+     * Acquires a stream on a connection to any of the addresses of a load balanced host pool.
+     */
+    private ClientConnectionHolder acquireAnyConnection(SSLContext sslContext) {
+        final Object sslKey = sslContext == null ? NULL_SSL_CONTEXT : sslContext;
+        for (Map.Entry<Object, ConcurrentLinkedDeque<ClientConnectionHolder>> entry : connections.entrySet()) {
+            if (entry.getKey() instanceof ConnectionKey && ((ConnectionKey) entry.getKey()).sslKey == sslKey) {
+                final ClientConnectionHolder connection = acquireExistingConnection(entry.getValue());
+                if (connection != null) {
+                    return connection;
+                }
             }
-            if(!existingConnection.connection.isOpen()) {
+        }
+        return null;
+    }
+
+    private SSLContext getSslContext(SSLContext requestSslContext) {
+        return hostPool.getUri().getScheme().equals("https") ? requestSslContext : null;
+    }
+
+    /**
+     * Acquires a stream on one of the open connections of {@code queue}. The queue only contains connections that
+     * had spare streams when they were added to it, HTTP/1.1 connections are removed from the queue while
+     * they are in use and multiplexed connections are only removed once all of their streams are in use.
+     */
+    private ClientConnectionHolder acquireExistingConnection(ConcurrentLinkedDeque<ClientConnectionHolder> queue) {
+        for (ClientConnectionHolder existingConnection : queue) {
+            if (!existingConnection.connection.isOpen() || existingConnection.hasFlags(ClientConnectionHolder.CLOSED)) {
+                queue.remove(existingConnection);
                 continue;
             }
             if (existingConnection.tryAcquire()) {
-                next.connectionListener.done(existingConnection);
-                return;
+                if (!existingConnection.hasAvailableStreams()) {
+                    dequeue(queue, existingConnection);
+                }
+                return existingConnection;
             }
         }
+        return null;
+    }
 
-        HostPool.AddressResult hostPoolAddress = hostPool.getAddress();
-        InetAddress address;
+    /**
+     * Opens a new connection, the caller must have already reserved a slot for it in {@code connectionCount}.
+     *
+     * @param next       the request that will use the connection, or {@code null} if the connection is opened
+     *                   to be kept idle in the pool
+     * @param sslContext the SSL context of the connection, {@code null} for plain connections
+     * @param address    the address to connect to, or {@code null} to get one from the host pool
+     */
+    private void openConnection(RequestHolder next, SSLContext sslContext, HostPool.AddressResult address) {
+        final UndertowXnioSsl ssl = sslContext == null ? null : sslInstances.computeIfAbsent(sslContext, c -> new UndertowXnioSsl(worker.getXnio(), OptionMap.EMPTY, c));
+        final HostPool.AddressResult hostPoolAddress = address == null ? hostPool.getAddress() : address;
+        final HostPool.HostAddress hostAddress;
         try {
-            address = hostPoolAddress.getAddress();
+            hostAddress = hostPoolAddress.getHostAddress();
         } catch (UnknownHostException e) {
-            next.errorListener.error(e);
+            connectionCount.decrementAndGet();
+            connectionFailed(next, e);
             return;
         }
+        final Object connectionKey = getConnectionKey(sslContext, hostPool.isLoadBalanced() ? hostAddress.getAddress() : null);
 
         try {
 
             final SSLContext context = sslContext;
+            final long start = System.nanoTime();
             UndertowClient.getInstance().connect(new ClientCallback<ClientConnection>() {
                 @Override
                 public void completed(ClientConnection result) {
-                    result.getCloseSetter().set((ChannelListener<ClientConnection>) connections::remove);
+                    metrics.connectionOpened(System.nanoTime() - start);
                     ClientConnectionHolder clientConnectionHolder = createClientConnectionHolder(result, hostPoolAddress.getURI(), context);
+                    clientConnectionHolder.hostAddress = hostAddress;
+                    clientConnectionHolder.connectionKey = connectionKey;
+                    hostPool.recordSuccess(hostAddress);
+                    result.getCloseSetter().set((ChannelListener<ClientConnection>) c -> clientConnectionHolder.connectionClosed());
+                    openConnections.add(clientConnectionHolder);
+                    if (closed) {
+                        // the pool was closed while this connection was being opened
+                        clientConnectionHolder.closeWhenDone();
+                        if (next != null) {
+                            next.errorListener.error(HttpClientMessages.MESSAGES.connectionPoolClosed(hostPool.getUri()));
+                        }
+                        return;
+                    }
+                    if (next == null) {
+                        clientConnectionHolder.scheduleIdleTimeout();
+                        returnConnection(clientConnectionHolder);
+                        return;
+                    }
                     clientConnectionHolder.tryAcquire(); //aways suceeds
-                    next.connectionListener.done(clientConnectionHolder);
+                    if (clientConnectionHolder.hasAvailableStreams()) {
+                        // HTTP/2 was negotiated, the remaining streams can be used by the pending requests
+                        enqueue(clientConnectionHolder);
+                    }
+                    next.connectionListener.done(clientConnectionHolder.newStream());
+                    if (clientConnectionHolder.hasAvailableStreams()) {
+                        runPending();
+                    }
                 }
 
                 @Override
                 public void failed(IOException e) {
                     hostPoolAddress.failed(); //notify the host pool that this host has failed
-                    activeInvocationCount.decrementAndGet();
-                    next.errorListener.error(e);
+                    connectionCount.decrementAndGet();
+                    connectionFailed(next, e);
+                    runPending();
                 }
-            }, new URI(hostPoolAddress.getURI().getScheme(), hostPoolAddress.getURI().getUserInfo(), address.getHostAddress(), hostPoolAddress.getURI().getPort(), "/", null, null), worker, ssl, byteBufferPool, options);
+            }, new URI(hostPoolAddress.getURI().getScheme(), hostPoolAddress.getURI().getUserInfo(), hostAddress.getAddress().getHostAddress(), hostPoolAddress.getURI().getPort(), "/", null, null), worker, ssl, byteBufferPool, options);
         } catch (URISyntaxException e) {
+            connectionCount.decrementAndGet();
+            connectionFailed(next, e);
+        }
+    }
+
+    private void connectionFailed(RequestHolder next, Exception e) {
+        metrics.connectionFailed();
+        if (next == null) {
+            // idle connections are replenished again when the next connection is closed
+            HttpClientMessages.MESSAGES.debugf(e, "Failed to open idle connection to %s", hostPool.getUri());
+        } else {
             next.errorListener.error(e);
         }
+    }
 
+    /**
+     * Indicates if this pool is closed.
+     *
+     * @return {@code true} if this pool is closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
 
+    /**
+     * Indicates if this pool is idle, i.e., if there are no requests using or waiting for a connection.
+     *
+     * @return {@code true} if this pool is idle
+     */
+    boolean isIdle() {
+        if (!pendingConnectionRequests.isEmpty()) {
+            return false;
+        }
+        for (ClientConnectionHolder connection : openConnections) {
+            if (!connection.isIdle()) {
+                return false;
+            }
+        }
+        return true;
     }
 
+    /**
+     * Closes this pool and releases the resources associated with it. Requests waiting for a connection fail, and so
+     * do any requests made afterwards. Connections that are in use are closed as soon as the request using them is
+     * done. The minimum number of idle connections is no longer kept, the host name is no longer resolved
+     * periodically and the addresses ejected by the circuit breaker are no longer probed.
+     */
     @Override
     public void close() throws IOException {
-        //TODO
+        closed = true;
+        warmedUp = false;
+        RequestHolder pending;
+        while ((pending = pendingConnectionRequests.poll()) != null) {
+            if (pending.claim()) {
+                pending.errorListener.error(HttpClientMessages.MESSAGES.connectionPoolClosed(hostPool.getUri()));
+            }
+        }
+        for (XnioExecutor.Key probe : scheduledProbes.values()) {
+            probe.remove();
+        }
+        scheduledProbes.clear();
+        hostPool.stopPeriodicResolution();
+        for (ClientConnectionHolder connection : openConnections) {
+            connection.closeWhenDone();
+        }
+        sslInstances.clear();
     }
 
     public interface ConnectionListener {
@@ -206,36 +697,186 @@ public class HttpConnectionPool implements Closeable {
         PoolAuthenticationContext getAuthenticationContext();
 
         void sendRequest(ClientRequest request, ClientCallback<ClientExchange> callback);
+
+        /**
+         * Reports that the exchange failed with an I/O error, which counts against the address of the connection
+         * if the circuit breaker is enabled. It must be invoked before {@link #done(boolean)}.
+         */
+        default void exchangeFailed() {
+        }
+    }
+
+
+    private static final class ConnectionKey {
+        final Object sslKey;
+        final InetAddress address;
+
+        ConnectionKey(Object sslKey, InetAddress address) {
+            this.sslKey = sslKey;
+            this.address = address;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ConnectionKey)) {
+                return false;
+            }
+            final ConnectionKey other = (ConnectionKey) o;
+            return sslKey == other.sslKey && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(sslKey) + address.hashCode();
+        }
     }
 
+    /**
+     * The handle of a single exchange on a pooled connection. Multiplexed connections have one of these per stream,
+     * which keeps track of the outstanding requests and response times of each address of the host pool.
+     */
+    private static final class StreamHandle implements ConnectionHandle {
+        private static final AtomicIntegerFieldUpdater<StreamHandle> DONE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(StreamHandle.class, "done");
+
+        private final ClientConnectionHolder connection;
+        private final HostPool hostPool;
+        private final HostPool.HostAddress hostAddress;
+        private final long startTime;
+        @SuppressWarnings("unused")
+        private volatile int done;
+        private volatile boolean failed;
+
+        StreamHandle(ClientConnectionHolder connection, HostPool hostPool, HostPool.HostAddress hostAddress) {
+            this.connection = connection;
+            this.hostPool = hostPool;
+            this.hostAddress = hostAddress;
+            if (hostAddress != null) {
+                hostAddress.requestStarted();
+                this.startTime = System.nanoTime();
+            } else {
+                this.startTime = 0;
+            }
+        }
+
+        @Override
+        public ClientConnection getConnection() {
+            return connection.getConnection();
+        }
+
+        @Override
+        public void done(boolean close) {
+            if (!DONE_UPDATER.compareAndSet(this, 0, 1)) {
+                return;
+            }
+            if (hostAddress != null) {
+                hostAddress.requestCompleted(System.nanoTime() - startTime);
+                if (failed) {
+                    hostPool.recordFailure(hostAddress);
+                } else {
+                    hostPool.recordSuccess(hostAddress);
+                }
+            }
+            connection.done(close);
+        }
+
+        @Override
+        public void exchangeFailed() {
+            failed = true;
+        }
+
+        @Override
+        public URI getUri() {
+            return connection.getUri();
+        }
+
+        @Override
+        public PoolAuthenticationContext getAuthenticationContext() {
+            return connection.getAuthenticationContext();
+        }
+
+        @Override
+        public void sendRequest(ClientRequest request, ClientCallback<ClientExchange> callback) {
+            connection.sendRequest(request, callback);
+        }
+    }
 
-    private static class RequestHolder {
+    private class RequestHolder {
         final ConnectionListener connectionListener;
         final ErrorListener errorListener;
-        final boolean ignoreConnectionLimits;
+        final boolean priority;
         final SSLContext context;
+        // set once the request is either handed to a connection or timed out, whichever comes first
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final long created = System.nanoTime();
+        private volatile boolean timedOut;
+        volatile XnioExecutor.Key timeoutKey;
 
-        private RequestHolder(ConnectionListener connectionListener, ErrorListener errorListener, boolean ignoreConnectionLimits, SSLContext context) {
+        private RequestHolder(ConnectionListener connectionListener, ErrorListener errorListener, boolean priority, SSLContext context) {
             this.connectionListener = connectionListener;
             this.errorListener = errorListener;
-            this.ignoreConnectionLimits = ignoreConnectionLimits;
+            this.priority = priority;
             this.context = context;
         }
+
+        /**
+         * Claims this request so that it can be served by a connection.
+         *
+         * @return {@code false} if this request timed out and must not be served
+         */
+        boolean claim() {
+            if (!completed.compareAndSet(false, true)) {
+                return false;
+            }
+            metrics.connectionAcquired(System.nanoTime() - created);
+            waitingRequestCount.decrementAndGet();
+            if (!priority && maxPendingRequests > 0) {
+                pendingRequestCount.decrementAndGet();
+            }
+            final XnioExecutor.Key key = timeoutKey;
+            if (key != null) {
+                key.remove();
+            }
+            return true;
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        void timeout() {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            timedOut = true;
+            waitingRequestCount.decrementAndGet();
+            if (maxPendingRequests > 0) {
+                pendingRequestCount.decrementAndGet();
+            }
+            pendingConnectionRequests.remove(this);
+            errorListener.error(HttpClientMessages.MESSAGES.pendingRequestTimedOut(hostPool.getUri(), pendingRequestTimeout));
+        }
     }
 
     protected class ClientConnectionHolder implements ConnectionHandle {
 
-        private volatile AtomicInteger state = new AtomicInteger();
+        // the lower bit indicates this connection is closed, the remaining bits hold the number of streams in use
+        private final AtomicInteger state = new AtomicInteger();
+        private final AtomicBoolean connectionReleased = new AtomicBoolean();
+        // set while this connection is in its queue, so that it is never queued twice
+        private final AtomicBoolean queued = new AtomicBoolean();
         private final ClientConnection connection;
         private final URI uri;
         private volatile XnioExecutor.Key timeoutKey;
         private long timeout;
         private final SSLContext sslContext;
+        // set by the pool as soon as the connection is created
+        private HostPool.HostAddress hostAddress;
+        private Object connectionKey;
 
-        // keep track if the connection is in use (!IN_USE = idle)
-        private static final int IN_USE  = 1;
         // indicate this connection is closed
-        private static final int CLOSED  = 1 << 1;
+        private static final int CLOSED  = 1;
+        // the state increment for each stream in use (no streams in use = idle)
+        private static final int STREAM  = 1 << 1;
 
         private final Runnable timeoutTask = new Runnable() {
             @Override
@@ -249,10 +890,12 @@ public class HttpConnectionPool implements Closeable {
                     timeoutKey = connection.getIoThread().executeAfter(this, timeout - time, TimeUnit.MILLISECONDS);
                     return;
                 }
-                if (tryClose()) {
-                    activeInvocationCount.decrementAndGet();
-                    runPending(); //needed to avoid a very unlikely race
+                if (connectionCount.get() <= minIdleConnections) {
+                    // keep the minimum number of idle connections open
+                    timeoutKey = connection.getIoThread().executeAfter(this, connectionIdleTimeout, TimeUnit.MILLISECONDS);
+                    return;
                 }
+                tryClose();
             }
         };
 
@@ -263,7 +906,7 @@ public class HttpConnectionPool implements Closeable {
         }
 
         final boolean tryClose() {
-            if (setFlagsIfCleared(CLOSED, IN_USE)) {
+            if (state.compareAndSet(0, CLOSED)) {
                 IoUtils.safeClose(connection);
                 return true;
             }
@@ -271,7 +914,70 @@ public class HttpConnectionPool implements Closeable {
         }
 
         final boolean tryAcquire() {
-            return setFlagsIfCleared(IN_USE, CLOSED);
+            final int maxStreams = getMaxStreams();
+            int oldState;
+            do {
+                oldState = state.get();
+                if ((oldState & CLOSED) == CLOSED || (oldState >>> 1) >= maxStreams) {
+                    return false;
+                }
+            } while (! state.compareAndSet(oldState, oldState + STREAM));
+            return true;
+        }
+
+        final boolean hasAvailableStreams() {
+            final int currentState = state.get();
+            return (currentState & CLOSED) == 0 && (currentState >>> 1) < getMaxStreams();
+        }
+
+        private int getMaxStreams() {
+            return connection.isMultiplexingSupported() ? maxStreamsPerConnection : 1;
+        }
+
+        /**
+         * Invoked by the connection close listener, releases the slot held by this connection in the pool.
+         */
+        final void connectionClosed() {
+            if (connectionReleased.compareAndSet(false, true)) {
+                setFlags(CLOSED);
+                getConnectionQueue(connectionKey).remove(this);
+                openConnections.remove(this);
+                connectionCount.decrementAndGet();
+                metrics.connectionClosed();
+                if (warmedUp) {
+                    replenishIdleConnections();
+                }
+                runPending();
+            }
+        }
+
+        final ConnectionHandle newStream() {
+            return new StreamHandle(this, hostPool, hostAddress);
+        }
+
+        final boolean isIdle() {
+            return (state.get() >>> 1) == 0;
+        }
+
+        /**
+         * Prevents new streams on this connection, and closes it as soon as it has no streams in use.
+         */
+        final void closeWhenDone() {
+            setFlags(CLOSED);
+            final XnioExecutor.Key key = timeoutKey;
+            if (key != null) {
+                key.remove();
+            }
+            if (isIdle()) {
+                IoUtils.safeClose(connection);
+            }
+        }
+
+        final void scheduleIdleTimeout() {
+            timeout = System.currentTimeMillis() + connectionIdleTimeout;
+            if (timeoutKey == null && connectionIdleTimeout > 0) {
+                timeoutKey = connection.getIoThread().executeAfter(timeoutTask, connectionIdleTimeout, TimeUnit.MILLISECONDS);
+            }
         }
 
         @Override
@@ -281,19 +987,35 @@ public class HttpConnectionPool implements Closeable {
 
         @Override
         public void done(boolean close) {
-            if (!clearFlags(IN_USE)) {
+            final int maxStreams = getMaxStreams();
+            int oldState;
+            do {
+                oldState = state.get();
+                if ((oldState >>> 1) == 0) {
+                    return;
+                }
+            } while (! state.compareAndSet(oldState, oldState - STREAM));
+            if (close) {
+                // no new streams are allowed on this connection, it is closed as soon as
+                // the streams that are still in use on it are done
+                setFlags(CLOSED);
+            }
+            final int currentState = state.get();
+            if ((currentState & CLOSED) == CLOSED) {
+                if ((currentState >>> 1) == 0) {
+                    IoUtils.safeClose(connection);
+                }
                 return;
             }
-            if (close) {
-                IoUtils.safeClose(connection);
+            if ((currentState >>> 1) == 0) {
+                scheduleIdleTimeout();
             }
-            timeout = System.currentTimeMillis() + connectionIdleTimeout;
-
-
-            if (timeoutKey == null && connectionIdleTimeout > 0 && !close) {
-                timeoutKey = connection.getIoThread().executeAfter(timeoutTask, connectionIdleTimeout, TimeUnit.MILLISECONDS);
+            if ((oldState >>> 1) >= maxStreams) {
+                // the connection was out of the queue because all of its streams were in use
+                returnConnection(this);
+            } else {
+                runPending();
             }
-            returnConnection(this);
         }
 
         @Override
@@ -315,7 +1037,7 @@ public class HttpConnectionPool implements Closeable {
             int oldState;
             do {
                 oldState = state.get();
-                if ((oldState & flags) == flags || (oldState & CLOSED) == CLOSED) {
+                if ((oldState & flags) == flags) {
                     return;
                 }
             } while (! state.compareAndSet(oldState, oldState | flags));
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import org.xnio.Option;
+
+/**
+ * Options that configure the behavior of a {@link HttpConnectionPool}. They are passed to the pool in the
+ * same {@link org.xnio.OptionMap} that is used to open the pool connections.
+ */
+public final class HttpConnectionPoolOptions {
+
+    private HttpConnectionPoolOptions() {
+    }
+
+    /**
+     * The maximum number of requests that can be waiting for a connection. Once this limit is reached new
+     * requests are rejected with a {@link ConnectionRequestRejectedException}. Priority requests are never
+     * rejected. A value of zero or less means that the number of pending requests is unbounded (the default).
+     */
+    public static final Option<Integer> MAX_PENDING_REQUESTS = Option.simple(HttpConnectionPoolOptions.class, "MAX_PENDING_REQUESTS", Integer.class);
+
+    /**
+     * The maximum time in milliseconds a request can wait for a connection before it fails with a
+     * {@link ConnectionRequestRejectedException}. A value of zero or less means that requests wait
+     * indefinitely (the default).
+     */
+    public static final Option<Long> PENDING_REQUEST_TIMEOUT = Option.simple(HttpConnectionPoolOptions.class, "PENDING_REQUEST_TIMEOUT", Long.class);
+
+    /**
+     * The number of connections the pool opens as soon as it is {@link HttpConnectionPool#warmUp warmed up},
+     * and keeps open afterwards. Those connections are not closed by the idle timeout and are replaced whenever
+     * they are closed. The value is capped by the maximum number of connections. Defaults to zero.
+     */
+    public static final Option<Integer> MIN_IDLE_CONNECTIONS = Option.simple(HttpConnectionPoolOptions.class, "MIN_IDLE_CONNECTIONS", Integer.class);
+
+    /**
+     * The interval in milliseconds at which the host name of the pool is resolved again. When it is set the
+     * host name is resolved in the background, new addresses are used as soon as they are resolved and the
+     * connections to addresses that are no longer resolved are closed once their requests complete. A value
+     * of zero or less means that the host name is only resolved once (the default).
+     */
+    public static final Option<Long> DNS_REFRESH_INTERVAL = Option.simple(HttpConnectionPoolOptions.class, "DNS_REFRESH_INTERVAL", Long.class);
+
+    /**
+     * The number of consecutive connection or request failures after which an address of the pool is ejected by
+     * its circuit breaker. A value of zero or less disables this threshold (the default). The circuit breaker is
+     * enabled if either this threshold or the {@link #CIRCUIT_BREAKER_ERROR_RATE error rate} threshold is set.
+     */
+    public static final Option<Integer> CIRCUIT_BREAKER_FAILURE_THRESHOLD = Option.simple(HttpConnectionPoolOptions.class, "CIRCUIT_BREAKER_FAILURE_THRESHOLD", Integer.class);
+
+    /**
+     * The percentage of failed connections or requests, measured over windows of 20 requests, after which an
+     * address of the pool is ejected by its circuit breaker. A value of zero or less disables this threshold
+     * (the default).
+     */
+    public static final Option<Integer> CIRCUIT_BREAKER_ERROR_RATE = Option.simple(HttpConnectionPoolOptions.class, "CIRCUIT_BREAKER_ERROR_RATE", Integer.class);
+
+    /**
+     * The time in milliseconds an address stays ejected by its circuit breaker before it is probed. If the probe
+     * succeeds the address is used again, otherwise it stays ejected for another period. Defaults to 30 seconds.
+     */
+    public static final Option<Long> CIRCUIT_BREAKER_EJECTION_TIME = Option.simple(HttpConnectionPoolOptions.class, "CIRCUIT_BREAKER_EJECTION_TIME", Long.class);
+
+    /**
+     * The maximum time in milliseconds the probe of an address ejected by its circuit breaker can take. A probe that
+     * does not complete in time counts as failed, and the address stays ejected for another period. Defaults to
+     * 10 seconds.
+     */
+    public static final Option<Long> CIRCUIT_BREAKER_PROBE_TIMEOUT = Option.simple(HttpConnectionPoolOptions.class, "CIRCUIT_BREAKER_PROBE_TIMEOUT", Long.class);
+}
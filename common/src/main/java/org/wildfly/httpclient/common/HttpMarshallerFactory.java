@@ -30,9 +30,19 @@ import org.jboss.marshalling.river.RiverMarshallerFactory;
 import org.wildfly.common.annotation.NotNull;
 
 import java.io.IOException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Creates {@link Marshaller} objects for reading and writing requests and responses objects as bytes.
+ * <p>
+ * The marshalling configurations that do not reference a class loader are cached per thread, and a marshaller or
+ * unmarshaller that is {@link Marshaller#finish() finished} is reused by the next request with the same configuration.
+ * Configurations with a class loader or class resolver, such as the ones of the server side, which resolve the
+ * classes of a deployment, are created for each request, so that threads never keep a deployment alive. Pooling can
+ * be disabled with the {@code org.wildfly.httpclient.pool-marshallers} system property.
  *
  * @author Richard Opalka
  * @author Flavia Rainone
@@ -46,11 +56,16 @@ public final class HttpMarshallerFactory {
 
     // internal river marshaller factory
     private static final MarshallerFactory RIVER_MARSHALLER_FACTORY = new RiverMarshallerFactory();
+    // if marshallers and unmarshallers are reused by the threads that created them once they are finished
+    private static final boolean POOL_MARSHALLERS = AccessController.doPrivileged((PrivilegedAction<Boolean>) () ->
+            Boolean.parseBoolean(System.getProperty("org.wildfly.httpclient.pool-marshallers", "true")));
+    private static final int POOL_SIZE = 4;
     // default marshalling configuration: prevents the creation of empty configurations at every
     // request
     private final MarshallingConfiguration defaultConfiguration;
     // class name transformer to be used by this factory
     private final ClassNameTransformer classNameTransformer;
+    private final ThreadLocal<MarshallerPool> marshallerPools = ThreadLocal.withInitial(MarshallerPool::new);
 
     HttpMarshallerFactory(ClassNameTransformer classNameTransformer) {
         this.classNameTransformer = classNameTransformer;
@@ -65,7 +80,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during marshaller creation
      */
     public Marshaller createMarshaller() throws IOException {
-        return RIVER_MARSHALLER_FACTORY.createMarshaller(defaultConfiguration);
+        return createPooledMarshaller(null, null, null, null);
     }
 
     /**
@@ -76,9 +91,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during marshaller creation
      */
     public Marshaller createMarshaller(@NotNull ObjectResolver resolver) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setObjectResolver(resolver);
-        return RIVER_MARSHALLER_FACTORY.createMarshaller(marshallingConfiguration);
+        return createPooledMarshaller(resolver, null, null, null);
     }
 
     /**
@@ -89,9 +102,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during marshaller creation
      */
     public Marshaller createMarshaller(@NotNull ObjectTable table) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setObjectTable(table);
-        return RIVER_MARSHALLER_FACTORY.createMarshaller(marshallingConfiguration);
+        return createPooledMarshaller(null, table, null, null);
     }
 
     /**
@@ -103,10 +114,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during marshaller creation
      */
     public Marshaller createMarshaller(@NotNull ObjectResolver resolver, @NotNull ObjectTable table) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setObjectResolver(resolver);
-        marshallingConfiguration.setObjectTable(table);
-        return RIVER_MARSHALLER_FACTORY.createMarshaller(marshallingConfiguration);
+        return createPooledMarshaller(resolver, table, null, null);
     }
 
     /**
@@ -118,10 +126,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during marshaller creation
      */
     public Marshaller createMarshaller(@NotNull ClassResolver resolver, @NotNull ObjectTable table) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setClassResolver(resolver);
-        marshallingConfiguration.setObjectTable(table);
-        return RIVER_MARSHALLER_FACTORY.createMarshaller(marshallingConfiguration);
+        return createPooledMarshaller(null, table, resolver, null);
     }
 
     /**
@@ -131,7 +136,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during unmarshaller creation
      */
     public Unmarshaller createUnmarshaller() throws IOException {
-        return RIVER_MARSHALLER_FACTORY.createUnmarshaller(defaultConfiguration);
+        return createPooledUnmarshaller(null, null, null, null);
     }
 
     /**
@@ -142,9 +147,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during unmarshaller creation
      */
     public Unmarshaller createUnmarshaller(@NotNull ObjectResolver resolver) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setObjectResolver(resolver);
-        return RIVER_MARSHALLER_FACTORY.createUnmarshaller(marshallingConfiguration);
+        return createPooledUnmarshaller(resolver, null, null, null);
     }
 
     /**
@@ -155,9 +158,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during unmarshaller creation
      */
     public Unmarshaller createUnmarshaller(@NotNull ClassResolver resolver) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setClassResolver(resolver);
-        return RIVER_MARSHALLER_FACTORY.createUnmarshaller(marshallingConfiguration);
+        return createPooledUnmarshaller(null, null, resolver, null);
     }
 
     /**
@@ -168,9 +169,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during unmarshaller creation
      */
     public Unmarshaller createUnmarshaller(@NotNull final ClassLoader cl) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setClassResolver(new SimpleClassResolver(cl));
-        return RIVER_MARSHALLER_FACTORY.createUnmarshaller(marshallingConfiguration);
+        return createPooledUnmarshaller(null, null, null, cl);
     }
 
     /**
@@ -181,9 +180,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during unmarshaller creation
      */
     public Unmarshaller createUnmarshaller(@NotNull ObjectTable table) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setObjectTable(table);
-        return RIVER_MARSHALLER_FACTORY.createUnmarshaller(marshallingConfiguration);
+        return createPooledUnmarshaller(null, table, null, null);
     }
 
     /**
@@ -195,10 +192,7 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during unmarshaller creation
      */
     public Unmarshaller createUnmarshaller(@NotNull ObjectResolver resolver, @NotNull ObjectTable table) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setObjectResolver(resolver);
-        marshallingConfiguration.setObjectTable(table);
-        return RIVER_MARSHALLER_FACTORY.createUnmarshaller(marshallingConfiguration);
+        return createPooledUnmarshaller(resolver, table, null, null);
     }
 
     /**
@@ -210,10 +204,61 @@ public final class HttpMarshallerFactory {
      * @throws IOException if an I/O error occurs during unmarshaller creation
      */
     public Unmarshaller createUnmarshaller(@NotNull ClassResolver resolver, @NotNull ObjectTable table) throws IOException {
-        MarshallingConfiguration marshallingConfiguration = createMarshallingConfiguration();
-        marshallingConfiguration.setClassResolver(resolver);
-        marshallingConfiguration.setObjectTable(table);
-        return RIVER_MARSHALLER_FACTORY.createUnmarshaller(marshallingConfiguration);
+        return createPooledUnmarshaller(null, table, resolver, null);
+    }
+
+    private Marshaller createPooledMarshaller(ObjectResolver objectResolver, ObjectTable objectTable, ClassResolver classResolver,
+                                              ClassLoader classLoader) throws IOException {
+        if (!isPooled(classResolver, classLoader)) {
+            return RIVER_MARSHALLER_FACTORY.createMarshaller(createMarshallingConfiguration(objectResolver, objectTable, classResolver, classLoader));
+        }
+        final PoolEntry entry = marshallerPools.get().getEntry(objectResolver, objectTable);
+        final Marshaller marshaller = entry.marshaller.getAndSet(null);
+        if (marshaller == null) {
+            return new PooledMarshaller(RIVER_MARSHALLER_FACTORY.createMarshaller(entry.configuration), entry.marshaller, false);
+        }
+        return new PooledMarshaller(marshaller, entry.marshaller, true);
+    }
+
+    private Unmarshaller createPooledUnmarshaller(ObjectResolver objectResolver, ObjectTable objectTable, ClassResolver classResolver,
+                                                  ClassLoader classLoader) throws IOException {
+        if (!isPooled(classResolver, classLoader)) {
+            return RIVER_MARSHALLER_FACTORY.createUnmarshaller(createMarshallingConfiguration(objectResolver, objectTable, classResolver, classLoader));
+        }
+        final PoolEntry entry = marshallerPools.get().getEntry(objectResolver, objectTable);
+        Unmarshaller unmarshaller = entry.unmarshaller.getAndSet(null);
+        if (unmarshaller == null) {
+            unmarshaller = RIVER_MARSHALLER_FACTORY.createUnmarshaller(entry.configuration);
+        }
+        return new PooledUnmarshaller(unmarshaller, entry.unmarshaller);
+    }
+
+    /**
+     * Indicates if the marshallers of a configuration are pooled: the ones that reference a class loader are not, as
+     * the threads would keep it alive after it is no longer used, e.g. once its deployment is undeployed.
+     */
+    private static boolean isPooled(ClassResolver classResolver, ClassLoader classLoader) {
+        return POOL_MARSHALLERS && classResolver == null && classLoader == null;
+    }
+
+    private MarshallingConfiguration createMarshallingConfiguration(ObjectResolver objectResolver, ObjectTable objectTable,
+                                                                    ClassResolver classResolver, ClassLoader classLoader) {
+        if (objectResolver == null && objectTable == null && classResolver == null && classLoader == null) {
+            return defaultConfiguration;
+        }
+        final MarshallingConfiguration config = createMarshallingConfiguration();
+        if (objectResolver != null) {
+            config.setObjectResolver(objectResolver);
+        }
+        if (objectTable != null) {
+            config.setObjectTable(objectTable);
+        }
+        if (classResolver != null) {
+            config.setClassResolver(classResolver);
+        } else if (classLoader != null) {
+            config.setClassResolver(new SimpleClassResolver(classLoader));
+        }
+        return config;
     }
 
     private MarshallingConfiguration createMarshallingConfiguration() {
@@ -222,4 +267,45 @@ public final class HttpMarshallerFactory {
         config.setClassNameTransformer(classNameTransformer);
         return config;
     }
+
+    /**
+     * The marshalling configurations last used by a thread, each with an idle marshaller and unmarshaller. Entries are
+     * replaced in turn, so a thread only keeps a few configurations alive.
+     */
+    private final class MarshallerPool {
+        private final PoolEntry[] entries = new PoolEntry[POOL_SIZE];
+        private int next;
+
+        PoolEntry getEntry(ObjectResolver objectResolver, ObjectTable objectTable) {
+            for (PoolEntry entry : entries) {
+                if (entry != null && entry.matches(objectResolver, objectTable)) {
+                    return entry;
+                }
+            }
+            final PoolEntry entry = new PoolEntry(objectResolver, objectTable,
+                    createMarshallingConfiguration(objectResolver, objectTable, null, null));
+            entries[next] = entry;
+            next = (next + 1) % POOL_SIZE;
+            return entry;
+        }
+    }
+
+    private static final class PoolEntry {
+        private final ObjectResolver objectResolver;
+        private final ObjectTable objectTable;
+        private final MarshallingConfiguration configuration;
+        // idle instances, they can be returned from another thread
+        private final AtomicReference<Marshaller> marshaller = new AtomicReference<>();
+        private final AtomicReference<Unmarshaller> unmarshaller = new AtomicReference<>();
+
+        PoolEntry(ObjectResolver objectResolver, ObjectTable objectTable, MarshallingConfiguration configuration) {
+            this.objectResolver = objectResolver;
+            this.objectTable = objectTable;
+            this.configuration = configuration;
+        }
+
+        boolean matches(ObjectResolver objectResolver, ObjectTable objectTable) {
+            return Objects.equals(this.objectResolver, objectResolver) && Objects.equals(this.objectTable, objectTable);
+        }
+    }
 }
@@ -36,6 +36,7 @@ public class HttpServerHelper {
     }
 
     public static void sendException(HttpServerExchange exchange, HttpServiceConfig serviceConfig, int status, Throwable e) {
+        ServerMetrics.begin(exchange, ServerMetrics.Phase.MARSHAL);
         try {
             exchange.setStatusCode(status);
             exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/x-wf-jbmar-exception;version=1");
@@ -62,10 +62,11 @@ public enum HttpServiceConfig {
      *                URI
      * @return the HttpHandler that should be provided to Undertow and associated with the HTTP
      *         service URI. The resulting handler is a wrapper that will add any necessary actions
-     *         before invoking the inner {@code handler}.
+     *         before invoking the inner {@code handler}. If {@link ServerMetrics} are enabled, the requests are
+     *         also traced.
      */
     public HttpHandler wrap(HttpHandler handler) {
-        return handlerWrapper.apply(handler);
+        return handlerWrapper.apply(ServerMetrics.wrap(handler));
     }
 
     /**
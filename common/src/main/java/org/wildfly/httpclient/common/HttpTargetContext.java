@@ -22,6 +22,8 @@ import io.undertow.client.ClientCallback;
 import io.undertow.client.ClientExchange;
 import io.undertow.client.ClientRequest;
 import io.undertow.client.ClientResponse;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
 import io.undertow.server.handlers.Cookie;
 import io.undertow.util.AbstractAttachable;
 import io.undertow.util.Cookies;
@@ -29,7 +31,7 @@ import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
 import io.undertow.util.StatusCodes;
-import org.jboss.marshalling.InputStreamByteInput;
+import org.jboss.marshalling.Marshalling;
 import org.jboss.marshalling.Unmarshaller;
 import org.wildfly.security.auth.client.AuthenticationConfiguration;
 import org.wildfly.security.auth.client.AuthenticationContext;
@@ -37,6 +39,7 @@ import org.wildfly.security.auth.client.AuthenticationContextConfigurationClient
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.IoUtils;
+import org.xnio.XnioIoThread;
 import org.xnio.channels.StreamSourceChannel;
 
 import javax.net.ssl.SSLContext;
@@ -46,15 +49,18 @@ import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.GeneralSecurityException;
 import java.security.PrivilegedAction;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.zip.GZIPInputStream;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Http target context used by client side.
@@ -65,9 +71,37 @@ public class HttpTargetContext extends AbstractAttachable {
 
     private static final AuthenticationContextConfigurationClient AUTH_CONTEXT_CLIENT;
     private static final String GENERAL_EXCEPTION_ON_FAILED_AUTH_PROPERTY = "org.wildfly.httpclient.io-exception-on-failed-auth";
+    /**
+     * Requests up to this size are marshalled on the thread that sends them, before a connection is acquired, and
+     * written by the IO thread with a single non-blocking write, larger ones are marshalled again and streamed from a
+     * worker thread. Zero streams all the requests from a worker thread.
+     */
+    private static final int MAX_BUFFERED_REQUEST_SIZE;
+    /**
+     * Responses with a Content-Length up to this size are read into pooled buffers on the IO thread, and handed from
+     * there to the {@link HttpDeferredResultHandler deferred result handlers}, larger ones and the ones of other
+     * handlers are handled on a worker thread. Zero handles all the responses on a worker thread.
+     */
+    private static final int MAX_BUFFERED_RESPONSE_SIZE;
+    /**
+     * Creates the metrics of each target, or {@code null} if the targets are not measured.
+     */
+    private static final ClientMetricsProvider METRICS_PROVIDER;
 
     static {
         AUTH_CONTEXT_CLIENT = AccessController.doPrivileged((PrivilegedAction<AuthenticationContextConfigurationClient>) () -> new AuthenticationContextConfigurationClient());
+        MAX_BUFFERED_REQUEST_SIZE = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.max-buffered-request-size", 16384));
+        MAX_BUFFERED_RESPONSE_SIZE = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.max-buffered-response-size", 16384));
+        METRICS_PROVIDER = AccessController.doPrivileged((PrivilegedAction<ClientMetricsProvider>) () -> {
+            try {
+                for (ClientMetricsProvider provider : ServiceLoader.load(ClientMetricsProvider.class, HttpTargetContext.class.getClassLoader())) {
+                    return provider;
+                }
+            } catch (ServiceConfigurationError e) {
+                HttpClientMessages.MESSAGES.debugf(e, "Failed to load metrics provider");
+            }
+            return Boolean.getBoolean("org.wildfly.httpclient.metrics") ? TargetMetrics::register : null;
+        });
     }
 
 
@@ -83,7 +117,11 @@ public class HttpTargetContext extends AbstractAttachable {
     private final AuthenticationContext initAuthenticationContext;
 
     private final AtomicBoolean affinityRequestSent = new AtomicBoolean();
+    private volatile long lastUsed = System.currentTimeMillis();
+    // set once this target context is evicted, the requests sent through it afterwards go to the one that replaces it
+    private volatile Supplier<HttpTargetContext> replacement;
     private final HttpMarshallerFactoryProvider httpMarshallerFactoryProvider;
+    private final ClientMetrics metrics;
 
     private static ClassLoader getContextClassLoader() {
         if(System.getSecurityManager() == null) {
@@ -104,14 +142,41 @@ public class HttpTargetContext extends AbstractAttachable {
         this.uri = uri;
         this.initAuthenticationContext = AuthenticationContext.captureCurrent();
         this.httpMarshallerFactoryProvider = provider;
+        this.metrics = METRICS_PROVIDER == null ? ClientMetrics.NONE : METRICS_PROVIDER.createMetrics(uri, connectionPool);
+        connectionPool.setMetrics(metrics);
     }
 
     void init() {
+        // a target context that was just handed out is not evicted before it is used
+        lastUsed = System.currentTimeMillis();
         if (eagerlyAcquireAffinity) {
             acquireAffinitiy(AUTH_CONTEXT_CLIENT.getAuthenticationConfiguration(uri, AuthenticationContext.captureCurrent()));
         }
     }
 
+    /**
+     * Opens the minimum number of idle connections configured for the connection pool of this target.
+     */
+    void warmUp() {
+        final SSLContext sslContext;
+        try {
+            sslContext = AUTH_CONTEXT_CLIENT.getSSLContext(uri, initAuthenticationContext);
+        } catch (GeneralSecurityException e) {
+            HttpClientMessages.MESSAGES.debugf(e, "Failed to obtain SSL context to warm up connections to %s", uri);
+            return;
+        }
+        connectionPool.warmUp(sslContext);
+    }
+
+    /**
+     * Returns the metrics of this target, which also receive the events of the invocations sent to it.
+     *
+     * @return the metrics, {@link ClientMetrics#NONE} if this target is not measured
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Returns the protocol version to be used by this target context.
      * @return the protocol version
@@ -143,7 +208,7 @@ public class HttpTargetContext extends AbstractAttachable {
         sendRequest(clientRequest, sslContext, authenticationConfiguration, null, null, (e) -> {
             latch.countDown();
             HttpClientMessages.MESSAGES.failedToAcquireSession(e);
-        }, null, latch::countDown);
+        }, null, latch::countDown, false, true);
     }
 
     public void sendRequest(ClientRequest request, SSLContext sslContext, AuthenticationConfiguration authenticationConfiguration, HttpMarshaller httpMarshaller, HttpResultHandler httpResultHandler, HttpFailureHandler failureHandler, ContentType expectedResponse, Runnable completedTask) {
@@ -151,14 +216,65 @@ public class HttpTargetContext extends AbstractAttachable {
     }
 
     public void sendRequest(ClientRequest request, SSLContext sslContext, AuthenticationConfiguration authenticationConfiguration, HttpMarshaller httpMarshaller, HttpResultHandler httpResultHandler, HttpFailureHandler failureHandler, ContentType expectedResponse, Runnable completedTask, boolean allowNoContent) {
-        if (sessionId != null) {
-            request.getRequestHeaders().add(Headers.COOKIE, JSESSIONID + "=" + sessionId);
+        sendRequest(request, sslContext, authenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, false);
+    }
+
+    /**
+     * Sends a request to this target.
+     * <p>
+     * Priority requests jump ahead of the other requests waiting for a connection and are never rejected by the
+     * connection pool. They should be used for short control requests, such as cancellation or transaction
+     * completion, that must not be delayed by bulk invocations.
+     */
+    public void sendRequest(ClientRequest request, SSLContext sslContext, AuthenticationConfiguration authenticationConfiguration, HttpMarshaller httpMarshaller, HttpResultHandler httpResultHandler, HttpFailureHandler failureHandler, ContentType expectedResponse, Runnable completedTask, boolean allowNoContent, boolean priority) {
+        final Supplier<HttpTargetContext> replacement = this.replacement;
+        if (replacement != null) {
+            replacement.get().sendRequest(request, sslContext, authenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, priority);
+            return;
+        }
+        lastUsed = System.currentTimeMillis();
+        final String sessionCookie = sessionId != null ? JSESSIONID + "=" + sessionId : null;
+        if (sessionCookie != null) {
+            request.getRequestHeaders().add(Headers.COOKIE, sessionCookie);
+        }
+        connectionPool.prepareRequest(request);
+        final WildflyClientBufferedOutputStream body;
+        try {
+            body = marshallBuffered(httpMarshaller);
+        } catch (Exception e) {
+            failureHandler.handleFailure(e);
+            return;
         }
         final ClassLoader tccl = getContextClassLoader();
-        connectionPool.getConnection(connection -> sendRequestInternal(connection, request, authenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, false, sslContext, tccl), failureHandler::handleFailure, false, sslContext);
+        connectionPool.getConnection(connection -> sendRequestInternal(connection, request, authenticationConfiguration, httpMarshaller, body, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, false, sslContext, tccl), error -> {
+            if (body != null) {
+                body.discard();
+            }
+            final Supplier<HttpTargetContext> evictedBy = this.replacement;
+            if (evictedBy != null && connectionPool.isClosed()) {
+                // the target context was evicted while the request was waiting for a connection
+                final HeaderValues cookies = request.getRequestHeaders().get(Headers.COOKIE);
+                if (sessionCookie != null && cookies != null) {
+                    cookies.remove(sessionCookie);
+                }
+                evictedBy.get().sendRequest(request, sslContext, authenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, priority);
+            } else {
+                failureHandler.handleFailure(error);
+            }
+        }, priority, sslContext);
     }
 
     public void sendRequestInternal(final HttpConnectionPool.ConnectionHandle connection, ClientRequest request, AuthenticationConfiguration authenticationConfiguration, HttpMarshaller httpMarshaller, HttpResultHandler httpResultHandler, HttpFailureHandler failureHandler, ContentType expectedResponse, Runnable completedTask, boolean allowNoContent, boolean retry, SSLContext sslContext, ClassLoader classLoader) {
+        sendRequestInternal(connection, request, authenticationConfiguration, httpMarshaller, null, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, retry, sslContext, classLoader);
+    }
+
+    /**
+     * Sends a request through a connection.
+     *
+     * @param body the request body if it was already marshalled, or {@code null} if {@code httpMarshaller} must be
+     *             streamed once the request is sent
+     */
+    private void sendRequestInternal(final HttpConnectionPool.ConnectionHandle connection, ClientRequest request, AuthenticationConfiguration authenticationConfiguration, HttpMarshaller httpMarshaller, WildflyClientBufferedOutputStream body, HttpResultHandler httpResultHandler, HttpFailureHandler failureHandler, ContentType expectedResponse, Runnable completedTask, boolean allowNoContent, boolean retry, SSLContext sslContext, ClassLoader classLoader) {
         try {
             final boolean authAdded = retry || connection.getAuthenticationContext().prepareRequest(connection.getUri(), request, authenticationConfiguration);
 
@@ -183,156 +299,46 @@ public class HttpTargetContext extends AbstractAttachable {
             if (request.getRequestHeaders().contains(Headers.CONTENT_TYPE)) {
                 request.getRequestHeaders().put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
             }
+            final long start = System.nanoTime();
             connection.sendRequest(request, new ClientCallback<ClientExchange>() {
                 @Override
                 public void completed(ClientExchange result) {
                     result.setResponseListener(new ClientCallback<ClientExchange>() {
                         @Override
                         public void completed(ClientExchange result) {
-                            connection.getConnection().getWorker().execute(() -> {
-                                ClientResponse response = result.getResponse();
-                                if (!authAdded || connection.getAuthenticationContext().isStale(result)) {
-                                    handleSessionAffinity(request, response);
-                                    if (connection.getAuthenticationContext().handleResponse(response)) {
-                                        URI uri = connection.getUri();
-                                        connection.done(false);
-                                        final AtomicBoolean done = new AtomicBoolean();
-                                        ChannelListener<StreamSourceChannel> listener = ChannelListeners.drainListener(Long.MAX_VALUE, channel -> {
-                                            done.set(true);
-                                            connectionPool.getConnection((connection) -> {
-                                                if (connection.getAuthenticationContext().prepareRequest(uri, request, finalAuthenticationConfiguration)) {
-                                                    //retry the invocation
-                                                    sendRequestInternal(connection, request, finalAuthenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, true, finalSslContext, classLoader);
-                                                } else {
-                                                    failureHandler.handleFailure(HttpClientMessages.MESSAGES.authenticationFailed());
-                                                    connection.done(true);
-                                                }
-                                            }, failureHandler::handleFailure, false, finalSslContext);
-
-                                        }, (channel, exception) -> failureHandler.handleFailure(exception));
-                                        listener.handleEvent(result.getResponseChannel());
-                                        if(!done.get()) {
-                                            result.getResponseChannel().getReadSetter().set(listener);
-                                            result.getResponseChannel().resumeReads();
-                                        }
-                                        return;
-                                    }
-                                }
-
-                                ContentType type = ContentType.parse(response.getResponseHeaders().getFirst(Headers.CONTENT_TYPE));
-                                final boolean ok;
-                                final boolean isException;
-                                if (type == null) {
-                                    ok = expectedResponse == null || (allowNoContent && response.getResponseCode() == StatusCodes.NO_CONTENT);
-                                    isException = false;
-                                } else {
-                                    if (type.getType().equals(EXCEPTION_TYPE)) {
-                                        ok = true;
-                                        isException = true;
-                                    } else if (expectedResponse == null) {
-                                        ok = false;
-                                        isException = false;
-                                    } else {
-                                        ok = expectedResponse.getType().equals(type.getType()) && expectedResponse.getVersion() >= type.getVersion();
-                                        isException = false;
-                                    }
-                                }
-
-                                if (!ok) {
-                                    if (response.getResponseCode() == 401 && !isLegacyAuthenticationFailedException()) {
-                                        failureHandler.handleFailure(HttpClientMessages.MESSAGES.authenticationFailed(response));
-                                    } else if (response.getResponseCode() >= 400) {
-                                        failureHandler.handleFailure(HttpClientMessages.MESSAGES.invalidResponseCode(response.getResponseCode(), response));
-                                    } else {
-                                        failureHandler.handleFailure(HttpClientMessages.MESSAGES.invalidResponseType(type));
-                                    }
-                                    //close the connection to be safe
-                                    connection.done(true);
-                                    return;
-                                }
-                                try {
-                                    handleSessionAffinity(request, response);
-
-                                    if (isException) {
-                                        final Unmarshaller unmarshaller = getHttpMarshallerFactory(request).createUnmarshaller(classLoader);
-                                        try (WildflyClientInputStream inputStream = new WildflyClientInputStream(result.getConnection().getBufferPool(), result.getResponseChannel())) {
-                                            InputStream in = inputStream;
-                                            String encoding = response.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING);
-                                            if (encoding != null) {
-                                                String lowerEncoding = encoding.toLowerCase(Locale.ENGLISH);
-                                                if (Headers.GZIP.toString().equals(lowerEncoding)) {
-                                                    in = new GZIPInputStream(in);
-                                                } else if (!lowerEncoding.equals(Headers.IDENTITY.toString())) {
-                                                    throw HttpClientMessages.MESSAGES.invalidContentEncoding(encoding);
-                                                }
-                                            }
-                                            unmarshaller.start(new InputStreamByteInput(in));
-                                            Throwable exception = (Throwable) unmarshaller.readObject();
-                                            Map<String, Object> attachments = readAttachments(unmarshaller);
-                                            int read = in.read();
-                                            if (read != -1) {
-                                                HttpClientMessages.MESSAGES.debugf("Unexpected data when reading exception from %s", response);
-                                                connection.done(true);
-                                            } else {
-                                                IoUtils.safeClose(inputStream);
-                                                connection.done(false);
-                                            }
-                                            failureHandler.handleFailure(exception);
-                                        }
-                                    } else if (response.getResponseCode() >= 400) {
-                                        //unknown error
-                                        failureHandler.handleFailure(HttpClientMessages.MESSAGES.invalidResponseCode(response.getResponseCode(), response));
-                                        //close the connection to be safe
-                                        connection.done(true);
-
+                            metrics.requestCompleted(System.nanoTime() - start, false);
+                            final long contentLength = getContentLength(result.getResponse());
+                            if (contentLength > 0) {
+                                metrics.bytesReceived(contentLength);
+                            }
+                            if (MAX_BUFFERED_RESPONSE_SIZE > 0 && contentLength >= 0 && contentLength <= MAX_BUFFERED_RESPONSE_SIZE && Thread.currentThread() == result.getConnection().getIoThread()) {
+                                // small responses are read into memory right away, so whoever handles them never
+                                // blocks on the channel; unmarshalling runs user code, so it stays off the IO thread:
+                                // a deferred handler leaves it to the caller, the other ones run on a worker thread
+                                readResponse(result, (int) contentLength, body -> {
+                                    final Runnable task = () -> handleResponse(result, body, connection, request, authAdded, finalAuthenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, finalSslContext, classLoader);
+                                    if (httpResultHandler instanceof HttpDeferredResultHandler && !isExceptionResponse(result.getResponse())) {
+                                        task.run();
                                     } else {
-                                        if (httpResultHandler != null) {
-                                            final InputStream in = new WildflyClientInputStream(result.getConnection().getBufferPool(), result.getResponseChannel());
-                                            InputStream inputStream = in;
-                                            Closeable doneCallback = () -> {
-                                                IoUtils.safeClose(in);
-                                                if (completedTask != null) {
-                                                    completedTask.run();
-                                                }
-                                                connection.done(false);
-                                            };
-                                            if (response.getResponseCode() == StatusCodes.NO_CONTENT) {
-                                                IoUtils.safeClose(in);
-                                                httpResultHandler.handleResult(null, response, doneCallback);
-                                            } else {
-                                                String encoding = response.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING);
-                                                if (encoding != null) {
-                                                    String lowerEncoding = encoding.toLowerCase(Locale.ENGLISH);
-                                                    if (Headers.GZIP.toString().equals(lowerEncoding)) {
-                                                        inputStream = new GZIPInputStream(inputStream);
-                                                    } else if (!lowerEncoding.equals(Headers.IDENTITY.toString())) {
-                                                        throw HttpClientMessages.MESSAGES.invalidContentEncoding(encoding);
-                                                    }
-                                                }
-                                                httpResultHandler.handleResult(inputStream, response, doneCallback);
-                                            }
-                                        } else {
-                                            final InputStream in = new WildflyClientInputStream(result.getConnection().getBufferPool(), result.getResponseChannel());
-                                            IoUtils.safeClose(in);
-                                            if (completedTask != null) {
-                                                completedTask.run();
-                                            }
-                                            connection.done(false);
-                                        }
+                                        connection.getConnection().getWorker().execute(task);
                                     }
-
-                                } catch (Exception e) {
+                                }, e -> {
+                                    connection.exchangeFailed();
                                     try {
                                         failureHandler.handleFailure(e);
                                     } finally {
                                         connection.done(true);
                                     }
-                                }
-                            });
+                                });
+                            } else {
+                                connection.getConnection().getWorker().execute(() -> handleResponse(result, null, connection, request, authAdded, finalAuthenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, finalSslContext, classLoader));
+                            }
                         }
 
                         @Override
                         public void failed(IOException e) {
+                            metrics.requestCompleted(System.nanoTime() - start, true);
+                            connection.exchangeFailed();
                             try {
                                 failureHandler.handleFailure(e);
                             } finally {
@@ -341,28 +347,27 @@ public class HttpTargetContext extends AbstractAttachable {
                         }
                     });
 
-                    if (httpMarshaller != null) {
-                        //marshalling is blocking, we need to delegate, otherwise we may need to buffer arbitrarily large requests
-                        connection.getConnection().getWorker().execute(() -> {
-                            try (OutputStream outputStream = new WildflyClientOutputStream(result.getRequestChannel(), result.getConnection().getBufferPool())) {
-
-                                // marshall the locator and method params
-                                // start the marshaller
-                                httpMarshaller.marshall(outputStream);
-
-                            } catch (Exception e) {
-                                try {
-                                    failureHandler.handleFailure(e);
-                                } finally {
-                                    connection.done(true);
-                                }
+                    if (body != null) {
+                        body.writeTo(result.getRequestChannel(), metrics, e -> {
+                            connection.exchangeFailed();
+                            try {
+                                failureHandler.handleFailure(e);
+                            } finally {
+                                connection.done(true);
                             }
                         });
+                    } else if (httpMarshaller != null) {
+                        marshallStreaming(result, connection, httpMarshaller, failureHandler);
                     }
                 }
 
                 @Override
                 public void failed(IOException e) {
+                    metrics.requestCompleted(System.nanoTime() - start, true);
+                    if (body != null) {
+                        body.discard();
+                    }
+                    connection.exchangeFailed();
                     try {
                         failureHandler.handleFailure(e);
                     } finally {
@@ -371,6 +376,9 @@ public class HttpTargetContext extends AbstractAttachable {
                 }
             });
         } catch (Throwable e) {
+            if (body != null) {
+                body.discard();
+            }
             try {
                 failureHandler.handleFailure(e);
             } finally {
@@ -379,6 +387,266 @@ public class HttpTargetContext extends AbstractAttachable {
         }
     }
 
+    /**
+     * Handles the response of a request.
+     *
+     * @param bufferedBody the response body if it was already read, or {@code null} if it must be read from the
+     *                     response channel
+     */
+    private void handleResponse(final ClientExchange result, final InputStream bufferedBody, final HttpConnectionPool.ConnectionHandle connection, ClientRequest request, boolean authAdded, AuthenticationConfiguration finalAuthenticationConfiguration, HttpMarshaller httpMarshaller, HttpResultHandler httpResultHandler, HttpFailureHandler failureHandler, ContentType expectedResponse, Runnable completedTask, boolean allowNoContent, SSLContext finalSslContext, ClassLoader classLoader) {
+        ClientResponse response = result.getResponse();
+        if (!authAdded || connection.getAuthenticationContext().isStale(result)) {
+            handleSessionAffinity(request, response);
+            if (connection.getAuthenticationContext().handleResponse(response)) {
+                IoUtils.safeClose(bufferedBody);
+                URI uri = connection.getUri();
+                connection.done(false);
+                final AtomicBoolean done = new AtomicBoolean();
+                ChannelListener<StreamSourceChannel> listener = ChannelListeners.drainListener(Long.MAX_VALUE, channel -> {
+                    done.set(true);
+                    metrics.authenticationRetried();
+                    connectionPool.getConnection((retryConnection) -> {
+                        if (retryConnection.getAuthenticationContext().prepareRequest(uri, request, finalAuthenticationConfiguration)) {
+                            //retry the invocation
+                            sendRequestInternal(retryConnection, request, finalAuthenticationConfiguration, httpMarshaller, httpResultHandler, failureHandler, expectedResponse, completedTask, allowNoContent, true, finalSslContext, classLoader);
+                        } else {
+                            failureHandler.handleFailure(HttpClientMessages.MESSAGES.authenticationFailed());
+                            retryConnection.done(true);
+                        }
+                    }, failureHandler::handleFailure, true, finalSslContext); // the retry is part of a request that already got a connection
+
+                }, (channel, exception) -> failureHandler.handleFailure(exception));
+                listener.handleEvent(result.getResponseChannel());
+                if(!done.get()) {
+                    result.getResponseChannel().getReadSetter().set(listener);
+                    result.getResponseChannel().resumeReads();
+                }
+                return;
+            }
+        }
+
+        ContentType type = ContentType.parse(response.getResponseHeaders().getFirst(Headers.CONTENT_TYPE));
+        final boolean ok;
+        final boolean isException;
+        if (type == null) {
+            ok = expectedResponse == null || (allowNoContent && response.getResponseCode() == StatusCodes.NO_CONTENT);
+            isException = false;
+        } else {
+            if (type.getType().equals(EXCEPTION_TYPE)) {
+                ok = true;
+                isException = true;
+            } else if (expectedResponse == null) {
+                ok = false;
+                isException = false;
+            } else {
+                ok = expectedResponse.getType().equals(type.getType()) && expectedResponse.getVersion() >= type.getVersion();
+                isException = false;
+            }
+        }
+
+        if (!ok) {
+            IoUtils.safeClose(bufferedBody);
+            if (response.getResponseCode() == 401 && !isLegacyAuthenticationFailedException()) {
+                failureHandler.handleFailure(HttpClientMessages.MESSAGES.authenticationFailed(response));
+            } else if (response.getResponseCode() >= 400) {
+                failureHandler.handleFailure(HttpClientMessages.MESSAGES.invalidResponseCode(response.getResponseCode(), response));
+            } else {
+                failureHandler.handleFailure(HttpClientMessages.MESSAGES.invalidResponseType(type));
+            }
+            //close the connection to be safe
+            connection.done(true);
+            return;
+        }
+        try {
+            handleSessionAffinity(request, response);
+
+            if (isException) {
+                final Unmarshaller unmarshaller = getHttpMarshallerFactory(request).createUnmarshaller(classLoader);
+                try (InputStream inputStream = openResponseStream(result, bufferedBody)) {
+                    InputStream in = CompressionCodecs.decode(inputStream, response.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING));
+                    unmarshaller.start(Marshalling.createByteInput(in));
+                    Throwable exception = (Throwable) unmarshaller.readObject();
+                    Map<String, Object> attachments = readAttachments(unmarshaller);
+                    int read = in.read();
+                    if (read != -1) {
+                        HttpClientMessages.MESSAGES.debugf("Unexpected data when reading exception from %s", response);
+                        connection.done(true);
+                    } else {
+                        IoUtils.safeClose(inputStream);
+                        connection.done(false);
+                    }
+                    failureHandler.handleFailure(exception);
+                }
+            } else if (response.getResponseCode() >= 400) {
+                //unknown error
+                IoUtils.safeClose(bufferedBody);
+                failureHandler.handleFailure(HttpClientMessages.MESSAGES.invalidResponseCode(response.getResponseCode(), response));
+                //close the connection to be safe
+                connection.done(true);
+
+            } else {
+                if (httpResultHandler != null) {
+                    final InputStream in = openResponseStream(result, bufferedBody);
+                    InputStream inputStream = in;
+                    Closeable doneCallback = () -> {
+                        IoUtils.safeClose(in);
+                        if (completedTask != null) {
+                            completedTask.run();
+                        }
+                        connection.done(false);
+                    };
+                    if (response.getResponseCode() == StatusCodes.NO_CONTENT) {
+                        IoUtils.safeClose(in);
+                        httpResultHandler.handleResult(null, response, doneCallback);
+                    } else {
+                        inputStream = CompressionCodecs.decode(inputStream, response.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING));
+                        httpResultHandler.handleResult(inputStream, response, doneCallback);
+                    }
+                } else {
+                    final InputStream in = openResponseStream(result, bufferedBody);
+                    IoUtils.safeClose(in);
+                    if (completedTask != null) {
+                        completedTask.run();
+                    }
+                    connection.done(false);
+                }
+            }
+
+        } catch (Exception e) {
+            IoUtils.safeClose(bufferedBody);
+            try {
+                failureHandler.handleFailure(e);
+            } finally {
+                connection.done(true);
+            }
+        }
+    }
+
+    private static boolean isExceptionResponse(ClientResponse response) {
+        final ContentType type = ContentType.parse(response.getResponseHeaders().getFirst(Headers.CONTENT_TYPE));
+        return type != null && type.getType().equals(EXCEPTION_TYPE);
+    }
+
+    private InputStream openResponseStream(ClientExchange exchange, InputStream bufferedBody) {
+        if (bufferedBody != null) {
+            return bufferedBody;
+        }
+        // the size of responses with a content length is already counted
+        final ClientMetrics streamMetrics = getContentLength(exchange.getResponse()) < 0 ? metrics : ClientMetrics.NONE;
+        return new WildflyClientInputStream(exchange.getConnection().getBufferPool(), exchange.getResponseChannel(), streamMetrics);
+    }
+
+    /**
+     * Returns the content length of a response.
+     *
+     * @return the content length, or {@code -1} if the response has no valid Content-Length header
+     */
+    private static long getContentLength(ClientResponse response) {
+        final String contentLength = response.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads a response body of known length into pooled buffers without blocking, which must be done from the IO
+     * thread. The body handler is invoked as soon as the body is fully read, on the IO thread, with a stream that
+     * releases the buffers once closed.
+     */
+    private static void readResponse(ClientExchange exchange, int contentLength, Consumer<InputStream> bodyHandler, Consumer<IOException> failureHandler) {
+        final ByteBufferPool bufferPool = exchange.getConnection().getBufferPool();
+        // there is room for one more byte than the body, into which the end of the stream is read
+        final PooledByteBuffer[] pooled = new PooledByteBuffer[contentLength / bufferPool.getBufferSize() + 1];
+        final ByteBuffer[] body = new ByteBuffer[pooled.length];
+        for (int i = 0; i < pooled.length; ++i) {
+            pooled[i] = bufferPool.allocate();
+            body[i] = pooled[i].getBuffer();
+        }
+        final PooledBodyInputStream input = new PooledBodyInputStream(pooled);
+        final ChannelListener<StreamSourceChannel> listener = new ChannelListener<StreamSourceChannel>() {
+            private long read;
+
+            @Override
+            public void handleEvent(StreamSourceChannel channel) {
+                try {
+                    for (;;) {
+                        final long res = channel.read(body);
+                        if (res == 0) {
+                            channel.getReadSetter().set(this);
+                            channel.resumeReads();
+                            return;
+                        } else if (res == -1) {
+                            channel.suspendReads();
+                            channel.getReadSetter().set(null);
+                            if (read != contentLength) {
+                                throw HttpClientMessages.MESSAGES.prematureEndOfResponse(contentLength);
+                            }
+                            for (ByteBuffer buffer : body) {
+                                buffer.flip();
+                            }
+                            bodyHandler.accept(input);
+                            return;
+                        }
+                        read += res;
+                    }
+                } catch (IOException e) {
+                    IoUtils.safeClose(input);
+                    failureHandler.accept(e);
+                }
+            }
+        };
+        listener.handleEvent(exchange.getResponseChannel());
+    }
+
+    /**
+     * Marshals a request into pooled buffers on the thread that sends it, so that only the write of the complete body
+     * is left to the IO thread once a connection is acquired. Marshalling runs user code, so it is left to a worker
+     * thread if the request is sent from an IO thread.
+     *
+     * @return the marshalled body, or {@code null} if the request must be streamed because it is too large or must not
+     * be marshalled on this thread
+     */
+    private WildflyClientBufferedOutputStream marshallBuffered(HttpMarshaller httpMarshaller) throws Exception {
+        if (httpMarshaller == null || MAX_BUFFERED_REQUEST_SIZE <= 0 || Thread.currentThread() instanceof XnioIoThread) {
+            return null;
+        }
+        final WildflyClientBufferedOutputStream body = new WildflyClientBufferedOutputStream(connectionPool.getBufferPool(), MAX_BUFFERED_REQUEST_SIZE);
+        try {
+            httpMarshaller.marshall(body);
+            body.close();
+        } catch (Exception e) {
+            body.discard();
+            if (!body.isOverflowed()) {
+                throw e;
+            }
+        }
+        return body.isOverflowed() ? null : body;
+    }
+
+    private void marshallStreaming(ClientExchange exchange, HttpConnectionPool.ConnectionHandle connection, HttpMarshaller httpMarshaller, HttpFailureHandler failureHandler) {
+        //marshalling is blocking, we need to delegate, otherwise we may need to buffer arbitrarily large requests
+        connection.getConnection().getWorker().execute(() -> {
+            try (OutputStream outputStream = new WildflyClientOutputStream(exchange.getRequestChannel(), exchange.getConnection().getBufferPool(), metrics)) {
+
+                // marshall the locator and method params
+                // start the marshaller
+                httpMarshaller.marshall(outputStream);
+
+            } catch (Exception e) {
+                try {
+                    failureHandler.handleFailure(e);
+                } finally {
+                    connection.done(true);
+                }
+            }
+        });
+    }
+
     private void handleSessionAffinity(ClientRequest request, ClientResponse response) {
         //handle session affinity
         HeaderValues cookies = response.getResponseHeaders().get(Headers.SET_COOKIE);
@@ -436,6 +704,27 @@ public class HttpTargetContext extends AbstractAttachable {
         return uri;
     }
 
+    /**
+     * Indicates if this target context can be evicted, i.e., if it has no requests in progress and was not used
+     * for the specified amount of time.
+     *
+     * @param idleTimeout the time in milliseconds the target context must have been idle
+     * @return {@code true} if the target context can be evicted
+     */
+    boolean isEvictable(long idleTimeout) {
+        return System.currentTimeMillis() - lastUsed >= idleTimeout && connectionPool.isIdle();
+    }
+
+    /**
+     * Marks this target context as evicted. The requests sent through it from now on, including the ones that are
+     * waiting for a connection of its pool when it is closed, are sent through the target context that replaces it.
+     *
+     * @param replacement the supplier of the target context that replaces this one
+     */
+    void evicted(Supplier<HttpTargetContext> replacement) {
+        this.replacement = replacement;
+    }
+
     public void clearSessionId() {
         awaitSessionId(true, null); //to prevent a race make sure we have one before we clear it
         synchronized (this) {
@@ -470,6 +759,70 @@ public class HttpTargetContext extends AbstractAttachable {
         });
     }
 
+    /**
+     * Input stream over a response body read into pooled buffers, which are released once the stream is closed.
+     */
+    private static final class PooledBodyInputStream extends InputStream {
+
+        private final PooledByteBuffer[] buffers;
+        private int current;
+        private volatile boolean closed;
+
+        PooledBodyInputStream(PooledByteBuffer[] buffers) {
+            this.buffers = buffers;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final ByteBuffer buffer = nextBuffer();
+            return buffer == null ? -1 : buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final ByteBuffer buffer = nextBuffer();
+            if (buffer == null) {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            final ByteBuffer buffer = nextBuffer();
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        private ByteBuffer nextBuffer() throws IOException {
+            if (closed) {
+                throw HttpClientMessages.MESSAGES.streamIsClosed();
+            }
+            while (current < buffers.length) {
+                final ByteBuffer buffer = buffers[current].getBuffer();
+                if (buffer.hasRemaining()) {
+                    return buffer;
+                }
+                ++current;
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                for (PooledByteBuffer buffer : buffers) {
+                    buffer.close();
+                }
+            }
+        }
+    }
+
     public interface HttpMarshaller {
         void marshall(OutputStream output) throws Exception;
     }
@@ -478,6 +831,14 @@ public class HttpTargetContext extends AbstractAttachable {
         void handleResult(InputStream result, ClientResponse response, Closeable doneCallback);
     }
 
+    /**
+     * A result handler that neither blocks nor runs user code, but hands the result over to the thread that waits for
+     * it, which reads it. A response read into memory is handed to such a handler straight from the IO thread,
+     * without a hop to a worker thread.
+     */
+    public interface HttpDeferredResultHandler extends HttpResultHandler {
+    }
+
     public interface HttpFailureHandler {
         void handleFailure(Throwable throwable);
     }
@@ -0,0 +1,380 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A pure Java LZ77 codec, that trades compression ratio for speed: it compresses faster than {@code deflate} even at
+ * its lowest level, which makes it worth using on fast networks, where {@code gzip} costs more CPU time than it saves
+ * in transfer time.
+ * <p>
+ * The data is split in blocks of 64 KiB, each preceded by its length as a 4 byte integer: a positive length is the one
+ * of a compressed block, a negative one the one of a block stored as is because it does not compress, and zero ends the
+ * data. A compressed block is a sequence of LZ4 style sequences, each made of a token, literals, and a match of at least
+ * four bytes back in the block. The compression level is ignored.
+ */
+final class LzCompressionCodec implements CompressionCodec {
+
+    static final String NAME = "x-wf-lz";
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_COMPRESSED_BLOCK_SIZE = BLOCK_SIZE + BLOCK_SIZE / 255 + 16;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 14;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream output, int level) {
+        return new LzOutputStream(output);
+    }
+
+    @Override
+    public InputStream decompress(InputStream input) {
+        return new LzInputStream(input);
+    }
+
+    /**
+     * Compresses a block.
+     *
+     * @return the length of the compressed block in {@code dst}
+     */
+    static int compressBlock(byte[] src, int length, byte[] dst, int[] table) {
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        while (ip <= length - MIN_MATCH) {
+            final int sequence = readInt(src, ip);
+            final int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            final int ref = table[hash];
+            table[hash] = ip;
+            if (ref >= 0 && ip - ref <= MAX_OFFSET && readInt(src, ref) == sequence) {
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < length && src[ref + matchLength] == src[ip + matchLength]) {
+                    ++matchLength;
+                }
+                op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+            } else {
+                // skip faster through data that does not compress
+                ip += 1 + ((ip - anchor) >>> 6);
+            }
+        }
+        // the last sequence only holds literals
+        return writeSequence(src, anchor, length - anchor, dst, op, 0, 0);
+    }
+
+    private static int writeSequence(byte[] src, int literalsOffset, int literalsLength, byte[] dst, int op, int matchOffset, int matchLength) {
+        final int token = op++;
+        int tokenValue;
+        if (literalsLength >= 15) {
+            tokenValue = 15 << 4;
+            op = writeLength(dst, op, literalsLength - 15);
+        } else {
+            tokenValue = literalsLength << 4;
+        }
+        System.arraycopy(src, literalsOffset, dst, op, literalsLength);
+        op += literalsLength;
+        if (matchLength > 0) {
+            dst[op++] = (byte) matchOffset;
+            dst[op++] = (byte) (matchOffset >>> 8);
+            final int length = matchLength - MIN_MATCH;
+            if (length >= 15) {
+                tokenValue |= 15;
+                op = writeLength(dst, op, length - 15);
+            } else {
+                tokenValue |= length;
+            }
+        }
+        dst[token] = (byte) tokenValue;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    /**
+     * Decompresses a block.
+     *
+     * @return the length of the decompressed block in {@code dst}
+     * @throws IOException if the block is corrupt
+     */
+    static int decompressBlock(byte[] src, int length, byte[] dst) throws IOException {
+        int ip = 0;
+        int op = 0;
+        for (;;) {
+            if (ip >= length) {
+                throw HttpClientMessages.MESSAGES.invalidCompressedData();
+            }
+            final int token = src[ip++] & 0xff;
+            int literalsLength = token >>> 4;
+            if (literalsLength == 15) {
+                int b;
+                do {
+                    if (ip >= length) {
+                        throw HttpClientMessages.MESSAGES.invalidCompressedData();
+                    }
+                    b = src[ip++] & 0xff;
+                    literalsLength += b;
+                } while (b == 255);
+            }
+            if (literalsLength > length - ip || literalsLength > dst.length - op) {
+                throw HttpClientMessages.MESSAGES.invalidCompressedData();
+            }
+            System.arraycopy(src, ip, dst, op, literalsLength);
+            ip += literalsLength;
+            op += literalsLength;
+            if (ip == length) {
+                return op;
+            }
+            if (length - ip < 2) {
+                throw HttpClientMessages.MESSAGES.invalidCompressedData();
+            }
+            final int matchOffset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+            ip += 2;
+            int matchLength = token & 15;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= length) {
+                        throw HttpClientMessages.MESSAGES.invalidCompressedData();
+                    }
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchOffset == 0 || matchOffset > op || matchLength > dst.length - op) {
+                throw HttpClientMessages.MESSAGES.invalidCompressedData();
+            }
+            if (matchOffset >= matchLength) {
+                System.arraycopy(dst, op - matchOffset, dst, op, matchLength);
+                op += matchLength;
+            } else {
+                // the match overlaps the bytes it produces
+                for (int i = 0; i < matchLength; ++i, ++op) {
+                    dst[op] = dst[op - matchOffset];
+                }
+            }
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    private static final class LzOutputStream extends FilterOutputStream {
+
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[MAX_COMPRESSED_BLOCK_SIZE];
+        private final int[] table = new int[1 << HASH_BITS];
+        private int count;
+        private boolean closed;
+
+        LzOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (closed) {
+                throw HttpClientMessages.MESSAGES.streamIsClosed();
+            }
+            if (count == BLOCK_SIZE) {
+                writeBlock();
+            }
+            block[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw HttpClientMessages.MESSAGES.streamIsClosed();
+            }
+            while (len > 0) {
+                if (count == BLOCK_SIZE) {
+                    writeBlock();
+                }
+                final int length = Math.min(len, BLOCK_SIZE - count);
+                System.arraycopy(b, off, block, count, length);
+                count += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            final int length = compressBlock(block, count, compressed, table);
+            if (length < count) {
+                writeLength(length);
+                out.write(compressed, 0, length);
+            } else {
+                writeLength(-count);
+                out.write(block, 0, count);
+            }
+            count = 0;
+        }
+
+        private void writeLength(int length) throws IOException {
+            out.write(length >>> 24);
+            out.write(length >>> 16);
+            out.write(length >>> 8);
+            out.write(length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (count > 0) {
+                    writeBlock();
+                }
+                writeLength(0);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static final class LzInputStream extends InputStream {
+
+        private final InputStream in;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private byte[] compressed;
+        private int position;
+        private int limit;
+        private boolean end;
+
+        LzInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !readBlock()) {
+                return -1;
+            }
+            return block[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !readBlock()) {
+                return -1;
+            }
+            final int length = Math.min(len, limit - position);
+            System.arraycopy(block, position, b, off, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        /**
+         * Reads the next block, skipping empty ones.
+         *
+         * @return {@code false} if the end of the data is reached
+         */
+        private boolean readBlock() throws IOException {
+            while (!end) {
+                final int length = readLength();
+                position = 0;
+                if (length == 0) {
+                    end = true;
+                    limit = 0;
+                } else if (length < 0) {
+                    if (-length > BLOCK_SIZE) {
+                        throw HttpClientMessages.MESSAGES.invalidCompressedData();
+                    }
+                    readFully(block, -length);
+                    limit = -length;
+                } else {
+                    if (length > MAX_COMPRESSED_BLOCK_SIZE) {
+                        throw HttpClientMessages.MESSAGES.invalidCompressedData();
+                    }
+                    if (compressed == null) {
+                        compressed = new byte[MAX_COMPRESSED_BLOCK_SIZE];
+                    }
+                    readFully(compressed, length);
+                    limit = decompressBlock(compressed, length, block);
+                }
+                if (limit > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int readLength() throws IOException {
+            int length = 0;
+            for (int i = 0; i < 4; ++i) {
+                final int b = in.read();
+                if (b == -1) {
+                    throw new EOFException();
+                }
+                length = length << 8 | b;
+            }
+            return length;
+        }
+
+        private void readFully(byte[] b, int length) throws IOException {
+            int read = 0;
+            while (read < length) {
+                final int res = in.read(b, read, length - read);
+                if (res == -1) {
+                    throw new EOFException();
+                }
+                read += res;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
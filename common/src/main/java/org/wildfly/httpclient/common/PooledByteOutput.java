@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.jboss.marshalling.ByteOutput;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.io.BufferWritableOutputStream;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * A {@link ByteOutput} that marshals a response directly into buffers of the connection's {@link ByteBufferPool}, and
+ * hands them to the response stream in a single gathering write once they are all full, or when it is closed.
+ * <p>
+ * Like {@link NoFlushByteOutput}, flushes are ignored. A response that fits in the buffers is sent with a content
+ * length, in one write straight to the response channel.
+ */
+public final class PooledByteOutput implements ByteOutput {
+
+    private static final int MAX_BUFFERS = 4;
+
+    private final HttpServerExchange exchange;
+    private final ByteBufferPool bufferPool;
+    private final PooledByteBuffer[] pooledBuffers = new PooledByteBuffer[MAX_BUFFERS];
+    private final ByteBuffer[] buffers = new ByteBuffer[MAX_BUFFERS];
+    private int count;
+    private ByteBuffer current;
+    private boolean sent;
+    private boolean closed;
+
+    public PooledByteOutput(HttpServerExchange exchange) {
+        this.exchange = exchange;
+        this.bufferPool = exchange.getConnection().getByteBufferPool();
+        // the buffers are given back even if the response is ended without closing this output
+        exchange.addExchangeCompleteListener((ex, next) -> {
+            release();
+            next.proceed();
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer().put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int currentOff = off;
+        int currentLen = len;
+        while (currentLen > 0) {
+            final ByteBuffer buffer = buffer();
+            final int put = Math.min(buffer.remaining(), currentLen);
+            buffer.put(b, currentOff, put);
+            currentOff += put;
+            currentLen -= put;
+        }
+    }
+
+    /**
+     * Returns a buffer with space remaining, sending the buffered data first if all the buffers are full.
+     */
+    private ByteBuffer buffer() throws IOException {
+        if (closed) {
+            throw HttpClientMessages.MESSAGES.streamIsClosed();
+        }
+        final ByteBuffer buffer = current;
+        if (buffer != null && buffer.hasRemaining()) {
+            return buffer;
+        }
+        if (count == MAX_BUFFERS) {
+            send();
+        }
+        if (pooledBuffers[count] == null) {
+            pooledBuffers[count] = bufferPool.allocate();
+            buffers[count] = pooledBuffers[count].getBuffer();
+        }
+        current = buffers[count++];
+        return current;
+    }
+
+    private void send() throws IOException {
+        for (int i = 0; i < count; ++i) {
+            buffers[i].flip();
+        }
+        try {
+            final OutputStream outputStream = exchange.getOutputStream();
+            if (outputStream instanceof BufferWritableOutputStream) {
+                ((BufferWritableOutputStream) outputStream).write(count == MAX_BUFFERS ? buffers : Arrays.copyOf(buffers, count));
+            } else {
+                for (int i = 0; i < count; ++i) {
+                    final byte[] data = new byte[buffers[i].remaining()];
+                    buffers[i].get(data);
+                    outputStream.write(data);
+                }
+            }
+            sent = true;
+        } finally {
+            for (int i = 0; i < count; ++i) {
+                buffers[i].clear();
+            }
+            count = 0;
+            current = null;
+        }
+    }
+
+    @Override
+    public void flush() {
+        //ignore
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (!sent && !exchange.isResponseStarted()) {
+                long length = 0;
+                for (int i = 0; i < count; ++i) {
+                    length += buffers[i].position();
+                }
+                exchange.setResponseContentLength(length);
+            }
+            if (count > 0) {
+                send();
+            }
+            exchange.getOutputStream().close();
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        closed = true;
+        for (int i = 0; i < MAX_BUFFERS; ++i) {
+            if (pooledBuffers[i] != null) {
+                pooledBuffers[i].close();
+                pooledBuffers[i] = null;
+                buffers[i] = null;
+            }
+        }
+        count = 0;
+        current = null;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.marshalling.ByteOutput;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.Marshalling;
+
+/**
+ * A {@link Marshaller} handed out by {@link HttpMarshallerFactory} that returns the underlying marshaller to its pool
+ * once {@link #finish() finished}, so that the next request on the same thread can reuse it.
+ */
+final class PooledMarshaller implements Marshaller {
+
+    private static final ByteOutput DISCARD = Marshalling.createByteOutput(OutputStream.nullOutputStream());
+
+    private final Marshaller delegate;
+    private final AtomicReference<Marshaller> pool;
+    // if the delegate was taken from the pool, and still holds the class cache of the stream it last wrote
+    private boolean reused;
+    private boolean released;
+
+    PooledMarshaller(Marshaller delegate, AtomicReference<Marshaller> pool, boolean reused) {
+        this.delegate = delegate;
+        this.pool = pool;
+        this.reused = reused;
+    }
+
+    @Override
+    public void start(ByteOutput newOutput) throws IOException {
+        if (reused) {
+            reused = false;
+            // the peer reads every stream with a fresh unmarshaller, so the class cache of the previous stream is
+            // dropped; this is done in a throwaway stream, as clearing a cache writes a marker that must not end up in
+            // the new stream
+            delegate.start(DISCARD);
+            delegate.clearClassCache();
+            delegate.finish();
+        }
+        delegate.start(newOutput);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (released) {
+            return;
+        }
+        delegate.finish();
+        released = true;
+        // the class cache is only dropped when the marshaller is reused, see start
+        pool.compareAndSet(null, delegate);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!released) {
+            released = true;
+            delegate.close();
+        }
+    }
+
+    @Override
+    public void writeObjectUnshared(Object obj) throws IOException {
+        delegate.writeObjectUnshared(obj);
+    }
+
+    @Override
+    public void clearInstanceCache() throws IOException {
+        delegate.clearInstanceCache();
+    }
+
+    @Override
+    public void clearClassCache() throws IOException {
+        delegate.clearClassCache();
+    }
+
+    @Override
+    public void writeObject(Object obj) throws IOException {
+        delegate.writeObject(obj);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        delegate.write(b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        delegate.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        delegate.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        delegate.writeBoolean(v);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        delegate.writeByte(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        delegate.writeShort(v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        delegate.writeChar(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        delegate.writeInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        delegate.writeLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        delegate.writeFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        delegate.writeDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        delegate.writeBytes(s);
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        delegate.writeChars(s);
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        delegate.writeUTF(s);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.marshalling.ByteInput;
+import org.jboss.marshalling.Unmarshaller;
+
+/**
+ * An {@link Unmarshaller} handed out by {@link HttpMarshallerFactory} that returns the underlying unmarshaller to its
+ * pool once {@link #finish() finished}, so that the next request on the same thread can reuse it.
+ */
+final class PooledUnmarshaller implements Unmarshaller {
+
+    private final Unmarshaller delegate;
+    private final AtomicReference<Unmarshaller> pool;
+    private boolean released;
+
+    PooledUnmarshaller(Unmarshaller delegate, AtomicReference<Unmarshaller> pool) {
+        this.delegate = delegate;
+        this.pool = pool;
+    }
+
+    @Override
+    public void start(ByteInput newInput) throws IOException {
+        delegate.start(newInput);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (released) {
+            return;
+        }
+        delegate.finish();
+        released = true;
+        // the next stream is written by a fresh marshaller, so the class cache is dropped as well
+        try {
+            delegate.clearClassCache();
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        pool.compareAndSet(null, delegate);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!released) {
+            released = true;
+            delegate.close();
+        }
+    }
+
+    @Override
+    public Object readObjectUnshared() throws ClassNotFoundException, IOException {
+        return delegate.readObjectUnshared();
+    }
+
+    @Override
+    public <T> T readObject(Class<T> type) throws ClassNotFoundException, IOException {
+        return delegate.readObject(type);
+    }
+
+    @Override
+    public <T> T readObjectUnshared(Class<T> type) throws ClassNotFoundException, IOException {
+        return delegate.readObjectUnshared(type);
+    }
+
+    @Override
+    public void clearInstanceCache() throws IOException {
+        delegate.clearInstanceCache();
+    }
+
+    @Override
+    public void clearClassCache() throws IOException {
+        delegate.clearClassCache();
+    }
+
+    @Override
+    public Object readObject() throws ClassNotFoundException, IOException {
+        return delegate.readObject();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return delegate.read();
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return delegate.read(b);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return delegate.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return delegate.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return delegate.available();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        delegate.readFully(b);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        delegate.readFully(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        return delegate.skipBytes(n);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return delegate.readBoolean();
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return delegate.readByte();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return delegate.readUnsignedByte();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return delegate.readShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return delegate.readUnsignedShort();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return delegate.readChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return delegate.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return delegate.readLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return delegate.readFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return delegate.readDouble();
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return delegate.readLine();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return delegate.readUTF();
+    }
+}
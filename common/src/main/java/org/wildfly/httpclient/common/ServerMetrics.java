@@ -0,0 +1,356 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.lang.management.ManagementFactory;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+
+/**
+ * Server side latencies of the http services, per operation and per phase, registered as the MBean
+ * {@code org.wildfly.httpclient:type=ServerMetrics} of the platform MBean server. Requests slower than a threshold are
+ * logged with their phase breakdown, one in every {@code slow-sample-rate} of them.
+ * <p>
+ * The metrics are only collected if the {@code org.wildfly.httpclient.server-metrics} system property is {@code true};
+ * otherwise {@link HttpServiceConfig#wrap(HttpHandler)} does not install them, and marking a phase is a field read.
+ */
+public final class ServerMetrics implements ServerMetricsMXBean {
+
+    /**
+     * The phases of a request on the server.
+     */
+    public enum Phase {
+        /**
+         * From the arrival of the request until its content is read, including the wait for a worker thread.
+         */
+        QUEUE,
+        /**
+         * Reading and unmarshalling the content of the request.
+         */
+        UNMARSHAL,
+        /**
+         * Executing the operation.
+         */
+        EXECUTE,
+        /**
+         * Marshalling and writing the response, until the exchange completes.
+         */
+        MARSHAL
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final boolean ENABLED = AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> Boolean.getBoolean("org.wildfly.httpclient.server-metrics"));
+    private static final long SLOW_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(AccessController.doPrivileged((PrivilegedAction<Long>) () -> Long.getLong("org.wildfly.httpclient.server-metrics.slow-threshold", 1000)));
+    private static final int SLOW_SAMPLE_RATE = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.server-metrics.slow-sample-rate", 1));
+    // operations beyond this are counted together, so that unexpected paths cannot grow the metrics without bound
+    private static final int MAX_OPERATIONS = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.server-metrics.max-operations", 1024));
+    private static final String OTHER_OPERATIONS = "other";
+    private static final AttachmentKey<Trace> TRACE = AttachmentKey.create(Trace.class);
+    private static final ServerMetrics INSTANCE = ENABLED ? register() : null;
+
+    private final long slowThreshold;
+    private final int slowSampleRate;
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final LongAdder slowRequests = new LongAdder();
+
+    ServerMetrics(long slowThreshold, int slowSampleRate) {
+        this.slowThreshold = slowThreshold;
+        this.slowSampleRate = Math.max(1, slowSampleRate);
+    }
+
+    private static ServerMetrics register() {
+        final ServerMetrics metrics = new ServerMetrics(SLOW_THRESHOLD, SLOW_SAMPLE_RATE);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("org.wildfly.httpclient:type=ServerMetrics"));
+        } catch (JMException | SecurityException e) {
+            HttpClientMessages.MESSAGES.debugf(e, "Failed to register the server metrics");
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns whether the server metrics are collected.
+     *
+     * @return {@code true} if the server metrics are enabled
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the server metrics.
+     *
+     * @return the server metrics, or {@code null} if they are not enabled
+     */
+    public static ServerMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Wraps the handler of a http service so that its requests are traced, starting in the {@link Phase#QUEUE queue}
+     * phase, and recorded once the exchange completes.
+     *
+     * @param handler the handler of the service
+     * @return the tracing handler, or {@code handler} itself if the metrics are not enabled
+     */
+    public static HttpHandler wrap(HttpHandler handler) {
+        if (!ENABLED) {
+            return handler;
+        }
+        return exchange -> {
+            if (exchange.getAttachment(TRACE) == null) {
+                final Trace trace = new Trace(System.nanoTime());
+                exchange.putAttachment(TRACE, trace);
+                exchange.addExchangeCompleteListener((completed, nextListener) -> {
+                    try {
+                        INSTANCE.record(trace, System.nanoTime());
+                    } finally {
+                        nextListener.proceed();
+                    }
+                });
+            }
+            handler.handleRequest(exchange);
+        };
+    }
+
+    /**
+     * Wraps the handler of a single operation, naming the requests it handles and starting their
+     * {@link Phase#EXECUTE execute} phase.
+     *
+     * @param operation the name of the operation
+     * @param handler   the handler of the operation
+     * @return the naming handler, or {@code handler} itself if the metrics are not enabled
+     */
+    public static HttpHandler operation(String operation, HttpHandler handler) {
+        if (!ENABLED) {
+            return handler;
+        }
+        return exchange -> {
+            setOperation(exchange, operation);
+            begin(exchange, Phase.EXECUTE);
+            handler.handleRequest(exchange);
+        };
+    }
+
+    /**
+     * Names the operation of a traced request. Requests without a name are not recorded.
+     *
+     * @param exchange  the exchange of the request
+     * @param operation the name of the operation
+     */
+    public static void setOperation(HttpServerExchange exchange, String operation) {
+        if (!ENABLED) {
+            return;
+        }
+        final Trace trace = exchange.getAttachment(TRACE);
+        if (trace != null) {
+            trace.setOperation(operation);
+        }
+    }
+
+    /**
+     * Ends the current phase of a traced request, and starts the next one.
+     *
+     * @param exchange the exchange of the request
+     * @param phase    the phase that starts
+     */
+    public static void begin(HttpServerExchange exchange, Phase phase) {
+        if (!ENABLED) {
+            return;
+        }
+        final Trace trace = exchange.getAttachment(TRACE);
+        if (trace != null) {
+            trace.begin(phase, System.nanoTime());
+        }
+    }
+
+    /**
+     * Starts a separate trace for a part of a request that runs concurrently with the rest of it, such as one of the
+     * invocations of a batch, in the {@link Phase#QUEUE queue} phase. The trace is recorded by {@link #end(Trace)}
+     * rather than when the exchange completes.
+     *
+     * @param operation the name of the operation
+     * @return the trace, or {@code null} if the metrics are not enabled
+     */
+    public static Trace startTrace(String operation) {
+        if (!ENABLED) {
+            return null;
+        }
+        final Trace trace = new Trace(System.nanoTime());
+        trace.operation = operation;
+        return trace;
+    }
+
+    /**
+     * Ends the current phase of a separate trace, and starts the next one.
+     *
+     * @param trace the trace, or {@code null} if the metrics are not enabled
+     * @param phase the phase that starts
+     */
+    public static void begin(Trace trace, Phase phase) {
+        if (trace != null) {
+            trace.begin(phase, System.nanoTime());
+        }
+    }
+
+    /**
+     * Ends and records a separate trace.
+     *
+     * @param trace the trace, or {@code null} if the metrics are not enabled
+     */
+    public static void end(Trace trace) {
+        if (trace != null) {
+            INSTANCE.record(trace, System.nanoTime());
+        }
+    }
+
+    private void record(Trace trace, long end) {
+        final String operation;
+        final long[] phaseNanos;
+        synchronized (trace) {
+            trace.begin(null, end);
+            operation = trace.operation;
+            phaseNanos = trace.phaseNanos.clone();
+        }
+        if (operation != null) {
+            record(operation, phaseNanos, end - trace.start);
+        }
+    }
+
+    void record(String operation, long[] phaseNanos, long totalNanos) {
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            metrics = operations.computeIfAbsent(operations.size() < MAX_OPERATIONS ? operation : OTHER_OPERATIONS, k -> new OperationMetrics());
+        }
+        metrics.total.record(totalNanos);
+        for (int i = 0; i < phaseNanos.length; ++i) {
+            metrics.phases[i].record(phaseNanos[i]);
+        }
+        if (totalNanos >= slowThreshold) {
+            slowRequests.increment();
+            if (slowRequests.sum() % slowSampleRate == 0) {
+                HttpClientMessages.MESSAGES.slowRequest(operation, toMicros(totalNanos), toMicros(phaseNanos[Phase.QUEUE.ordinal()]),
+                        toMicros(phaseNanos[Phase.UNMARSHAL.ordinal()]), toMicros(phaseNanos[Phase.EXECUTE.ordinal()]),
+                        toMicros(phaseNanos[Phase.MARSHAL.ordinal()]));
+            }
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+        final Map<String, LatencyHistogram.Snapshot> latencies = new TreeMap<>();
+        for (Map.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+            final OperationMetrics metrics = entry.getValue();
+            latencies.put(entry.getKey(), metrics.total.getSnapshot());
+            for (Phase phase : PHASES) {
+                latencies.put(entry.getKey() + ":" + phase.name().toLowerCase(Locale.ROOT), metrics.phases[phase.ordinal()].getSnapshot());
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Returns the latencies of the phases of an operation.
+     *
+     * @param operation the name of the operation
+     * @return the latencies of each phase, or {@code null} if the operation was never recorded
+     */
+    public Map<Phase, LatencyHistogram> getPhaseLatencies(String operation) {
+        final OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            return null;
+        }
+        final Map<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+        for (Phase phase : PHASES) {
+            latencies.put(phase, metrics.phases[phase.ordinal()]);
+        }
+        return latencies;
+    }
+
+    @Override
+    public long getSlowRequests() {
+        return slowRequests.sum();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+        slowRequests.reset();
+    }
+
+    private static final class OperationMetrics {
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final LatencyHistogram[] phases = new LatencyHistogram[PHASES.length];
+
+        OperationMetrics() {
+            for (int i = 0; i < phases.length; ++i) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * The phases of a request so far. The concurrent parts of a request get {@link #startTrace(String) separate traces},
+     * but the phases of a request are still marked from the threads it moves between, and it is recorded from the
+     * thread that completes it, so a trace is guarded by its own, normally uncontended, lock.
+     */
+    public static final class Trace {
+        private final long start;
+        private final long[] phaseNanos = new long[PHASES.length];
+        private Phase current = Phase.QUEUE;
+        private long phaseStart;
+        private String operation;
+
+        Trace(long start) {
+            this.start = start;
+            this.phaseStart = start;
+        }
+
+        synchronized void setOperation(String operation) {
+            this.operation = operation;
+        }
+
+        synchronized void begin(Phase phase, long now) {
+            if (current != null) {
+                phaseNanos[current.ordinal()] += now - phaseStart;
+            }
+            current = phase;
+            phaseStart = now;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the {@link ServerMetrics}. Latencies are in microseconds.
+ */
+public interface ServerMetricsMXBean {
+
+    /**
+     * Returns the latencies of each operation, keyed by its name, and of each of its phases, keyed by the name of the
+     * operation followed by {@code :} and the phase.
+     *
+     * @return the latencies
+     */
+    Map<String, LatencyHistogram.Snapshot> getLatencies();
+
+    long getSlowRequests();
+
+    void reset();
+}
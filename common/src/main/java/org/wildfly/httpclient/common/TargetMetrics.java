@@ -0,0 +1,266 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import io.undertow.connector.ByteBufferPool;
+
+/**
+ * The built in {@link ClientMetrics}, registered as the MBean
+ * {@code org.wildfly.httpclient:type=HttpTarget,uri="<uri>"} of the platform MBean server.
+ * <p>
+ * The queueing of requests shows in the connection wait, the network and the server in the request latency, and the
+ * whole invocation, including marshalling, in the invocation latency.
+ */
+public final class TargetMetrics implements ClientMetrics, TargetMetricsMXBean {
+
+    private final URI uri;
+    private final HttpConnectionPool pool;
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionFailures = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LatencyHistogram connectionWait = new LatencyHistogram();
+    private final LongAdder requestFailures = new LongAdder();
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder authenticationRetries = new LongAdder();
+    private final LongAdder invocationFailures = new LongAdder();
+    private final LatencyHistogram invocationLatency = new LatencyHistogram();
+    private volatile ObjectName objectName;
+
+    public TargetMetrics(URI uri, HttpConnectionPool pool) {
+        this.uri = uri;
+        this.pool = pool;
+    }
+
+    /**
+     * Creates the metrics of a target, and registers them in the platform MBean server. If another target with the
+     * same URI is already registered, the metrics are still collected but not registered.
+     *
+     * @param uri  the URI of the target
+     * @param pool the connection pool of the target
+     * @return the metrics
+     */
+    public static TargetMetrics register(URI uri, HttpConnectionPool pool) {
+        final TargetMetrics metrics = new TargetMetrics(uri, pool);
+        try {
+            final ObjectName name = new ObjectName("org.wildfly.httpclient:type=HttpTarget,uri=" + ObjectName.quote(uri.toString()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metrics.objectName = name;
+        } catch (JMException | SecurityException e) {
+            HttpClientMessages.MESSAGES.debugf(e, "Failed to register the metrics of %s", uri);
+        }
+        return metrics;
+    }
+
+    @Override
+    public void connectionOpened(long connectNanos) {
+        connectionsOpened.increment();
+        connectLatency.record(connectNanos);
+    }
+
+    @Override
+    public void connectionFailed() {
+        connectionFailures.increment();
+    }
+
+    @Override
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    @Override
+    public void connectionAcquired(long waitNanos) {
+        connectionWait.record(waitNanos);
+    }
+
+    @Override
+    public void requestCompleted(long latencyNanos, boolean failed) {
+        if (failed) {
+            requestFailures.increment();
+        }
+        requestLatency.record(latencyNanos);
+    }
+
+    @Override
+    public void bytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    @Override
+    public void bytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void authenticationRetried() {
+        authenticationRetries.increment();
+    }
+
+    @Override
+    public void invocationCompleted(long latencyNanos, boolean failed) {
+        if (failed) {
+            invocationFailures.increment();
+        }
+        invocationLatency.record(latencyNanos);
+    }
+
+    @Override
+    public void close() {
+        final ObjectName name = objectName;
+        if (name == null) {
+            return;
+        }
+        objectName = null;
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException | SecurityException e) {
+            HttpClientMessages.MESSAGES.debugf(e, "Failed to unregister the metrics of %s", uri);
+        }
+    }
+
+    @Override
+    public String getUri() {
+        return uri.toString();
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return pool.getOpenConnectionCount();
+    }
+
+    @Override
+    public int getBusyConnections() {
+        return pool.getBusyConnectionCount();
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return pool.getPendingRequestCount();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    @Override
+    public long getConnectionFailures() {
+        return connectionFailures.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getConnectLatency() {
+        return connectLatency.getSnapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getConnectionWait() {
+        return connectionWait.getSnapshot();
+    }
+
+    @Override
+    public long getRequests() {
+        return requestLatency.getCount();
+    }
+
+    @Override
+    public long getRequestFailures() {
+        return requestFailures.sum();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRequestLatency() {
+        return requestLatency.getSnapshot();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getAuthenticationRetries() {
+        return authenticationRetries.sum();
+    }
+
+    @Override
+    public long getInvocations() {
+        return invocationLatency.getCount();
+    }
+
+    @Override
+    public long getInvocationFailures() {
+        return invocationFailures.sum();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getInvocationLatency() {
+        return invocationLatency.getSnapshot();
+    }
+
+    @Override
+    public long getBufferAllocations() {
+        final AdaptiveByteBufferPool bufferPool = getAdaptiveBufferPool();
+        return bufferPool == null ? -1 : bufferPool.getAllocations();
+    }
+
+    @Override
+    public long getBufferMisses() {
+        final AdaptiveByteBufferPool bufferPool = getAdaptiveBufferPool();
+        return bufferPool == null ? -1 : bufferPool.getMisses();
+    }
+
+    @Override
+    public int getBuffersInUse() {
+        final AdaptiveByteBufferPool bufferPool = getAdaptiveBufferPool();
+        return bufferPool == null ? -1 : bufferPool.getInUse();
+    }
+
+    @Override
+    public int getBuffersRetained() {
+        final AdaptiveByteBufferPool bufferPool = getAdaptiveBufferPool();
+        return bufferPool == null ? -1 : bufferPool.getRetained();
+    }
+
+    private AdaptiveByteBufferPool getAdaptiveBufferPool() {
+        final ByteBufferPool bufferPool = pool.getBufferPool();
+        return bufferPool instanceof AdaptiveByteBufferPool ? (AdaptiveByteBufferPool) bufferPool : null;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+/**
+ * The JMX view of the {@link TargetMetrics} of a target. Latencies are in microseconds. The buffer counters are only
+ * kept by an {@link AdaptiveByteBufferPool}, they are {@code -1} when the target uses another pool.
+ */
+public interface TargetMetricsMXBean {
+
+    String getUri();
+
+    int getOpenConnections();
+
+    int getBusyConnections();
+
+    int getPendingRequests();
+
+    long getConnectionsOpened();
+
+    long getConnectionFailures();
+
+    long getConnectionsClosed();
+
+    LatencyHistogram.Snapshot getConnectLatency();
+
+    LatencyHistogram.Snapshot getConnectionWait();
+
+    long getRequests();
+
+    long getRequestFailures();
+
+    LatencyHistogram.Snapshot getRequestLatency();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getAuthenticationRetries();
+
+    long getInvocations();
+
+    long getInvocationFailures();
+
+    LatencyHistogram.Snapshot getInvocationLatency();
+
+    long getBufferAllocations();
+
+    long getBufferMisses();
+
+    int getBuffersInUse();
+
+    int getBuffersRetained();
+}
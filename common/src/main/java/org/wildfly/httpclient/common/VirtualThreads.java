@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.BlockingHandler;
+
+/**
+ * The opt-in execution of the blocking server handlers on virtual threads, one per request, enabled with the
+ * {@code org.wildfly.httpclient.virtual-threads} system property. It has no effect on a JVM without virtual threads.
+ * <p>
+ * Client calls that block do not need to be enabled: the streams and the transaction handles wait on
+ * {@link java.util.concurrent.locks.Lock locks} rather than on monitors, so that a virtual thread that calls them does
+ * not pin its carrier thread.
+ */
+public final class VirtualThreads {
+
+    private static final ExecutorService EXECUTOR = AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> Boolean.getBoolean("org.wildfly.httpclient.virtual-threads")) ? createExecutor() : null;
+
+    private VirtualThreads() {
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            // looked up reflectively, as virtual threads are not part of the Java versions this library is built for
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            HttpClientMessages.MESSAGES.virtualThreadsNotSupported();
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the blocking server handlers run on virtual threads.
+     *
+     * @return {@code true} if virtual threads are enabled and supported
+     */
+    public static boolean isEnabled() {
+        return EXECUTOR != null;
+    }
+
+    /**
+     * Returns the executor of a http service.
+     *
+     * @param executor the executor the service was configured with, or {@code null} to run on the Undertow workers
+     * @return {@code executor} if not {@code null}, otherwise an executor that starts a virtual thread per task if
+     *         virtual threads are enabled, or {@code null}
+     */
+    public static ExecutorService getExecutor(ExecutorService executor) {
+        return executor != null ? executor : EXECUTOR;
+    }
+
+    /**
+     * Creates a handler that starts blocking mode and dispatches out of the IO thread, as a {@link BlockingHandler}
+     * does, but to a virtual thread if they are enabled.
+     *
+     * @param handler the blocking handler
+     * @return the dispatching handler
+     */
+    public static HttpHandler blockingHandler(HttpHandler handler) {
+        final ExecutorService executor = EXECUTOR;
+        if (executor == null) {
+            return new BlockingHandler(handler);
+        }
+        return exchange -> {
+            exchange.startBlocking();
+            if (exchange.isInIoThread()) {
+                exchange.dispatch(executor, handler);
+            } else {
+                handler.handleRequest(exchange);
+            }
+        };
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.jboss.marshalling.ByteOutput;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+
+/**
+ * Output stream that buffers a request body in pooled buffers, so that a request is marshalled on the thread that
+ * sends it, before a connection is acquired, and the complete body is then handed to the IO thread of the connection
+ * and written with a single non-blocking gathering write.
+ * <p>
+ * Once more than the maximum size is written the stream overflows: it releases what was buffered and fails all the
+ * subsequent writes, and the request must be streamed instead.
+ * <p>
+ * The stream is also a {@link ByteOutput}, so that a marshaller writes straight into the pooled buffers.
+ */
+class WildflyClientBufferedOutputStream extends OutputStream implements ByteOutput {
+
+    private final ByteBufferPool bufferPool;
+    private final int maxSize;
+    private final List<PooledByteBuffer> buffers = new ArrayList<>();
+    private int size;
+    private boolean overflowed;
+    private boolean closed;
+
+    WildflyClientBufferedOutputStream(ByteBufferPool bufferPool, int maxSize) {
+        this.bufferPool = bufferPool;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(final int b) throws IOException {
+        if (!closed && size < maxSize) {
+            buffer().put((byte) b);
+            ++size;
+            return;
+        }
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (closed) {
+            throw HttpClientMessages.MESSAGES.streamIsClosed();
+        }
+        if (size + len > maxSize) {
+            overflowed = true;
+            closed = true;
+            releaseBuffers();
+            throw HttpClientMessages.MESSAGES.streamIsClosed();
+        }
+        int currentOff = off;
+        int currentLen = len;
+        while (currentLen > 0) {
+            final ByteBuffer buffer = buffer();
+            final int put = Math.min(buffer.remaining(), currentLen);
+            buffer.put(b, currentOff, put);
+            currentOff += put;
+            currentLen -= put;
+        }
+        size += len;
+    }
+
+    private ByteBuffer buffer() {
+        if (!buffers.isEmpty()) {
+            final ByteBuffer last = buffers.get(buffers.size() - 1).getBuffer();
+            if (last.hasRemaining()) {
+                return last;
+            }
+        }
+        final PooledByteBuffer pooled = bufferPool.allocate();
+        buffers.add(pooled);
+        return pooled.getBuffer();
+    }
+
+    /**
+     * Indicates if more than the maximum size was written, in which case nothing is buffered and the request must be
+     * streamed instead.
+     *
+     * @return {@code true} if the stream overflowed
+     */
+    boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Completes the body. It is sent by {@link #writeTo(StreamSinkChannel, ClientMetrics, Consumer)}.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Hands the complete body to the IO thread of the request channel, which writes it and releases the buffers.
+     *
+     * @param writeFailureHandler notified on the IO thread if the body cannot be written
+     */
+    void writeTo(StreamSinkChannel channel, ClientMetrics metrics, Consumer<IOException> writeFailureHandler) {
+        metrics.bytesSent(size);
+        final ByteBuffer[] data = new ByteBuffer[buffers.size()];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = buffers.get(i).getBuffer();
+            data[i].flip();
+        }
+        channel.getIoThread().execute(() -> writeBody(channel, data, writeFailureHandler));
+    }
+
+    /**
+     * Writes the buffered body from the IO thread, and again whenever the channel becomes writable until all of it is
+     * written.
+     */
+    private void writeBody(StreamSinkChannel c, ByteBuffer[] data, Consumer<IOException> writeFailureHandler) {
+        try {
+            if (writeAndFlush(c, data)) {
+                c.suspendWrites();
+                c.getWriteSetter().set(null);
+                releaseBuffers();
+            } else {
+                c.getWriteSetter().set((ChannelListener<StreamSinkChannel>) sink -> writeBody(sink, data, writeFailureHandler));
+                c.resumeWrites();
+            }
+        } catch (IOException e) {
+            c.suspendWrites();
+            c.getWriteSetter().set(null);
+            releaseBuffers();
+            IoUtils.safeClose(c);
+            writeFailureHandler.accept(e);
+        }
+    }
+
+    /**
+     * Drops the body without sending it, after a marshalling failure or if the request could not be sent.
+     */
+    void discard() {
+        closed = true;
+        releaseBuffers();
+    }
+
+    /**
+     * Writes the data, shuts down writes once all of it is written, and flushes the channel.
+     *
+     * @return {@code true} if everything was written and flushed, {@code false} if the channel is not writable
+     */
+    private static boolean writeAndFlush(StreamSinkChannel channel, ByteBuffer[] data) throws IOException {
+        if (data.length > 0 && data[data.length - 1].hasRemaining()) {
+            long res;
+            do {
+                res = channel.write(data);
+                if (!data[data.length - 1].hasRemaining()) {
+                    break;
+                }
+            } while (res > 0);
+            if (data[data.length - 1].hasRemaining()) {
+                return false;
+            }
+        }
+        channel.shutdownWrites();
+        return channel.flush();
+    }
+
+    private void releaseBuffers() {
+        for (PooledByteBuffer buffer : buffers) {
+            buffer.close();
+        }
+        buffers.clear();
+    }
+}
@@ -18,14 +18,16 @@
 
 package org.wildfly.httpclient.common;
 
-import static org.xnio.Bits.allAreClear;
-import static org.xnio.Bits.anyAreSet;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
-import org.wildfly.common.Assert;
+import org.jboss.marshalling.ByteInput;
 import org.xnio.ChannelListener;
 import org.xnio.IoUtils;
 import org.xnio.channels.StreamSourceChannel;
@@ -33,88 +35,126 @@ import org.xnio.channels.StreamSourceChannel;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
 
-class WildflyClientInputStream extends InputStream {
-    private final Object lock = new Object();
+/**
+ * Input stream that reads a response body from a channel into pooled buffers. It is also a {@link ByteInput}, so that
+ * an unmarshaller reads straight from the pooled buffers.
+ * <p>
+ * The IO thread reads ahead of the consumer into a queue of buffers, without locking: it suspends reads once the queue
+ * holds {@code high-watermark} buffers, and the consumer resumes them once it is down to {@code low-watermark}. The
+ * stream must not be read by more than one thread at a time.
+ */
+class WildflyClientInputStream extends InputStream implements ByteInput {
+
+    static final int HIGH_WATERMARK = Math.max(1, AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.read-ahead.high-watermark", 4)));
+    static final int LOW_WATERMARK = Math.min(HIGH_WATERMARK - 1, Math.max(0, AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.read-ahead.low-watermark", 1))));
+
+    private static final AtomicIntegerFieldUpdater<WildflyClientInputStream> SUSPENDED = AtomicIntegerFieldUpdater.newUpdater(WildflyClientInputStream.class, "suspended");
+
     private final ByteBufferPool bufferPool;
     private final StreamSourceChannel channel;
+    private final ClientMetrics metrics;
+    // the queue of buffers read ahead, written by the IO thread at the tail and read by the consumer at the head; both
+    // are volatile writes, as each side reads the flags of the other one after moving them
+    private final PooledByteBuffer[] queue = new PooledByteBuffer[Integer.highestOneBit(HIGH_WATERMARK * 2 - 1)];
+    private final int mask = queue.length - 1;
+    private volatile long head;
+    private volatile long tail;
+    // 1 if the IO thread suspended reads because the queue is full
+    private volatile int suspended;
+    private volatile boolean endOfStream;
+    private volatile IOException ioException;
+    private volatile Thread waiter;
+
+    // only accessed by the consumer
+    private PooledByteBuffer current;
+    private boolean started;
+    private boolean closed;
+    private long read;
+
+    private final ChannelListener<StreamSourceChannel> channelListener = this::readAhead;
 
-    private PooledByteBuffer pooledByteBuffer;
-    private IOException ioException;
-    private int state;
-    private static final int FLAG_CLOSED = 1;
-    private static final int FLAG_MINUS_ONE_READ = 1 << 2;
-
-    private final ChannelListener<StreamSourceChannel> channelListener = new ChannelListener<StreamSourceChannel>() {
-        @Override
-        public void handleEvent(StreamSourceChannel streamSourceChannel) {
-            synchronized (lock) {
-                if (pooledByteBuffer != null) {
+    WildflyClientInputStream(ByteBufferPool bufferPool, StreamSourceChannel channel, ClientMetrics metrics) {
+        this.bufferPool = bufferPool;
+        this.channel = channel;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Reads from the channel on the IO thread until it has no more data or the queue is full.
+     */
+    private void readAhead(StreamSourceChannel channel) {
+        try {
+            for (;;) {
+                if (tail - head >= HIGH_WATERMARK) {
+                    suspendReads(channel);
                     return;
                 }
-                boolean free = true;
                 final PooledByteBuffer pooled = bufferPool.allocate();
+                final ByteBuffer buffer = pooled.getBuffer();
+                int res;
                 try {
-                    for (; ; ) {
-                        int res = streamSourceChannel.read(pooled.getBuffer());
-                        if (res == 0) {
-                            pooled.getBuffer().flip();
-                            if (pooled.getBuffer().hasRemaining()) {
-                                pooledByteBuffer = pooled;
-                                free = false;
-                                streamSourceChannel.suspendReads();
-                            }
-                            lock.notifyAll();
-                            return;
-                        }
-                        if (res == -1) {
-                            pooled.getBuffer().flip();
-                            if (pooled.getBuffer().hasRemaining()) {
-                                pooledByteBuffer = pooled;
-                                free = false;
-                                streamSourceChannel.suspendReads();
-                            }
-                            state |= FLAG_MINUS_ONE_READ;
-                            lock.notifyAll();
-                            return;
-                        } else if (!pooled.getBuffer().hasRemaining()) {
-                            pooled.getBuffer().flip();
-                            pooledByteBuffer = pooled;
-                            free = false;
-                            lock.notifyAll();
-                            streamSourceChannel.suspendReads();
-                            return;
-                        }
-                    }
-                } catch (IOException e) {
-                    ioException = e;
-                    if (pooledByteBuffer != null) {
-                        pooledByteBuffer.close();
-                        pooledByteBuffer = null;
-                    }
-                    lock.notifyAll();
-                } finally {
-                    if (free) {
-                        pooled.close();
-                    }
+                    do {
+                        res = channel.read(buffer);
+                    } while (res > 0 && buffer.hasRemaining());
+                } catch (IOException | RuntimeException e) {
+                    pooled.close();
+                    throw e;
+                }
+                buffer.flip();
+                if (buffer.hasRemaining()) {
+                    final long tail = this.tail;
+                    queue[(int) tail & mask] = pooled;
+                    this.tail = tail + 1;
+                    wakeConsumer();
+                } else {
+                    pooled.close();
+                }
+                if (res == -1) {
+                    channel.suspendReads();
+                    endOfStream = true;
+                    wakeConsumer();
+                    return;
+                }
+                if (res == 0) {
+                    return;
                 }
             }
+        } catch (IOException e) {
+            channel.suspendReads();
+            ioException = e;
+            wakeConsumer();
         }
-    };
+    }
 
+    private void suspendReads(StreamSourceChannel channel) {
+        channel.suspendReads();
+        suspended = 1;
+        wakeConsumer();
+        // the consumer may have drained the queue before it could see the flag
+        if (tail - head <= LOW_WATERMARK && SUSPENDED.compareAndSet(this, 1, 0)) {
+            channel.resumeReads();
+        }
+    }
 
-    WildflyClientInputStream(ByteBufferPool bufferPool, StreamSourceChannel channel) {
-        this.bufferPool = bufferPool;
-        this.channel = channel;
+    private void wakeConsumer() {
+        final Thread waiter = this.waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
     }
 
     @Override
     public int read() throws IOException {
-        byte[] b = new byte[1];
-        int res = read(b);
-        if (res == 1) {
-            return b[0] & 0xFF;
+        if (current == null && !nextBuffer()) {
+            return -1;
+        }
+        final ByteBuffer buffer = current.getBuffer();
+        final int b = buffer.get() & 0xFF;
+        ++read;
+        if (!buffer.hasRemaining()) {
+            releaseCurrent();
         }
-        return res;
+        return b;
     }
 
     @Override
@@ -124,82 +164,144 @@ class WildflyClientInputStream extends InputStream {
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        synchronized (lock) {
-            if (len < 1) {
-                return 0;
-            }
-            if (Thread.currentThread() == channel.getIoThread()) {
-                throw HttpClientMessages.MESSAGES.blockingIoFromIOThread();
+        if (len < 1) {
+            return 0;
+        }
+        if (current == null && !nextBuffer()) {
+            return -1;
+        }
+        final ByteBuffer buffer = current.getBuffer();
+        final int toRead = Math.min(buffer.remaining(), len);
+        buffer.get(b, off, toRead);
+        read += toRead;
+        if (!buffer.hasRemaining()) {
+            releaseCurrent();
+        }
+        return toRead;
+    }
+
+    /**
+     * Takes the next buffer from the queue, waiting for the IO thread if it is empty.
+     *
+     * @return {@code false} if the end of the stream was reached
+     */
+    private boolean nextBuffer() throws IOException {
+        if (closed) {
+            if (endOfStream) {
+                return false;
             }
-            if (anyAreSet(state, FLAG_CLOSED) && !anyAreSet(state, FLAG_MINUS_ONE_READ)) {
-                throw HttpClientMessages.MESSAGES.streamIsClosed();
+            throw HttpClientMessages.MESSAGES.streamIsClosed();
+        }
+        if (Thread.currentThread() == channel.getIoThread()) {
+            throw HttpClientMessages.MESSAGES.blockingIoFromIOThread();
+        }
+        start();
+        for (;;) {
+            if ((current = poll()) != null) {
+                return true;
             }
             if (ioException != null) {
                 throw new IOException(ioException);
             }
-            while (pooledByteBuffer == null) {
-                if (anyAreSet(state, FLAG_MINUS_ONE_READ)) {
-                    state |= FLAG_CLOSED;
-                    return -1;
-                }
-                runReadTask();
-                try {
-                    lock.wait();
-                } catch (InterruptedException e) {
-                    throw new InterruptedIOException(e.getMessage());
-                }
-                if (ioException != null) {
-                    throw new IOException(ioException);
+            if (endOfStream) {
+                // the last buffer is queued before the end of the stream is flagged
+                if ((current = poll()) != null) {
+                    return true;
                 }
+                closed = true;
+                reportRead();
+                return false;
             }
-            int toRead = Math.min(pooledByteBuffer.getBuffer().remaining(), len);
-            pooledByteBuffer.getBuffer().get(b, off, toRead);
-            if (!pooledByteBuffer.getBuffer().hasRemaining()) {
-                pooledByteBuffer.close();
-                pooledByteBuffer = null;
+            await();
+        }
+    }
+
+    private PooledByteBuffer poll() {
+        final long head = this.head;
+        if (head == tail) {
+            return null;
+        }
+        final int index = (int) head & mask;
+        final PooledByteBuffer pooled = queue[index];
+        queue[index] = null;
+        this.head = head + 1;
+        if (suspended == 1 && tail - (head + 1) <= LOW_WATERMARK && SUSPENDED.compareAndSet(this, 1, 0)) {
+            channel.resumeReads();
+        }
+        return pooled;
+    }
+
+    private void start() {
+        if (!started) {
+            started = true;
+            channel.getReadSetter().set(channelListener);
+            channel.resumeReads();
+        }
+    }
+
+    private void await() throws InterruptedIOException {
+        waiter = Thread.currentThread();
+        try {
+            if (head == tail && !endOfStream && ioException == null) {
+                LockSupport.park(this);
             }
-            return toRead;
+        } finally {
+            waiter = null;
         }
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException();
+        }
+    }
 
+    private void releaseCurrent() {
+        current.close();
+        current = null;
     }
 
-    private void runReadTask() {
-        Assert.assertTrue(pooledByteBuffer == null);
-        channel.getReadSetter().set(channelListener);
-        channel.resumeReads();
+    private void reportRead() {
+        if (read > 0) {
+            metrics.bytesReceived(read);
+            read = 0;
+        }
     }
 
     @Override
     public int available() throws IOException {
-        synchronized (lock) {
-            if (pooledByteBuffer != null) {
-                return pooledByteBuffer.getBuffer().remaining();
-            }
-        }
-        return 0;
+        final PooledByteBuffer current = this.current;
+        return current != null ? current.getBuffer().remaining() : 0;
     }
 
     @Override
     public void close() throws IOException {
-        if (anyAreSet(state, FLAG_CLOSED)) {
+        if (closed) {
             return;
         }
-        synchronized (lock) {
-            IoUtils.safeClose(pooledByteBuffer);
-            pooledByteBuffer = null;
-            while (allAreClear(state, FLAG_MINUS_ONE_READ) && ioException == null) {
-                runReadTask();
-                try {
-                    lock.wait();
-                } catch (InterruptedException e) {
-                    IoUtils.safeClose(pooledByteBuffer, channel);
-                    throw new InterruptedIOException(e.getMessage());
-                }
-                IoUtils.safeClose(pooledByteBuffer);
-                pooledByteBuffer = null;
+        closed = true;
+        reportRead();
+        IoUtils.safeClose(current);
+        current = null;
+        // the rest of the response is read and discarded, so that the connection can be reused
+        if (!endOfStream) {
+            start();
+        }
+        for (;;) {
+            final boolean end = endOfStream;
+            final IOException failure = ioException;
+            PooledByteBuffer pooled;
+            while ((pooled = poll()) != null) {
+                pooled.close();
             }
-            if (ioException != null) {
-                throw new IOException(ioException);
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+            if (end) {
+                return;
+            }
+            try {
+                await();
+            } catch (InterruptedIOException e) {
+                IoUtils.safeClose(channel);
+                throw e;
             }
         }
     }
@@ -18,7 +18,6 @@
 
 package org.wildfly.httpclient.common;
 
-import static org.xnio.Bits.allAreClear;
 import static org.xnio.Bits.anyAreClear;
 import static org.xnio.Bits.anyAreSet;
 
@@ -26,10 +25,16 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jboss.marshalling.ByteOutput;
-import org.wildfly.common.Assert;
 import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
 import org.xnio.channels.StreamSinkChannel;
 
 import io.undertow.connector.ByteBufferPool;
@@ -38,20 +43,29 @@ import io.undertow.connector.PooledByteBuffer;
 /**
  * Buffering output stream that wraps a channel.
  * <p>
- * This stream delays channel creation, so if a response will fit in the buffer it is not necessary to
- * set the content length header.
+ * The writer fills pooled buffers and queues them without waiting for the IO thread, unless {@code max-pending} buffers
+ * are already queued. The IO thread writes everything queued with a single gathering write.
  *
  * @author Stuart Douglas
  */
 class WildflyClientOutputStream extends OutputStream implements ByteOutput {
 
-    private final Object lock = new Object();
+    static final int MAX_PENDING = Math.max(1, AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.write-behind.max-pending", 4)));
 
-    private PooledByteBuffer pooledBuffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // the buffers written by the IO thread; the last one may be added by close() beyond MAX_PENDING
+    private final ArrayDeque<PooledByteBuffer> pending = new ArrayDeque<>(MAX_PENDING + 1);
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_PENDING + 1];
+    // the buffer being filled, only accessed by the writer
+    private PooledByteBuffer current;
     private IOException ioException;
     private final StreamSinkChannel channel;
     private final ByteBufferPool bufferPool;
+    private final ClientMetrics metrics;
     private int state;
+    private long written;
 
     private static final int FLAG_CLOSED = 1;
     private static final int FLAG_WRITING = 1 << 1;
@@ -60,74 +74,103 @@ class WildflyClientOutputStream extends OutputStream implements ByteOutput {
     private final ChannelListener<StreamSinkChannel> channelListener = new ChannelListener<StreamSinkChannel>() {
         @Override
         public void handleEvent(StreamSinkChannel streamSinkChannel) {
-            synchronized (lock) {
-                if(anyAreClear(state, FLAG_WRITING)) {
-                    return;
-                }
-                try {
-                    boolean closed = anyAreSet(state, FLAG_CLOSED);
-                    if (pooledBuffer != null) {
-                        pooledBuffer.getBuffer().flip();
-                    }
-                    if (closed && (pooledBuffer == null || !pooledBuffer.getBuffer().hasRemaining())) {
-                        if (pooledBuffer != null) {
-                            pooledBuffer.close();
-                            pooledBuffer = null;
-                        }
-                        //if we are just flushing the data
-                        if (streamSinkChannel.flush()) {
-                            state |= FLAG_DONE;
-                            state &= ~FLAG_WRITING;
-                            lock.notifyAll();
-                            streamSinkChannel.shutdownWrites();
+            try {
+                for (;;) {
+                    final int count;
+                    final boolean closed;
+                    lock.lock();
+                    try {
+                        if (anyAreClear(state, FLAG_WRITING) || anyAreSet(state, FLAG_DONE)) {
+                            streamSinkChannel.suspendWrites();
+                            return;
                         }
-                    } else {
-                        while (pooledBuffer.getBuffer().hasRemaining()) {
-                            int res;
-                            if (closed) {
-                                res = streamSinkChannel.writeFinal(pooledBuffer.getBuffer());
-                            } else {
-                                res = streamSinkChannel.write(pooledBuffer.getBuffer());
-                            }
-                            if (res == 0) {
-                                pooledBuffer.getBuffer().compact(); // WEJBHTTP-50 compact the buffer to be able to flip it when listener is invoked again
+                        closed = anyAreSet(state, FLAG_CLOSED);
+                        if (pending.isEmpty()) {
+                            if (!closed) {
+                                state &= ~FLAG_WRITING;
+                                streamSinkChannel.suspendWrites();
                                 return;
                             }
-                        }
-                        lock.notifyAll();
-                        streamSinkChannel.suspendWrites();
-                        state &= ~FLAG_WRITING;
-                        pooledBuffer.close();
-                        pooledBuffer = null;
-                        if (closed) {
+                            streamSinkChannel.shutdownWrites();
                             if (streamSinkChannel.flush()) {
                                 state |= FLAG_DONE;
+                                state &= ~FLAG_WRITING;
+                                streamSinkChannel.suspendWrites();
+                                changed.signalAll();
                             }
+                            return;
+                        }
+                        int i = 0;
+                        for (PooledByteBuffer pooled : pending) {
+                            batch[i++] = pooled.getBuffer();
+                        }
+                        count = i;
+                    } finally {
+                        lock.unlock();
+                    }
+                    // the queued buffers are only touched by this thread, so they are written without holding the lock
+                    long res;
+                    do {
+                        res = closed ? streamSinkChannel.writeFinal(batch, 0, count) : streamSinkChannel.write(batch, 0, count);
+                    } while (res > 0 && batch[count - 1].hasRemaining());
+                    final boolean blocked = batch[count - 1].hasRemaining();
+                    Arrays.fill(batch, 0, count, null);
+                    lock.lock();
+                    try {
+                        PooledByteBuffer head;
+                        while ((head = pending.peekFirst()) != null && !head.getBuffer().hasRemaining()) {
+                            pending.pollFirst().close();
+                            changed.signalAll();
                         }
+                    } finally {
+                        lock.unlock();
                     }
-                } catch (IOException e) {
-                    if (pooledBuffer != null) {
-                        pooledBuffer.close();
-                        pooledBuffer = null;
+                    if (blocked) {
+                        // wait until the channel is writable again
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    Arrays.fill(batch, null);
+                    PooledByteBuffer pooled;
+                    while ((pooled = pending.pollFirst()) != null) {
+                        pooled.close();
                     }
                     state &= ~FLAG_WRITING;
                     ioException = e;
-                    lock.notifyAll();
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
                 }
             }
         }
     };
 
-    WildflyClientOutputStream(StreamSinkChannel channel, ByteBufferPool byteBufferPool) {
+    WildflyClientOutputStream(StreamSinkChannel channel, ByteBufferPool byteBufferPool, ClientMetrics metrics) {
         this.channel = channel;
         this.bufferPool = byteBufferPool;
+        this.metrics = metrics;
     }
 
     /**
      * {@inheritDoc}
      */
     public void write(final int b) throws IOException {
-        write(new byte[]{(byte) b}, 0, 1);
+        final PooledByteBuffer current = this.current;
+        if (current != null && current.getBuffer().remaining() > 1) {
+            current.getBuffer().put((byte) b);
+            ++written;
+            return;
+        }
+        checkWritable();
+        final ByteBuffer buffer = buffer();
+        buffer.put((byte) b);
+        ++written;
+        if (!buffer.hasRemaining()) {
+            queueCurrent();
+        }
     }
 
     /**
@@ -144,52 +187,65 @@ class WildflyClientOutputStream extends OutputStream implements ByteOutput {
         if (len < 1) {
             return;
         }
+        checkWritable();
+        int currentOff = off;
+        int currentLen = len;
+        written += len;
+        while (currentLen > 0) {
+            final ByteBuffer buffer = buffer();
+            final int put = Math.min(buffer.remaining(), currentLen);
+            buffer.put(b, currentOff, put);
+            currentOff += put;
+            currentLen -= put;
+            if (!buffer.hasRemaining()) {
+                queueCurrent();
+            }
+        }
+    }
+
+    private void checkWritable() throws IOException {
         if (Thread.currentThread() == channel.getIoThread()) {
             throw HttpClientMessages.MESSAGES.blockingIoFromIOThread();
         }
         if (anyAreSet(state, FLAG_CLOSED)) {
             throw HttpClientMessages.MESSAGES.streamIsClosed();
         }
-        int currentOff = off;
-        int currentLen = len;
-        synchronized (lock) {
-            for (; ; ) {
-                while (anyAreSet(state, FLAG_WRITING) && ioException == null) {
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException e) {
-                        throw new InterruptedIOException(e.getMessage());
-                    }
-                }
-                if (ioException != null) {
-                    throw new IOException(ioException);
-                }
+    }
 
-                ByteBuffer buffer = buffer();
-                if (buffer.remaining() < currentLen) {
-                    int put = buffer.remaining();
-                    buffer.put(b, currentOff, buffer.remaining());
-                    currentOff += put;
-                    currentLen -= put;
-                    runWriteTask();
-                } else {
-                    buffer.put(b, currentOff, currentLen);
-                    if (buffer.remaining() == 0) {
-                        runWriteTask();
-                    }
-                    return;
+    /**
+     * Queues the current buffer for the IO thread, waiting if too many buffers are already queued.
+     */
+    private void queueCurrent() throws IOException {
+        final PooledByteBuffer full = current;
+        current = null;
+        full.getBuffer().flip();
+        lock.lock();
+        try {
+            while (pending.size() >= MAX_PENDING && ioException == null) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    full.close();
+                    throw new InterruptedIOException(e.getMessage());
                 }
             }
-
-
+            if (ioException != null) {
+                full.close();
+                throw new IOException(ioException);
+            }
+            pending.addLast(full);
+            runWriteTask();
+        } finally {
+            lock.unlock();
         }
     }
 
     private void runWriteTask() {
-        Assert.assertHoldsLock(lock);
-        state |= FLAG_WRITING;
-        channel.getWriteSetter().set(channelListener);
-        channel.wakeupWrites();
+        if (anyAreClear(state, FLAG_WRITING)) {
+            state |= FLAG_WRITING;
+            channel.getWriteSetter().set(channelListener);
+            channel.wakeupWrites();
+        }
     }
 
     /**
@@ -205,33 +261,37 @@ class WildflyClientOutputStream extends OutputStream implements ByteOutput {
      * {@inheritDoc}
      */
     public void close() throws IOException {
-        synchronized (lock) {
+        final PooledByteBuffer last = current;
+        current = null;
+        lock.lock();
+        try {
             if (ioException != null) {
+                IoUtils.safeClose(last);
                 throw new IOException(ioException);
             }
-            if (anyAreSet(state, FLAG_CLOSED)) return;
-            state |= FLAG_CLOSED;
-            runWriteTask();
-            while (allAreClear(state, FLAG_DONE) && ioException != null) {
-                try {
-                    lock.wait();
-                } catch (InterruptedException e) {
-                    throw new InterruptedIOException(e.getMessage());
-                }
+            if (anyAreSet(state, FLAG_CLOSED)) {
+                IoUtils.safeClose(last);
+                return;
             }
-            if (ioException != null) {
-                throw new IOException(ioException);
+            state |= FLAG_CLOSED;
+            metrics.bytesSent(written);
+            if (last != null) {
+                last.getBuffer().flip();
+                pending.addLast(last);
             }
+            runWriteTask();
+        } finally {
+            lock.unlock();
         }
     }
 
     private ByteBuffer buffer() {
-        PooledByteBuffer buffer = this.pooledBuffer;
+        PooledByteBuffer buffer = this.current;
         if (buffer != null) {
             return buffer.getBuffer();
         }
-        this.pooledBuffer = bufferPool.allocate();
-        return pooledBuffer.getBuffer();
+        this.current = bufferPool.allocate();
+        return current.getBuffer();
     }
 
 }
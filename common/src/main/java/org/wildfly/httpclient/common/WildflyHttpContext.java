@@ -23,16 +23,22 @@ import io.undertow.connector.ByteBufferPool;
 import io.undertow.server.DefaultByteBufferPool;
 import org.wildfly.common.context.ContextManager;
 import org.wildfly.common.context.Contextual;
+import org.xnio.IoUtils;
 import org.xnio.OptionMap;
+import org.xnio.XnioExecutor;
 import org.xnio.XnioWorker;
 
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static java.security.AccessController.doPrivileged;
 
@@ -56,7 +62,9 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
     });
 
     /**
-     * TODO: figure out some way to remove these when all the connections are closed, it has the potential to be very racey
+     * Target contexts that are not configured are evicted from this map once they have been idle for
+     * {@link #targetIdleTimeout}. Evicting a target context closes its connection pool, and the requests sent through it
+     * afterwards go to a new target context obtained from {@link #getTargetContext(URI)}.
      */
     private final Map<URI, HttpTargetContext> uriConnectionPools = new ConcurrentHashMap<>();
 
@@ -65,23 +73,32 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
     private final int maxConnections;
     private final int maxStreamsPerConnection;
     private final long idleTimeout;
+    private final long targetIdleTimeout;
     private final boolean eagerlyAcquireAffinity;
+    private final boolean loadBalance;
     private final XnioWorker worker;
     private final ByteBufferPool pool;
-    private final boolean enableHttp2;
+    private final OptionMap poolOptions;
     private final HttpConnectionPoolFactory httpConnectionPoolFactory;
     private final HttpMarshallerFactoryProvider httpMarshallerFactoryProvider;
+    private final Runnable evictionTask = this::evictIdleTargetContexts;
+    // guarded by this, the eviction task only runs while there are target contexts that can be evicted
+    private boolean evictionScheduled;
+    private XnioExecutor.Key evictionKey;
+    private boolean closed;
 
-    WildflyHttpContext(ConfigSection[] targets, int maxConnections, int maxStreamsPerConnection, long idleTimeout, boolean eagerlyAcquireAffinity, XnioWorker worker, ByteBufferPool pool, boolean enableHttp2,
+    WildflyHttpContext(ConfigSection[] targets, int maxConnections, int maxStreamsPerConnection, long idleTimeout, long targetIdleTimeout, boolean eagerlyAcquireAffinity, boolean loadBalance, XnioWorker worker, ByteBufferPool pool, OptionMap poolOptions,
                        HttpConnectionPoolFactory httpConnectionPoolFactory, HttpMarshallerFactoryProvider httpMarshallerFactoryProvider) {
         this.targets = targets;
         this.maxConnections = maxConnections;
         this.maxStreamsPerConnection = maxStreamsPerConnection;
         this.idleTimeout = idleTimeout;
+        this.targetIdleTimeout = targetIdleTimeout;
         this.eagerlyAcquireAffinity = eagerlyAcquireAffinity;
+        this.loadBalance = loadBalance;
         this.worker = worker;
         this.pool = pool;
-        this.enableHttp2 = enableHttp2;
+        this.poolOptions = poolOptions;
         this.httpConnectionPoolFactory = httpConnectionPoolFactory;
         this.httpMarshallerFactoryProvider = httpMarshallerFactoryProvider;
     }
@@ -99,6 +116,15 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
         return getConnectionPoolForURI(uri);
     }
 
+    /**
+     * Returns the worker the connections of this context run on.
+     *
+     * @return the worker
+     */
+    public XnioWorker getWorker() {
+        return worker;
+    }
+
     private HttpTargetContext getConnectionPoolForURI(URI uri) {
         HttpTargetContext context = uriConnectionPools.get(uri);
         if (context != null) {
@@ -118,13 +144,87 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
                 return context;
             }
             HttpConnectionPool pool = httpConnectionPoolFactory.createHttpConnectionPool(
-                    maxConnections, maxStreamsPerConnection, worker, this.pool, OptionMap.create(UndertowOptions.ENABLE_HTTP2, enableHttp2), new HostPool(uri), idleTimeout);
+                    maxConnections, maxStreamsPerConnection, worker, this.pool, poolOptions, new HostPool(uri, loadBalance), idleTimeout);
             uriConnectionPools.put(uri, context = new HttpTargetContext(pool, eagerlyAcquireAffinity, uri, httpMarshallerFactoryProvider));
+            context.warmUp();
             context.init();
+            if (targetIdleTimeout > 0 && !evictionScheduled && !closed) {
+                evictionScheduled = true;
+                evictionKey = worker.getIoThread().executeAfter(evictionTask, targetIdleTimeout, TimeUnit.MILLISECONDS);
+            }
             return context;
         }
     }
 
+    private void evictIdleTargetContexts() {
+        for (Map.Entry<URI, HttpTargetContext> entry : uriConnectionPools.entrySet()) {
+            final HttpTargetContext context = entry.getValue();
+            final URI uri = entry.getKey();
+            if (!isConfiguredTarget(context) && context.isEvictable(targetIdleTimeout) && uriConnectionPools.remove(uri, context)) {
+                // the target context may have been handed out since it was checked, in which case it is kept
+                if (!context.isEvictable(targetIdleTimeout) && uriConnectionPools.putIfAbsent(uri, context) == null) {
+                    continue;
+                }
+                HttpClientMessages.MESSAGES.debugf("Evicting idle target context for %s", uri);
+                context.evicted(() -> getTargetContext(uri));
+                IoUtils.safeClose(context.getConnectionPool());
+                context.getMetrics().close();
+            }
+        }
+        synchronized (this) {
+            // target contexts that can be evicted are only added while holding this lock, which schedules the task again
+            if (closed || !hasEvictableTargetContexts()) {
+                evictionScheduled = false;
+                evictionKey = null;
+                return;
+            }
+            evictionKey = worker.getIoThread().executeAfter(evictionTask, targetIdleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean hasEvictableTargetContexts() {
+        for (HttpTargetContext context : uriConnectionPools.values()) {
+            if (!isConfiguredTarget(context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the connection pools of all the target contexts of this context, and stops evicting idle target
+     * contexts.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            evictionScheduled = false;
+            if (evictionKey != null) {
+                evictionKey.remove();
+                evictionKey = null;
+            }
+        }
+        final Set<HttpTargetContext> contexts = Collections.newSetFromMap(new IdentityHashMap<>());
+        contexts.addAll(uriConnectionPools.values());
+        for (ConfigSection target : targets) {
+            contexts.add(target.getHttpTargetContext());
+        }
+        uriConnectionPools.clear();
+        for (HttpTargetContext context : contexts) {
+            IoUtils.safeClose(context.getConnectionPool());
+            context.getMetrics().close();
+        }
+    }
+
+    private boolean isConfiguredTarget(HttpTargetContext context) {
+        for (ConfigSection target : targets) {
+            if (target.getHttpTargetContext() == context) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     static class ConfigSection {
         private final HttpTargetContext httpTargetContext;
         private final URI uri;
@@ -146,9 +246,19 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
     static class Builder {
         private InetSocketAddress defaultBindAddress;
         private long idleTimeout = 50000; //the server defaults to an idle timeout of 60 seconds, we default ours to 50 to prevent possible races
+        private long targetIdleTimeout;
         private int maxConnections;
         private int maxStreamsPerConnection;
+        private int maxPendingRequests;
+        private long pendingRequestTimeout;
+        private int minIdleConnections;
+        private long dnsRefreshInterval;
+        private int circuitBreakerFailureThreshold;
+        private int circuitBreakerErrorRate;
+        private long circuitBreakerEjectionTime;
+        private long circuitBreakerProbeTimeout;
         private Boolean eagerlyAcquireSession;
+        private Boolean loadBalance;
         private final List<HttpConfigBuilder> targets = new ArrayList<>();
         private Boolean enableHttp2;
 
@@ -158,8 +268,11 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
 
             XnioWorker worker = XnioWorker.getContextManager().get();
             ByteBufferPool pool;
-            if(bufferConfig == null) {
-            pool=new DefaultByteBufferPool(true, 1024, 100, 0, LEAK_DETECTION); //TODO
+            if (bufferConfig == null) {
+                // leak detection is only available from the default pool
+                pool = LEAK_DETECTION > 0
+                        ? new DefaultByteBufferPool(AdaptiveByteBufferPool.defaultDirect(), AdaptiveByteBufferPool.defaultBufferSize(), 100, 0, LEAK_DETECTION)
+                        : new AdaptiveByteBufferPool();
             } else {
                 pool = new DefaultByteBufferPool(bufferConfig.isDirect(), bufferConfig.getBufferSize(), bufferConfig.getMaxSize(), bufferConfig.getThreadLocalSize(), LEAK_DETECTION);
             }
@@ -181,26 +294,86 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             }
             for (int i = 0; i < this.targets.size(); ++i) {
                 HttpConfigBuilder sb = this.targets.get(i);
-                HostPool hp = new HostPool(sb.getUri());
+                boolean loadBalance = this.loadBalance == null ? false : this.loadBalance;
+                if (sb.getLoadBalance() != null) {
+                    loadBalance = sb.getLoadBalance();
+                }
+                HostPool hp = new HostPool(sb.getUri(), loadBalance);
                 boolean eager = this.eagerlyAcquireSession == null ? false : this.eagerlyAcquireSession;
                 if (sb.getEagerlyAcquireSession() != null && sb.getEagerlyAcquireSession()) {
                     eager = true;
                 }
-                boolean http2 = this.enableHttp2 == null ? true : this.enableHttp2;
-                if(sb.getEnableHttp2() != null) {
-                    http2 = sb.getEnableHttp2();
-                }
+                OptionMap poolOptions = createPoolOptions(sb);
                 ConfigSection connection = new ConfigSection(new HttpTargetContext(
-                        httpConnectionPoolFactory.createHttpConnectionPool(sb.getMaxConnections() > 0 ? sb.getMaxConnections() : maxConnections, sb.getMaxStreamsPerConnection() > 0 ? sb.getMaxStreamsPerConnection() : maxStreamsPerConnection, worker, pool, OptionMap.create(UndertowOptions.ENABLE_HTTP2, http2),
+                        httpConnectionPoolFactory.createHttpConnectionPool(sb.getMaxConnections() > 0 ? sb.getMaxConnections() : maxConnections, sb.getMaxStreamsPerConnection() > 0 ? sb.getMaxStreamsPerConnection() : maxStreamsPerConnection, worker, pool, poolOptions,
                                 hp, sb.getIdleTimeout() > 0 ? sb.getIdleTimeout() : idleTimout), eager, sb.getUri(), httpMarshallerFactoryProvider),
                         sb.getUri());
                 connections[i] = connection;
+                connection.getHttpTargetContext().warmUp();
             }
-            return new WildflyHttpContext(connections, maxConnections, maxStreamsPerConnection, idleTimeout,
-                    eagerlyAcquireSession == null ? false : eagerlyAcquireSession, worker, pool, enableHttp2 == null ? true : enableHttp2,
+            return new WildflyHttpContext(connections, maxConnections, maxStreamsPerConnection, idleTimeout, targetIdleTimeout,
+                    eagerlyAcquireSession == null ? false : eagerlyAcquireSession, loadBalance == null ? false : loadBalance, worker, pool,
+                    createPoolOptions(null),
                     httpConnectionPoolFactory, httpMarshallerFactoryProvider);
         }
 
+        /**
+         * Creates the connection pool options of a target, the target settings override the default ones.
+         *
+         * @param target the target, or {@code null} to create the options of the targets that are not configured
+         */
+        private OptionMap createPoolOptions(HttpConfigBuilder target) {
+            boolean http2 = this.enableHttp2 == null ? true : this.enableHttp2;
+            int maxPendingRequests = this.maxPendingRequests;
+            long pendingRequestTimeout = this.pendingRequestTimeout;
+            int minIdleConnections = this.minIdleConnections;
+            long dnsRefreshInterval = this.dnsRefreshInterval;
+            int circuitBreakerFailureThreshold = this.circuitBreakerFailureThreshold;
+            int circuitBreakerErrorRate = this.circuitBreakerErrorRate;
+            long circuitBreakerEjectionTime = this.circuitBreakerEjectionTime > 0 ? this.circuitBreakerEjectionTime : 30000;
+            long circuitBreakerProbeTimeout = this.circuitBreakerProbeTimeout > 0 ? this.circuitBreakerProbeTimeout : 10000;
+            if (target != null) {
+                if (target.getEnableHttp2() != null) {
+                    http2 = target.getEnableHttp2();
+                }
+                if (target.getMaxPendingRequests() > 0) {
+                    maxPendingRequests = target.getMaxPendingRequests();
+                }
+                if (target.getPendingRequestTimeout() > 0) {
+                    pendingRequestTimeout = target.getPendingRequestTimeout();
+                }
+                if (target.getMinIdleConnections() > 0) {
+                    minIdleConnections = target.getMinIdleConnections();
+                }
+                if (target.getDnsRefreshInterval() > 0) {
+                    dnsRefreshInterval = target.getDnsRefreshInterval();
+                }
+                if (target.getCircuitBreakerFailureThreshold() > 0) {
+                    circuitBreakerFailureThreshold = target.getCircuitBreakerFailureThreshold();
+                }
+                if (target.getCircuitBreakerErrorRate() > 0) {
+                    circuitBreakerErrorRate = target.getCircuitBreakerErrorRate();
+                }
+                if (target.getCircuitBreakerEjectionTime() > 0) {
+                    circuitBreakerEjectionTime = target.getCircuitBreakerEjectionTime();
+                }
+                if (target.getCircuitBreakerProbeTimeout() > 0) {
+                    circuitBreakerProbeTimeout = target.getCircuitBreakerProbeTimeout();
+                }
+            }
+            return OptionMap.builder()
+                    .set(UndertowOptions.ENABLE_HTTP2, http2)
+                    .set(HttpConnectionPoolOptions.MAX_PENDING_REQUESTS, maxPendingRequests)
+                    .set(HttpConnectionPoolOptions.PENDING_REQUEST_TIMEOUT, pendingRequestTimeout)
+                    .set(HttpConnectionPoolOptions.MIN_IDLE_CONNECTIONS, minIdleConnections)
+                    .set(HttpConnectionPoolOptions.DNS_REFRESH_INTERVAL, dnsRefreshInterval)
+                    .set(HttpConnectionPoolOptions.CIRCUIT_BREAKER_FAILURE_THRESHOLD, circuitBreakerFailureThreshold)
+                    .set(HttpConnectionPoolOptions.CIRCUIT_BREAKER_ERROR_RATE, circuitBreakerErrorRate)
+                    .set(HttpConnectionPoolOptions.CIRCUIT_BREAKER_EJECTION_TIME, circuitBreakerEjectionTime)
+                    .set(HttpConnectionPoolOptions.CIRCUIT_BREAKER_PROBE_TIMEOUT, circuitBreakerProbeTimeout)
+                    .getMap();
+        }
+
         void setDefaultBindAddress(InetSocketAddress defaultBindAddress) {
             this.defaultBindAddress = defaultBindAddress;
         }
@@ -228,6 +401,14 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             this.idleTimeout = idleTimeout;
         }
 
+        long getTargetIdleTimeout() {
+            return targetIdleTimeout;
+        }
+
+        void setTargetIdleTimeout(long targetIdleTimeout) {
+            this.targetIdleTimeout = targetIdleTimeout;
+        }
+
         int getMaxConnections() {
             return maxConnections;
         }
@@ -244,6 +425,70 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             this.maxStreamsPerConnection = maxStreamsPerConnection;
         }
 
+        int getMaxPendingRequests() {
+            return maxPendingRequests;
+        }
+
+        void setMaxPendingRequests(int maxPendingRequests) {
+            this.maxPendingRequests = maxPendingRequests;
+        }
+
+        long getPendingRequestTimeout() {
+            return pendingRequestTimeout;
+        }
+
+        void setPendingRequestTimeout(long pendingRequestTimeout) {
+            this.pendingRequestTimeout = pendingRequestTimeout;
+        }
+
+        int getMinIdleConnections() {
+            return minIdleConnections;
+        }
+
+        void setMinIdleConnections(int minIdleConnections) {
+            this.minIdleConnections = minIdleConnections;
+        }
+
+        long getDnsRefreshInterval() {
+            return dnsRefreshInterval;
+        }
+
+        void setDnsRefreshInterval(long dnsRefreshInterval) {
+            this.dnsRefreshInterval = dnsRefreshInterval;
+        }
+
+        int getCircuitBreakerFailureThreshold() {
+            return circuitBreakerFailureThreshold;
+        }
+
+        void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+            this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+        }
+
+        int getCircuitBreakerErrorRate() {
+            return circuitBreakerErrorRate;
+        }
+
+        void setCircuitBreakerErrorRate(int circuitBreakerErrorRate) {
+            this.circuitBreakerErrorRate = circuitBreakerErrorRate;
+        }
+
+        long getCircuitBreakerEjectionTime() {
+            return circuitBreakerEjectionTime;
+        }
+
+        void setCircuitBreakerEjectionTime(long circuitBreakerEjectionTime) {
+            this.circuitBreakerEjectionTime = circuitBreakerEjectionTime;
+        }
+
+        long getCircuitBreakerProbeTimeout() {
+            return circuitBreakerProbeTimeout;
+        }
+
+        void setCircuitBreakerProbeTimeout(long circuitBreakerProbeTimeout) {
+            this.circuitBreakerProbeTimeout = circuitBreakerProbeTimeout;
+        }
+
         Boolean getEagerlyAcquireSession() {
             return eagerlyAcquireSession;
         }
@@ -252,6 +497,14 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             this.eagerlyAcquireSession = eagerlyAcquireSession;
         }
 
+        Boolean getLoadBalance() {
+            return loadBalance;
+        }
+
+        void setLoadBalance(Boolean loadBalance) {
+            this.loadBalance = loadBalance;
+        }
+
         public BufferBuilder getBufferConfig() {
             return bufferConfig;
         }
@@ -275,7 +528,16 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
             private long idleTimeout;
             private int maxConnections;
             private int maxStreamsPerConnection;
+            private int maxPendingRequests;
+            private long pendingRequestTimeout;
+            private int minIdleConnections;
+            private long dnsRefreshInterval;
+            private int circuitBreakerFailureThreshold;
+            private int circuitBreakerErrorRate;
+            private long circuitBreakerEjectionTime;
+            private long circuitBreakerProbeTimeout;
             private Boolean eagerlyAcquireSession;
+            private Boolean loadBalance;
             private Boolean enableHttp2;
 
             HttpConfigBuilder(URI uri) {
@@ -318,6 +580,70 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
                 this.maxStreamsPerConnection = maxStreamsPerConnection;
             }
 
+            int getMaxPendingRequests() {
+                return maxPendingRequests;
+            }
+
+            void setMaxPendingRequests(int maxPendingRequests) {
+                this.maxPendingRequests = maxPendingRequests;
+            }
+
+            long getPendingRequestTimeout() {
+                return pendingRequestTimeout;
+            }
+
+            void setPendingRequestTimeout(long pendingRequestTimeout) {
+                this.pendingRequestTimeout = pendingRequestTimeout;
+            }
+
+            int getMinIdleConnections() {
+                return minIdleConnections;
+            }
+
+            void setMinIdleConnections(int minIdleConnections) {
+                this.minIdleConnections = minIdleConnections;
+            }
+
+            long getDnsRefreshInterval() {
+                return dnsRefreshInterval;
+            }
+
+            void setDnsRefreshInterval(long dnsRefreshInterval) {
+                this.dnsRefreshInterval = dnsRefreshInterval;
+            }
+
+            int getCircuitBreakerFailureThreshold() {
+                return circuitBreakerFailureThreshold;
+            }
+
+            void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+                this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+            }
+
+            int getCircuitBreakerErrorRate() {
+                return circuitBreakerErrorRate;
+            }
+
+            void setCircuitBreakerErrorRate(int circuitBreakerErrorRate) {
+                this.circuitBreakerErrorRate = circuitBreakerErrorRate;
+            }
+
+            long getCircuitBreakerEjectionTime() {
+                return circuitBreakerEjectionTime;
+            }
+
+            void setCircuitBreakerEjectionTime(long circuitBreakerEjectionTime) {
+                this.circuitBreakerEjectionTime = circuitBreakerEjectionTime;
+            }
+
+            long getCircuitBreakerProbeTimeout() {
+                return circuitBreakerProbeTimeout;
+            }
+
+            void setCircuitBreakerProbeTimeout(long circuitBreakerProbeTimeout) {
+                this.circuitBreakerProbeTimeout = circuitBreakerProbeTimeout;
+            }
+
             Boolean getEagerlyAcquireSession() {
                 return eagerlyAcquireSession;
             }
@@ -326,6 +652,14 @@ public class WildflyHttpContext implements Contextual<WildflyHttpContext> {
                 this.eagerlyAcquireSession = eagerlyAcquireSession;
             }
 
+            Boolean getLoadBalance() {
+                return loadBalance;
+            }
+
+            void setLoadBalance(Boolean loadBalance) {
+                this.loadBalance = loadBalance;
+            }
+
             public void setEnableHttp2(Boolean enableHttp2) {
                 this.enableHttp2 = enableHttp2;
             }
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.DefaultByteBufferPool;
+import org.xnio.OptionMap;
+
+public class AdaptiveByteBufferPoolTestCase {
+
+    @Test
+    public void testBuffersAreReused() {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, 64, 32, 0);
+        final PooledByteBuffer first = pool.allocate();
+        final ByteBuffer buffer = first.getBuffer();
+        Assert.assertEquals(64, buffer.capacity());
+        buffer.put((byte) 1);
+        first.close();
+        first.close();
+        Assert.assertFalse(first.isOpen());
+        Assert.assertEquals(0, pool.getInUse());
+        final PooledByteBuffer second = pool.allocate();
+        Assert.assertSame(buffer, second.getBuffer());
+        Assert.assertEquals(0, second.getBuffer().position());
+        second.close();
+        Assert.assertEquals(2, pool.getAllocations());
+        Assert.assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void testOnlyIoThreadsCacheBuffers() throws Exception {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, 64, 32, 4);
+        final PooledByteBuffer first = pool.allocate();
+        final ByteBuffer buffer = first.getBuffer();
+        first.close();
+        // the buffer is not kept by this thread, so another thread allocates it again
+        final AtomicReference<ByteBuffer> allocated = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            final PooledByteBuffer second = pool.allocate();
+            allocated.set(second.getBuffer());
+            second.close();
+        });
+        thread.start();
+        thread.join();
+        Assert.assertSame(buffer, allocated.get());
+        Assert.assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void testRetentionFollowsDemand() {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, 64, 100, 2);
+        final List<PooledByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            buffers.add(pool.allocate());
+        }
+        Assert.assertEquals(40, pool.getInUse());
+        Assert.assertEquals(40, pool.getRetained());
+        buffers.forEach(PooledByteBuffer::close);
+        buffers.clear();
+        for (int i = 0; i < 40; ++i) {
+            buffers.add(pool.allocate());
+        }
+        buffers.forEach(PooledByteBuffer::close);
+        buffers.clear();
+        Assert.assertEquals(40, pool.getMisses());
+
+        // a sampling period with little demand shrinks the pool again
+        for (int i = 0; i < 2048; ++i) {
+            pool.allocate().close();
+        }
+        Assert.assertTrue(pool.getRetained() < 40);
+        Assert.assertEquals(40, pool.getMisses());
+    }
+
+    @Test
+    public void testRetentionIsBounded() {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, 64, 20, 0);
+        final List<PooledByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 30; ++i) {
+            buffers.add(pool.allocate());
+        }
+        Assert.assertEquals(20, pool.getRetained());
+        buffers.forEach(PooledByteBuffer::close);
+        buffers.clear();
+        for (int i = 0; i < 30; ++i) {
+            buffers.add(pool.allocate());
+        }
+        buffers.forEach(PooledByteBuffer::close);
+        Assert.assertEquals(40, pool.getMisses());
+    }
+
+    @Test
+    public void testArrayBackedPool() {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(true, 64, 20, 0);
+        Assert.assertTrue(pool.isDirect());
+        Assert.assertFalse(pool.getArrayBackedPool().isDirect());
+        Assert.assertSame(pool.getArrayBackedPool(), pool.getArrayBackedPool());
+        final PooledByteBuffer pooled = pool.getArrayBackedPool().allocate();
+        Assert.assertTrue(pooled.getBuffer().hasArray());
+        pooled.close();
+        pool.close();
+    }
+
+    @Test
+    public void testCountersAreExposedByTargetMetrics() throws Exception {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, 64, 20, 0);
+        final URI uri = new URI("http://localhost:8080");
+        final TargetMetrics metrics = new TargetMetrics(uri, new HttpConnectionPool(1, 1, null, pool, OptionMap.EMPTY, new HostPool(uri), -1));
+        final PooledByteBuffer first = pool.allocate();
+        pool.allocate().close();
+        Assert.assertEquals(2, metrics.getBufferAllocations());
+        Assert.assertEquals(2, metrics.getBufferMisses());
+        Assert.assertEquals(1, metrics.getBuffersInUse());
+        Assert.assertEquals(pool.getRetained(), metrics.getBuffersRetained());
+        first.close();
+        Assert.assertEquals(0, metrics.getBuffersInUse());
+
+        final TargetMetrics other = new TargetMetrics(uri, new HttpConnectionPool(1, 1, null, new DefaultByteBufferPool(false, 64), OptionMap.EMPTY, new HostPool(uri), -1));
+        Assert.assertEquals(-1, other.getBufferAllocations());
+        Assert.assertEquals(-1, other.getBuffersInUse());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressionCodecsTestCase {
+
+    @Test
+    public void testNegotiation() {
+        Assert.assertNull(CompressionCodecs.negotiate(null));
+        Assert.assertNull(CompressionCodecs.negotiate("br, identity"));
+        Assert.assertEquals("gzip", CompressionCodecs.negotiate("br, gzip, deflate").getName());
+        Assert.assertEquals("deflate", CompressionCodecs.negotiate("gzip;q=0.5, DEFLATE").getName());
+        Assert.assertEquals("deflate", CompressionCodecs.negotiate("gzip;q=0, deflate;q=0.1").getName());
+        Assert.assertNull(CompressionCodecs.negotiate("gzip;q=0"));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append("Hello World ");
+        }
+        final byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+        for (String name : new String[] {"gzip", "deflate", "x-wf-lz"}) {
+            final CompressionCodec codec = CompressionCodecs.getCodec(name);
+            final byte[] fast = compress(codec, data, 1);
+            final byte[] small = compress(codec, data, 9);
+            Assert.assertTrue(small.length < data.length);
+            Assert.assertArrayEquals(data, decompress(name, fast));
+            Assert.assertArrayEquals(data, decompress(name, small));
+            Assert.assertArrayEquals(data, decompress(name, compress(codec, data, CompressionCodec.DEFAULT_LEVEL)));
+        }
+    }
+
+    @Test
+    public void testLzRoundTrip() throws Exception {
+        final CompressionCodec codec = CompressionCodecs.getCodec("x-wf-lz");
+        final Random random = new Random(42);
+        // several blocks, some of which do not compress
+        final byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i < 100000 ? random.nextInt(256) : i % 13);
+        }
+        Assert.assertArrayEquals(data, decompress("x-wf-lz", compress(codec, data, CompressionCodec.DEFAULT_LEVEL)));
+        Assert.assertArrayEquals(new byte[0], decompress("x-wf-lz", compress(codec, new byte[0], CompressionCodec.DEFAULT_LEVEL)));
+        try {
+            decompress("x-wf-lz", new byte[] {0, 0, 0, 5, (byte) 0xf0, 1, 2, 3, 4});
+            Assert.fail("Expected corrupt data to be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testUnsupportedEncoding() throws Exception {
+        Assert.assertTrue(CompressionCodecs.isSupported(null));
+        Assert.assertTrue(CompressionCodecs.isSupported("identity"));
+        Assert.assertTrue(CompressionCodecs.isSupported("GZIP"));
+        Assert.assertFalse(CompressionCodecs.isSupported("br"));
+        final InputStream input = new ByteArrayInputStream(new byte[0]);
+        Assert.assertSame(input, CompressionCodecs.decode(input, "identity"));
+        try {
+            CompressionCodecs.decode(input, "br");
+            Assert.fail("Expected the encoding to be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] compress(CompressionCodec codec, byte[] data, int level) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressed = codec.compress(out, level)) {
+            compressed.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(String encoding, byte[] data) throws IOException {
+        try (InputStream in = CompressionCodecs.decode(new ByteArrayInputStream(data), encoding)) {
+            return in.readAllBytes();
+        }
+    }
+}
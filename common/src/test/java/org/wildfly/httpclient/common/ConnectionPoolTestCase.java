@@ -18,6 +18,8 @@
 
 package org.wildfly.httpclient.common;
 
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
 import io.undertow.client.ClientCallback;
 import io.undertow.client.ClientExchange;
 import io.undertow.client.ClientRequest;
@@ -32,9 +34,14 @@ import org.xnio.OptionMap;
 import org.xnio.channels.Channels;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -50,9 +57,14 @@ public class ConnectionPoolTestCase {
 
     static final int THREADS = 20;
     static final int MAX_CONNECTION_COUNT = 3;
+    static final int MAX_STREAMS_PER_CONNECTION = 5;
     static final int CONNECTION_IDLE_TIMEOUT = 1000;
     static String MAX_CONNECTIONS_PATH = "/max-connections-test";
+    static String MAX_CONNECTIONS_NO_MULTIPLEXING_PATH = "/max-connections-no-multiplexing-test";
     static String IDLE_TIMEOUT_PATH = "/idle-timeout-path";
+    static String PENDING_REQUESTS_PATH = "/pending-requests-path";
+    static String CLOSE_PATH = "/close-path";
+    static String MIN_IDLE_PATH = "/min-idle-path";
 
     private static final List<ServerConnection> connections = new CopyOnWriteArrayList<>();
 
@@ -89,7 +101,69 @@ public class ConnectionPoolTestCase {
 
     @Test
     public void testMaxConnections() throws Exception {
-        HTTPTestServer.registerPathHandler(MAX_CONNECTIONS_PATH, new BlockingHandler(exchange -> {
+        runMaxConnectionsTest(MAX_CONNECTIONS_PATH, 1);
+    }
+
+    @Test
+    public void testMaxConnectionsWithoutMultiplexing() throws Exception {
+        // HTTP/1.1 connections can't be shared, so the streams per connection setting must not raise the limit
+        runMaxConnectionsTest(MAX_CONNECTIONS_NO_MULTIPLEXING_PATH, MAX_STREAMS_PER_CONNECTION);
+    }
+
+    @Test
+    public void testMultiplexedConnection() throws Exception {
+        // a server of its own, as HTTPTestServer does not enable HTTP/2; the first request upgrades the connection (h2c)
+        final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+        final Undertow server = Undertow.builder()
+                .addHttpListener(0, HTTPTestServer.getHostAddress())
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setHandler(new BlockingHandler(exchange -> {
+                    clientPorts.add(exchange.getSourceAddress().getPort());
+                    synchronized (ConnectionPoolTestCase.class) {
+                        currentRequests++;
+                        if (currentRequests > maxActiveRequests) {
+                            maxActiveRequests = currentRequests;
+                        }
+                    }
+                    Thread.sleep(200);
+                    synchronized (ConnectionPoolTestCase.class) {
+                        currentRequests--;
+                    }
+                }))
+                .build();
+        server.start();
+        try {
+            final InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+            final URI uri = new URI("http", null, HTTPTestServer.getHostAddress(), address.getPort(), null, null, null);
+            HttpConnectionPool pool = new HttpConnectionPool(1, MAX_STREAMS_PER_CONNECTION, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.create(UndertowOptions.ENABLE_HTTP2, true), new HostPool(uri), -1);
+            final AtomicReference<Throwable> failed = new AtomicReference<>();
+            CountDownLatch latch = new CountDownLatch(1);
+            doInvocation(MAX_CONNECTIONS_PATH, pool, latch, failed);
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            checkFailed(failed);
+            Assert.assertEquals(1, pool.getOpenConnectionCount());
+            synchronized (ConnectionPoolTestCase.class) {
+                maxActiveRequests = 0;
+            }
+
+            latch = new CountDownLatch(MAX_STREAMS_PER_CONNECTION * 3);
+            for (int i = 0; i < MAX_STREAMS_PER_CONNECTION * 3; ++i) {
+                doInvocation(MAX_CONNECTIONS_PATH, pool, latch, failed);
+            }
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            checkFailed(failed);
+            // all the exchanges shared the only connection, at most maxStreamsPerConnection at a time
+            Assert.assertEquals(MAX_STREAMS_PER_CONNECTION, maxActiveRequests);
+            Assert.assertEquals(1, clientPorts.size());
+            Assert.assertEquals(1, pool.getOpenConnectionCount());
+            pool.close();
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void runMaxConnectionsTest(String path, int maxStreamsPerConnection) throws Exception {
+        HTTPTestServer.registerPathHandler(path, new BlockingHandler(exchange -> {
             synchronized (ConnectionPoolTestCase.class) {
                 currentRequests++;
                 if (currentRequests > maxActiveRequests) {
@@ -101,7 +175,10 @@ public class ConnectionPoolTestCase {
                 currentRequests--;
             }
         }));
-        HttpConnectionPool pool = new HttpConnectionPool(MAX_CONNECTION_COUNT, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        synchronized (ConnectionPoolTestCase.class) {
+            maxActiveRequests = 0;
+        }
+        HttpConnectionPool pool = new HttpConnectionPool(MAX_CONNECTION_COUNT, maxStreamsPerConnection, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
         ExecutorService executor = Executors.newFixedThreadPool(THREADS);
         List<CountDownLatch> results = new ArrayList<>();
         final AtomicReference<Throwable> failed = new AtomicReference<>();
@@ -109,7 +186,7 @@ public class ConnectionPoolTestCase {
             for (int i = 0; i < THREADS * 2; ++i) {
                 final CountDownLatch latch = new CountDownLatch(1);
                 results.add(latch);
-                doInvocation(MAX_CONNECTIONS_PATH, pool, latch, failed);
+                doInvocation(path, pool, latch, failed);
             }
 
             for (CountDownLatch i : results) {
@@ -122,6 +199,106 @@ public class ConnectionPoolTestCase {
         }
     }
 
+    @Test
+    public void testPendingRequestLimits() throws Exception {
+        HTTPTestServer.registerPathHandler(PENDING_REQUESTS_PATH, new BlockingHandler(exchange -> Thread.sleep(1000)));
+        OptionMap options = OptionMap.builder()
+                .set(HttpConnectionPoolOptions.MAX_PENDING_REQUESTS, 1)
+                .set(HttpConnectionPoolOptions.PENDING_REQUEST_TIMEOUT, 200L)
+                .getMap();
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), options, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        final AtomicReference<Throwable> timedOut = new AtomicReference<>();
+        final AtomicReference<Throwable> rejected = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        // the first request gets the only connection, the second waits for it and the third is rejected
+        doInvocation(PENDING_REQUESTS_PATH, pool, latch, failed);
+        doInvocation(PENDING_REQUESTS_PATH, pool, latch, timedOut);
+        doInvocation(PENDING_REQUESTS_PATH, pool, latch, rejected);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+        Assert.assertTrue(String.valueOf(rejected.get()), rejected.get() instanceof ConnectionRequestRejectedException);
+        Assert.assertTrue(String.valueOf(timedOut.get()), timedOut.get() instanceof ConnectionRequestRejectedException);
+    }
+
+    @Test
+    public void testMinIdleConnections() throws Exception {
+        final List<ServerConnection> minIdleConnections = new CopyOnWriteArrayList<>();
+        HTTPTestServer.registerPathHandler(MIN_IDLE_PATH, new BlockingHandler(exchange -> {
+            minIdleConnections.add(exchange.getConnection());
+            Thread.sleep(200);
+        }));
+        OptionMap options = OptionMap.create(HttpConnectionPoolOptions.MIN_IDLE_CONNECTIONS, 2);
+        HttpConnectionPool pool = new HttpConnectionPool(MAX_CONNECTION_COUNT, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), options, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), CONNECTION_IDLE_TIMEOUT / 5);
+        pool.warmUp(null);
+        Assert.assertEquals(2, pool.getOpenConnectionCount());
+        // the idle connections outlive the idle timeout
+        Thread.sleep(CONNECTION_IDLE_TIMEOUT);
+        Assert.assertEquals(2, pool.getOpenConnectionCount());
+        Assert.assertEquals(0, pool.getBusyConnectionCount());
+
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        doInvocation(MIN_IDLE_PATH, pool, latch, failed);
+        doInvocation(MIN_IDLE_PATH, pool, latch, failed);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+        // both requests were served by the connections opened in advance
+        Assert.assertEquals(2, pool.getOpenConnectionCount());
+        Assert.assertEquals(2, minIdleConnections.size());
+        Assert.assertNotEquals(minIdleConnections.get(0), minIdleConnections.get(1));
+        pool.close();
+    }
+
+    @Test
+    public void testProbeTimeout() throws Exception {
+        // accepts connections without ever answering, so the probes stall
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName(HTTPTestServer.getHostAddress()))) {
+            OptionMap options = OptionMap.builder()
+                    .set(HttpConnectionPoolOptions.CIRCUIT_BREAKER_FAILURE_THRESHOLD, 1)
+                    .set(HttpConnectionPoolOptions.CIRCUIT_BREAKER_EJECTION_TIME, 100L)
+                    .set(HttpConnectionPoolOptions.CIRCUIT_BREAKER_PROBE_TIMEOUT, 200L)
+                    .getMap();
+            HostPool hostPool = new HostPool(new URI("http", null, HTTPTestServer.getHostAddress(), server.getLocalPort(), null, null, null));
+            HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), options, hostPool, -1);
+            HostPool.HostAddress address = hostPool.getAddress().getHostAddress();
+            hostPool.recordFailure(address);
+            Assert.assertFalse(address.isAvailable());
+            final long ejectedUntil = address.getEjectedUntil();
+            // the probe times out and the address is ejected again
+            long deadline = System.currentTimeMillis() + 10000;
+            while (address.getEjectedUntil() == ejectedUntil && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertNotEquals(ejectedUntil, address.getEjectedUntil());
+            Assert.assertFalse(address.isAvailable());
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        connections.clear();
+        HTTPTestServer.registerPathHandler(CLOSE_PATH, (exchange -> {
+            connections.add(exchange.getConnection());
+        }));
+        HttpConnectionPool pool = new HttpConnectionPool(1, 1, HTTPTestServer.getWorker(), HTTPTestServer.getBufferPool(), OptionMap.EMPTY, new HostPool(new URI(HTTPTestServer.getDefaultRootServerURL())), -1);
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        doInvocation(CLOSE_PATH, pool, latch, failed);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        checkFailed(failed);
+        Assert.assertEquals(1, connections.size());
+
+        pool.close();
+        Assert.assertTrue(pool.isIdle());
+        latch = new CountDownLatch(1);
+        doInvocation(CLOSE_PATH, pool, latch, failed);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(failed.get() instanceof IOException);
+        connections.clear();
+    }
+
     private void doInvocation(String path, HttpConnectionPool pool, CountDownLatch latch, AtomicReference<Throwable> failed) {
 
         pool.getConnection((connectionHandle) -> {
@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HostPoolTestCase {
+
+    @Test
+    public void testConsecutiveFailuresEjectAddress() throws Exception {
+        final List<HostPool.HostAddress> ejected = new ArrayList<>();
+        final HostPool hostPool = new HostPool(new URI("http://127.0.0.1:8080"));
+        hostPool.configureCircuitBreaker(3, 0, 1000, ejected::add);
+        final HostPool.HostAddress address = hostPool.getAddress().getHostAddress();
+
+        hostPool.recordFailure(address);
+        hostPool.recordFailure(address);
+        hostPool.recordSuccess(address);
+        hostPool.recordFailure(address);
+        hostPool.recordFailure(address);
+        Assert.assertTrue(address.isAvailable());
+        Assert.assertTrue(ejected.isEmpty());
+
+        hostPool.recordFailure(address);
+        Assert.assertFalse(address.isAvailable());
+        Assert.assertEquals(1, ejected.size());
+        Assert.assertSame(address, ejected.get(0));
+
+        // a failed probe keeps the address ejected for another period
+        Assert.assertTrue(address.halfOpenBreaker());
+        hostPool.probeFailed(address);
+        Assert.assertFalse(address.isAvailable());
+        Assert.assertEquals(2, ejected.size());
+
+        Assert.assertTrue(address.halfOpenBreaker());
+        hostPool.probeSucceeded(address);
+        Assert.assertTrue(address.isAvailable());
+        Assert.assertEquals(2, ejected.size());
+    }
+
+    @Test
+    public void testErrorRateEjectsAddress() throws Exception {
+        final List<HostPool.HostAddress> ejected = new ArrayList<>();
+        final HostPool hostPool = new HostPool(new URI("http://127.0.0.1:8080"));
+        hostPool.configureCircuitBreaker(0, 50, 1000, ejected::add);
+        final HostPool.HostAddress address = hostPool.getAddress().getHostAddress();
+
+        // a failure every other request is right at the threshold, once the window is complete
+        for (int i = 0; i < HostPool.HostAddress.ERROR_RATE_WINDOW - 1; ++i) {
+            if (i % 2 == 0) {
+                hostPool.recordFailure(address);
+            } else {
+                hostPool.recordSuccess(address);
+            }
+            Assert.assertTrue(address.isAvailable());
+        }
+        hostPool.recordSuccess(address);
+        Assert.assertFalse(address.isAvailable());
+        Assert.assertEquals(1, ejected.size());
+    }
+
+    @Test
+    public void testLeastLoadedAddressIsSelected() throws Exception {
+        final HostPool hostPool = new FixedHostPool(true, address(1), address(2));
+        final HostPool.HostAddress first = selectAddress(hostPool, address(1));
+        final HostPool.HostAddress second = selectAddress(hostPool, address(2));
+
+        // with two addresses both are always compared, so the least loaded one always wins
+        first.requestStarted();
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertSame(second, hostPool.getAddress().getHostAddress());
+        }
+        first.requestCompleted(TimeUnit.MILLISECONDS.toNanos(1));
+        second.requestStarted();
+        second.requestCompleted(TimeUnit.MILLISECONDS.toNanos(100));
+        // no requests in progress, the slower address has more load
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertSame(first, hostPool.getAddress().getHostAddress());
+        }
+    }
+
+    @Test
+    public void testEjectedAddressIsNotSelected() throws Exception {
+        final HostPool hostPool = new FixedHostPool(true, address(1), address(2), address(3));
+        hostPool.configureCircuitBreaker(1, 0, 1000, address -> { });
+        final HostPool.HostAddress ejected = selectAddress(hostPool, address(2));
+        hostPool.recordFailure(ejected);
+        Assert.assertFalse(ejected.isAvailable());
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertNotSame(ejected, hostPool.getAddress().getHostAddress());
+        }
+    }
+
+    @Test
+    public void testAddressesUpdate() throws Exception {
+        final FixedHostPool hostPool = new FixedHostPool(true, address(1), address(2));
+        hostPool.configureCircuitBreaker(1, 0, 1000, address -> { });
+        final HostPool.HostAddress kept = selectAddress(hostPool, address(1));
+        kept.requestStarted();
+        hostPool.recordFailure(kept);
+        Assert.assertFalse(kept.isAvailable());
+
+        hostPool.addresses = new InetAddress[] {address(3), address(1)};
+        Assert.assertEquals(Collections.singleton(address(2)), hostPool.updateAddresses());
+        // the address that is still resolved is the same, with its load and ejection
+        Assert.assertTrue(kept.halfOpenBreaker());
+        hostPool.probeSucceeded(kept);
+        Assert.assertSame(kept, selectAddress(hostPool, address(1)));
+        Assert.assertEquals(1, kept.getOutstandingRequests());
+        selectAddress(hostPool, address(3));
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertNotEquals(address(2), hostPool.getAddress().getAddress());
+        }
+
+        hostPool.addresses = new InetAddress[] {address(1), address(3)};
+        Assert.assertTrue(hostPool.updateAddresses().isEmpty());
+        Assert.assertSame(kept, selectAddress(hostPool, address(1)));
+    }
+
+    @Test
+    public void testCircuitBreakerDisabledByDefault() throws Exception {
+        final HostPool hostPool = new HostPool(new URI("http://127.0.0.1:8080"));
+        final HostPool.HostAddress address = hostPool.getAddress().getHostAddress();
+        for (int i = 0; i < 100; ++i) {
+            hostPool.recordFailure(address);
+        }
+        Assert.assertTrue(address.isAvailable());
+    }
+
+    private static InetAddress address(int lastByte) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {127, 0, 0, (byte) lastByte});
+    }
+
+    private static HostPool.HostAddress selectAddress(HostPool hostPool, InetAddress address) throws UnknownHostException {
+        for (int i = 0; i < 1000; ++i) {
+            final HostPool.HostAddress selected = hostPool.getAddress().getHostAddress();
+            if (selected.getAddress().equals(address)) {
+                return selected;
+            }
+        }
+        throw new AssertionError(address + " was never selected");
+    }
+
+    /**
+     * A host pool whose host name resolves to the given addresses, set by the test.
+     */
+    static class FixedHostPool extends HostPool {
+        volatile InetAddress[] addresses;
+
+        FixedHostPool(boolean loadBalanced, InetAddress... addresses) throws Exception {
+            super(new URI("http://localhost:8080"), loadBalanced);
+            this.addresses = addresses;
+        }
+
+        @Override
+        InetAddress[] resolveHostName() {
+            return addresses.clone();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.jboss.marshalling.InputStreamByteInput;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.Marshalling;
+import org.jboss.marshalling.Unmarshaller;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpMarshallerFactoryTestCase {
+
+    @Test
+    public void testReusedMarshallerWritesIndependentStreams() throws Exception {
+        final HttpMarshallerFactory factory = new HttpMarshallerFactory(null);
+        final Date value = new Date(1000);
+        for (int i = 0; i < 3; ++i) {
+            // every stream must be readable on its own, even though the class was already written by the marshaller
+            final byte[] data = marshal(factory, value);
+            Assert.assertEquals(value, unmarshal(new HttpMarshallerFactory(null), data));
+            Assert.assertEquals(value, unmarshal(factory, data));
+        }
+    }
+
+    @Test
+    public void testMarshallerInUseIsNotShared() throws Exception {
+        final HttpMarshallerFactory factory = new HttpMarshallerFactory(null);
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        final Marshaller firstMarshaller = factory.createMarshaller();
+        final Marshaller secondMarshaller = factory.createMarshaller();
+        firstMarshaller.start(Marshalling.createByteOutput(first));
+        secondMarshaller.start(Marshalling.createByteOutput(second));
+        firstMarshaller.writeObject("first");
+        secondMarshaller.writeObject("second");
+        firstMarshaller.finish();
+        secondMarshaller.finish();
+        Assert.assertEquals("first", unmarshal(factory, first.toByteArray()));
+        Assert.assertEquals("second", unmarshal(factory, second.toByteArray()));
+    }
+
+    @Test
+    public void testConfigurationWithClassLoaderIsNotPooled() throws Exception {
+        final HttpMarshallerFactory factory = new HttpMarshallerFactory(null);
+        Assert.assertTrue(factory.createUnmarshaller() instanceof PooledUnmarshaller);
+        // threads must not keep the class loader alive once the request is done
+        Assert.assertFalse(factory.createUnmarshaller(HttpMarshallerFactoryTestCase.class.getClassLoader()) instanceof PooledUnmarshaller);
+    }
+
+    private static byte[] marshal(HttpMarshallerFactory factory, Object value) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Marshaller marshaller = factory.createMarshaller();
+        marshaller.start(Marshalling.createByteOutput(out));
+        marshaller.writeObject(value);
+        marshaller.finish();
+        return out.toByteArray();
+    }
+
+    private static Object unmarshal(HttpMarshallerFactory factory, byte[] data) throws IOException, ClassNotFoundException {
+        final Unmarshaller unmarshaller = factory.createUnmarshaller(HttpMarshallerFactoryTestCase.class.getClassLoader());
+        unmarshaller.start(new InputStreamByteInput(new ByteArrayInputStream(data)));
+        final Object value = unmarshaller.readObject();
+        unmarshaller.finish();
+        return value;
+    }
+}
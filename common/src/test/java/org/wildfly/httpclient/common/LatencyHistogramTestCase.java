@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void testBucketsBoundValues() {
+        for (long value = 0; value < 1_000_000; value = value * 3 / 2 + 1) {
+            final long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            Assert.assertTrue(highest >= value);
+            Assert.assertTrue(highest - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(500), histogram.getMean());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(500), histogram.getValueAtPercentile(50));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(990), histogram.getValueAtPercentile(99));
+        Assert.assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testTargetMetricsMBean() throws Exception {
+        final URI uri = new URI("http://localhost:7788/wildfly-services");
+        final TargetMetrics metrics = TargetMetrics.register(uri, null);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.wildfly.httpclient:type=HttpTarget,uri=" + ObjectName.quote(uri.toString()));
+        try {
+            metrics.requestCompleted(TimeUnit.MILLISECONDS.toNanos(2), false);
+            metrics.requestCompleted(TimeUnit.MILLISECONDS.toNanos(4), true);
+            metrics.bytesSent(100);
+            Assert.assertEquals(2L, server.getAttribute(name, "Requests"));
+            Assert.assertEquals(1L, server.getAttribute(name, "RequestFailures"));
+            Assert.assertEquals(100L, server.getAttribute(name, "BytesSent"));
+            final CompositeData latency = (CompositeData) server.getAttribute(name, "RequestLatency");
+            Assert.assertEquals(2L, latency.get("count"));
+            assertWithin(4000, (Long) latency.get("max"));
+        } finally {
+            metrics.close();
+        }
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(actual + " is not close to " + expected, Math.abs(expected - actual) <= expected / 8);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServerMetricsTestCase {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testLatenciesPerOperationAndPhase() {
+        final ServerMetrics metrics = new ServerMetrics(TimeUnit.SECONDS.toNanos(1), 1);
+        for (int i = 0; i < 10; ++i) {
+            metrics.record("ejb/app/module/Bean/echo", new long[] {MILLI, 2 * MILLI, 5 * MILLI, 2 * MILLI}, 10 * MILLI);
+        }
+        metrics.record("naming/lookup", new long[] {0, 0, MILLI, MILLI}, 2 * MILLI);
+
+        final Map<String, LatencyHistogram.Snapshot> latencies = metrics.getLatencies();
+        Assert.assertEquals(10, latencies.size());
+        Assert.assertEquals(10, latencies.get("ejb/app/module/Bean/echo").getCount());
+        Assert.assertEquals(1, latencies.get("naming/lookup").getCount());
+        Assert.assertEquals(5000, latencies.get("ejb/app/module/Bean/echo:execute").getMax());
+        Assert.assertEquals(1000, latencies.get("naming/lookup:marshal").getMax());
+        Assert.assertEquals(0, metrics.getPhaseLatencies("naming/lookup").get(ServerMetrics.Phase.QUEUE).getMax());
+        Assert.assertNull(metrics.getPhaseLatencies("naming/list"));
+        Assert.assertEquals(0, metrics.getSlowRequests());
+
+        metrics.reset();
+        Assert.assertTrue(metrics.getLatencies().isEmpty());
+    }
+
+    @Test
+    public void testSlowRequests() {
+        final ServerMetrics metrics = new ServerMetrics(100 * MILLI, 2);
+        metrics.record("txn/ut/begin", new long[] {0, 0, 99 * MILLI, 0}, 99 * MILLI);
+        Assert.assertEquals(0, metrics.getSlowRequests());
+        for (int i = 0; i < 3; ++i) {
+            metrics.record("txn/ut/begin", new long[] {MILLI, 0, 150 * MILLI, 0}, 151 * MILLI);
+        }
+        Assert.assertEquals(3, metrics.getSlowRequests());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        Assert.assertFalse(ServerMetrics.isEnabled());
+        Assert.assertNull(ServerMetrics.getInstance());
+        final HttpHandler handler = exchange -> { };
+        Assert.assertSame(handler, ServerMetrics.wrap(handler));
+        Assert.assertSame(handler, ServerMetrics.operation("naming/lookup", handler));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.xnio.ChannelListener;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * A {@link StreamSinkChannel} that collects what is written to it. Its write listener is called by the test with
+ * {@link #fire()}, standing for the IO thread.
+ */
+final class StubStreamSinkChannel {
+
+    private final StreamSinkChannel channel;
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    // the number of buffers passed to each gathering write
+    private final List<Integer> writes = new CopyOnWriteArrayList<>();
+    private final List<Integer> finalWrites = new CopyOnWriteArrayList<>();
+    private volatile long writable = Long.MAX_VALUE;
+    private volatile boolean resumed;
+    private volatile boolean shutdown;
+    private volatile ChannelListener<? super StreamSinkChannel> listener;
+
+    StubStreamSinkChannel() {
+        this.channel = (StreamSinkChannel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {StreamSinkChannel.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "write":
+                case "writeFinal":
+                    if (args.length == 3 && args[0] instanceof ByteBuffer[]) {
+                        if (shutdown) {
+                            throw new IllegalStateException("Writes are shut down");
+                        }
+                        final int length = (Integer) args[2];
+                        (method.getName().equals("write") ? writes : finalWrites).add(length);
+                        return write((ByteBuffer[]) args[0], (Integer) args[1], length);
+                    }
+                    break;
+                case "getWriteSetter":
+                    return (ChannelListener.Setter<StreamSinkChannel>) listener -> this.listener = listener;
+                case "suspendWrites":
+                    resumed = false;
+                    return null;
+                case "resumeWrites":
+                case "wakeupWrites":
+                    resumed = true;
+                    return null;
+                case "isWriteResumed":
+                    return resumed;
+                case "shutdownWrites":
+                    shutdown = true;
+                    return null;
+                case "flush":
+                    return true;
+                case "getIoThread":
+                case "getWriteThread":
+                    return null;
+                case "close":
+                    return null;
+                case "isOpen":
+                    return true;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StubStreamSinkChannel";
+            }
+            throw new UnsupportedOperationException(method.toString());
+        });
+    }
+
+    private synchronized long write(ByteBuffer[] buffers, int offset, int length) {
+        long res = 0;
+        for (int i = offset; i < offset + length && writable > 0; ++i) {
+            final ByteBuffer buffer = buffers[i];
+            final int count = (int) Math.min(buffer.remaining(), writable);
+            final byte[] bytes = new byte[count];
+            buffer.get(bytes);
+            written.write(bytes, 0, count);
+            writable -= count;
+            res += count;
+        }
+        return res;
+    }
+
+    StreamSinkChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Calls the write listener if writes are resumed, as the IO thread would.
+     *
+     * @return {@code true} if the listener was called
+     */
+    boolean fire() {
+        final ChannelListener<? super StreamSinkChannel> listener = this.listener;
+        if (!resumed || listener == null) {
+            return false;
+        }
+        listener.handleEvent(channel);
+        return true;
+    }
+
+    /**
+     * Sets how many more bytes the channel accepts, before its writes return {@code 0}.
+     */
+    void setWritable(long writable) {
+        this.writable = writable;
+    }
+
+    synchronized byte[] getWritten() {
+        return written.toByteArray();
+    }
+
+    List<Integer> getWrites() {
+        return writes;
+    }
+
+    List<Integer> getFinalWrites() {
+        return finalWrites;
+    }
+
+    boolean isResumed() {
+        return resumed;
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xnio.ChannelListener;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * A {@link StreamSourceChannel} that reads a fixed body, and whose read listener is called by a thread standing for the
+ * IO thread whenever reads are resumed.
+ */
+final class StubStreamSourceChannel {
+
+    private final byte[] body;
+    private final StreamSourceChannel channel;
+    private final AtomicInteger suspends = new AtomicInteger();
+    private final AtomicInteger resumes = new AtomicInteger();
+    private volatile int position;
+    private volatile boolean resumed;
+    private volatile ChannelListener<? super StreamSourceChannel> listener;
+    private volatile boolean running;
+    private volatile Thread ioThread;
+    private volatile long suspendDelay;
+
+    StubStreamSourceChannel(byte[] body) {
+        this.body = body;
+        this.channel = (StreamSourceChannel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {StreamSourceChannel.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "read":
+                    if (args.length == 1 && args[0] instanceof ByteBuffer) {
+                        return read((ByteBuffer) args[0]);
+                    }
+                    break;
+                case "getReadSetter":
+                    return (ChannelListener.Setter<StreamSourceChannel>) listener -> this.listener = listener;
+                case "suspendReads":
+                    resumed = false;
+                    suspends.incrementAndGet();
+                    if (suspendDelay > 0 && Thread.currentThread() == ioThread) {
+                        Thread.sleep(suspendDelay);
+                    }
+                    return null;
+                case "resumeReads":
+                    resumed = true;
+                    resumes.incrementAndGet();
+                    return null;
+                case "isReadResumed":
+                    return resumed;
+                case "getIoThread":
+                case "getReadThread":
+                    return null;
+                case "close":
+                    return null;
+                case "isOpen":
+                    return true;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StubStreamSourceChannel";
+            }
+            throw new UnsupportedOperationException(method.toString());
+        });
+    }
+
+    private int read(ByteBuffer buffer) {
+        final int position = this.position;
+        if (position == body.length) {
+            return -1;
+        }
+        final int read = Math.min(buffer.remaining(), body.length - position);
+        buffer.put(body, position, read);
+        this.position = position + read;
+        return read;
+    }
+
+    StreamSourceChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Makes the IO thread sleep each time it suspends reads, so that the consumer has the time to drain the queue
+     * before the IO thread is done suspending.
+     */
+    void setSuspendDelay(long millis) {
+        suspendDelay = millis;
+    }
+
+    /**
+     * Starts calling the read listener from another thread whenever reads are resumed.
+     */
+    void startIoThread() {
+        running = true;
+        ioThread = new Thread(() -> {
+            while (running) {
+                final ChannelListener<? super StreamSourceChannel> listener = this.listener;
+                if (resumed && listener != null) {
+                    listener.handleEvent(channel);
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+        });
+        ioThread.start();
+    }
+
+    void stopIoThread() throws InterruptedException {
+        running = false;
+        ioThread.join();
+    }
+
+    /**
+     * Waits until the reads were suspended at least once, and are still suspended.
+     */
+    void awaitSuspended(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (resumed || suspends.get() == 0) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Reads were not suspended");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    int getSuspends() {
+        return suspends.get();
+    }
+
+    int getResumes() {
+        return resumes.get();
+    }
+}
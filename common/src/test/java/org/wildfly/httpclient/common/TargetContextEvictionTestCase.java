@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.client.ClientRequest;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.wildfly.security.auth.client.AuthenticationConfiguration;
+import org.xnio.IoUtils;
+
+@RunWith(HTTPTestServer.class)
+public class TargetContextEvictionTestCase {
+
+    private static final String PATH = "/eviction";
+
+    @Test
+    public void testEvictedTargetContextStillSendsRequests() throws Exception {
+        HTTPTestServer.registerPathHandler(PATH, exchange -> exchange.setStatusCode(StatusCodes.OK));
+        final WildflyHttpContext.Builder builder = new WildflyHttpContext.Builder();
+        builder.setTargetIdleTimeout(100);
+        final WildflyHttpContext httpContext = builder.build();
+        try {
+            final URI uri = new URI(HTTPTestServer.getDefaultServerURL());
+            final HttpTargetContext targetContext = httpContext.getTargetContext(uri);
+            Assert.assertEquals(StatusCodes.OK, sendRequest(targetContext));
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (!targetContext.getConnectionPool().isClosed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue(targetContext.getConnectionPool().isClosed());
+
+            // the request goes through the target context that replaces the evicted one
+            Assert.assertEquals(StatusCodes.OK, sendRequest(targetContext));
+            Assert.assertNotSame(targetContext, httpContext.getTargetContext(uri));
+        } finally {
+            httpContext.close();
+        }
+    }
+
+    private static int sendRequest(HttpTargetContext targetContext) throws Exception {
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        final ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(PATH);
+        targetContext.sendRequest(request, null, AuthenticationConfiguration.empty(), null, (input, response, doneCallback) -> {
+            result.complete(response.getResponseCode());
+            IoUtils.safeClose(doneCallback);
+        }, result::completeExceptionally, null, null, true);
+        return result.get(10, TimeUnit.SECONDS);
+    }
+}
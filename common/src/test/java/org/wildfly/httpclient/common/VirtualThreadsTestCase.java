@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.undertow.server.handlers.BlockingHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VirtualThreadsTestCase {
+
+    @Test
+    public void testDisabledByDefault() {
+        Assert.assertFalse(VirtualThreads.isEnabled());
+        Assert.assertNull(VirtualThreads.getExecutor(null));
+        Assert.assertTrue(VirtualThreads.blockingHandler(exchange -> { }) instanceof BlockingHandler);
+    }
+
+    @Test
+    public void testConfiguredExecutorIsKept() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertSame(executor, VirtualThreads.getExecutor(executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
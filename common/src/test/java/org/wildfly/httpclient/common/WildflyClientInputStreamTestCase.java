@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WildflyClientInputStreamTestCase {
+
+    private static final int BUFFER_SIZE = 64;
+
+    @Test(timeout = 10000)
+    public void testReadAheadIsBoundedByWatermarks() throws Exception {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, BUFFER_SIZE, 64, 0);
+        final byte[] body = body(BUFFER_SIZE * 32);
+        final StubStreamSourceChannel source = new StubStreamSourceChannel(body);
+        source.startIoThread();
+        try {
+            final WildflyClientInputStream stream = new WildflyClientInputStream(pool, source.getChannel(), new ClientMetrics() {});
+            Assert.assertEquals(body[0] & 0xFF, stream.read());
+            // the IO thread reads ahead until the queue is full, the buffer being read is not part of the queue
+            source.awaitSuspended(5, TimeUnit.SECONDS);
+            Assert.assertTrue(pool.getInUse() <= WildflyClientInputStream.HIGH_WATERMARK + 1);
+            Assert.assertTrue(source.getPosition() < body.length);
+            for (int i = 1; i < body.length; ++i) {
+                Assert.assertEquals(body[i] & 0xFF, stream.read());
+                Assert.assertTrue(pool.getInUse() <= WildflyClientInputStream.HIGH_WATERMARK + 1);
+            }
+            Assert.assertEquals(-1, stream.read());
+            // the consumer resumed the reads once it drained the queue
+            Assert.assertTrue(source.getResumes() > 1);
+            stream.close();
+        } finally {
+            source.stopIoThread();
+        }
+        Assert.assertEquals(0, pool.getInUse());
+    }
+
+    @Test(timeout = 20000)
+    public void testSuspendAndResumeRace() throws Exception {
+        // a resume lost between the IO thread suspending reads and the consumer draining the queue hangs the consumer
+        final byte[] body = body(BUFFER_SIZE * 256 + 7);
+        for (int run = 0; run < 10; ++run) {
+            final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, BUFFER_SIZE, 64, 0);
+            final StubStreamSourceChannel source = new StubStreamSourceChannel(body);
+            // every other run, the consumer drains the queue while the IO thread is suspending reads
+            source.setSuspendDelay(run % 2);
+            source.startIoThread();
+            try {
+                final WildflyClientInputStream stream = new WildflyClientInputStream(pool, source.getChannel(), new ClientMetrics() {});
+                final byte[] read = new byte[body.length];
+                int offset = 0;
+                int res;
+                while ((res = stream.read(read, offset, Math.min(read.length - offset, 100))) > 0) {
+                    offset += res;
+                }
+                Assert.assertEquals(body.length, offset);
+                Assert.assertArrayEquals(body, read);
+                stream.close();
+            } finally {
+                source.stopIoThread();
+            }
+            Assert.assertEquals(0, pool.getInUse());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseDrainsTheRestOfTheStream() throws Exception {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, BUFFER_SIZE, 64, 0);
+        final byte[] body = body(BUFFER_SIZE * 32);
+        final StubStreamSourceChannel source = new StubStreamSourceChannel(body);
+        final AtomicLong received = new AtomicLong();
+        source.startIoThread();
+        try {
+            final WildflyClientInputStream stream = new WildflyClientInputStream(pool, source.getChannel(), new ClientMetrics() {
+                @Override
+                public void bytesReceived(long bytes) {
+                    received.addAndGet(bytes);
+                }
+            });
+            Assert.assertEquals(10, stream.read(new byte[10]));
+            source.awaitSuspended(5, TimeUnit.SECONDS);
+            stream.close();
+            // the rest of the response was read, so that the connection can be reused
+            Assert.assertEquals(body.length, source.getPosition());
+            Assert.assertEquals(0, pool.getInUse());
+            Assert.assertEquals(10, received.get());
+            Assert.assertEquals(-1, stream.read());
+            stream.close();
+        } finally {
+            source.stopIoThread();
+        }
+    }
+
+    private static byte[] body(int length) {
+        final byte[] body = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            body[i] = (byte) (i * 31);
+        }
+        return body;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.common;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WildflyClientOutputStreamTestCase {
+
+    private static final int BUFFER_SIZE = 64;
+
+    @Test
+    public void testQueuedBuffersAreWrittenTogether() throws Exception {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, BUFFER_SIZE, 64, 0);
+        final StubStreamSinkChannel sink = new StubStreamSinkChannel();
+        final WildflyClientOutputStream stream = new WildflyClientOutputStream(sink.getChannel(), pool, new ClientMetrics() {});
+        final byte[] data = data(BUFFER_SIZE * 3);
+        stream.write(data);
+        // the writer does not wait for the IO thread
+        Assert.assertTrue(sink.isResumed());
+        Assert.assertEquals(0, sink.getWritten().length);
+        Assert.assertEquals(3, pool.getInUse());
+
+        // the channel only takes part of the queued buffers
+        sink.setWritable(100);
+        Assert.assertTrue(sink.fire());
+        Assert.assertEquals(100, sink.getWritten().length);
+        Assert.assertEquals(2, pool.getInUse());
+
+        sink.setWritable(Long.MAX_VALUE);
+        Assert.assertTrue(sink.fire());
+        Assert.assertArrayEquals(data, sink.getWritten());
+        Assert.assertEquals(0, pool.getInUse());
+        // all the queued buffers are passed to each write, starting from the first one not fully written
+        Assert.assertEquals(3, (int) sink.getWrites().get(0));
+        Assert.assertEquals(2, (int) sink.getWrites().get(sink.getWrites().size() - 1));
+        // nothing is left to write, so the writes are suspended until the next buffer is queued
+        Assert.assertFalse(sink.isResumed());
+        Assert.assertTrue(sink.getFinalWrites().isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testWriterWaitsForMaxPendingBuffers() throws Exception {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, BUFFER_SIZE, 64, 0);
+        final StubStreamSinkChannel sink = new StubStreamSinkChannel();
+        final WildflyClientOutputStream stream = new WildflyClientOutputStream(sink.getChannel(), pool, new ClientMetrics() {});
+        final byte[] data = data(BUFFER_SIZE * (WildflyClientOutputStream.MAX_PENDING + 1));
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread writer = new Thread(() -> {
+            try {
+                stream.write(data);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        // the last buffer waits until the IO thread writes some of the pending ones
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (writer.getState() != Thread.State.WAITING) {
+            Assert.assertTrue(writer.isAlive() && System.nanoTime() - deadline < 0);
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(WildflyClientOutputStream.MAX_PENDING + 1, pool.getInUse());
+        Assert.assertEquals(0, sink.getWritten().length);
+
+        Assert.assertTrue(sink.fire());
+        writer.join();
+        Assert.assertNull(failure.get());
+        sink.fire();
+        Assert.assertArrayEquals(data, sink.getWritten());
+        Assert.assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    public void testCloseWritesTheLastBuffersWithWriteFinal() throws Exception {
+        final AdaptiveByteBufferPool pool = new AdaptiveByteBufferPool(false, BUFFER_SIZE, 64, 0);
+        final StubStreamSinkChannel sink = new StubStreamSinkChannel();
+        final AtomicLong sent = new AtomicLong();
+        final WildflyClientOutputStream stream = new WildflyClientOutputStream(sink.getChannel(), pool, new ClientMetrics() {
+            @Override
+            public void bytesSent(long bytes) {
+                sent.addAndGet(bytes);
+            }
+        });
+        final byte[] data = data(BUFFER_SIZE + 36);
+        stream.write(data);
+        stream.close();
+        Assert.assertEquals(data.length, sent.get());
+
+        Assert.assertTrue(sink.fire());
+        Assert.assertArrayEquals(data, sink.getWritten());
+        Assert.assertTrue(sink.getWrites().isEmpty());
+        Assert.assertEquals(Collections.singletonList(2), sink.getFinalWrites());
+        Assert.assertTrue(sink.isShutdown());
+        Assert.assertFalse(sink.isResumed());
+        Assert.assertEquals(0, pool.getInUse());
+
+        try {
+            stream.write(1);
+            Assert.fail();
+        } catch (IOException expected) {
+        }
+        stream.close();
+        Assert.assertFalse(sink.fire());
+        Assert.assertEquals(data.length, sent.get());
+    }
+
+    private static byte[] data(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
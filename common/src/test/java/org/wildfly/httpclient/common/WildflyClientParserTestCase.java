@@ -37,9 +37,19 @@ public class WildflyClientParserTestCase {
         Assert.assertEquals(InetSocketAddress.createUnresolved("127.0.0.1", 3456), builder.getDefaultBindAddress());
 
         Assert.assertEquals(10000, builder.getIdleTimeout());
+        Assert.assertEquals(600000, builder.getTargetIdleTimeout());
         Assert.assertEquals(1, builder.getMaxConnections());
         Assert.assertEquals(1, builder.getMaxStreamsPerConnection());
+        Assert.assertEquals(100, builder.getMaxPendingRequests());
+        Assert.assertEquals(2000, builder.getPendingRequestTimeout());
+        Assert.assertEquals(2, builder.getMinIdleConnections());
+        Assert.assertEquals(60000, builder.getDnsRefreshInterval());
+        Assert.assertEquals(5, builder.getCircuitBreakerFailureThreshold());
+        Assert.assertEquals(0, builder.getCircuitBreakerErrorRate());
+        Assert.assertEquals(10000, builder.getCircuitBreakerEjectionTime());
+        Assert.assertEquals(3000, builder.getCircuitBreakerProbeTimeout());
         Assert.assertEquals(false, builder.getEagerlyAcquireSession());
+        Assert.assertNull(builder.getLoadBalance());
 
 
         Assert.assertEquals(1, builder.getTargets().size());
@@ -48,7 +58,16 @@ public class WildflyClientParserTestCase {
         Assert.assertEquals(30000, context.getIdleTimeout());
         Assert.assertEquals(20, context.getMaxConnections());
         Assert.assertEquals(20, context.getMaxStreamsPerConnection());
+        Assert.assertEquals(200, context.getMaxPendingRequests());
+        Assert.assertEquals(5000, context.getPendingRequestTimeout());
+        Assert.assertEquals(4, context.getMinIdleConnections());
+        Assert.assertEquals(30000, context.getDnsRefreshInterval());
+        Assert.assertEquals(3, context.getCircuitBreakerFailureThreshold());
+        Assert.assertEquals(50, context.getCircuitBreakerErrorRate());
+        Assert.assertEquals(5000, context.getCircuitBreakerEjectionTime());
+        Assert.assertEquals(2000, context.getCircuitBreakerProbeTimeout());
         Assert.assertEquals(true, context.getEagerlyAcquireSession());
+        Assert.assertEquals(true, context.getLoadBalance());
 
         Assert.assertEquals(new URI("http://localhost:8080"), context.getUri());
 
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.ejb;
+
+import org.wildfly.httpclient.common.CompressionCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+/**
+ * Output stream that only compresses the data written to it if it is larger than a threshold, and if it compresses
+ * well enough to be worth the CPU time.
+ * <p>
+ * The data is buffered until more than the threshold is written. At that point the buffered data is compressed as a
+ * sample of the whole, and the rest of the data is compressed only if the sample shrank by more than a tenth. Smaller
+ * data is never compressed. The target stream is opened once the decision is made, so that the caller can set the
+ * {@code Content-Encoding} accordingly.
+ */
+final class AdaptiveCompressionOutputStream extends OutputStream {
+
+    static final int THRESHOLD = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.ejb.compression-threshold", 1024));
+
+    // the maximum ratio of compressed to uncompressed size of the sample for the data to be compressed
+    private static final double MAX_RATIO = 0.9;
+
+    private final Target target;
+    private final CompressionCodec codec;
+    private final int level;
+    private final int threshold;
+    private ByteArrayOutputStream buffer;
+    private OutputStream output;
+    private boolean compressed;
+    private boolean closed;
+
+    AdaptiveCompressionOutputStream(Target target, CompressionCodec codec, int level) {
+        this(target, codec, level, THRESHOLD);
+    }
+
+    AdaptiveCompressionOutputStream(Target target, CompressionCodec codec, int level, int threshold) {
+        this.target = target;
+        this.codec = codec;
+        this.level = level;
+        this.threshold = threshold;
+        this.buffer = new ByteArrayOutputStream(Math.min(threshold, 8192) + 1);
+    }
+
+    /**
+     * Indicates if the data is compressed. This is only known once more than the threshold is written, or once the
+     * stream is closed.
+     *
+     * @return {@code true} if the data is compressed
+     */
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw EjbHttpClientMessages.MESSAGES.streamIsClosed();
+        }
+        if (output != null) {
+            output.write(b, off, len);
+            return;
+        }
+        buffer.write(b, off, len);
+        if (buffer.size() > threshold) {
+            open(isWorthCompressing());
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (output != null) {
+            output.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (output == null) {
+            open(false);
+        }
+        closed = true;
+        output.close();
+    }
+
+    private boolean isWorthCompressing() throws IOException {
+        final CountingOutputStream sample = new CountingOutputStream();
+        try (OutputStream out = codec.compress(sample, level)) {
+            buffer.writeTo(out);
+        }
+        return sample.count <= buffer.size() * MAX_RATIO;
+    }
+
+    private void open(boolean compress) throws IOException {
+        compressed = compress;
+        output = target.open(compress);
+        buffer.writeTo(output);
+        buffer = null;
+    }
+
+    /**
+     * The destination of the data, opened once it is known whether the data is compressed.
+     */
+    interface Target {
+
+        /**
+         * Opens the stream the data is written to.
+         *
+         * @param compressed {@code true} if the data is compressed
+         * @return the stream, compressing the data if requested
+         * @throws IOException if the stream cannot be opened
+         */
+        OutputStream open(boolean compressed) throws IOException;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
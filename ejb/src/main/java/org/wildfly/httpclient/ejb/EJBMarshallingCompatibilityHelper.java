@@ -32,6 +32,6 @@ public final class EJBMarshallingCompatibilityHelper implements HttpNamingEjbObj
 
     @Override
     public ObjectResolver getObjectResolver(URI uri) {
-        return new HttpProtocolV1ObjectResolver(uri);
+        return HttpProtocolV1ObjectResolver.forUri(uri);
     }
 }
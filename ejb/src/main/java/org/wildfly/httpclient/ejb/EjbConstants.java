@@ -32,16 +32,21 @@ final class EjbConstants {
     static final ContentType INVOCATION = new ContentType("application/x-wf-ejb-jbmar-invocation", 1);
     static final ContentType SESSION_OPEN = new ContentType("application/x-wf-jbmar-sess-open", 1);
     static final ContentType EJB_EXCEPTION = new ContentType("application/x-wf-jbmar-exception", 1);
+    static final ContentType BATCH_INVOCATION = new ContentType("application/x-wf-ejb-jbmar-batch-invocation", 1);
 
     // response headers
     static final ContentType EJB_RESPONSE = new ContentType("application/x-wf-ejb-jbmar-response", 1);
     static final ContentType EJB_RESPONSE_NEW_SESSION = new ContentType("application/x-wf-ejb-jbmar-new-session", 1);
     static final ContentType EJB_DISCOVERY_RESPONSE = new ContentType("application/x-wf-ejb-jbmar-discovery-response", 1);
+    static final ContentType EJB_BATCH_RESPONSE = new ContentType("application/x-wf-ejb-jbmar-batch-response", 1);
 
     static final HttpString EJB_SESSION_ID = new HttpString("x-wf-ejb-jbmar-session-id");
     static final HttpString INVOCATION_ID = new HttpString("X-wf-invocation-id");
+    static final HttpString RESPONSE_COMPRESSION_LEVEL = new HttpString("x-wf-ejb-response-compression-level");
+    static final HttpString STREAMED_RESULT = new HttpString("x-wf-ejb-jbmar-streamed-result");
 
     // paths
+    static final String EJB_BATCH_PATH = "/batch";
     static final String EJB_CANCEL_PATH = "/cancel";
     static final String EJB_DISCOVER_PATH = "/discover";
     static final String EJB_INVOKE_PATH = "/invoke";
@@ -49,6 +54,16 @@ final class EjbConstants {
 
     static final String DISCOVERY_PATH_PREFIX =  "/ejb";
 
+    // status of the results of a batch
+    static final int BATCH_RESULT = 0;
+    static final int BATCH_EXCEPTION = 1;
+
+    // markers of the elements of a streamed result, written as objects so that reading them also consumes the
+    // instance cache resets written between elements
+    static final int STREAM_END = 0;
+    static final int STREAM_ELEMENT = 1;
+    static final int STREAM_EXCEPTION = 2;
+
     // cookies
     static final String JSESSIONID_COOKIE_NAME = "JSESSIONID";
 
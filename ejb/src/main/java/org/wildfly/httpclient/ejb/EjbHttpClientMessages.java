@@ -77,4 +77,19 @@ interface EjbHttpClientMessages extends BasicLogger {
 
     @Message(id = 14, value = "Exception resolving class %s for unmarshalling; it has either been blocklisted or not allowlisted")
     InvalidClassException cannotResolveFilteredClass(String clazz);
+
+    @Message(id = 15, value = "Batch has already been sent")
+    IllegalStateException batchAlreadySent();
+
+    @Message(id = 16, value = "No result for invocation %s of the batch in response")
+    IOException noBatchResult(int index);
+
+    @Message(id = 17, value = "Cannot invoke EJB %s in a batch, only stateless and stateful session beans are supported")
+    IllegalArgumentException unsupportedBatchLocator(EJBLocator<?> locator);
+
+    @Message(id = 18, value = "Stream is closed")
+    IOException streamIsClosed();
+
+    @Message(id = 19, value = "Streamed result was released after not being used for %s ms")
+    IllegalStateException streamedResultExpired(long idleTimeout);
 }
@@ -31,6 +31,7 @@ import io.undertow.util.Methods;
 import org.jboss.ejb.server.Association;
 import org.jboss.ejb.server.CancelHandle;
 import org.wildfly.httpclient.common.HttpServiceConfig;
+import org.wildfly.httpclient.common.VirtualThreads;
 import org.wildfly.transaction.client.LocalTransactionContext;
 
 import java.util.Map;
@@ -38,6 +39,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 
+import static org.wildfly.httpclient.ejb.EjbConstants.EJB_BATCH_PATH;
 import static org.wildfly.httpclient.ejb.EjbConstants.EJB_CANCEL_PATH;
 import static org.wildfly.httpclient.ejb.EjbConstants.EJB_DISCOVER_PATH;
 import static org.wildfly.httpclient.ejb.EjbConstants.EJB_INVOKE_PATH;
@@ -73,24 +75,31 @@ public class EjbHttpService {
                           Function<String, Boolean> classResolverFilter) {
         this.httpServiceConfig = httpServiceConfig;
         this.association = association;
-        this.executorService = executorService;
+        this.executorService = VirtualThreads.getExecutor(executorService);
         this.localTransactionContext = localTransactionContext;
         this.classResolverFilter = classResolverFilter;
     }
 
     public HttpHandler createHttpHandler() {
         PathHandler pathHandler = new PathHandler();
-        pathHandler.addPrefixPath(EJB_INVOKE_PATH, new AllowedMethodsHandler(
-                new HttpInvocationHandler(association, executorService, localTransactionContext, cancellationFlags, classResolverFilter, httpServiceConfig), Methods.POST))
-                .addPrefixPath(EJB_OPEN_PATH, new AllowedMethodsHandler(
-                        new HttpSessionOpenHandler(association, executorService, localTransactionContext, httpServiceConfig), Methods.POST))
-                .addPrefixPath(EJB_CANCEL_PATH, new AllowedMethodsHandler(new HttpCancelHandler(association, executorService, localTransactionContext, cancellationFlags), Methods.DELETE))
-                .addPrefixPath(EJB_DISCOVER_PATH, new AllowedMethodsHandler(
-                        new HttpDiscoveryHandler(executorService, association, httpServiceConfig), Methods.GET));
-        EncodingHandler encodingHandler = new EncodingHandler(pathHandler, new ContentEncodingRepository().addEncodingHandler(Headers.GZIP.toString(), new GzipEncodingProvider(), 1));
+        HttpInvocationHandler invocationHandler = new HttpInvocationHandler(association, executorService, localTransactionContext, cancellationFlags, classResolverFilter, httpServiceConfig);
+        // invocations are compressed by their handler, with the codec and level requested by the client
+        pathHandler.addPrefixPath(EJB_INVOKE_PATH, new AllowedMethodsHandler(invocationHandler, Methods.POST))
+                .addPrefixPath(EJB_BATCH_PATH, gzipEncoding(new AllowedMethodsHandler(
+                        new HttpBatchHandler(invocationHandler, executorService, httpServiceConfig), Methods.POST)))
+                .addPrefixPath(EJB_OPEN_PATH, gzipEncoding(new AllowedMethodsHandler(
+                        new HttpSessionOpenHandler(association, executorService, localTransactionContext, httpServiceConfig), Methods.POST)))
+                .addPrefixPath(EJB_CANCEL_PATH, gzipEncoding(new AllowedMethodsHandler(new HttpCancelHandler(association, executorService, localTransactionContext, cancellationFlags), Methods.DELETE)))
+                .addPrefixPath(EJB_DISCOVER_PATH, gzipEncoding(new AllowedMethodsHandler(
+                        new HttpDiscoveryHandler(executorService, association, httpServiceConfig), Methods.GET)));
+        return httpServiceConfig.wrap(pathHandler);
+    }
+
+    private static HttpHandler gzipEncoding(HttpHandler next) {
+        EncodingHandler encodingHandler = new EncodingHandler(next, new ContentEncodingRepository().addEncodingHandler(Headers.GZIP.toString(), new GzipEncodingProvider(), 1));
         RequestEncodingHandler requestEncodingHandler = new RequestEncodingHandler(encodingHandler);
         requestEncodingHandler.addEncoding(Headers.GZIP.toString(), GzipStreamSourceConduit.WRAPPER);
-        return httpServiceConfig.wrap(requestEncodingHandler);
+        return requestEncodingHandler;
     }
 
 }
\ No newline at end of file
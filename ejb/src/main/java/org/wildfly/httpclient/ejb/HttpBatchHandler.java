@@ -0,0 +1,263 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.ejb;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.Cookie;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.Marshalling;
+import org.wildfly.httpclient.common.ContentType;
+import org.wildfly.httpclient.common.HttpServiceConfig;
+import org.wildfly.httpclient.common.ServerMetrics;
+import org.xnio.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+
+import static org.wildfly.httpclient.ejb.EjbConstants.BATCH_EXCEPTION;
+import static org.wildfly.httpclient.ejb.EjbConstants.BATCH_INVOCATION;
+import static org.wildfly.httpclient.ejb.EjbConstants.BATCH_RESULT;
+import static org.wildfly.httpclient.ejb.EjbConstants.JSESSIONID_COOKIE_NAME;
+
+/**
+ * Http handler for batches of EJB invocations.
+ * <p>
+ * The request body holds the number of invocations, and for each of them the route of the invocation path, the session
+ * id, and the body of a single invocation request. All invocations are passed to the association at once, and their
+ * outcomes are written back as they complete, each one tagged with the index of its invocation. Batches with more
+ * invocations, or larger bodies, than the configured limits are rejected before anything is invoked.
+ */
+class HttpBatchHandler extends RemoteHTTPHandler {
+
+    private static final int MAX_INVOCATIONS = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.ejb.batch.max-invocations", 1024));
+    private static final int MAX_SIZE = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.ejb.batch.max-size", 16 * 1024 * 1024));
+
+    private final HttpInvocationHandler invocationHandler;
+    private final ExecutorService executorService;
+    private final HttpServiceConfig httpServiceConfig;
+
+    HttpBatchHandler(HttpInvocationHandler invocationHandler, ExecutorService executorService, HttpServiceConfig httpServiceConfig) {
+        super(executorService);
+        this.invocationHandler = invocationHandler;
+        this.executorService = executorService;
+        this.httpServiceConfig = httpServiceConfig;
+    }
+
+    @Override
+    protected void handleInternal(HttpServerExchange exchange) throws Exception {
+        String ct = exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE);
+        ContentType contentType = ContentType.parse(ct);
+        if (contentType == null || contentType.getVersion() != 1 || !BATCH_INVOCATION.getType().equals(contentType.getType())) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            EjbHttpClientMessages.MESSAGES.debugf("Bad content type %s", ct);
+            return;
+        }
+        Cookie cookie = exchange.getRequestCookies().get(JSESSIONID_COOKIE_NAME);
+        final String sessionAffinity = cookie != null ? cookie.getValue() : null;
+
+        // read the whole batch first, so that nothing is invoked if it is malformed
+        final InvocationRoute[] routes;
+        final byte[][] sessionIDs;
+        final byte[][] bodies;
+        try (DataInputStream input = new DataInputStream(exchange.getInputStream())) {
+            final int count = PackedInteger.readPackedInteger(input);
+            if (count < 0) {
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                return;
+            }
+            if (count > MAX_INVOCATIONS) {
+                exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+                EjbHttpClientMessages.MESSAGES.debugf("Batch of %s invocations exceeds the limit of %s", count, MAX_INVOCATIONS);
+                return;
+            }
+            long size = 0;
+            routes = new InvocationRoute[count];
+            sessionIDs = new byte[count][];
+            bodies = new byte[count][];
+            for (int i = 0; i < count; ++i) {
+                final String key = input.readUTF();
+                routes[i] = invocationHandler.getRoute(key);
+                if (routes[i] == null) {
+                    exchange.setStatusCode(StatusCodes.NOT_FOUND);
+                    EjbHttpClientMessages.MESSAGES.debugf("Invalid invocation route %s in batch", key);
+                    return;
+                }
+                final String sessionID = input.readUTF();
+                sessionIDs[i] = sessionID.equals("-") ? null : Base64.getUrlDecoder().decode(sessionID);
+                final int length = input.readInt();
+                if (length < 0) {
+                    exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                    return;
+                }
+                size += length;
+                if (size > MAX_SIZE) {
+                    exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+                    EjbHttpClientMessages.MESSAGES.debugf("Batch exceeds the size limit of %s bytes", MAX_SIZE);
+                    return;
+                }
+                bodies[i] = new byte[length];
+                input.readFully(bodies[i]);
+            }
+        }
+
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, EjbConstants.EJB_BATCH_RESPONSE.toString());
+        if (routes.length == 0) {
+            exchange.endExchange();
+            return;
+        }
+        final BatchOutput output = new BatchOutput(exchange, routes.length);
+        exchange.dispatch(executorService, () -> {
+            for (int i = 0; i < routes.length; ++i) {
+                final BatchInvocationIO io = new BatchInvocationIO(exchange, output, i, routes[i], bodies[i]);
+                try {
+                    invocationHandler.invoke(exchange, routes[i], sessionIDs[i], sessionAffinity, null, io);
+                } catch (RuntimeException e) {
+                    io.writeException(StatusCodes.INTERNAL_SERVER_ERROR, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the outcomes of the invocations of a batch to the response, in the order they complete. Every invocation
+     * writes exactly one outcome, and the response ends with the last of them.
+     */
+    private static final class BatchOutput {
+        private final HttpServerExchange exchange;
+        private final DataOutputStream output;
+        private int remaining;
+        private boolean failed;
+
+        BatchOutput(HttpServerExchange exchange, int count) {
+            this.exchange = exchange;
+            this.output = new DataOutputStream(exchange.getOutputStream());
+            this.remaining = count;
+        }
+
+        synchronized void write(int index, int status, byte[] data) {
+            --remaining;
+            if (failed) {
+                return;
+            }
+            try {
+                output.writeInt(index);
+                output.writeByte(status);
+                output.writeInt(data.length);
+                output.write(data);
+                if (remaining == 0) {
+                    output.close();
+                    exchange.endExchange();
+                } else {
+                    output.flush();
+                }
+            } catch (IOException e) {
+                EjbHttpClientMessages.MESSAGES.debugf(e, "Failed to write batch response");
+                failed = true;
+                IoUtils.safeClose(exchange.getConnection());
+            }
+        }
+    }
+
+    /**
+     * Reads an invocation from its part of the batch, and marshals its outcome into the batch response. As the
+     * invocations of a batch run concurrently, each one is traced on its own rather than through the exchange.
+     */
+    private final class BatchInvocationIO implements HttpInvocationHandler.InvocationIO {
+        private final HttpServerExchange exchange;
+        private final BatchOutput output;
+        private final int index;
+        private final byte[] body;
+        private final ServerMetrics.Trace trace;
+
+        BatchInvocationIO(HttpServerExchange exchange, BatchOutput output, int index, InvocationRoute route, byte[] body) {
+            this.exchange = exchange;
+            this.output = output;
+            this.index = index;
+            this.body = body;
+            this.trace = ServerMetrics.startTrace(route.getOperationName());
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            ServerMetrics.begin(trace, ServerMetrics.Phase.UNMARSHAL);
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public void begin(ServerMetrics.Phase phase) {
+            ServerMetrics.begin(trace, phase);
+        }
+
+        @Override
+        public void writeResult(Marshaller marshaller, Object result, Map<String, Object> contextData) throws Exception {
+            ServerMetrics.begin(trace, ServerMetrics.Phase.MARSHAL);
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            marshaller.start(Marshalling.createByteOutput(data));
+            marshaller.writeObject(result);
+            PackedInteger.writePackedInteger(marshaller, contextData.size());
+            for (Map.Entry<String, Object> entry : contextData.entrySet()) {
+                marshaller.writeObject(entry.getKey());
+                marshaller.writeObject(entry.getValue());
+            }
+            marshaller.finish();
+            write(BATCH_RESULT, data.toByteArray());
+        }
+
+        @Override
+        public void writeException(int statusCode, Throwable exception) {
+            ServerMetrics.begin(trace, ServerMetrics.Phase.MARSHAL);
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            try {
+                final Marshaller marshaller = httpServiceConfig.getHttpMarshallerFactory(exchange).createMarshaller();
+                marshaller.start(Marshalling.createByteOutput(data));
+                marshaller.writeObject(exception);
+                marshaller.write(0);
+                marshaller.finish();
+            } catch (IOException e) {
+                // the client fails the invocation as it cannot read the exception
+                EjbHttpClientMessages.MESSAGES.debugf(e, "Failed to write exception of batch invocation %s", index);
+                data.reset();
+            }
+            write(BATCH_EXCEPTION, data.toByteArray());
+        }
+
+        @Override
+        public void writeCancelled() {
+            writeException(StatusCodes.INTERNAL_SERVER_ERROR, new CancellationException());
+        }
+
+        private void write(int status, byte[] data) {
+            output.write(index, status, data);
+            ServerMetrics.end(trace);
+        }
+    }
+}
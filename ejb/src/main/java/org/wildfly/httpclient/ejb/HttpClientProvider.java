@@ -24,6 +24,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.jboss.ejb.client.AttachmentKey;
+import org.jboss.ejb.client.EJBClientContext;
 import org.jboss.ejb.client.EJBReceiver;
 import org.jboss.ejb.client.EJBReceiverContext;
 import org.jboss.ejb.client.EJBTransportProvider;
@@ -60,6 +61,16 @@ public class HttpClientProvider implements EJBTransportProvider {
         throw EjbHttpClientMessages.MESSAGES.couldNotCreateHttpEjbReceiverFor(s);
     }
 
+    /**
+     * Returns the receiver registered with a client context.
+     *
+     * @param clientContext the client context
+     * @return the receiver, or {@code null} if the HTTP transport is not registered with the context
+     */
+    static HttpEJBReceiver getReceiver(EJBClientContext clientContext) {
+        return clientContext.getAttachment(RECEIVER);
+    }
+
     @Override
     public void close(EJBReceiverContext receiverContext) throws Exception {
 
@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.ejb;
+
+import org.jboss.ejb.client.EJBClientContext;
+import org.jboss.ejb.client.EJBLocator;
+import org.jboss.ejb.client.StatefulEJBLocator;
+import org.jboss.ejb.client.StatelessEJBLocator;
+import org.wildfly.security.auth.client.AuthenticationContext;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A batch of EJB invocations that are sent to a server in a single HTTP request. The results are streamed back in a
+ * single response, in the order the invocations complete on the server.
+ * <p>
+ * The invocations of a batch are sent straight to the target URI: they do not go through the EJB client interceptors,
+ * discovery or cluster affinity, and cannot be cancelled. The transaction of the thread that sends the batch is
+ * propagated to all of its invocations. Stateful beans must be created beforehand, through a proxy.
+ */
+public final class HttpEJBBatch {
+
+    private final URI uri;
+    private final List<Invocation> invocations = new ArrayList<>();
+    private boolean sent;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param uri the URI of the target server, as used for the EJB client context
+     */
+    public HttpEJBBatch(URI uri) {
+        this.uri = uri;
+    }
+
+    /**
+     * Adds an invocation to the batch.
+     *
+     * @param locator    the locator of a stateless or stateful session bean
+     * @param method     the invoked method of the view of the bean
+     * @param parameters the parameters of the invocation
+     * @return a future that is completed with the result of the invocation, or with the exception it threw
+     */
+    public synchronized CompletableFuture<Object> add(EJBLocator<?> locator, Method method, Object... parameters) {
+        if (sent) {
+            throw EjbHttpClientMessages.MESSAGES.batchAlreadySent();
+        }
+        if (!(locator instanceof StatelessEJBLocator) && !(locator instanceof StatefulEJBLocator)) {
+            throw EjbHttpClientMessages.MESSAGES.unsupportedBatchLocator(locator);
+        }
+        final Invocation invocation = new Invocation(locator, method, parameters == null ? new Object[0] : parameters);
+        invocations.add(invocation);
+        return invocation.getResult();
+    }
+
+    /**
+     * Returns the number of invocations of the batch.
+     *
+     * @return the number of invocations
+     */
+    public synchronized int size() {
+        return invocations.size();
+    }
+
+    /**
+     * Sends the batch. A batch can only be sent once.
+     *
+     * @return a future that is completed once all invocations of the batch are complete, whatever their outcome
+     */
+    public synchronized CompletableFuture<Void> send() {
+        if (sent) {
+            throw EjbHttpClientMessages.MESSAGES.batchAlreadySent();
+        }
+        sent = true;
+        final CompletableFuture<?>[] results = new CompletableFuture<?>[invocations.size()];
+        for (int i = 0; i < results.length; ++i) {
+            results[i] = invocations.get(i).getResult();
+        }
+        final CompletableFuture<Void> completion = CompletableFuture.allOf(results).handle((result, failure) -> null);
+        if (invocations.isEmpty()) {
+            return completion;
+        }
+        HttpEJBReceiver receiver = HttpClientProvider.getReceiver(EJBClientContext.getCurrent());
+        if (receiver == null) {
+            receiver = new HttpEJBReceiver();
+        }
+        try {
+            receiver.sendBatch(uri, invocations, AuthenticationContext.captureCurrent());
+        } catch (Exception e) {
+            for (Invocation invocation : invocations) {
+                invocation.getResult().completeExceptionally(e);
+            }
+        }
+        return completion;
+    }
+
+    static final class Invocation {
+        private final EJBLocator<?> locator;
+        private final Object[] parameters;
+        private final String routeKey;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Invocation(EJBLocator<?> locator, Method method, Object[] parameters) {
+            this.locator = locator;
+            this.parameters = parameters;
+            // the invocation path without the session id, as parsed by InvocationRoute on the server
+            final StringBuilder sb = new StringBuilder();
+            sb.append(handleEmpty(locator.getAppName())).append('/');
+            sb.append(handleEmpty(locator.getModuleName())).append('/');
+            sb.append(handleEmpty(locator.getDistinctName())).append('/');
+            sb.append(locator.getBeanName()).append('/');
+            sb.append(locator.getViewType().getName()).append('/');
+            sb.append(method.getName());
+            for (Class<?> parameterType : method.getParameterTypes()) {
+                sb.append('/').append(parameterType.getName());
+            }
+            this.routeKey = sb.toString();
+        }
+
+        EJBLocator<?> getLocator() {
+            return locator;
+        }
+
+        Object[] getParameters() {
+            return parameters;
+        }
+
+        String getRouteKey() {
+            return routeKey;
+        }
+
+        CompletableFuture<Object> getResult() {
+            return result;
+        }
+
+        private static String handleEmpty(String s) {
+            return s == null || s.isEmpty() ? "-" : s;
+        }
+    }
+}
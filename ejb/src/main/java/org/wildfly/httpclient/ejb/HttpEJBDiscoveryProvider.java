@@ -23,7 +23,7 @@ import io.undertow.util.Methods;
 import org.jboss.ejb.client.EJBClientConnection;
 import org.jboss.ejb.client.EJBClientContext;
 import org.jboss.ejb.client.EJBModuleIdentifier;
-import org.jboss.marshalling.InputStreamByteInput;
+import org.jboss.marshalling.Marshalling;
 import org.jboss.marshalling.Unmarshaller;
 import org.wildfly.discovery.AttributeValue;
 import org.wildfly.discovery.FilterSpec;
@@ -172,7 +172,7 @@ public final class HttpEJBDiscoveryProvider implements DiscoveryProvider {
                     try {
                         final Unmarshaller unmarshaller = targetContext.getHttpMarshallerFactory(request).createUnmarshaller();
 
-                        unmarshaller.start(new InputStreamByteInput(result));
+                        unmarshaller.start(Marshalling.createByteInput(result));
                         int size = unmarshaller.readInt();
 
                         for (int i = 0; i < size; i++) {
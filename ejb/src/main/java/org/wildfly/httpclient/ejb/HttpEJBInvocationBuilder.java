@@ -18,6 +18,9 @@
 
 package org.wildfly.httpclient.ejb;
 
+import static org.wildfly.httpclient.ejb.EjbConstants.BATCH_INVOCATION;
+import static org.wildfly.httpclient.ejb.EjbConstants.EJB_BATCH_PATH;
+import static org.wildfly.httpclient.ejb.EjbConstants.EJB_BATCH_RESPONSE;
 import static org.wildfly.httpclient.ejb.EjbConstants.INVOCATION_ACCEPT;
 import static org.wildfly.httpclient.ejb.EjbConstants.INVOCATION_ID;
 import static org.wildfly.httpclient.ejb.EjbConstants.INVOCATION;
@@ -36,6 +39,9 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -45,6 +51,10 @@ import java.nio.charset.StandardCharsets;
  */
 class HttpEJBInvocationBuilder {
 
+    private static final String INVOCATION_ACCEPT_VALUE = INVOCATION_ACCEPT + "," + EJB_EXCEPTION;
+    private static final String INVOCATION_CONTENT_TYPE = INVOCATION.toString();
+    private static final String BATCH_ACCEPT_VALUE = EJB_BATCH_RESPONSE + "," + EJB_EXCEPTION;
+
     private String appName;
     private String moduleName;
     private String distinctName;
@@ -56,6 +66,7 @@ class HttpEJBInvocationBuilder {
     private String invocationId;
     private int version = Protocol.LATEST;
     private boolean cancelIfRunning;
+    private PathCache pathCache;
 
     public String getAppName() {
         return appName;
@@ -147,6 +158,18 @@ class HttpEJBInvocationBuilder {
         return this;
     }
 
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    /**
+     * Sets the cache of the encoded invocation paths of the target, if not set the paths are built on every request.
+     */
+    public HttpEJBInvocationBuilder setPathCache(PathCache pathCache) {
+        this.pathCache = pathCache;
+        return this;
+    }
+
     /**
      * Constructs an EJB invocation path
      *
@@ -260,12 +283,16 @@ class HttpEJBInvocationBuilder {
         ClientRequest clientRequest = new ClientRequest();
         if (invocationType == InvocationType.METHOD_INVOCATION) {
             clientRequest.setMethod(Methods.POST);
-            clientRequest.getRequestHeaders().add(Headers.ACCEPT, INVOCATION_ACCEPT + "," + EJB_EXCEPTION);
+            clientRequest.getRequestHeaders().add(Headers.ACCEPT, INVOCATION_ACCEPT_VALUE);
             if (invocationId != null) {
                 clientRequest.getRequestHeaders().put(INVOCATION_ID, invocationId);
             }
-            clientRequest.setPath(buildPath(mountPoint, EJB_INVOKE_PATH, appName, moduleName, distinctName, beanName, beanId, view, method));
-            clientRequest.getRequestHeaders().put(Headers.CONTENT_TYPE, INVOCATION.toString());
+            if (pathCache == null) {
+                clientRequest.setPath(buildPath(mountPoint, EJB_INVOKE_PATH, appName, moduleName, distinctName, beanName, beanId, view, method));
+            } else {
+                clientRequest.setPath(pathCache.getInvocationPath(this, mountPoint));
+            }
+            clientRequest.getRequestHeaders().put(Headers.CONTENT_TYPE, INVOCATION_CONTENT_TYPE);
         } else if (invocationType == InvocationType.STATEFUL_CREATE) {
             clientRequest.setMethod(Methods.POST);
             clientRequest.getRequestHeaders().put(Headers.CONTENT_TYPE, SESSION_OPEN.toString());
@@ -274,6 +301,11 @@ class HttpEJBInvocationBuilder {
         } else if(invocationType == InvocationType.CANCEL) {
             clientRequest.setMethod(Methods.DELETE);
             clientRequest.setPath(buildPath(mountPoint, EJB_CANCEL_PATH, appName, moduleName, distinctName, beanName, invocationId, cancelIfRunning));
+        } else if (invocationType == InvocationType.BATCH_INVOCATION) {
+            clientRequest.setMethod(Methods.POST);
+            clientRequest.getRequestHeaders().add(Headers.ACCEPT, BATCH_ACCEPT_VALUE);
+            clientRequest.setPath((mountPoint == null ? "" : mountPoint) + "/ejb/v" + version + EJB_BATCH_PATH);
+            clientRequest.getRequestHeaders().put(Headers.CONTENT_TYPE, BATCH_INVOCATION.toString());
         }
         return clientRequest;
     }
@@ -292,6 +324,121 @@ class HttpEJBInvocationBuilder {
         METHOD_INVOCATION,
         STATEFUL_CREATE,
         CANCEL,
+        BATCH_INVOCATION,
+    }
+
+    /**
+     * Caches the encoded parts of the invocation paths of a target, so that building the path of an invocation only
+     * requires adding the bean id. The bean paths of a previous protocol version are discarded once the version of the
+     * target changes.
+     */
+    static final class PathCache {
+        private final Map<BeanKey, String> beanPaths = new ConcurrentHashMap<>();
+        private final Map<MethodKey, String> methodPaths = new ConcurrentHashMap<>();
+        private volatile int version = -1;
+
+        String getInvocationPath(HttpEJBInvocationBuilder builder, String mountPoint) {
+            final int version = builder.version;
+            if (this.version != version) {
+                this.version = version;
+                beanPaths.keySet().removeIf(key -> key.version != version);
+            }
+            final BeanKey beanKey = new BeanKey(mountPoint, version, builder.appName, builder.moduleName, builder.distinctName, builder.beanName);
+            String beanPath = beanPaths.get(beanKey);
+            if (beanPath == null) {
+                final StringBuilder sb = new StringBuilder();
+                builder.buildBeanPath(mountPoint, EJB_INVOKE_PATH, builder.appName, builder.moduleName, builder.distinctName, builder.beanName, sb);
+                beanPath = sb.toString();
+                beanPaths.put(beanKey, beanPath);
+            }
+            final MethodKey methodKey = new MethodKey(builder.view, builder.method);
+            String methodPath = methodPaths.get(methodKey);
+            if (methodPath == null) {
+                final StringBuilder sb = new StringBuilder();
+                sb.append("/");
+                sb.append(builder.view);
+                sb.append("/");
+                sb.append(builder.method.getName());
+                for (final Class<?> param : builder.method.getParameterTypes()) {
+                    sb.append("/");
+                    sb.append(encodeUrlPart(param.getName()));
+                }
+                methodPath = sb.toString();
+                methodPaths.put(methodKey, methodPath);
+            }
+            final String beanId = builder.beanId == null ? "-" : builder.beanId;
+            return new StringBuilder(beanPath.length() + beanId.length() + methodPath.length() + 1)
+                    .append(beanPath)
+                    .append("/")
+                    .append(beanId)
+                    .append(methodPath)
+                    .toString();
+        }
     }
 
+    private static final class BeanKey {
+        private final String mountPoint;
+        private final int version;
+        private final String appName;
+        private final String moduleName;
+        private final String distinctName;
+        private final String beanName;
+        private final int hashCode;
+
+        BeanKey(String mountPoint, int version, String appName, String moduleName, String distinctName, String beanName) {
+            this.mountPoint = mountPoint;
+            this.version = version;
+            this.appName = appName;
+            this.moduleName = moduleName;
+            this.distinctName = distinctName;
+            this.beanName = beanName;
+            this.hashCode = Objects.hash(mountPoint, version, appName, moduleName, distinctName, beanName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BeanKey)) {
+                return false;
+            }
+            final BeanKey other = (BeanKey) o;
+            return version == other.version && hashCode == other.hashCode && Objects.equals(beanName, other.beanName)
+                    && Objects.equals(moduleName, other.moduleName) && Objects.equals(appName, other.appName)
+                    && Objects.equals(distinctName, other.distinctName) && Objects.equals(mountPoint, other.mountPoint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class MethodKey {
+        private final String view;
+        private final Method method;
+
+        MethodKey(String view, Method method) {
+            this.view = view;
+            this.method = method;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MethodKey)) {
+                return false;
+            }
+            final MethodKey other = (MethodKey) o;
+            return method.equals(other.method) && Objects.equals(view, other.view);
+        }
+
+        @Override
+        public int hashCode() {
+            return method.hashCode() * 31 + Objects.hashCode(view);
+        }
+    }
 }
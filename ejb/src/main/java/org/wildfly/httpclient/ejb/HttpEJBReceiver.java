@@ -23,6 +23,7 @@ import io.undertow.util.AttachmentKey;
 import io.undertow.util.Headers;
 import io.undertow.util.StatusCodes;
 import org.jboss.ejb.client.Affinity;
+import org.jboss.ejb.client.AttachmentKeys;
 import org.jboss.ejb.client.EJBClientInvocationContext;
 import org.jboss.ejb.client.EJBLocator;
 import org.jboss.ejb.client.EJBReceiver;
@@ -35,6 +36,9 @@ import org.jboss.marshalling.InputStreamByteInput;
 import org.jboss.marshalling.Marshaller;
 import org.jboss.marshalling.Marshalling;
 import org.jboss.marshalling.Unmarshaller;
+import org.wildfly.httpclient.common.ClientMetrics;
+import org.wildfly.httpclient.common.CompressionCodec;
+import org.wildfly.httpclient.common.CompressionCodecs;
 import org.wildfly.httpclient.common.HttpMarshallerFactory;
 import org.wildfly.httpclient.common.HttpTargetContext;
 import org.wildfly.httpclient.common.WildflyHttpContext;
@@ -55,7 +59,11 @@ import jakarta.transaction.RollbackException;
 import jakarta.transaction.SystemException;
 import jakarta.transaction.Transaction;
 import javax.transaction.xa.Xid;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.OutputStream;
@@ -67,6 +75,8 @@ import java.security.PrivilegedAction;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -74,9 +84,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.zip.GZIPOutputStream;
+import java.util.stream.Stream;
 
 import static java.security.AccessController.doPrivileged;
+import static org.wildfly.httpclient.ejb.EjbConstants.BATCH_RESULT;
 import static org.wildfly.httpclient.ejb.EjbConstants.HTTPS_PORT;
 import static org.wildfly.httpclient.ejb.EjbConstants.HTTPS_SCHEME;
 import static org.wildfly.httpclient.ejb.EjbConstants.HTTP_PORT;
@@ -115,7 +126,7 @@ class HttpEJBReceiver extends EJBReceiver {
 
     @Override
     protected void processInvocation(EJBReceiverInvocationContext receiverContext) throws Exception {
-
+        final long start = System.nanoTime();
         EJBClientInvocationContext clientInvocationContext = receiverContext.getClientInvocationContext();
         EJBLocator<?> locator = clientInvocationContext.getLocator();
 
@@ -128,7 +139,7 @@ class HttpEJBReceiver extends EJBReceiver {
         if (targetContext.getAttachment(EJB_CONTEXT_DATA) == null) {
             synchronized (this) {
                 if (targetContext.getAttachment(EJB_CONTEXT_DATA) == null) {
-                    targetContext.putAttachment(EJB_CONTEXT_DATA, new EjbContextData());
+                    targetContext.putAttachment(EJB_CONTEXT_DATA, new EjbContextData(targetContext.getUri()));
                 }
             }
         }
@@ -136,6 +147,7 @@ class HttpEJBReceiver extends EJBReceiver {
 
 
         EjbContextData ejbData = targetContext.getAttachment(EJB_CONTEXT_DATA);
+        final ClientMetrics metrics = targetContext.getMetrics();
         HttpEJBInvocationBuilder builder = new HttpEJBInvocationBuilder()
                 .setInvocationType(HttpEJBInvocationBuilder.InvocationType.METHOD_INVOCATION)
                 .setMethod(clientInvocationContext.getInvokedMethod())
@@ -143,7 +155,8 @@ class HttpEJBReceiver extends EJBReceiver {
                 .setModuleName(locator.getModuleName())
                 .setDistinctName(locator.getDistinctName())
                 .setView(clientInvocationContext.getViewClass().getName())
-                .setBeanName(locator.getBeanName());
+                .setBeanName(locator.getBeanName())
+                .setPathCache(ejbData.pathCache);
         if (locator instanceof StatefulEJBLocator) {
             builder.setBeanId(Base64.getUrlEncoder().encodeToString(locator.asStateful().getSessionId().getEncodedForm()));
         }
@@ -165,16 +178,22 @@ class HttpEJBReceiver extends EJBReceiver {
             }
         }
         boolean compressResponse = receiverContext.getClientInvocationContext().isCompressResponse();
+        final Integer compressionLevel = clientInvocationContext.getAttachment(AttachmentKeys.RESPONSE_COMPRESSION_LEVEL);
         builder.setVersion(targetContext.getProtocolVersion());
         ClientRequest request = builder.createRequest(targetContext.getUri().getPath());
         if (compressResponse) {
-            request.getRequestHeaders().put(Headers.ACCEPT_ENCODING, Headers.GZIP.toString());
+            request.getRequestHeaders().put(Headers.ACCEPT_ENCODING, CompressionCodecs.getAcceptEncoding());
+            if (compressionLevel != null) {
+                request.getRequestHeaders().put(EjbConstants.RESPONSE_COMPRESSION_LEVEL, compressionLevel.toString());
+            }
         }
         request.getRequestHeaders().put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
-        final boolean compressRequest = receiverContext.getClientInvocationContext().isCompressRequest();
-        if (compressRequest) {
-            request.getRequestHeaders().put(Headers.CONTENT_ENCODING, Headers.GZIP.toString());
+        final Class<?> returnType = clientInvocationContext.getInvokedMethod().getReturnType();
+        if (returnType == Iterator.class || returnType == Stream.class) {
+            // the server may stream the elements of the result instead of marshalling it as a whole
+            request.getRequestHeaders().put(EjbConstants.STREAMED_RESULT, "true");
         }
+        final boolean compressRequest = receiverContext.getClientInvocationContext().isCompressRequest();
         final AuthenticationContext context = receiverContext.getAuthenticationContext();
         final AuthenticationContextConfigurationClient client = CLIENT;
         final int defaultPort = uri.getScheme().equals(HTTPS_SCHEME) ? HTTPS_PORT : HTTP_PORT;
@@ -182,17 +201,32 @@ class HttpEJBReceiver extends EJBReceiver {
         final SSLContext sslContext = client.getSSLContext(uri, context, "jndi", "jboss");
         targetContext.sendRequest(request, sslContext, authenticationConfiguration, (output -> {
                     OutputStream data = output;
-                    if (compressRequest) {
-                        data = new GZIPOutputStream(data);
-                    }
                     try {
+                        if (compressRequest) {
+                            // the request headers are sent once the body is marshalled, or with the first bytes of a
+                            // streamed body, which the stream holds back until it knows whether the request is large
+                            // enough and compresses well
+                            final CompressionCodec requestCodec = CompressionCodecs.getPreferredCodec();
+                            final int level = compressionLevel != null ? compressionLevel : CompressionCodec.DEFAULT_LEVEL;
+                            data = new AdaptiveCompressionOutputStream(compressed -> {
+                                if (!compressed) {
+                                    // a request too large to be buffered is marshalled again to be streamed
+                                    request.getRequestHeaders().remove(Headers.CONTENT_ENCODING);
+                                    return output;
+                                }
+                                request.getRequestHeaders().put(Headers.CONTENT_ENCODING, requestCodec.getName());
+                                return requestCodec.compress(output, level);
+                            }, requestCodec, level);
+                        }
                         marshalEJBRequest(Marshalling.createByteOutput(data), clientInvocationContext, targetContext, request);
                     } finally {
                         IoUtils.safeClose(data);
                     }
                 }),
 
-                ((input, response, closeable) -> {
+                // the result is unmarshalled by the thread that waits for it, once it asks for it
+                ((HttpTargetContext.HttpDeferredResultHandler) (input, response, closeable) -> {
+                        metrics.invocationCompleted(System.nanoTime() - start, response.getResponseCode() >= 400);
                         if (response.getResponseCode() == StatusCodes.ACCEPTED && clientInvocationContext.getInvokedMethod().getReturnType() == void.class) {
                             ejbData.asyncMethods.add(clientInvocationContext.getInvokedMethod());
                         }
@@ -202,11 +236,18 @@ class HttpEJBReceiver extends EJBReceiver {
 
                                 Exception exception = null;
                                 Object returned = null;
+                                boolean streamed = false;
                                 try {
 
-                                    final Unmarshaller unmarshaller = createUnmarshaller(targetContext.getUri(), targetContext.getHttpMarshallerFactory(request));
+                                    final Unmarshaller unmarshaller = createUnmarshaller(targetContext, targetContext.getHttpMarshallerFactory(request));
 
-                                    unmarshaller.start(new InputStreamByteInput(input));
+                                    unmarshaller.start(Marshalling.createByteInput(input));
+                                    if (response.getResponseHeaders().contains(EjbConstants.STREAMED_RESULT)) {
+                                        // the response is released by the streamed result, once consumed
+                                        final StreamedResult result = new StreamedResult(unmarshaller, closeable, current.getWorker().getIoThread());
+                                        streamed = true;
+                                        return returnType == Stream.class ? result.asStream() : result;
+                                    }
                                     returned = unmarshaller.readObject();
                                     // read the attachments
                                     final Map<String, Object> attachments = readAttachments(unmarshaller);
@@ -237,7 +278,9 @@ class HttpEJBReceiver extends EJBReceiver {
                                 } catch (Exception e) {
                                     exception = e;
                                 } finally {
-                                    IoUtils.safeClose(closeable);
+                                    if (!streamed) {
+                                        IoUtils.safeClose(closeable);
+                                    }
                                 }
                                 if (exception != null) {
                                     throw exception;
@@ -252,7 +295,10 @@ class HttpEJBReceiver extends EJBReceiver {
                             }
                         });
                 }),
-                (e) -> receiverContext.requestFailed(e instanceof Exception ? (Exception) e : new RuntimeException(e)), EjbConstants.EJB_RESPONSE, null);
+                (e) -> {
+                    metrics.invocationCompleted(System.nanoTime() - start, true);
+                    receiverContext.requestFailed(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+                }, EjbConstants.EJB_RESPONSE, null);
     }
 
     private static final AuthenticationContextConfigurationClient CLIENT = doPrivileged(AuthenticationContextConfigurationClient.ACTION);
@@ -273,7 +319,7 @@ class HttpEJBReceiver extends EJBReceiver {
         if (targetContext.getAttachment(EJB_CONTEXT_DATA) == null) {
             synchronized (this) {
                 if (targetContext.getAttachment(EJB_CONTEXT_DATA) == null) {
-                    targetContext.putAttachment(EJB_CONTEXT_DATA, new EjbContextData());
+                    targetContext.putAttachment(EJB_CONTEXT_DATA, new EjbContextData(targetContext.getUri()));
                 }
             }
         }
@@ -291,7 +337,7 @@ class HttpEJBReceiver extends EJBReceiver {
         builder.setVersion(targetContext.getProtocolVersion());
         ClientRequest request = builder.createRequest(targetContext.getUri().getPath());
         targetContext.sendRequest(request, sslContext, authenticationConfiguration, output -> {
-                    Marshaller marshaller = createMarshaller(targetContext.getUri(), targetContext.getHttpMarshallerFactory(request));
+                    Marshaller marshaller = createMarshaller(targetContext, targetContext.getHttpMarshallerFactory(request));
                     marshaller.start(Marshalling.createByteOutput(output));
                     writeTransaction(ContextTransactionManager.getInstance().getTransaction(), marshaller, targetContext.getUri());
                     marshaller.finish();
@@ -341,7 +387,7 @@ class HttpEJBReceiver extends EJBReceiver {
         if (targetContext.getAttachment(EJB_CONTEXT_DATA) == null) {
             synchronized (this) {
                 if (targetContext.getAttachment(EJB_CONTEXT_DATA) == null) {
-                    targetContext.putAttachment(EJB_CONTEXT_DATA, new EjbContextData());
+                    targetContext.putAttachment(EJB_CONTEXT_DATA, new EjbContextData(targetContext.getUri()));
                 }
             }
         }
@@ -363,7 +409,7 @@ class HttpEJBReceiver extends EJBReceiver {
             } finally {
                 IoUtils.safeClose(closeable);
             }
-        }, throwable -> result.complete(false), null, null);
+        }, throwable -> result.complete(false), null, null, false, true);
         try {
             return result.get();
         } catch (InterruptedException | ExecutionException e) {
@@ -371,16 +417,129 @@ class HttpEJBReceiver extends EJBReceiver {
         }
     }
 
-    private Marshaller createMarshaller(URI uri, HttpMarshallerFactory httpMarshallerFactory) throws IOException {
-        return httpMarshallerFactory.createMarshaller(new HttpProtocolV1ObjectResolver(uri), HttpProtocolV1ObjectTable.INSTANCE);
+    private Marshaller createMarshaller(HttpTargetContext targetContext, HttpMarshallerFactory httpMarshallerFactory) throws IOException {
+        return httpMarshallerFactory.createMarshaller(getObjectResolver(targetContext), HttpProtocolV1ObjectTable.INSTANCE);
+    }
+
+    private Unmarshaller createUnmarshaller(HttpTargetContext targetContext, HttpMarshallerFactory httpMarshallerFactory) throws IOException {
+        return httpMarshallerFactory.createUnmarshaller(getObjectResolver(targetContext), HttpProtocolV1ObjectTable.INSTANCE);
+    }
+
+    private HttpProtocolV1ObjectResolver getObjectResolver(HttpTargetContext targetContext) {
+        final EjbContextData ejbData = targetContext.getAttachment(EJB_CONTEXT_DATA);
+        return ejbData == null ? HttpProtocolV1ObjectResolver.forUri(targetContext.getUri()) : ejbData.objectResolver;
+    }
+
+    /**
+     * Sends the invocations of a batch in a single request. The future of each invocation is completed as soon as its
+     * outcome is read from the response.
+     *
+     * @param uri         the URI of the target server
+     * @param invocations the invocations of the batch
+     * @param context     the authentication context of the caller
+     * @throws Exception if the request cannot be sent
+     */
+    void sendBatch(URI uri, List<HttpEJBBatch.Invocation> invocations, AuthenticationContext context) throws Exception {
+        WildflyHttpContext current = WildflyHttpContext.getCurrent();
+        HttpTargetContext targetContext = current.getTargetContext(uri);
+        if (targetContext == null) {
+            throw EjbHttpClientMessages.MESSAGES.couldNotResolveTargetForLocator(invocations.get(0).getLocator());
+        }
+        final AuthenticationContextConfigurationClient client = CLIENT;
+        final int defaultPort = uri.getScheme().equals(HTTPS_SCHEME) ? HTTPS_PORT : HTTP_PORT;
+        final AuthenticationConfiguration authenticationConfiguration = client.getAuthenticationConfiguration(uri, context, defaultPort, "jndi", "jboss");
+        final SSLContext sslContext = client.getSSLContext(uri, context, "jndi", "jboss");
+        targetContext.awaitSessionId(false, authenticationConfiguration);
+
+        final Transaction transaction = ContextTransactionManager.getInstance().getTransaction();
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        HttpEJBInvocationBuilder builder = new HttpEJBInvocationBuilder()
+                .setInvocationType(HttpEJBInvocationBuilder.InvocationType.BATCH_INVOCATION);
+        builder.setVersion(targetContext.getProtocolVersion());
+        ClientRequest request = builder.createRequest(targetContext.getUri().getPath());
+        request.getRequestHeaders().put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
+        targetContext.sendRequest(request, sslContext, authenticationConfiguration, output -> {
+                    final DataOutputStream data = new DataOutputStream(output);
+                    try {
+                        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                        PackedInteger.writePackedInteger(data, invocations.size());
+                        for (HttpEJBBatch.Invocation invocation : invocations) {
+                            data.writeUTF(invocation.getRouteKey());
+                            final EJBLocator<?> locator = invocation.getLocator();
+                            data.writeUTF(locator instanceof StatefulEJBLocator ? Base64.getUrlEncoder().encodeToString(locator.asStateful().getSessionId().getEncodedForm()) : "-");
+                            // each invocation is marshalled exactly as the body of a single invocation request
+                            body.reset();
+                            Marshaller marshaller = createMarshaller(targetContext, targetContext.getHttpMarshallerFactory(request));
+                            marshaller.start(Marshalling.createByteOutput(body));
+                            writeTransaction(transaction, marshaller, targetContext.getUri());
+                            for (Object parameter : invocation.getParameters()) {
+                                marshaller.writeObject(parameter);
+                            }
+                            marshaller.writeByte(0);
+                            marshaller.finish();
+                            data.writeInt(body.size());
+                            body.writeTo(data);
+                        }
+                    } finally {
+                        IoUtils.safeClose(data);
+                    }
+                },
+                ((input, response, closeable) -> {
+                    final Thread thread = Thread.currentThread();
+                    final ClassLoader oldClassLoader = thread.getContextClassLoader();
+                    thread.setContextClassLoader(classLoader);
+                    try (DataInputStream data = new DataInputStream(input)) {
+                        for (int i = 0; i < invocations.size(); ++i) {
+                            final int index = data.readInt();
+                            final int status = data.readByte();
+                            final byte[] body = new byte[data.readInt()];
+                            data.readFully(body);
+                            if (index < 0 || index >= invocations.size()) {
+                                // the entry cannot be attributed, its invocation is failed below if it gets no other outcome
+                                EjbHttpClientMessages.MESSAGES.debugf("Invalid invocation index %s in batch response", index);
+                                continue;
+                            }
+                            final CompletableFuture<Object> result = invocations.get(index).getResult();
+                            try {
+                                final Unmarshaller unmarshaller = createUnmarshaller(targetContext, targetContext.getHttpMarshallerFactory(request));
+                                unmarshaller.start(new InputStreamByteInput(new ByteArrayInputStream(body)));
+                                final Object returned = unmarshaller.readObject();
+                                readAttachments(unmarshaller);
+                                unmarshaller.finish();
+                                if (status == BATCH_RESULT) {
+                                    result.complete(returned);
+                                } else {
+                                    // errors are wrapped, as they are when a single invocation fails
+                                    final Throwable exception = (Throwable) returned;
+                                    result.completeExceptionally(exception instanceof Exception ? exception : new RuntimeException(exception));
+                                }
+                            } catch (Exception e) {
+                                result.completeExceptionally(e);
+                            }
+                        }
+                    } catch (Exception e) {
+                        failBatch(invocations, e);
+                    } finally {
+                        thread.setContextClassLoader(oldClassLoader);
+                        IoUtils.safeClose(closeable);
+                    }
+                    for (int i = 0; i < invocations.size(); ++i) {
+                        if (!invocations.get(i).getResult().isDone()) {
+                            invocations.get(i).getResult().completeExceptionally(EjbHttpClientMessages.MESSAGES.noBatchResult(i));
+                        }
+                    }
+                }),
+                e -> failBatch(invocations, e), EjbConstants.EJB_BATCH_RESPONSE, null);
     }
 
-    private Unmarshaller createUnmarshaller(URI uri, HttpMarshallerFactory httpMarshallerFactory) throws IOException {
-        return httpMarshallerFactory.createUnmarshaller(new HttpProtocolV1ObjectResolver(uri), HttpProtocolV1ObjectTable.INSTANCE);
+    private static void failBatch(List<HttpEJBBatch.Invocation> invocations, Throwable failure) {
+        for (HttpEJBBatch.Invocation invocation : invocations) {
+            invocation.getResult().completeExceptionally(failure);
+        }
     }
 
     private void marshalEJBRequest(ByteOutput byteOutput, EJBClientInvocationContext clientInvocationContext, HttpTargetContext targetContext, ClientRequest clientRequest) throws IOException, RollbackException, SystemException {
-        Marshaller marshaller = createMarshaller(targetContext.getUri(), targetContext.getHttpMarshallerFactory(clientRequest));
+        Marshaller marshaller = createMarshaller(targetContext, targetContext.getHttpMarshallerFactory(clientRequest));
         marshaller.start(byteOutput);
         writeTransaction(clientInvocationContext.getTransaction(), marshaller, targetContext.getUri());
 
@@ -485,6 +644,12 @@ class HttpEJBReceiver extends EJBReceiver {
 
     private static class EjbContextData {
         final Set<Method> asyncMethods = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final HttpEJBInvocationBuilder.PathCache pathCache = new HttpEJBInvocationBuilder.PathCache();
+        // lives as long as the target context, and saves creating a resolver for each request
+        final HttpProtocolV1ObjectResolver objectResolver;
 
+        EjbContextData(URI uri) {
+            this.objectResolver = HttpProtocolV1ObjectResolver.forUri(uri);
+        }
     }
 }
@@ -40,12 +40,16 @@ import org.jboss.marshalling.Marshalling;
 import org.jboss.marshalling.SimpleClassResolver;
 import org.jboss.marshalling.Unmarshaller;
 import org.wildfly.common.annotation.NotNull;
+import org.wildfly.httpclient.common.CompressionCodec;
+import org.wildfly.httpclient.common.CompressionCodecs;
 import org.wildfly.httpclient.common.ContentType;
 import org.wildfly.httpclient.common.ElytronIdentityHandler;
 import org.wildfly.httpclient.common.HttpMarshallerFactory;
 import org.wildfly.httpclient.common.HttpServerHelper;
 import org.wildfly.httpclient.common.HttpServiceConfig;
 import org.wildfly.httpclient.common.NoFlushByteOutput;
+import org.wildfly.httpclient.common.PooledByteOutput;
+import org.wildfly.httpclient.common.ServerMetrics;
 import org.wildfly.security.auth.server.SecurityIdentity;
 import org.wildfly.transaction.client.ImportResult;
 import org.wildfly.transaction.client.LocalTransaction;
@@ -59,17 +63,27 @@ import javax.transaction.xa.XAException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InvalidClassException;
-import java.io.OutputStream;
 import java.net.SocketAddress;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
+import java.util.stream.BaseStream;
 
 import static org.wildfly.httpclient.ejb.EjbConstants.INVOCATION;
 import static org.wildfly.httpclient.ejb.EjbConstants.JSESSIONID_COOKIE_NAME;
+import static org.wildfly.httpclient.ejb.EjbConstants.RESPONSE_COMPRESSION_LEVEL;
+import static org.wildfly.httpclient.ejb.EjbConstants.STREAMED_RESULT;
+import static org.wildfly.httpclient.ejb.EjbConstants.STREAM_ELEMENT;
+import static org.wildfly.httpclient.ejb.EjbConstants.STREAM_END;
+import static org.wildfly.httpclient.ejb.EjbConstants.STREAM_EXCEPTION;
 
 /**
  * Http handler for EJB invocations.
@@ -78,12 +92,21 @@ import static org.wildfly.httpclient.ejb.EjbConstants.JSESSIONID_COOKIE_NAME;
  */
 class HttpInvocationHandler extends RemoteHTTPHandler {
 
+    private static final int ROUTE_CACHE_SIZE = AccessController.doPrivileged((PrivilegedAction<Integer>) () -> Integer.getInteger("org.wildfly.httpclient.ejb.route-cache-size", 1024));
+
     private final Association association;
     private final ExecutorService executorService;
     private final LocalTransactionContext localTransactionContext;
     private final Map<InvocationIdentifier, CancelHandle> cancellationFlags;
     private final Function<String, Boolean> classResolverFilter;
     private final HttpServiceConfig httpServiceConfig;
+    // the routes last invoked, the least recently used one is evicted once the cache is full, e.g. by undeployed apps
+    private final Map<String, InvocationRoute> routes = Collections.synchronizedMap(new LinkedHashMap<String, InvocationRoute>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, InvocationRoute> eldest) {
+            return size() > ROUTE_CACHE_SIZE;
+        }
+    });
 
     HttpInvocationHandler(Association association, ExecutorService executorService, LocalTransactionContext localTransactionContext,
                           Map<InvocationIdentifier, CancelHandle> cancellationFlags, Function<String, Boolean> classResolverFilter,
@@ -106,31 +129,36 @@ class HttpInvocationHandler extends RemoteHTTPHandler {
             EjbHttpClientMessages.MESSAGES.debugf("Bad content type %s", ct);
             return;
         }
+        final String contentEncoding = exchange.getRequestHeaders().getFirst(Headers.CONTENT_ENCODING);
+        if (!CompressionCodecs.isSupported(contentEncoding)) {
+            exchange.setStatusCode(StatusCodes.UNSUPPORTED_MEDIA_TYPE);
+            EjbHttpClientMessages.MESSAGES.debugf("Unsupported content encoding %s", contentEncoding);
+            return;
+        }
 
-        String relativePath = exchange.getRelativePath();
-        if(relativePath.startsWith("/")) {
-            relativePath = relativePath.substring(1);
+        final String relativePath = exchange.getRelativePath();
+        final int start = relativePath.startsWith("/") ? 1 : 0;
+        // the session id is the fifth segment, the rest of the path identifies the invoked method
+        int sessionStart = start;
+        for (int i = 0; i < 4 && sessionStart >= 0; ++i) {
+            final int slash = relativePath.indexOf('/', sessionStart);
+            sessionStart = slash < 0 ? -1 : slash + 1;
         }
-        String[] parts = relativePath.split("/");
-        if(parts.length < 7) {
+        final int sessionEnd = sessionStart >= 0 ? relativePath.indexOf('/', sessionStart) : -1;
+        if (sessionEnd < 0) {
             exchange.setStatusCode(StatusCodes.NOT_FOUND);
             return;
         }
-        final String app = handleDash(parts[0]);
-        final String module = handleDash(parts[1]);
-        final String distinct = handleDash(parts[2]);
-        final String bean = parts[3];
-
-
-        String originalSessionId = handleDash(parts[4]);
+        final InvocationRoute route = getRoute(relativePath.substring(start, sessionStart) + relativePath.substring(sessionEnd + 1));
+        if (route == null) {
+            exchange.setStatusCode(StatusCodes.NOT_FOUND);
+            return;
+        }
+        ServerMetrics.setOperation(exchange, route.getOperationName());
+        String originalSessionId = handleDash(relativePath.substring(sessionStart, sessionEnd));
         final byte[] sessionID = originalSessionId.isEmpty() ? null : Base64.getUrlDecoder().decode(originalSessionId);
-        String viewName = parts[5];
-        String method = parts[6];
-        String[] parameterTypeNames = new String[parts.length - 7];
-        System.arraycopy(parts, 7, parameterTypeNames, 0, parameterTypeNames.length);
         Cookie cookie = exchange.getRequestCookies().get(JSESSIONID_COOKIE_NAME);
         final String sessionAffinity = cookie != null ? cookie.getValue() : null;
-        final EJBIdentifier ejbIdentifier = new EJBIdentifier(app, module, bean, distinct);
 
         final String cancellationId = exchange.getRequestHeaders().getFirst(EjbConstants.INVOCATION_ID);
         final InvocationIdentifier identifier;
@@ -140,177 +168,219 @@ class HttpInvocationHandler extends RemoteHTTPHandler {
             identifier = null;
         }
 
-        exchange.dispatch(executorService, () -> {
-            CancelHandle handle = association.receiveInvocationRequest(new InvocationRequest() {
+        exchange.dispatch(executorService, () -> invoke(exchange, route, sessionID, sessionAffinity, identifier, new ExchangeInvocationIO(exchange)));
+    }
 
-                @Override
-                public SocketAddress getPeerAddress() {
-                    return exchange.getSourceAddress();
-                }
+    /**
+     * Passes an invocation to the association.
+     *
+     * @param exchange        the exchange that carries the invocation
+     * @param route           the route of the invocation
+     * @param sessionID       the session id of a stateful bean, or {@code null}
+     * @param sessionAffinity the session affinity of the client, or {@code null}
+     * @param identifier      the identifier used to cancel the invocation, or {@code null}
+     * @param io              the source of the content of the invocation, and the destination of its outcome
+     */
+    void invoke(HttpServerExchange exchange, InvocationRoute route, byte[] sessionID, String sessionAffinity, InvocationIdentifier identifier, InvocationIO io) {
+        final EJBIdentifier ejbIdentifier = route.getEjbIdentifier();
+        final String app = route.getApp();
+        final String module = route.getModule();
+        final String distinct = route.getDistinct();
+        final String bean = route.getBean();
+        CancelHandle handle = association.receiveInvocationRequest(new InvocationRequest() {
+
+            @Override
+            public SocketAddress getPeerAddress() {
+                return exchange.getSourceAddress();
+            }
 
-                @Override
-                public SocketAddress getLocalAddress() {
-                    return exchange.getDestinationAddress();
-                }
+            @Override
+            public SocketAddress getLocalAddress() {
+                return exchange.getDestinationAddress();
+            }
 
-                @Override
-                public Resolved getRequestContent(final ClassLoader classLoader) throws IOException, ClassNotFoundException {
-
-                    Object[] methodParams = new Object[parameterTypeNames.length];
-                    final Class<?> view = Class.forName(viewName, false, classLoader);
-                    final HttpMarshallerFactory unmarshallingFactory = httpServiceConfig.getHttpUnmarshallerFactory(exchange);
-                    final Unmarshaller unmarshaller = unmarshallingFactory.createUnmarshaller(new FilteringClassResolver(classLoader, classResolverFilter), HttpProtocolV1ObjectTable.INSTANCE);
-
-                    try (InputStream inputStream = exchange.getInputStream()) {
-                        unmarshaller.start(new InputStreamByteInput(inputStream));
-                        ReceivedTransaction txConfig = readTransaction(unmarshaller);
-
-
-                        final Transaction transaction;
-                        if (txConfig == null || localTransactionContext == null) { //the TX context may be null in unit tests
-                            transaction = null;
-                        } else {
-                            try {
-                                ImportResult<LocalTransaction> result = localTransactionContext.findOrImportTransaction(txConfig.getXid(), txConfig.getRemainingTime());
-                                transaction = result.getTransaction();
-                            } catch (XAException e) {
-                                throw new IllegalStateException(e); //TODO: what to do here?
-                            }
+            @Override
+            public Resolved getRequestContent(final ClassLoader classLoader) throws IOException, ClassNotFoundException {
+
+                Object[] methodParams = new Object[route.getParameterCount()];
+                final Class<?> view = route.getView(classLoader);
+                cacheRoute(route);
+                final HttpMarshallerFactory unmarshallingFactory = httpServiceConfig.getHttpUnmarshallerFactory(exchange);
+                final Unmarshaller unmarshaller = unmarshallingFactory.createUnmarshaller(new FilteringClassResolver(classLoader, classResolverFilter), HttpProtocolV1ObjectTable.INSTANCE);
+
+                try (InputStream inputStream = io.getInputStream()) {
+                    unmarshaller.start(new InputStreamByteInput(inputStream));
+                    ReceivedTransaction txConfig = readTransaction(unmarshaller);
+
+
+                    final Transaction transaction;
+                    if (txConfig == null || localTransactionContext == null) { //the TX context may be null in unit tests
+                        transaction = null;
+                    } else {
+                        try {
+                            ImportResult<LocalTransaction> result = localTransactionContext.findOrImportTransaction(txConfig.getXid(), txConfig.getRemainingTime());
+                            transaction = result.getTransaction();
+                        } catch (XAException e) {
+                            throw new IllegalStateException(e); //TODO: what to do here?
                         }
-                        for (int i = 0; i < parameterTypeNames.length; ++i) {
-                            methodParams[i] = unmarshaller.readObject();
-                        }
-                        final Map<String, Object> contextData;
-                        final int attachmentCount = PackedInteger.readPackedInteger(unmarshaller);
-                        if (attachmentCount > 0) {
-                            contextData = new HashMap<>();
-                            for (int i = 0; i < attachmentCount; ++i) {
-                                Object o = unmarshaller.readObject();
-                                String key = (String) o;
-                                Object value = unmarshaller.readObject();
-                                contextData.put(key, value);
-                            }
-                        } else {
-                            contextData = new HashMap<>();
+                    }
+                    for (int i = 0; i < methodParams.length; ++i) {
+                        methodParams[i] = unmarshaller.readObject();
+                    }
+                    final Map<String, Object> contextData;
+                    final int attachmentCount = PackedInteger.readPackedInteger(unmarshaller);
+                    if (attachmentCount > 0) {
+                        contextData = new HashMap<>();
+                        for (int i = 0; i < attachmentCount; ++i) {
+                            Object o = unmarshaller.readObject();
+                            String key = (String) o;
+                            Object value = unmarshaller.readObject();
+                            contextData.put(key, value);
                         }
+                    } else {
+                        contextData = new HashMap<>();
+                    }
 
-                        unmarshaller.finish();
+                    unmarshaller.finish();
 
-                        EJBLocator<?> locator;
-                        if (EJBHome.class.isAssignableFrom(view)) {
-                            locator = new EJBHomeLocator(view, app, module, bean, distinct, Affinity.LOCAL); //TODO: what is the correct affinity?
-                        } else if (sessionID != null) {
-                            locator = new StatefulEJBLocator<>(view, app, module, bean, distinct,
-                                    SessionID.createSessionID(sessionID), Affinity.LOCAL);
-                        } else {
-                            locator = new StatelessEJBLocator<>(view, app, module, bean, distinct, Affinity.LOCAL);
-                        }
-
-                        final HttpMarshallerFactory marshallerFactory = httpServiceConfig.getHttpMarshallerFactory(exchange);
-                        final Marshaller marshaller = marshallerFactory.createMarshaller(new FilteringClassResolver(classLoader, classResolverFilter), HttpProtocolV1ObjectTable.INSTANCE);
-                        return new ResolvedInvocation(contextData, methodParams, locator, exchange, marshaller, sessionAffinity, transaction, identifier);
-                    } catch (IOException | ClassNotFoundException e) {
-                        throw e;
-                    } catch (Throwable e) {
-                        throw new IOException(e);
+                    EJBLocator<?> locator;
+                    if (EJBHome.class.isAssignableFrom(view)) {
+                        locator = new EJBHomeLocator(view, app, module, bean, distinct, Affinity.LOCAL); //TODO: what is the correct affinity?
+                    } else if (sessionID != null) {
+                        locator = new StatefulEJBLocator<>(view, app, module, bean, distinct,
+                                SessionID.createSessionID(sessionID), Affinity.LOCAL);
+                    } else {
+                        locator = new StatelessEJBLocator<>(view, app, module, bean, distinct, Affinity.LOCAL);
                     }
-                }
 
-                @Override
-                public EJBMethodLocator getMethodLocator() {
-                    return new EJBMethodLocator(method, parameterTypeNames);
+                    final HttpMarshallerFactory marshallerFactory = httpServiceConfig.getHttpMarshallerFactory(exchange);
+                    final Marshaller marshaller = marshallerFactory.createMarshaller(new FilteringClassResolver(classLoader, classResolverFilter), HttpProtocolV1ObjectTable.INSTANCE);
+                    io.begin(ServerMetrics.Phase.EXECUTE);
+                    return new ResolvedInvocation(contextData, methodParams, locator, exchange, marshaller, sessionAffinity, transaction, identifier, io);
+                } catch (IOException | ClassNotFoundException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IOException(e);
                 }
+            }
 
-                @Override
-                public void writeNoSuchMethod() {
-                    if(identifier != null) {
-                        cancellationFlags.remove(identifier);
-                    }
-                    HttpServerHelper.sendException(exchange, httpServiceConfig, StatusCodes.NOT_FOUND, EjbHttpClientMessages.MESSAGES.noSuchMethod());
-                }
+            @Override
+            public EJBMethodLocator getMethodLocator() {
+                return route.getMethodLocator();
+            }
 
-                @Override
-                public void writeSessionNotActive() {
-                    if(identifier != null) {
-                        cancellationFlags.remove(identifier);
-                    }
-                    HttpServerHelper.sendException(exchange, httpServiceConfig, StatusCodes.INTERNAL_SERVER_ERROR, EjbHttpClientMessages.MESSAGES.sessionNotActive());
+            @Override
+            public void writeNoSuchMethod() {
+                if(identifier != null) {
+                    cancellationFlags.remove(identifier);
                 }
+                io.writeException(StatusCodes.NOT_FOUND, EjbHttpClientMessages.MESSAGES.noSuchMethod());
+            }
 
-                @Override
-                public void writeWrongViewType() {
-                    if(identifier != null) {
-                        cancellationFlags.remove(identifier);
-                    }
-                    HttpServerHelper.sendException(exchange, httpServiceConfig, StatusCodes.NOT_FOUND, EjbHttpClientMessages.MESSAGES.wrongViewType());
+            @Override
+            public void writeSessionNotActive() {
+                if(identifier != null) {
+                    cancellationFlags.remove(identifier);
                 }
+                io.writeException(StatusCodes.INTERNAL_SERVER_ERROR, EjbHttpClientMessages.MESSAGES.sessionNotActive());
+            }
 
-                @Override
-                public Executor getRequestExecutor() {
-                    return executorService == null ? exchange.getIoThread().getWorker() : executorService;
+            @Override
+            public void writeWrongViewType() {
+                if(identifier != null) {
+                    cancellationFlags.remove(identifier);
                 }
+                io.writeException(StatusCodes.NOT_FOUND, EjbHttpClientMessages.MESSAGES.wrongViewType());
+            }
 
-                @Override
-                public String getProtocol() {
-                    return exchange.getProtocol().toString();
-                }
+            @Override
+            public Executor getRequestExecutor() {
+                return executorService == null ? exchange.getIoThread().getWorker() : executorService;
+            }
 
-                @Override
-                public boolean isBlockingCaller() {
-                    return false;
-                }
+            @Override
+            public String getProtocol() {
+                return exchange.getProtocol().toString();
+            }
 
-                @Override
-                public EJBIdentifier getEJBIdentifier() {
-                    return ejbIdentifier;
-                }
+            @Override
+            public boolean isBlockingCaller() {
+                return false;
+            }
+
+            @Override
+            public EJBIdentifier getEJBIdentifier() {
+                return ejbIdentifier;
+            }
 
 //                @Override
-                public SecurityIdentity getSecurityIdentity() {
-                    return exchange.getAttachment(ElytronIdentityHandler.IDENTITY_KEY);
-                }
+            public SecurityIdentity getSecurityIdentity() {
+                return exchange.getAttachment(ElytronIdentityHandler.IDENTITY_KEY);
+            }
 
-                @Override
-                public void writeException(@NotNull Exception exception) {
-                    if(identifier != null) {
-                        cancellationFlags.remove(identifier);
-                    }
-                    HttpServerHelper.sendException(exchange, httpServiceConfig, StatusCodes.INTERNAL_SERVER_ERROR, exception);
+            @Override
+            public void writeException(@NotNull Exception exception) {
+                if(identifier != null) {
+                    cancellationFlags.remove(identifier);
                 }
+                io.writeException(StatusCodes.INTERNAL_SERVER_ERROR, exception);
+            }
 
-                @Override
-                public void writeNoSuchEJB() {
-                    if(identifier != null) {
-                        cancellationFlags.remove(identifier);
-                    }
-                    HttpServerHelper.sendException(exchange, httpServiceConfig, StatusCodes.NOT_FOUND, new NoSuchEJBException());
+            @Override
+            public void writeNoSuchEJB() {
+                if(identifier != null) {
+                    cancellationFlags.remove(identifier);
                 }
+                io.writeException(StatusCodes.NOT_FOUND, new NoSuchEJBException());
+            }
 
-                @Override
-                public void writeCancelResponse() {
-                    if(identifier != null) {
-                        cancellationFlags.remove(identifier);
-                    }
-                    //we don't actually need to implement this method
+            @Override
+            public void writeCancelResponse() {
+                if(identifier != null) {
+                    cancellationFlags.remove(identifier);
                 }
+                io.writeCancelled();
+            }
 
-                @Override
-                public void writeNotStateful() {
-                    if(identifier != null) {
-                        cancellationFlags.remove(identifier);
-                    }
-                    HttpServerHelper.sendException(exchange, httpServiceConfig, StatusCodes.INTERNAL_SERVER_ERROR, EjbHttpClientMessages.MESSAGES.notStateful());
+            @Override
+            public void writeNotStateful() {
+                if(identifier != null) {
+                    cancellationFlags.remove(identifier);
                 }
+                io.writeException(StatusCodes.INTERNAL_SERVER_ERROR, EjbHttpClientMessages.MESSAGES.notStateful());
+            }
 
-                @Override
-                public void convertToStateful(@NotNull SessionID sessionId) throws IllegalArgumentException, IllegalStateException {
-                    throw new RuntimeException("nyi");
-                }
-            });
-            if(handle != null && identifier != null) {
-                cancellationFlags.put(identifier, handle);
+            @Override
+            public void convertToStateful(@NotNull SessionID sessionId) throws IllegalArgumentException, IllegalStateException {
+                throw new RuntimeException("nyi");
             }
         });
+        if(handle != null && identifier != null) {
+            cancellationFlags.put(identifier, handle);
+        }
+    }
+
+    /**
+     * Returns the route of an invocation path, parsing it only if it is not cached. Parsed routes are only cached by
+     * {@link #cacheRoute(InvocationRoute)} once they resolve to a deployed view.
+     *
+     * @param key the relative invocation path without the session id segment
+     * @return the route, or {@code null} if the path is not a valid invocation path
+     */
+    InvocationRoute getRoute(String key) {
+        final InvocationRoute route = routes.get(key);
+        return route != null ? route : InvocationRoute.parse(key);
+    }
+
+    /**
+     * Caches a route whose view has been resolved, evicting the least recently used route if the cache is full.
+     *
+     * @param route the resolved route
+     */
+    private void cacheRoute(InvocationRoute route) {
+        if (ROUTE_CACHE_SIZE > 0) {
+            routes.putIfAbsent(route.getKey(), route);
+        }
     }
 
     private static String handleDash(String s) {
@@ -329,8 +399,9 @@ class HttpInvocationHandler extends RemoteHTTPHandler {
         private final String sessionAffinity;
         private final Transaction transaction;
         private final InvocationIdentifier identifier;
+        private final InvocationIO io;
 
-        public ResolvedInvocation(Map<String, Object> contextData, Object[] methodParams, EJBLocator<?> locator, HttpServerExchange exchange, Marshaller marshaller, String sessionAffinity, Transaction transaction, final InvocationIdentifier identifier) {
+        public ResolvedInvocation(Map<String, Object> contextData, Object[] methodParams, EJBLocator<?> locator, HttpServerExchange exchange, Marshaller marshaller, String sessionAffinity, Transaction transaction, final InvocationIdentifier identifier, final InvocationIO io) {
             this.contextData = contextData;
             this.methodParams = methodParams;
             this.locator = locator;
@@ -339,6 +410,7 @@ class HttpInvocationHandler extends RemoteHTTPHandler {
             this.sessionAffinity = sessionAffinity;
             this.transaction = transaction;
             this.identifier = identifier;
+            this.io = io;
         }
 
         @Override
@@ -380,28 +452,162 @@ class HttpInvocationHandler extends RemoteHTTPHandler {
                 cancellationFlags.remove(identifier);
             }
             try {
-                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, EjbConstants.EJB_RESPONSE.toString());
+                io.writeResult(marshaller, result, contextData);
+            } catch (Exception e) {
+                io.writeException(500, e);
+            }
+        }
+    }
+
+    /**
+     * The source of the content of an invocation, and the destination of its outcome.
+     */
+    interface InvocationIO {
+
+        InputStream getInputStream() throws IOException;
+
+        void begin(ServerMetrics.Phase phase);
+
+        void writeResult(Marshaller marshaller, Object result, Map<String, Object> contextData) throws Exception;
+
+        void writeException(int statusCode, Throwable exception);
+
+        void writeCancelled();
+    }
+
+    /**
+     * Reads an invocation from the request body and writes its outcome as the response of the exchange.
+     */
+    private class ExchangeInvocationIO implements InvocationIO {
+        private final HttpServerExchange exchange;
+
+        ExchangeInvocationIO(HttpServerExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            ServerMetrics.begin(exchange, ServerMetrics.Phase.UNMARSHAL);
+            return CompressionCodecs.decode(exchange.getInputStream(), exchange.getRequestHeaders().getFirst(Headers.CONTENT_ENCODING));
+        }
+
+        @Override
+        public void begin(ServerMetrics.Phase phase) {
+            ServerMetrics.begin(exchange, phase);
+        }
+
+        @Override
+        public void writeCancelled() {
+            //we don't actually need to implement this method
+        }
+
+        /**
+         * Opens the response output. Unless a codec is negotiated with the client, the response is marshalled
+         * straight into pooled buffers; otherwise it is compressed at the level the client requested, if it is large
+         * enough and compresses well.
+         */
+        private ByteOutput openByteOutput() {
+            final CompressionCodec codec = CompressionCodecs.negotiate(exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+            if (codec == null) {
+                return new PooledByteOutput(exchange);
+            }
+            int level = CompressionCodec.DEFAULT_LEVEL;
+            final String requestedLevel = exchange.getRequestHeaders().getFirst(RESPONSE_COMPRESSION_LEVEL);
+            if (requestedLevel != null) {
+                try {
+                    level = Integer.parseInt(requestedLevel);
+                } catch (NumberFormatException e) {
+                    EjbHttpClientMessages.MESSAGES.debugf("Invalid compression level %s", requestedLevel);
+                }
+            }
+            final int compressionLevel = level;
+            return new NoFlushByteOutput(Marshalling.createByteOutput(new AdaptiveCompressionOutputStream(compressed -> {
+                if (!compressed) {
+                    return exchange.getOutputStream();
+                }
+                exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, codec.getName());
+                return codec.compress(exchange.getOutputStream(), compressionLevel);
+            }, codec, level)));
+        }
+
+        @Override
+        public void writeResult(Marshaller marshaller, Object result, Map<String, Object> contextData) throws Exception {
+            ServerMetrics.begin(exchange, ServerMetrics.Phase.MARSHAL);
+            if ((result instanceof Iterator || result instanceof BaseStream) && exchange.getRequestHeaders().contains(STREAMED_RESULT)) {
+                writeStreamedResult(marshaller, result, contextData);
+                return;
+            }
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, EjbConstants.EJB_RESPONSE.toString());
 //                                    if (output.getSessionAffinity() != null) {
 //                                        exchange.getResponseCookies().put("JSESSIONID", new CookieImpl("JSESSIONID", output.getSessionAffinity()).setPath(WILDFLY_SERVICES));
 //                                    }
-                OutputStream outputStream = exchange.getOutputStream();
-                final ByteOutput byteOutput = new NoFlushByteOutput(Marshalling.createByteOutput(outputStream));
-                // start the marshaller
+            final ByteOutput byteOutput = openByteOutput();
+            // start the marshaller
+            marshaller.start(byteOutput);
+            marshaller.writeObject(result);
+            // TODO: Do we really need to send this back?
+            PackedInteger.writePackedInteger(marshaller, contextData.size());
+            for(Map.Entry<String, Object> entry : contextData.entrySet()) {
+                marshaller.writeObject(entry.getKey());
+                marshaller.writeObject(entry.getValue());
+            }
+            marshaller.finish();
+            marshaller.flush();
+            byteOutput.close();
+            exchange.endExchange();
+        }
+
+        /**
+         * Writes the elements of an iterator or a stream one at a time, as they are produced. The response is sent
+         * with chunked encoding, and the elements are not kept for back references, so that neither the result nor the
+         * response are ever held in memory as a whole.
+         */
+        private void writeStreamedResult(Marshaller marshaller, Object result, Map<String, Object> contextData) throws Exception {
+            final BaseStream<?, ?> stream = result instanceof BaseStream ? (BaseStream<?, ?>) result : null;
+            final Iterator<?> elements = stream != null ? stream.iterator() : (Iterator<?>) result;
+            try {
+                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, EjbConstants.EJB_RESPONSE.toString());
+                exchange.getResponseHeaders().put(STREAMED_RESULT, "true");
+                final ByteOutput byteOutput = openByteOutput();
                 marshaller.start(byteOutput);
-                marshaller.writeObject(result);
-                // TODO: Do we really need to send this back?
+                while (true) {
+                    final Object element;
+                    try {
+                        if (!elements.hasNext()) {
+                            break;
+                        }
+                        element = elements.next();
+                    } catch (RuntimeException e) {
+                        // the response is already started, the failure is sent in place of the next element
+                        marshaller.writeObject(STREAM_EXCEPTION);
+                        marshaller.writeObject(e);
+                        break;
+                    }
+                    marshaller.writeObject(STREAM_ELEMENT);
+                    marshaller.writeObject(element);
+                    marshaller.clearInstanceCache();
+                }
+                marshaller.writeObject(STREAM_END);
                 PackedInteger.writePackedInteger(marshaller, contextData.size());
-                for(Map.Entry<String, Object> entry : contextData.entrySet()) {
+                for (Map.Entry<String, Object> entry : contextData.entrySet()) {
                     marshaller.writeObject(entry.getKey());
                     marshaller.writeObject(entry.getValue());
                 }
                 marshaller.finish();
                 marshaller.flush();
+                byteOutput.close();
                 exchange.endExchange();
-            } catch (Exception e) {
-                HttpServerHelper.sendException(exchange, httpServiceConfig, 500, e);
+            } finally {
+                if (stream != null) {
+                    stream.close();
+                }
             }
         }
+
+        @Override
+        public void writeException(int statusCode, Throwable exception) {
+            HttpServerHelper.sendException(exchange, httpServiceConfig, statusCode, exception);
+        }
     }
 
     private static class FilteringClassResolver extends SimpleClassResolver {
@@ -19,6 +19,7 @@
 package org.wildfly.httpclient.ejb;
 
 import java.net.URI;
+import java.util.Objects;
 
 import org.jboss.ejb.client.Affinity;
 import org.jboss.ejb.client.URIAffinity;
@@ -28,12 +29,25 @@ import org.jboss.marshalling.ObjectResolver;
  * @author <a href="mailto:fjuma@redhat.com">Farah Juma</a>
  */
 final class HttpProtocolV1ObjectResolver implements ObjectResolver {
+    private static final HttpProtocolV1ObjectResolver NO_PEER = new HttpProtocolV1ObjectResolver(null);
+
     private final URIAffinity peerUriAffinity;
 
     HttpProtocolV1ObjectResolver(final URI peerURI) {
         peerUriAffinity = peerURI == null ? null : (URIAffinity) Affinity.forUri(peerURI);
     }
 
+    /**
+     * Returns the resolver of a peer. Resolvers of the same peer are equal, so that marshallers created with any of
+     * them can be reused.
+     *
+     * @param peerURI the URI of the peer
+     * @return the resolver
+     */
+    static HttpProtocolV1ObjectResolver forUri(final URI peerURI) {
+        return peerURI == null ? NO_PEER : new HttpProtocolV1ObjectResolver(peerURI);
+    }
+
     public Object readResolve(final Object replacement) {
         if (replacement == Affinity.LOCAL || replacement == Affinity.NONE) {
             return peerUriAffinity;
@@ -49,4 +63,14 @@ final class HttpProtocolV1ObjectResolver implements ObjectResolver {
         }
         return original;
     }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof HttpProtocolV1ObjectResolver && Objects.equals(peerUriAffinity, ((HttpProtocolV1ObjectResolver) other).peerUriAffinity);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(peerUriAffinity);
+    }
 }
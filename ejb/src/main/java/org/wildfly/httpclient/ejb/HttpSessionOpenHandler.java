@@ -37,6 +37,7 @@ import org.wildfly.httpclient.common.ElytronIdentityHandler;
 import org.wildfly.httpclient.common.HttpMarshallerFactory;
 import org.wildfly.httpclient.common.HttpServerHelper;
 import org.wildfly.httpclient.common.HttpServiceConfig;
+import org.wildfly.httpclient.common.ServerMetrics;
 import org.wildfly.security.auth.server.SecurityIdentity;
 import org.wildfly.transaction.client.ImportResult;
 import org.wildfly.transaction.client.LocalTransaction;
@@ -108,8 +109,12 @@ class HttpSessionOpenHandler extends RemoteHTTPHandler {
 
 
         final EJBIdentifier ejbIdentifier = new EJBIdentifier(app, module, bean, distinct);
+        if (ServerMetrics.isEnabled()) {
+            ServerMetrics.setOperation(exchange, "ejb/" + app + "/" + module + "/" + bean + "/open");
+        }
         exchange.dispatch(executorService, () -> {
             final ReceivedTransaction txConfig;
+            ServerMetrics.begin(exchange, ServerMetrics.Phase.UNMARSHAL);
             try {
                 final HttpMarshallerFactory httpUnmarshallerFactory = httpServiceConfig.getHttpUnmarshallerFactory(exchange);
                 final Unmarshaller unmarshaller = httpUnmarshallerFactory.createUnmarshaller(HttpProtocolV1ObjectTable.INSTANCE);
@@ -135,6 +140,7 @@ class HttpSessionOpenHandler extends RemoteHTTPHandler {
                 }
             }
 
+            ServerMetrics.begin(exchange, ServerMetrics.Phase.EXECUTE);
             association.receiveSessionOpenRequest(new SessionOpenRequest() {
                 @Override
                 public boolean hasTransaction() {
@@ -221,6 +227,7 @@ class HttpSessionOpenHandler extends RemoteHTTPHandler {
                         exchange.getResponseCookies().put(JSESSIONID_COOKIE_NAME, new CookieImpl(JSESSIONID_COOKIE_NAME, sessionIdGenerator.createSessionId()).setPath(rootPath));
                     }
 
+                    ServerMetrics.begin(exchange, ServerMetrics.Phase.MARSHAL);
                     exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, EjbConstants.EJB_RESPONSE_NEW_SESSION.toString());
                     exchange.getResponseHeaders().put(EjbConstants.EJB_SESSION_ID, Base64.getUrlEncoder().encodeToString(sessionId.getEncodedForm()));
 
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.ejb;
+
+import java.lang.ref.WeakReference;
+
+import org.jboss.ejb.client.EJBIdentifier;
+import org.jboss.ejb.client.EJBMethodLocator;
+
+/**
+ * The pre-resolved target of an EJB invocation path, without the session id, so that repeated invocations of the same
+ * method do not parse the path again.
+ */
+final class InvocationRoute {
+
+    private final String key;
+    private final String app;
+    private final String module;
+    private final String distinct;
+    private final String bean;
+    private final String viewName;
+    private final EJBIdentifier ejbIdentifier;
+    private final EJBMethodLocator methodLocator;
+    private final String operationName;
+    private volatile ResolvedView resolvedView;
+
+    private InvocationRoute(String key, String app, String module, String distinct, String bean, String viewName, String method, String[] parameterTypeNames) {
+        this.key = key;
+        this.app = app;
+        this.module = module;
+        this.distinct = distinct;
+        this.bean = bean;
+        this.viewName = viewName;
+        this.ejbIdentifier = new EJBIdentifier(app, module, bean, distinct);
+        this.methodLocator = new EJBMethodLocator(method, parameterTypeNames);
+        this.operationName = "ejb/" + app + "/" + module + "/" + bean + "/" + method;
+    }
+
+    /**
+     * Parses a route key, the relative invocation path without the session id segment.
+     *
+     * @param key the route key
+     * @return the route, or {@code null} if the path is not a valid invocation path
+     */
+    static InvocationRoute parse(String key) {
+        final String[] parts = key.split("/");
+        if (parts.length < 6) {
+            return null;
+        }
+        final String[] parameterTypeNames = new String[parts.length - 6];
+        System.arraycopy(parts, 6, parameterTypeNames, 0, parameterTypeNames.length);
+        return new InvocationRoute(key, handleDash(parts[0]), handleDash(parts[1]), handleDash(parts[2]), parts[3], parts[4], parts[5], parameterTypeNames);
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    String getApp() {
+        return app;
+    }
+
+    String getModule() {
+        return module;
+    }
+
+    String getDistinct() {
+        return distinct;
+    }
+
+    String getBean() {
+        return bean;
+    }
+
+    EJBIdentifier getEjbIdentifier() {
+        return ejbIdentifier;
+    }
+
+    EJBMethodLocator getMethodLocator() {
+        return methodLocator;
+    }
+
+    /**
+     * Returns the name of the invoked method as reported by the {@link org.wildfly.httpclient.common.ServerMetrics}.
+     *
+     * @return the operation name
+     */
+    String getOperationName() {
+        return operationName;
+    }
+
+    int getParameterCount() {
+        return methodLocator.getParameterCount();
+    }
+
+    /**
+     * Returns the view class as seen from a class loader. The class last resolved is kept, without preventing the
+     * class loader from being collected.
+     *
+     * @param classLoader the class loader of the invoked deployment
+     * @return the view class
+     * @throws ClassNotFoundException if the view class cannot be loaded
+     */
+    Class<?> getView(ClassLoader classLoader) throws ClassNotFoundException {
+        final ResolvedView resolvedView = this.resolvedView;
+        if (resolvedView != null && resolvedView.classLoader.get() == classLoader) {
+            final Class<?> view = resolvedView.view.get();
+            if (view != null) {
+                return view;
+            }
+        }
+        final Class<?> view = Class.forName(viewName, false, classLoader);
+        this.resolvedView = new ResolvedView(classLoader, view);
+        return view;
+    }
+
+    private static String handleDash(String s) {
+        if (s.equals("-")) {
+            return "";
+        }
+        return s;
+    }
+
+    private static final class ResolvedView {
+        private final WeakReference<ClassLoader> classLoader;
+        private final WeakReference<Class<?>> view;
+
+        ResolvedView(ClassLoader classLoader, Class<?> view) {
+            this.classLoader = new WeakReference<>(classLoader);
+            this.view = new WeakReference<>(view);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.ejb;
+
+import org.jboss.marshalling.Unmarshaller;
+import org.xnio.IoUtils;
+import org.xnio.XnioExecutor;
+
+import jakarta.ejb.EJBException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.wildfly.httpclient.ejb.EjbConstants.STREAM_ELEMENT;
+import static org.wildfly.httpclient.ejb.EjbConstants.STREAM_END;
+import static org.wildfly.httpclient.ejb.EjbConstants.STREAM_EXCEPTION;
+
+/**
+ * Iterator over a result streamed by the server. The elements are unmarshalled as they are consumed, so the response
+ * is not read faster than the caller iterates over it, and only the current element is held in memory.
+ * <p>
+ * The response, and the pooled connection it is read from, is released once the last element is read, or once the
+ * iterator is closed. Callers of methods returning an {@link Iterator} that stop iterating early must close it as an
+ * {@link AutoCloseable}. An iterator that is neither consumed nor closed releases the response once it has not been
+ * used for the idle timeout, and fails from then on, or once it is garbage collected. The context data returned with a
+ * streamed result is only available at the end of the response, and is discarded.
+ */
+final class StreamedResult implements Iterator<Object>, AutoCloseable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    /**
+     * Time in milliseconds after which the response of an iterator that is not used is released. Zero only releases it
+     * once the iterator is garbage collected.
+     */
+    private static final long IDLE_TIMEOUT = AccessController.doPrivileged((PrivilegedAction<Long>) () -> Long.getLong("org.wildfly.httpclient.ejb.streamed-result-idle-timeout", 60000));
+
+    private final Unmarshaller unmarshaller;
+    private final Cleaner.Cleanable release;
+    private final XnioExecutor executor;
+    private final long idleTimeout;
+    private Object next;
+    private boolean ready;
+    private volatile boolean done;
+    // the idle timer runs on the IO thread, which must not wait for the lock held by a caller blocked on a read
+    private volatile long lastUsed;
+    private volatile boolean reading;
+    private volatile boolean expired;
+    private volatile XnioExecutor.Key idleTimer;
+
+    StreamedResult(Unmarshaller unmarshaller, Closeable response, XnioExecutor executor) {
+        this(unmarshaller, response, executor, IDLE_TIMEOUT);
+    }
+
+    StreamedResult(Unmarshaller unmarshaller, Closeable response, XnioExecutor executor, long idleTimeout) {
+        this.unmarshaller = unmarshaller;
+        // the action must not reference the iterator, or it would never become unreachable
+        this.release = CLEANER.register(this, () -> IoUtils.safeClose(response));
+        this.executor = executor;
+        this.idleTimeout = idleTimeout;
+        if (idleTimeout > 0) {
+            lastUsed = System.nanoTime();
+            idleTimer = executor.executeAfter(this::checkIdle, idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns a sequential stream over the elements of the result, that releases the response when closed.
+     *
+     * @return the stream
+     */
+    Stream<Object> asStream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false).onClose(this::close);
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        if (!ready && !done) {
+            if (expired) {
+                done = true;
+                throw EjbHttpClientMessages.MESSAGES.streamedResultExpired(idleTimeout);
+            }
+            reading = true;
+            try {
+                readNext();
+            } finally {
+                reading = false;
+                lastUsed = System.nanoTime();
+            }
+        }
+        return ready;
+    }
+
+    @Override
+    public synchronized Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Object element = next;
+        next = null;
+        ready = false;
+        return element;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!done) {
+            done = true;
+            release.clean();
+            final XnioExecutor.Key timer = idleTimer;
+            if (timer != null) {
+                timer.remove();
+            }
+        }
+    }
+
+    /**
+     * Releases the response if the iterator has not been used for the idle timeout, otherwise checks again once it
+     * could have been.
+     */
+    private void checkIdle() {
+        if (done) {
+            return;
+        }
+        final long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsed);
+        if (reading || idle < idleTimeout) {
+            idleTimer = executor.executeAfter(this::checkIdle, reading ? idleTimeout : idleTimeout - idle, TimeUnit.MILLISECONDS);
+        } else {
+            expired = true;
+            release.clean();
+        }
+    }
+
+    private void readNext() {
+        try {
+            final int marker = (Integer) unmarshaller.readObject();
+            if (marker == STREAM_ELEMENT) {
+                next = unmarshaller.readObject();
+                ready = true;
+            } else if (marker == STREAM_EXCEPTION) {
+                final Exception exception = (Exception) unmarshaller.readObject();
+                close();
+                throw exception instanceof RuntimeException ? (RuntimeException) exception : new EJBException(exception);
+            } else if (marker == STREAM_END) {
+                final int attachments = PackedInteger.readPackedInteger(unmarshaller);
+                for (int i = 0; i < attachments; ++i) {
+                    unmarshaller.readObject();
+                    unmarshaller.readObject();
+                }
+                unmarshaller.finish();
+                close();
+            } else {
+                throw EjbHttpClientMessages.MESSAGES.unexpectedDataInResponse();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            close();
+            throw new EJBException(e);
+        }
+    }
+}
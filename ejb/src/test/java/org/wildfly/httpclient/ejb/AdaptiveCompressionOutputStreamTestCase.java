@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.ejb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.httpclient.common.CompressionCodec;
+import org.wildfly.httpclient.common.CompressionCodecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class AdaptiveCompressionOutputStreamTestCase {
+
+    private static final CompressionCodec GZIP = CompressionCodecs.getCodec("gzip");
+
+    @Test
+    public void testSmallDataIsNotCompressed() throws Exception {
+        final byte[] data = "Hello World Hello World Hello World".getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        final AdaptiveCompressionOutputStream out = write(target, data);
+        Assert.assertFalse(out.isCompressed());
+        Assert.assertArrayEquals(data, target.toByteArray());
+    }
+
+    @Test
+    public void testLargeCompressibleDataIsCompressed() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append("Hello World ");
+        }
+        final byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        final AdaptiveCompressionOutputStream out = write(target, data);
+        Assert.assertTrue(out.isCompressed());
+        Assert.assertTrue(target.size() < data.length);
+        try (InputStream in = GZIP.decompress(new ByteArrayInputStream(target.toByteArray()))) {
+            Assert.assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testIncompressibleDataIsNotCompressed() throws Exception {
+        final byte[] data = new byte[10000];
+        new Random(42).nextBytes(data);
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        final AdaptiveCompressionOutputStream out = write(target, data);
+        Assert.assertFalse(out.isCompressed());
+        Assert.assertArrayEquals(data, target.toByteArray());
+    }
+
+    private static AdaptiveCompressionOutputStream write(ByteArrayOutputStream target, byte[] data) throws IOException {
+        final AdaptiveCompressionOutputStream out = new AdaptiveCompressionOutputStream(compressed -> compressed ? GZIP.compress(target, CompressionCodec.DEFAULT_LEVEL) : target, GZIP, CompressionCodec.DEFAULT_LEVEL, 1024);
+        // written in small chunks, as the marshaller does
+        for (int i = 0; i < data.length; i += 100) {
+            out.write(data, i, Math.min(100, data.length - i));
+        }
+        out.close();
+        return out;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.ejb;
+
+import io.undertow.util.Headers;
+import org.jboss.ejb.client.StatelessEJBLocator;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(EJBTestServer.class)
+public class BatchInvocationTestCase {
+
+    @Before
+    public void before() {
+        EJBTestServer.registerServicesHandler("common/v1/affinity", httpServerExchange -> httpServerExchange.getResponseHeaders().put(Headers.SET_COOKIE, "JSESSIONID=" + EJBTestServer.INITIAL_SESSION_AFFINITY));
+    }
+
+    @Test
+    public void testBatchInvocation() throws Exception {
+        EJBTestServer.setHandler((invocation, affinity, out, method, handle, attachments) -> {
+            if (method.getMethodName().equals("message")) {
+                return "a message";
+            }
+            if ("fail".equals(invocation.getParameters()[0])) {
+                throw new IllegalStateException("failed");
+            }
+            return invocation.getParameters()[0];
+        });
+        final StatelessEJBLocator<EchoRemote> locator = new StatelessEJBLocator<>(EchoRemote.class, SimpleInvocationTestCase.APP, SimpleInvocationTestCase.MODULE, "CalculatorBean", "");
+        final Method echo = EchoRemote.class.getMethod("echo", String.class);
+        final Method message = EchoRemote.class.getMethod("message");
+
+        final HttpEJBBatch batch = new HttpEJBBatch(new URI(EJBTestServer.getDefaultServerURL()));
+        final List<CompletableFuture<Object>> results = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            results.add(batch.add(locator, echo, "message " + i));
+        }
+        final CompletableFuture<Object> messageResult = batch.add(locator, message);
+        final CompletableFuture<Object> failedResult = batch.add(locator, echo, "fail");
+        Assert.assertEquals(22, batch.size());
+
+        batch.send().get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < results.size(); ++i) {
+            Assert.assertEquals("message " + i, results.get(i).get());
+        }
+        Assert.assertEquals("a message", messageResult.get());
+        try {
+            failedResult.get();
+            Assert.fail("Expected the invocation to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            Assert.assertEquals("failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testOversizedBatchIsRejected() throws Exception {
+        EJBTestServer.setHandler((invocation, affinity, out, method, handle, attachments) -> invocation.getParameters()[0]);
+        final StatelessEJBLocator<EchoRemote> locator = new StatelessEJBLocator<>(EchoRemote.class, SimpleInvocationTestCase.APP, SimpleInvocationTestCase.MODULE, "CalculatorBean", "");
+        final Method echo = EchoRemote.class.getMethod("echo", String.class);
+
+        // one invocation more than the default limit of the server
+        final HttpEJBBatch batch = new HttpEJBBatch(new URI(EJBTestServer.getDefaultServerURL()));
+        final List<CompletableFuture<Object>> results = new ArrayList<>();
+        for (int i = 0; i < 1025; ++i) {
+            results.add(batch.add(locator, echo, "message " + i));
+        }
+        batch.send().get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<Object> result : results) {
+            Assert.assertTrue(result.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void testBatchIsSentOnce() throws Exception {
+        final HttpEJBBatch batch = new HttpEJBBatch(new URI(EJBTestServer.getDefaultServerURL()));
+        batch.send().get(10, TimeUnit.SECONDS);
+        try {
+            batch.send();
+            Assert.fail("Expected the batch to be sent only once");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
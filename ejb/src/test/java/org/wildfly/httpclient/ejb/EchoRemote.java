@@ -18,7 +18,9 @@
 
 package org.wildfly.httpclient.ejb;
 
+import java.util.Iterator;
 import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.jboss.ejb.client.annotation.CompressionHint;
 
@@ -43,4 +45,8 @@ public interface EchoRemote {
     String compressMessage() throws Exception;
 
     String getObjectType(Object object);
+
+    Iterator<String> iterate(int count);
+
+    Stream<String> stream(int count);
 }
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.httpclient.ejb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpEJBInvocationBuilderTestCase {
+
+    @Test
+    public void testCachedInvocationPath() throws Exception {
+        final HttpEJBInvocationBuilder.PathCache pathCache = new HttpEJBInvocationBuilder.PathCache();
+        for (String beanId : new String[]{null, "U0ZTQl9JRA", null}) {
+            final HttpEJBInvocationBuilder builder = new HttpEJBInvocationBuilder()
+                    .setInvocationType(HttpEJBInvocationBuilder.InvocationType.METHOD_INVOCATION)
+                    .setMethod(EchoRemote.class.getMethod("echo", String[].class))
+                    .setAppName("foo:")
+                    .setModuleName("bar:hello;world")
+                    .setDistinctName("")
+                    .setBeanName("Calculator;Bean")
+                    .setBeanId(beanId)
+                    .setView(EchoRemote.class.getName());
+            final String path = builder.createRequest("/wildfly-services").getPath();
+            Assert.assertEquals(path, builder.setPathCache(pathCache).createRequest("/wildfly-services").getPath());
+        }
+    }
+
+    @Test
+    public void testCachedInvocationPathFollowsVersion() throws Exception {
+        final HttpEJBInvocationBuilder.PathCache pathCache = new HttpEJBInvocationBuilder.PathCache();
+        final HttpEJBInvocationBuilder builder = new HttpEJBInvocationBuilder()
+                .setInvocationType(HttpEJBInvocationBuilder.InvocationType.METHOD_INVOCATION)
+                .setMethod(EchoRemote.class.getMethod("message"))
+                .setAppName("app")
+                .setModuleName("module")
+                .setBeanName("Bean")
+                .setView(EchoRemote.class.getName())
+                .setPathCache(pathCache);
+        Assert.assertEquals("/wildfly-services/ejb/v1/invoke/app/module/-/Bean/-/" + EchoRemote.class.getName() + "/message",
+                builder.setVersion(1).createRequest("/wildfly-services").getPath());
+        Assert.assertEquals("/wildfly-services/ejb/v2/invoke/app/module/-/Bean/-/" + EchoRemote.class.getName() + "/message",
+                builder.setVersion(2).createRequest("/wildfly-services").getPath());
+    }
+}
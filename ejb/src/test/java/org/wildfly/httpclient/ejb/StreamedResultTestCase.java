@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.wildfly.httpclient.ejb;
+
+import io.undertow.util.Headers;
+import org.jboss.ejb.client.EJBClient;
+import org.jboss.ejb.client.StatelessEJBLocator;
+import org.jboss.ejb.client.URIAffinity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.wildfly.httpclient.common.WildflyHttpContext;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+@RunWith(EJBTestServer.class)
+public class StreamedResultTestCase {
+
+    private static final int COUNT = 10000;
+
+    @Before
+    public void before() {
+        EJBTestServer.registerServicesHandler("common/v1/affinity", httpServerExchange -> httpServerExchange.getResponseHeaders().put(Headers.SET_COOKIE, "JSESSIONID=" + EJBTestServer.INITIAL_SESSION_AFFINITY));
+        EJBTestServer.setHandler((invocation, affinity, out, method, handle, attachments) -> {
+            final int count = (Integer) invocation.getParameters()[0];
+            final Stream<String> elements = IntStream.range(0, count).mapToObj(i -> {
+                if (i == 5 && count == 10) {
+                    throw new IllegalStateException("failed");
+                }
+                return "element " + i;
+            });
+            return method.getMethodName().equals("iterate") ? elements.iterator() : elements;
+        });
+    }
+
+    @Test
+    public void testStreamedIterator() throws Exception {
+        final Iterator<String> elements = createProxy().iterate(COUNT);
+        for (int i = 0; i < COUNT; ++i) {
+            Assert.assertTrue(elements.hasNext());
+            Assert.assertEquals("element " + i, elements.next());
+        }
+        Assert.assertFalse(elements.hasNext());
+    }
+
+    @Test
+    public void testStreamedIteratorClosedEarly() throws Exception {
+        final EchoRemote proxy = createProxy();
+        final Iterator<String> elements = proxy.iterate(COUNT);
+        Assert.assertEquals("element 0", elements.next());
+        Assert.assertTrue(elements instanceof AutoCloseable);
+        ((AutoCloseable) elements).close();
+        Assert.assertFalse(elements.hasNext());
+        // the connection is still usable once the rest of the response is discarded
+        Assert.assertEquals(3, proxy.stream(3).count());
+    }
+
+    @Test
+    public void testIdleIteratorIsReleased() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        final StreamedResult elements = new StreamedResult(null, released::countDown, WildflyHttpContext.getCurrent().getWorker().getIoThread(), 100);
+        Assert.assertTrue(released.await(10, TimeUnit.SECONDS));
+        try {
+            elements.hasNext();
+            Assert.fail("Expected the iterator to be released");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertFalse(elements.hasNext());
+    }
+
+    @Test
+    public void testStreamedStream() throws Exception {
+        try (Stream<String> elements = createProxy().stream(COUNT)) {
+            final List<String> result = elements.collect(Collectors.toList());
+            Assert.assertEquals(COUNT, result.size());
+            Assert.assertEquals("element " + (COUNT - 1), result.get(COUNT - 1));
+        }
+    }
+
+    @Test
+    public void testStreamedStreamClosedEarly() throws Exception {
+        final EchoRemote proxy = createProxy();
+        try (Stream<String> elements = proxy.stream(COUNT)) {
+            Assert.assertEquals("element 0", elements.findFirst().get());
+        }
+        // the connection is still usable once the rest of the response is discarded
+        Assert.assertEquals(3, proxy.stream(3).count());
+    }
+
+    @Test
+    public void testFailureWhileStreaming() throws Exception {
+        final Iterator<String> elements = createProxy().iterate(10);
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertEquals("element " + i, elements.next());
+        }
+        try {
+            elements.next();
+            Assert.fail("Expected the failure of the iteration on the server");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+    }
+
+    private EchoRemote createProxy() throws Exception {
+        final StatelessEJBLocator<EchoRemote> locator = new StatelessEJBLocator<>(EchoRemote.class, SimpleInvocationTestCase.APP, SimpleInvocationTestCase.MODULE, "CalculatorBean", "");
+        final EchoRemote proxy = EJBClient.createProxy(locator);
+        EJBClient.setStrongAffinity(proxy, URIAffinity.forUri(new URI(EJBTestServer.getDefaultServerURL())));
+        return proxy;
+    }
+}
@@ -21,22 +21,23 @@ package org.wildfly.httpclient.naming;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
-import io.undertow.server.handlers.BlockingHandler;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
 import io.undertow.util.PathTemplateMatch;
 import io.undertow.util.StatusCodes;
+import org.jboss.marshalling.ByteOutput;
 import org.jboss.marshalling.ContextClassResolver;
 import org.jboss.marshalling.InputStreamByteInput;
 import org.jboss.marshalling.Marshaller;
-import org.jboss.marshalling.Marshalling;
 import org.jboss.marshalling.Unmarshaller;
 import org.wildfly.httpclient.common.ContentType;
 import org.wildfly.httpclient.common.ElytronIdentityHandler;
 import org.wildfly.httpclient.common.HttpMarshallerFactory;
 import org.wildfly.httpclient.common.HttpServerHelper;
 import org.wildfly.httpclient.common.HttpServiceConfig;
-import org.wildfly.httpclient.common.NoFlushByteOutput;
+import org.wildfly.httpclient.common.PooledByteOutput;
+import org.wildfly.httpclient.common.ServerMetrics;
+import org.wildfly.httpclient.common.VirtualThreads;
 
 import javax.naming.Binding;
 import javax.naming.Context;
@@ -75,7 +76,7 @@ import static org.wildfly.httpclient.naming.NamingConstants.VALUE;
 public class HttpRemoteNamingService {
 
     private final Context localContext;
-    private final Function<String, Boolean> classResolverFilter;
+    private final FilterClassResolver classResolver;
     private final HttpServiceConfig httpServiceConfig;
 
     @Deprecated
@@ -90,24 +91,25 @@ public class HttpRemoteNamingService {
     HttpRemoteNamingService(Context localContext, final HttpServiceConfig httpServiceConfig, Function<String, Boolean> classResolverFilter) {
         this.localContext = localContext;
         this.httpServiceConfig = httpServiceConfig;
-        this.classResolverFilter = classResolverFilter;
+        // the resolver is shared by all the requests, so that the unmarshallers created with it can be reused
+        this.classResolver = classResolverFilter == null ? null : new FilterClassResolver(classResolverFilter);
     }
 
 
     public HttpHandler createHandler() {
         RoutingHandler routingHandler = new RoutingHandler();
         final String nameParamPathSuffix = "/{" + NAME_PATH_PARAMETER + "}";
-        routingHandler.add(Methods.POST, LOOKUP_PATH + nameParamPathSuffix, new LookupHandler());
-        routingHandler.add(Methods.GET, LOOKUP_LINK_PATH + nameParamPathSuffix, new LookupLinkHandler());
-        routingHandler.add(Methods.PUT, BIND_PATH + nameParamPathSuffix, new BindHandler());
-        routingHandler.add(Methods.PATCH, REBIND_PATH + nameParamPathSuffix, new RebindHandler());
-        routingHandler.add(Methods.DELETE, UNBIND_PATH + nameParamPathSuffix, new UnbindHandler());
-        routingHandler.add(Methods.DELETE, DESTROY_SUBCONTEXT_PATH + nameParamPathSuffix, new DestroySubcontextHandler());
-        routingHandler.add(Methods.GET, LIST_PATH + nameParamPathSuffix, new ListHandler());
-        routingHandler.add(Methods.GET, LIST_BINDINGS_PATH + nameParamPathSuffix, new ListBindingsHandler());
-        routingHandler.add(Methods.PATCH, RENAME_PATH + nameParamPathSuffix, new RenameHandler());
-        routingHandler.add(Methods.PUT, CREATE_SUBCONTEXT_PATH + nameParamPathSuffix, new CreateSubContextHandler());
-        return httpServiceConfig.wrap(new BlockingHandler(new ElytronIdentityHandler(routingHandler)));
+        routingHandler.add(Methods.POST, LOOKUP_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + LOOKUP_PATH, new LookupHandler()));
+        routingHandler.add(Methods.GET, LOOKUP_LINK_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + LOOKUP_LINK_PATH, new LookupLinkHandler()));
+        routingHandler.add(Methods.PUT, BIND_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + BIND_PATH, new BindHandler()));
+        routingHandler.add(Methods.PATCH, REBIND_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + REBIND_PATH, new RebindHandler()));
+        routingHandler.add(Methods.DELETE, UNBIND_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + UNBIND_PATH, new UnbindHandler()));
+        routingHandler.add(Methods.DELETE, DESTROY_SUBCONTEXT_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + DESTROY_SUBCONTEXT_PATH, new DestroySubcontextHandler()));
+        routingHandler.add(Methods.GET, LIST_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + LIST_PATH, new ListHandler()));
+        routingHandler.add(Methods.GET, LIST_BINDINGS_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + LIST_BINDINGS_PATH, new ListBindingsHandler()));
+        routingHandler.add(Methods.PATCH, RENAME_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + RENAME_PATH, new RenameHandler()));
+        routingHandler.add(Methods.PUT, CREATE_SUBCONTEXT_PATH + nameParamPathSuffix, ServerMetrics.operation("naming" + CREATE_SUBCONTEXT_PATH, new CreateSubContextHandler()));
+        return httpServiceConfig.wrap(VirtualThreads.blockingHandler(new ElytronIdentityHandler(routingHandler)));
     }
 
 
@@ -228,14 +230,16 @@ public class HttpRemoteNamingService {
                 exchange.endExchange();
                 return null;
             }
+            ServerMetrics.begin(exchange, ServerMetrics.Phase.UNMARSHAL);
             final HttpMarshallerFactory marshallerFactory = httpServiceConfig.getHttpUnmarshallerFactory(exchange);
             try (InputStream inputStream = exchange.getInputStream()) {
-                Unmarshaller unmarshaller = classResolverFilter != null ?
-                        marshallerFactory.createUnmarshaller(new FilterClassResolver(classResolverFilter)):
+                Unmarshaller unmarshaller = classResolver != null ?
+                        marshallerFactory.createUnmarshaller(classResolver):
                         marshallerFactory.createUnmarshaller();
                 unmarshaller.start(new InputStreamByteInput(inputStream));
                 Object object = unmarshaller.readObject();
                 unmarshaller.finish();
+                ServerMetrics.begin(exchange, ServerMetrics.Phase.EXECUTE);
                 doOperation(name, object);
             } catch (Exception e) {
                 if (e instanceof NamingException) {
@@ -254,12 +258,15 @@ public class HttpRemoteNamingService {
     }
 
     private void doMarshall(HttpServerExchange exchange, Object result) throws IOException {
+        ServerMetrics.begin(exchange, ServerMetrics.Phase.MARSHAL);
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, VALUE.toString());
         Marshaller marshaller = httpServiceConfig.getHttpMarshallerFactory(exchange).createMarshaller();
-        marshaller.start(new NoFlushByteOutput(Marshalling.createByteOutput(exchange.getOutputStream())));
+        final ByteOutput byteOutput = new PooledByteOutput(exchange);
+        marshaller.start(byteOutput);
         marshaller.writeObject(result);
         marshaller.finish();
         marshaller.flush();
+        byteOutput.close();
     }
 
     @Deprecated
@@ -23,7 +23,6 @@ import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import io.undertow.util.StatusCodes;
-import org.jboss.marshalling.InputStreamByteInput;
 import org.jboss.marshalling.Marshaller;
 import org.jboss.marshalling.Marshalling;
 import org.jboss.marshalling.Unmarshaller;
@@ -45,6 +44,7 @@ import org.xnio.IoUtils;
 
 import javax.naming.Binding;
 import javax.naming.CommunicationException;
+import javax.naming.CompositeName;
 import javax.naming.Context;
 import javax.naming.Name;
 import javax.naming.NameClassPair;
@@ -61,9 +61,14 @@ import java.security.GeneralSecurityException;
 import java.security.PrivilegedAction;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import static java.security.AccessController.doPrivileged;
 import static org.wildfly.httpclient.common.Protocol.VERSION_PATH;
@@ -133,6 +138,76 @@ public class HttpRootContext extends AbstractContext {
         return processInvocation(name, Methods.POST, LOOKUP_PATH);
     }
 
+    /**
+     * Looks up a name without blocking. A lookup that fails on a provider is retried on the other ones, as
+     * {@link #lookup(Name)} does.
+     *
+     * @param name the name to look up
+     * @return the stage that completes with the bound object, or with the {@link NamingException} of the lookup
+     */
+    public CompletionStage<Object> lookupAsync(Name name) {
+        if (name.isEmpty()) {
+            try {
+                return CompletableFuture.completedFuture(lookup(name));
+            } catch (NamingException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        final ProviderEnvironment environment = httpNamingProvider.getProviderEnvironment();
+        final RetryContext context = canRetry(environment) ? new RetryContext() : null;
+        // the retries run on a worker thread, so the thread context is captured here
+        final WildflyHttpContext httpContext = WildflyHttpContext.getCurrent();
+        final AuthenticationContext authenticationContext = environment.getAuthenticationContextSupplier().get();
+        final ClassLoader tccl = getContextClassLoader();
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        performWithRetryAsync(httpContext.getWorker(), (contextOrNull, name1, param) -> {
+            HttpNamingProvider.HttpPeerIdentity peerIdentity = (HttpNamingProvider.HttpPeerIdentity) httpNamingProvider.getPeerIdentityForNamingUsingRetry(contextOrNull);
+            final HttpTargetContext targetContext = httpContext.getTargetContext(peerIdentity.getUri());
+            final ClientRequest clientRequest = createRequest(peerIdentity.getUri(), targetContext, Methods.POST, LOOKUP_PATH, name1);
+            return sendOperation(name1, peerIdentity.getUri(), targetContext, clientRequest, authenticationContext, tccl);
+        }, environment, context, name, null, result, 0);
+        return result;
+    }
+
+    /**
+     * Looks up a name without blocking.
+     *
+     * @param name the name to look up
+     * @return the stage that completes with the bound object, or with the {@link NamingException} of the lookup
+     * @see #lookupAsync(Name)
+     */
+    public CompletionStage<Object> lookupAsync(String name) {
+        try {
+            return lookupAsync(new CompositeName(name));
+        } catch (NamingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Looks up several names at once. The lookups are all sent without waiting for each other, so that they run in
+     * parallel over the connections to the providers.
+     *
+     * @param names the names to look up
+     * @return the stage that completes with the bound objects, by name in the order of {@code names}, or with the
+     *         failure of the first lookup that failed
+     */
+    public CompletionStage<Map<Name, Object>> lookupAll(Collection<? extends Name> names) {
+        final Map<Name, CompletableFuture<Object>> lookups = new LinkedHashMap<>();
+        for (Name name : names) {
+            if (!lookups.containsKey(name)) {
+                lookups.put(name, lookupAsync(name).toCompletableFuture());
+            }
+        }
+        return CompletableFuture.allOf(lookups.values().toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            final Map<Name, Object> results = new LinkedHashMap<>();
+            for (Map.Entry<Name, CompletableFuture<Object>> lookup : lookups.entrySet()) {
+                results.put(lookup.getKey(), lookup.getValue().join());
+            }
+            return results;
+        });
+    }
+
     @Override
     protected Object lookupLinkNative(Name name) throws NamingException {
         return processInvocation(name, Methods.POST, LOOKUP_LINK_PATH);
@@ -208,37 +283,98 @@ public class HttpRootContext extends AbstractContext {
                 environment.dropFromBlocklist(context.currentDestination());
                 return result;
             } catch (NameNotFoundException e) {
-                if (notFound++ > MAX_NOT_FOUND_RETRY) {
-                    Messages.log.tracef("Maximum name not found attempts exceeded,");
-                    throw e;
-                }
-                URI location = context.currentDestination();
-                Messages.log.tracef("Provider (%s) did not have name \"%s\" (or a portion), retrying other nodes", location, name);
-
-                // Always throw NameNotFoundException, unless we find it on another host
-                context.addExplicitFailure(e);
-                context.addTransientFail(location);
-            } catch (ExhaustedDestinationsException e) {
-                throw e;
-            } catch (CommunicationException t) {
-                URI location = context.currentDestination();
-                Messages.log.tracef(t, "Communication error while contacting %s", location);
-                updateBlocklist(environment, context, t);
-                context.addFailure(injectDestination(t, location));
-            } catch (NamingException e) {
-                // All other naming exceptions are legit errors
-                environment.dropFromBlocklist(context.currentDestination());
-                throw e;
+                retryOrThrow(e, environment, context, name, notFound++);
             } catch (Throwable t) {
-                // Don't black-list generic throwables since it may indicate a client bug
-                URI location = context.currentDestination();
-                Messages.log.tracef(t, "Unexpected throwable while contacting %s", location);
-                context.addTransientFail(location);
-                context.addFailure(injectDestination(t, location));
+                retryOrThrow(t, environment, context, name, notFound);
             }
         }
     }
 
+    /**
+     * The asynchronous counterpart of {@link #performWithRetry}: each attempt is started once the previous one failed,
+     * and the outcome is given to {@code result}. Attempts fail on the IO thread, and selecting and connecting to the
+     * next provider may block, so the retries run on {@code executor}.
+     */
+    private <T, R> void performWithRetryAsync(Executor executor, NamingOperation<T, CompletableFuture<R>> function, ProviderEnvironment environment, RetryContext context, Name name, T param,
+                                              CompletableFuture<R> result, int notFound) {
+        final CompletableFuture<R> attempt;
+        try {
+            attempt = function.apply(context, name, param);
+        } catch (Throwable t) {
+            retryAsync(executor, t, function, environment, context, name, param, result, notFound);
+            return;
+        }
+        attempt.whenComplete((value, failure) -> {
+            if (failure == null) {
+                if (context != null) {
+                    environment.dropFromBlocklist(context.currentDestination());
+                }
+                result.complete(value);
+            } else if (context == null) {
+                result.completeExceptionally(toNamingException(failure));
+            } else {
+                try {
+                    executor.execute(() -> retryAsync(executor, toNamingException(failure), function, environment, context, name, param, result, notFound));
+                } catch (RejectedExecutionException e) {
+                    result.completeExceptionally(toNamingException(failure));
+                }
+            }
+        });
+    }
+
+    private <T, R> void retryAsync(Executor executor, Throwable failure, NamingOperation<T, CompletableFuture<R>> function, ProviderEnvironment environment, RetryContext context, Name name, T param,
+                                   CompletableFuture<R> result, int notFound) {
+        if (context == null) {
+            result.completeExceptionally(failure);
+            return;
+        }
+        try {
+            retryOrThrow(failure, environment, context, name, notFound);
+        } catch (NamingException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        performWithRetryAsync(executor, function, environment, context, name, param, result, failure instanceof NameNotFoundException ? notFound + 1 : notFound);
+    }
+
+    /**
+     * Records the failure of an attempt on the current destination, and throws it unless the operation should be
+     * retried on another one.
+     *
+     * @param notFound the number of attempts that did not find the name before this one
+     */
+    private void retryOrThrow(Throwable t, ProviderEnvironment environment, RetryContext context, Name name, int notFound) throws NamingException {
+        if (t instanceof NameNotFoundException) {
+            if (notFound > MAX_NOT_FOUND_RETRY) {
+                Messages.log.tracef("Maximum name not found attempts exceeded,");
+                throw (NameNotFoundException) t;
+            }
+            URI location = context.currentDestination();
+            Messages.log.tracef("Provider (%s) did not have name \"%s\" (or a portion), retrying other nodes", location, name);
+
+            // Always throw NameNotFoundException, unless we find it on another host
+            context.addExplicitFailure((NameNotFoundException) t);
+            context.addTransientFail(location);
+        } else if (t instanceof ExhaustedDestinationsException) {
+            throw (ExhaustedDestinationsException) t;
+        } else if (t instanceof CommunicationException) {
+            URI location = context.currentDestination();
+            Messages.log.tracef(t, "Communication error while contacting %s", location);
+            updateBlocklist(environment, context, t);
+            context.addFailure(injectDestination(t, location));
+        } else if (t instanceof NamingException) {
+            // All other naming exceptions are legit errors
+            environment.dropFromBlocklist(context.currentDestination());
+            throw (NamingException) t;
+        } else {
+            // Don't black-list generic throwables since it may indicate a client bug
+            URI location = context.currentDestination();
+            Messages.log.tracef(t, "Unexpected throwable while contacting %s", location);
+            context.addTransientFail(location);
+            context.addFailure(injectDestination(t, location));
+        }
+    }
+
     private static Throwable injectDestination(Throwable t, URI destination) {
         StackTraceElement[] stackTrace = new StackTraceElement[5];
         System.arraycopy(t.getStackTrace(), 0, stackTrace, 1, 4);
@@ -257,40 +393,75 @@ public class HttpRootContext extends AbstractContext {
         ProviderEnvironment environment = httpNamingProvider.getProviderEnvironment();
         final RetryContext context = canRetry(environment) ? new RetryContext() : null;
         return performWithRetry((contextOrNull, name1, param) -> {
+            HttpNamingProvider.HttpPeerIdentity peerIdentity = (HttpNamingProvider.HttpPeerIdentity) httpNamingProvider.getPeerIdentityForNamingUsingRetry(contextOrNull);
+            final HttpTargetContext targetContext = WildflyHttpContext.getCurrent().getTargetContext(peerIdentity.getUri());
+            final ClientRequest clientRequest = createRequest(peerIdentity.getUri(), targetContext, method, pathSegment, name);
+            return performOperation(name1, peerIdentity.getUri(), targetContext, clientRequest);
+        }, environment, context, name, null);
+    }
 
-            try {
-                HttpNamingProvider.HttpPeerIdentity peerIdentity = (HttpNamingProvider.HttpPeerIdentity) httpNamingProvider.getPeerIdentityForNamingUsingRetry(contextOrNull);
-                final HttpTargetContext targetContext = WildflyHttpContext.getCurrent().getTargetContext(peerIdentity.getUri());
-                StringBuilder sb = new StringBuilder();
-                String uriPath = peerIdentity.getUri().getPath();
-                sb.append(uriPath);
-                if (!uriPath.endsWith("/")) {
-                    sb.append("/");
-                }
-                sb.append(NAMING_CONTEXT);
-                sb.append(VERSION_PATH);
-                sb.append(targetContext.getProtocolVersion());
-                sb.append(pathSegment).append("/").append(URLEncoder.encode(name.toString(), StandardCharsets.UTF_8.name()));
-
-                final ClientRequest clientRequest = new ClientRequest()
-                        .setPath(sb.toString())
-                        .setMethod(method);
-                clientRequest.getRequestHeaders().put(Headers.ACCEPT, VALUE + "," + EXCEPTION);
-
-                return performOperation(name1, peerIdentity.getUri(), targetContext, clientRequest);
-
-            } catch (UnsupportedEncodingException e) {
-                NamingException namingException = new NamingException(e.getMessage());
-                namingException.initCause(e);
-                throw namingException;
+    private static ClientRequest createRequest(URI providerUri, HttpTargetContext targetContext, HttpString method, String pathSegment, Name name) throws NamingException {
+        try {
+            StringBuilder sb = new StringBuilder();
+            String uriPath = providerUri.getPath();
+            sb.append(uriPath);
+            if (!uriPath.endsWith("/")) {
+                sb.append("/");
             }
-        }, environment, context, name, null);
+            sb.append(NAMING_CONTEXT);
+            sb.append(VERSION_PATH);
+            sb.append(targetContext.getProtocolVersion());
+            sb.append(pathSegment).append("/").append(URLEncoder.encode(name.toString(), StandardCharsets.UTF_8.name()));
+
+            final ClientRequest clientRequest = new ClientRequest()
+                    .setPath(sb.toString())
+                    .setMethod(method);
+            clientRequest.getRequestHeaders().put(Headers.ACCEPT, VALUE + "," + EXCEPTION);
+            return clientRequest;
+        } catch (UnsupportedEncodingException e) {
+            NamingException namingException = new NamingException(e.getMessage());
+            namingException.initCause(e);
+            throw namingException;
+        }
     }
 
     private Object performOperation(Name name, URI providerUri, HttpTargetContext targetContext, ClientRequest clientRequest) throws NamingException {
-        final CompletableFuture<Object> result = new CompletableFuture<>();
         final ProviderEnvironment providerEnvironment = httpNamingProvider.getProviderEnvironment();
-        final AuthenticationContext context = providerEnvironment.getAuthenticationContextSupplier().get();
+        final CompletableFuture<Object> result = sendOperation(name, providerUri, targetContext, clientRequest,
+                providerEnvironment.getAuthenticationContextSupplier().get(), getContextClassLoader());
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            NamingException namingException = new NamingException(e.getMessage());
+            namingException.initCause(e);
+            throw namingException;
+        } catch (ExecutionException e) {
+            throw toNamingException(e.getCause());
+        }
+    }
+
+    private static NamingException toNamingException(Throwable cause) {
+        if (cause instanceof NamingException) {
+            return (NamingException) cause;
+        } else if (cause instanceof IOException) {
+            CommunicationException communicationException = new CommunicationException(cause.getMessage());
+            communicationException.initCause(cause);
+            return communicationException;
+        } else {
+            NamingException namingException = new NamingException();
+            namingException.initCause(cause);
+            return namingException;
+        }
+    }
+
+    /**
+     * Sends an operation that returns a value, without waiting for its response.
+     *
+     * @return the future that completes with the returned value, or with the failure of the operation
+     */
+    private CompletableFuture<Object> sendOperation(Name name, URI providerUri, HttpTargetContext targetContext, ClientRequest clientRequest,
+                                                    AuthenticationContext context, ClassLoader tccl) throws NamingException {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
         AuthenticationContextConfigurationClient client = CLIENT;
         final int defaultPort = providerUri.getScheme().equals(HTTPS_SCHEME) ? HTTPS_PORT : HTTP_PORT;
         final AuthenticationConfiguration authenticationConfiguration = client.getAuthenticationConfiguration(providerUri, context, defaultPort, "jndi", "jboss");
@@ -302,7 +473,6 @@ public class HttpRootContext extends AbstractContext {
             e2.initCause(e);
             throw e2;
         }
-        final ClassLoader tccl = getContextClassLoader();
         targetContext.sendRequest(clientRequest, sslContext, authenticationConfiguration, null, (input, response, closeable) -> {
             try {
                 if (response.getResponseCode() == StatusCodes.NO_CONTENT) {
@@ -318,7 +488,7 @@ public class HttpRootContext extends AbstractContext {
                     ClassLoader old = setContextClassLoader(tccl);
                     try {
                         final Unmarshaller unmarshaller = createUnmarshaller(providerUri, targetContext.getHttpMarshallerFactory(clientRequest));
-                        unmarshaller.start(new InputStreamByteInput(input));
+                        unmarshaller.start(Marshalling.createByteInput(input));
                         returned = unmarshaller.readObject();
                         // finish unmarshalling
                         if (unmarshaller.read() != -1) {
@@ -346,27 +516,7 @@ public class HttpRootContext extends AbstractContext {
                 IoUtils.safeClose(closeable);
             }
         }, result::completeExceptionally, VALUE, null, true);
-
-        try {
-            return result.get();
-        } catch (InterruptedException e) {
-            NamingException namingException = new NamingException(e.getMessage());
-            namingException.initCause(e);
-            throw namingException;
-        } catch (ExecutionException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof NamingException) {
-                throw (NamingException) cause;
-            } else if (cause instanceof IOException) {
-                CommunicationException communicationException = new CommunicationException(cause.getMessage());
-                communicationException.initCause(cause);
-                throw communicationException;
-            } else {
-                NamingException namingException = new NamingException();
-                namingException.initCause(cause);
-                throw namingException;
-            }
-        }
+        return result;
     }
 
 
@@ -19,6 +19,8 @@
 package org.wildfly.httpclient.naming;
 
 import java.util.Hashtable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import javax.naming.Binding;
 import javax.naming.Context;
@@ -131,10 +133,38 @@ public class SimpleNamingOperationTestCase {
 
     }
 
+    @Test
+    public void testAsyncLookup() throws Exception {
+        InitialContext ic = createContext();
+        ic.bind("async", "async binding");
+        HttpRootContext root = (HttpRootContext) ic.lookup("");
+        Assert.assertEquals("async binding", root.lookupAsync("async").toCompletableFuture().get(10, TimeUnit.SECONDS));
+        try {
+            root.lookupAsync("missing").toCompletableFuture().get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof NameNotFoundException);
+        }
+    }
+
+    @Test
+    public void testAsyncLookupIsRetried() throws Exception {
+        createContext().bind("retried", "retried binding");
+        // the lookup fails on the provider that is not listening, if it is tried first, and is retried on the other one
+        HttpRootContext root = (HttpRootContext) createContext("http://localhost:1/wildfly-services," + HTTPTestServer.getDefaultServerURL()).lookup("");
+        for (int i = 0; i < 4; ++i) {
+            Assert.assertEquals("retried binding", root.lookupAsync("retried").toCompletableFuture().get(10, TimeUnit.SECONDS));
+        }
+    }
+
     private InitialContext createContext() throws NamingException {
+        return createContext(HTTPTestServer.getDefaultServerURL());
+    }
+
+    private InitialContext createContext(String providerUrl) throws NamingException {
         Hashtable<String, String> env = new Hashtable<>();
         env.put(Context.INITIAL_CONTEXT_FACTORY, "org.wildfly.naming.client.WildFlyInitialContextFactory");
-        env.put(Context.PROVIDER_URL, HTTPTestServer.getDefaultServerURL());
+        env.put(Context.PROVIDER_URL, providerUrl);
         return new InitialContext(env);
     }
 
@@ -38,6 +38,7 @@ import javax.transaction.xa.Xid;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.wildfly.httpclient.common.Protocol.VERSION_PATH;
 import static org.wildfly.httpclient.transaction.TransactionConstants.EXCEPTION;
@@ -55,6 +56,8 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
 
     private final HttpTargetContext targetContext;
     private final AtomicInteger statusRef = new AtomicInteger(Status.STATUS_ACTIVE);
+    // held while waiting for the server, so it must not be a monitor that would pin a virtual thread
+    private final ReentrantLock statusLock = new ReentrantLock();
     private final Xid id;
     private final SSLContext sslContext;
     private final AuthenticationConfiguration authenticationConfiguration;
@@ -76,7 +79,8 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
         if (oldVal != Status.STATUS_ACTIVE && oldVal != Status.STATUS_MARKED_ROLLBACK) {
             throw HttpRemoteTransactionMessages.MESSAGES.invalidTxnState();
         }
-        synchronized (statusRef) {
+        statusLock.lock();
+        try {
             oldVal = statusRef.get();
             if (oldVal == Status.STATUS_MARKED_ROLLBACK) {
                 rollback();
@@ -111,7 +115,7 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
                 } finally {
                     IoUtils.safeClose(closable);
                 }
-            }, result::completeExceptionally, null, null);
+            }, result::completeExceptionally, null, null, false, true);
 
             try {
                 result.get();
@@ -139,6 +143,8 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
                     throw ex;
                 }
             }
+        } finally {
+            statusLock.unlock();
         }
     }
 
@@ -148,7 +154,8 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
         if (oldVal != Status.STATUS_ACTIVE && oldVal != Status.STATUS_MARKED_ROLLBACK) {
             throw HttpRemoteTransactionMessages.MESSAGES.invalidTxnState();
         }
-        synchronized (statusRef) {
+        statusLock.lock();
+        try {
             oldVal = statusRef.get();
             if (oldVal != Status.STATUS_ACTIVE && oldVal != Status.STATUS_MARKED_ROLLBACK) {
                 throw HttpRemoteTransactionMessages.MESSAGES.invalidTxnState();
@@ -181,7 +188,7 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
                 } finally {
                     IoUtils.safeClose(closeable);
                 }
-            }, result::completeExceptionally, null, null);
+            }, result::completeExceptionally, null, null, false, true);
 
             try {
                 result.get();
@@ -206,6 +213,8 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
                     throw ex;
                 }
             }
+        } finally {
+            statusLock.unlock();
         }
     }
 
@@ -217,7 +226,8 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
         } else if (oldVal != Status.STATUS_ACTIVE) {
             throw HttpRemoteTransactionMessages.MESSAGES.invalidTxnState();
         }
-        synchronized (statusRef) {
+        statusLock.lock();
+        try {
             // re-check under lock
             oldVal = statusRef.get();
             if (oldVal == Status.STATUS_MARKED_ROLLBACK) {
@@ -226,6 +236,8 @@ class HttpRemoteTransactionHandle implements SimpleTransactionControl {
                 throw HttpRemoteTransactionMessages.MESSAGES.invalidTxnState();
             }
             statusRef.set(Status.STATUS_MARKED_ROLLBACK);
+        } finally {
+            statusLock.unlock();
         }
     }
 
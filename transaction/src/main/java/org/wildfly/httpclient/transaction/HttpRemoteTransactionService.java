@@ -21,7 +21,6 @@ package org.wildfly.httpclient.transaction;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
-import io.undertow.server.handlers.BlockingHandler;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
 import io.undertow.util.StatusCodes;
@@ -36,6 +35,8 @@ import org.wildfly.httpclient.common.ElytronIdentityHandler;
 import org.wildfly.httpclient.common.HttpMarshallerFactory;
 import org.wildfly.httpclient.common.HttpServiceConfig;
 import org.wildfly.httpclient.common.NoFlushByteOutput;
+import org.wildfly.httpclient.common.ServerMetrics;
+import org.wildfly.httpclient.common.VirtualThreads;
 import org.wildfly.transaction.client.ImportResult;
 import org.wildfly.transaction.client.LocalTransaction;
 import org.wildfly.transaction.client.LocalTransactionContext;
@@ -85,16 +86,16 @@ public class HttpRemoteTransactionService {
 
     public HttpHandler createHandler() {
         RoutingHandler routingHandler = new RoutingHandler();
-        routingHandler.add(Methods.POST, UT_BEGIN_PATH, new BeginHandler());
-        routingHandler.add(Methods.POST, UT_ROLLBACK_PATH, new UTRollbackHandler());
-        routingHandler.add(Methods.POST, UT_COMMIT_PATH, new UTCommitHandler());
-        routingHandler.add(Methods.POST, XA_BC_PATH, new XABeforeCompletionHandler());
-        routingHandler.add(Methods.POST, XA_COMMIT_PATH, new XACommitHandler());
-        routingHandler.add(Methods.POST, XA_FORGET_PATH, new XAForgetHandler());
-        routingHandler.add(Methods.POST, XA_PREP_PATH, new XAPrepHandler());
-        routingHandler.add(Methods.POST, XA_ROLLBACK_PATH, new XARollbackHandler());
-        routingHandler.add(Methods.GET, XA_RECOVER_PATH, new XARecoveryHandler());
-        return httpServiceConfig.wrap(new BlockingHandler(new ElytronIdentityHandler(routingHandler)));
+        routingHandler.add(Methods.POST, UT_BEGIN_PATH, ServerMetrics.operation("txn" + UT_BEGIN_PATH, new BeginHandler()));
+        routingHandler.add(Methods.POST, UT_ROLLBACK_PATH, ServerMetrics.operation("txn" + UT_ROLLBACK_PATH, new UTRollbackHandler()));
+        routingHandler.add(Methods.POST, UT_COMMIT_PATH, ServerMetrics.operation("txn" + UT_COMMIT_PATH, new UTCommitHandler()));
+        routingHandler.add(Methods.POST, XA_BC_PATH, ServerMetrics.operation("txn" + XA_BC_PATH, new XABeforeCompletionHandler()));
+        routingHandler.add(Methods.POST, XA_COMMIT_PATH, ServerMetrics.operation("txn" + XA_COMMIT_PATH, new XACommitHandler()));
+        routingHandler.add(Methods.POST, XA_FORGET_PATH, ServerMetrics.operation("txn" + XA_FORGET_PATH, new XAForgetHandler()));
+        routingHandler.add(Methods.POST, XA_PREP_PATH, ServerMetrics.operation("txn" + XA_PREP_PATH, new XAPrepHandler()));
+        routingHandler.add(Methods.POST, XA_ROLLBACK_PATH, ServerMetrics.operation("txn" + XA_ROLLBACK_PATH, new XARollbackHandler()));
+        routingHandler.add(Methods.GET, XA_RECOVER_PATH, ServerMetrics.operation("txn" + XA_RECOVER_PATH, new XARecoveryHandler()));
+        return httpServiceConfig.wrap(VirtualThreads.blockingHandler(new ElytronIdentityHandler(routingHandler)));
     }
 
     abstract class AbstractTransactionHandler implements HttpHandler {
@@ -108,6 +109,7 @@ public class HttpRemoteTransactionService {
                 return;
             }
 
+            ServerMetrics.begin(exchange, ServerMetrics.Phase.UNMARSHAL);
             try {
                 HttpMarshallerFactory httpMarshallerFactory = httpServiceConfig.getHttpUnmarshallerFactory(exchange);
                 Unmarshaller unmarshaller = httpMarshallerFactory.createUnmarshaller();
@@ -121,6 +123,7 @@ public class HttpRemoteTransactionService {
                 unmarshaller.readFully(branchId);
                 SimpleXid simpleXid = new SimpleXid(formatId, globalId, branchId);
                 unmarshaller.finish();
+                ServerMetrics.begin(exchange, ServerMetrics.Phase.EXECUTE);
 
                 ImportResult<LocalTransaction> transaction = transactionContext.findOrImportTransaction(simpleXid, 0);
                 transaction.getTransaction().performFunction((ExceptionBiFunction<ImportResult<LocalTransaction>, HttpServerExchange, Void, Exception>) (o, exchange2) -> {
@@ -150,6 +153,7 @@ public class HttpRemoteTransactionService {
                 exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, NEW_TRANSACTION.toString());
                 final LocalTransaction transaction = transactionContext.beginTransaction(timeout);
                 final Xid xid = xidResolver.apply(transaction);
+                ServerMetrics.begin(exchange, ServerMetrics.Phase.MARSHAL);
                 final ByteArrayOutputStream out = new ByteArrayOutputStream();
                 Marshaller marshaller = httpServiceConfig.getHttpMarshallerFactory(exchange).createMarshaller();
                 marshaller.start(new NoFlushByteOutput(Marshalling.createByteOutput(out)));
@@ -186,6 +190,7 @@ public class HttpRemoteTransactionService {
                 }
 
                 final Xid[] recoveryList = transactionContext.getRecoveryInterface().recover(flags, parentName);
+                ServerMetrics.begin(exchange, ServerMetrics.Phase.MARSHAL);
                 final ByteArrayOutputStream out = new ByteArrayOutputStream();
                 Marshaller marshaller = httpServiceConfig.getHttpMarshallerFactory(exchange).createMarshaller();
                 marshaller.start(new NoFlushByteOutput(Marshalling.createByteOutput(out)));
@@ -268,6 +273,7 @@ public class HttpRemoteTransactionService {
     }
 
     private void internalSendException(HttpServerExchange exchange, int status, Throwable e) {
+        ServerMetrics.begin(exchange, ServerMetrics.Phase.MARSHAL);
         try {
             exchange.setStatusCode(status);
             exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, EXCEPTION.toString());
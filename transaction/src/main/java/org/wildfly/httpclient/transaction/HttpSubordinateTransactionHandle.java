@@ -135,7 +135,7 @@ class HttpSubordinateTransactionHandle implements SubordinateTransactionControl
             } finally {
                 IoUtils.safeClose(closeable);
             }
-        }, result::completeExceptionally, null, null);
+        }, result::completeExceptionally, null, null, false, true);
 
         try {
             try {